@@ -5,12 +5,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -21,6 +26,8 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 
+import bgu.spl.app.messages.AppMessageCodec;
+import bgu.spl.app.messages.TickBroadcast;
 import bgu.spl.app.passiveObjects.DiscountSchedule;
 import bgu.spl.app.passiveObjects.PurchaseSchedule;
 import bgu.spl.app.passiveObjects.ShoeStorageInfo;
@@ -30,7 +37,17 @@ import bgu.spl.app.services.SellingService;
 import bgu.spl.app.services.ShoeFactoryService;
 import bgu.spl.app.services.TimeService;
 import bgu.spl.app.services.WebsiteClientService;
+import bgu.spl.mics.EventLoopScheduler;
+import bgu.spl.mics.Message;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.RequestTimeout;
+import bgu.spl.mics.ServiceThreads;
+import bgu.spl.mics.impl.BusJournal;
+import bgu.spl.mics.impl.DispatchStrategy;
+import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.MessagePriority;
+import bgu.spl.mics.impl.OverflowPolicy;
  
 /**
 * Main class of the program which runs the whole simulated shoe store using the 
@@ -38,7 +55,10 @@ import bgu.spl.mics.MicroService;
 * {@link bgu.spl.mics.MicroService MicroServices}.
 * <p>
 * When started, it will receive as an argument the name of the json input file to 
-* read. The ShoeStoreRunner would read the input file (using {@link com.google.gson.Gson Gson} Library),
+* read, optionally followed by {@code --runtime=threads} (the default - a platform thread per micro-service),
+* {@code --runtime=virtual-threads} (a virtual thread per micro-service, on JDK 21 and later - see {@link ServiceThreads}) or
+* {@code --runtime=event-loop} (the micro-services, except for the TimeService, are run by an
+* {@link EventLoopScheduler} over a thread per available core). The ShoeStoreRunner would read the input file (using {@link com.google.gson.Gson Gson} Library),
 * then add the initial storage to the store and start the micro-services. 
 * <p>
 * When the current tick number is larger than the duration given to the TimeService in the input file, all 
@@ -46,7 +66,35 @@ import bgu.spl.mics.MicroService;
 * <p>
 * After all the micro-services terminate themselves, the ShoeStoreRunner will call the Store’s
 * print function and exit.
-* 
+* <p>
+* The "services" object of the input file may also contain a "dispatch" object, which maps the simple name
+* of a request class in {@code bgu.spl.app.messages} to the {@link DispatchStrategy} its requests are handed
+* out with ("round-robin", "least-queue-depth" or "power-of-two-choices"), e.g.
+* {@code "dispatch": {"PurchaseOrderRequest": "power-of-two-choices"}}.
+* <p>
+* Mailboxes are unbounded unless the "services" object contains a "mailbox" object, e.g.
+* {@code "mailbox": {"capacity": 1000, "policy": "block", "messages": {"PurchaseOrderRequest": 200}}},
+* which bounds the mailbox of every service (see {@link OverflowPolicy} for the policies) and, optionally, the
+* number of waiting messages up to which messages of some types are admitted. The "manager" object may have a
+* "mailbox" object of its own with a "capacity" and a "policy". The number of messages sent to full mailboxes is logged at the end.
+* The policy is "fail" if none (or an unknown one) is given, and "block" is rejected with {@code --runtime=event-loop},
+* where a blocked sender would hold up every service of its event-loop thread - including the one it waits for.
+* <p>
+* {@link TickBroadcast}s (like completions of requests) are taken from the mailboxes before other messages. The "services"
+* object may contain a "priorities" object mapping message types to "high", "normal" or "low", e.g.
+* {@code "priorities": {"NewDiscountBroadcast": "low"}} (see {@link MessagePriority}).
+* <p>
+* Requests wait until they are completed, unless the "services" object contains a "timeouts" object mapping request
+* types to a number of ticks or to a wall-clock time, e.g. {@code "timeouts": {"ManufacturingOrderRequest": 5, "RestockRequest": "500ms"}}
+* (see {@link RequestTimeout}).
+* <p>
+* With a {@code --metrics} argument, the latency of each message type (in the mailboxes, in the callbacks, and
+* the round-trip of requests) and the number of messages each service handled are measured, and logged after
+* the Store's print (see {@link bgu.spl.mics.impl.BusMetrics BusMetrics}).
+* <p>
+* With a {@code --journal=<directory>} argument, the messages passed by the message bus are recorded in a journal in the
+* given directory, which must not hold a journal yet (see {@link BusJournal}); the run can then be replayed by
+* {@link bgu.spl.mics.impl.JournalReplay JournalReplay}.
 *
 */
 public class ShoeStoreRunner {
@@ -60,12 +108,28 @@ public class ShoeStoreRunner {
     JsonReader jreader;
     JsonParser jparser = new JsonParser();
     JsonElement element;
+    String runtime = parseRuntime(args);
+    boolean metrics = Arrays.asList(args).contains("--metrics");
+    BusJournal journal = null;
+    EventLoopScheduler scheduler = null;
+    ThreadFactory threads = ServiceThreads.platform();
 
     (new File("Log")).mkdir(); // creates a Log folder if doesn't exist
     for(File file: new File("Log").listFiles()) file.delete(); // cleans the Log folder from the former run of the program
     System.setProperty("java.util.logging.SimpleFormatter.format","%4$s: %5$s [%1$tc]%n"); // reorders the log lines to make it easier to the eye
 
     initFileHandler();
+    MessageBusImpl.getInstance().getMetrics().setEnabled(metrics);
+    journal = openJournal(args);
+    MessageBusImpl.getInstance().setJournal(journal);
+    if (runtime.equals("event-loop"))
+      scheduler = new EventLoopScheduler(Runtime.getRuntime().availableProcessors());
+    else if (runtime.equals("virtual-threads")){
+      if (ServiceThreads.isVirtualSupported())
+        threads = ServiceThreads.virtual("service-");
+      else
+        LOGGER.warning("virtual threads require JDK 21 or later - using platform threads");
+    }
     jreader = openJsonReader(args);
     element = jparser.parse(jreader);
 
@@ -73,14 +137,67 @@ public class ShoeStoreRunner {
       JsonObject jobject = element.getAsJsonObject();
       Store store = Store.getInstance();
       parseInitialStorage(store, jobject);
-      CountDownLatch latchForEnding = parseServices(jobject);
+      CountDownLatch latchForEnding = parseServices(jobject, scheduler, threads);
       try{
         latchForEnding.await();
       }
       catch(InterruptedException e){
         e.printStackTrace();
       }
+      if (scheduler != null)
+        scheduler.shutdown();
+      if (journal != null)
+        closeJournal(journal);
       store.print();
+      if (MessageBusImpl.getInstance().getOverflows()>0)
+        LOGGER.warning(MessageBusImpl.getInstance().getOverflows()+" messages were sent to a full mailbox");
+      if (metrics)
+        LOGGER.info("message bus metrics:"+System.lineSeparator()+MessageBusImpl.getInstance().getMetrics().report());
+    }
+  }
+
+  // Finds the runtime requested by a --runtime argument: "threads" (the default), "virtual-threads" or "event-loop", and warns of unknown arguments
+  private static String parseRuntime(String[] args) {
+    String runtime = "threads";
+
+    for (int i = 1; i < args.length; i++){
+      if (args[i].equals("--runtime=threads") || args[i].equals("--runtime=virtual-threads") || args[i].equals("--runtime=event-loop"))
+        runtime = args[i].substring("--runtime=".length());
+      else if (!args[i].equals("--metrics") && !args[i].startsWith("--journal="))
+        LOGGER.warning("unknown argument: "+args[i]+" - supported arguments: --runtime=threads, --runtime=virtual-threads, --runtime=event-loop, --metrics, --journal=<directory>");
+    }
+    return runtime;
+  }
+
+  // Opens the journal requested by a --journal argument, or returns null if none was requested or it could not be opened
+  private static BusJournal openJournal(String[] args) {
+    for (int i = 1; i < args.length; i++){
+      if (!args[i].startsWith("--journal="))
+        continue;
+      try {
+        return new BusJournal(Paths.get(args[i].substring("--journal=".length())), new AppMessageCodec());
+      }
+      catch (IOException | IllegalStateException e) {
+        LOGGER.severe("the messages are not recorded: "+e.getLocalizedMessage());
+      }
+    }
+    return null;
+  }
+
+  // Stops recording the messages, and writes the rest of the journal
+  private static void closeJournal(BusJournal journal) {
+    MessageBusImpl.getInstance().setJournal(null);
+    try {
+      journal.close();
+      LOGGER.info(journal.getWritten()+" messages were recorded in "+journal.getDirectory());
+      if (journal.getDropped() > 0)
+        LOGGER.warning(journal.getDropped()+" messages were not recorded, since the journal fell behind");
+    }
+    catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+    catch (IOException e) {
+      LOGGER.severe(e.getMessage()+": "+e.getCause());
     }
   }
 
@@ -111,7 +228,7 @@ public class ShoeStoreRunner {
     return jreader;
   }
 
-  private static CountDownLatch parseServices(JsonObject jobject) {
+  private static CountDownLatch parseServices(JsonObject jobject, EventLoopScheduler scheduler, ThreadFactory threads) {
     JsonObject services = jobject.get("services").getAsJsonObject();
     JsonObject jTime = services.get("time").getAsJsonObject();
     JsonObject jManager = services.get("manager").getAsJsonObject();
@@ -135,14 +252,134 @@ public class ShoeStoreRunner {
 
     parseDiscounts(dischedule, jManager);
     parseCustomers(customers, jcustomers, latchForInit, latchForEnding);
+    if (services.has("dispatch"))
+      parseDispatchStrategies(services.get("dispatch").getAsJsonObject());
+    if (services.has("mailbox"))
+      parseMailboxLimits(services.get("mailbox").getAsJsonObject(), scheduler != null);
+    MessageBusImpl.getInstance().setMessagePriority(TickBroadcast.class, MessagePriority.HIGH); // ticks drive the services, and their termination
+    if (services.has("priorities"))
+      parseMessagePriorities(services.get("priorities").getAsJsonObject());
+    if (services.has("timeouts"))
+      parseRequestTimeouts(services.get("timeouts").getAsJsonObject());
 
     manager= new ManagementService(dischedule,latchForInit, latchForEnding);
+    if (jManager.has("mailbox")){
+      JsonObject jmailbox = jManager.get("mailbox").getAsJsonObject();
+      MessageBusImpl.getInstance().setMailboxLimit(manager, jmailbox.get("capacity").getAsInt(), parseOverflowPolicy(jmailbox, scheduler != null));
+    }
 
-    startStoreSimulation(factories, customers, latchForInit, latchForEnding, timer, manager, listOfSellers);
+    startStoreSimulation(factories, customers, latchForInit, latchForEnding, timer, manager, listOfSellers, scheduler, threads);
 
     return latchForEnding;
   }
 
+  @SuppressWarnings("unchecked")
+  static void parseDispatchStrategies(JsonObject jdispatch) {
+    for (Map.Entry<String, JsonElement> entry : jdispatch.entrySet()){
+      try{
+        Class<?> type = Class.forName("bgu.spl.app.messages."+entry.getKey());
+        DispatchStrategy strategy = DispatchStrategy.forName(entry.getValue().getAsString());
+
+        if (!Request.class.isAssignableFrom(type))
+          throw new IllegalArgumentException(entry.getKey()+" is not a request");
+        MessageBusImpl.getInstance().setDispatchStrategy((Class<? extends Request<?>>)type, strategy);
+        LOGGER.info(entry.getKey()+" requests will be dispatched by "+entry.getValue().getAsString());
+      }
+      catch (ClassNotFoundException e){
+        LOGGER.warning("unknown request type in dispatch: "+entry.getKey()+" - using round-robin");
+      }
+      catch (IllegalArgumentException e){
+        LOGGER.warning(e.getMessage()+" - using round-robin for "+entry.getKey());
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void parseRequestTimeouts(JsonObject jtimeouts) {
+    for (Map.Entry<String, JsonElement> entry : jtimeouts.entrySet()){
+      try{
+        Class<?> type = Class.forName("bgu.spl.app.messages."+entry.getKey());
+        String value = entry.getValue().getAsString();
+        RequestTimeout timeout = value.endsWith("ms") ? RequestTimeout.after(Long.parseLong(value.substring(0, value.length()-2).trim()), TimeUnit.MILLISECONDS)
+                                                      : RequestTimeout.ticks(Long.parseLong(value));
+
+        if (!Request.class.isAssignableFrom(type))
+          throw new IllegalArgumentException(entry.getKey()+" is not a request");
+        MessageBusImpl.getInstance().setRequestTimeout((Class<? extends Request<?>>)type, timeout);
+        LOGGER.info(entry.getKey()+" requests will time out after "+timeout);
+      }
+      catch (ClassNotFoundException e){
+        LOGGER.warning("unknown request type in timeouts: "+entry.getKey());
+      }
+      catch (IllegalArgumentException e){
+        LOGGER.warning(e.getMessage()+" - "+entry.getKey()+" requests will not time out");
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void parseMailboxLimits(JsonObject jmailbox, boolean eventLoop) {
+    MessageBusImpl bus = MessageBusImpl.getInstance();
+
+    if (jmailbox.has("capacity"))
+      bus.setDefaultMailboxLimit(jmailbox.get("capacity").getAsInt(), parseOverflowPolicy(jmailbox, eventLoop));
+    if (jmailbox.has("messages")){
+      for (Map.Entry<String, JsonElement> entry : jmailbox.get("messages").getAsJsonObject().entrySet()){
+        try{
+          Class<?> type = Class.forName("bgu.spl.app.messages."+entry.getKey());
+
+          if (!Message.class.isAssignableFrom(type))
+            throw new IllegalArgumentException(entry.getKey()+" is not a message");
+          bus.setMessageCapacity((Class<? extends Message>)type, entry.getValue().getAsInt());
+        }
+        catch (ClassNotFoundException e){
+          LOGGER.warning("unknown message type in mailbox: "+entry.getKey()+" - not bounded");
+        }
+        catch (IllegalArgumentException e){
+          LOGGER.warning(e.getMessage()+" - "+entry.getKey()+" is not bounded");
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void parseMessagePriorities(JsonObject jpriorities) {
+    for (Map.Entry<String, JsonElement> entry : jpriorities.entrySet()){
+      try{
+        Class<?> type = Class.forName("bgu.spl.app.messages."+entry.getKey());
+        MessagePriority priority = MessagePriority.forName(entry.getValue().getAsString());
+
+        if (!Message.class.isAssignableFrom(type))
+          throw new IllegalArgumentException(entry.getKey()+" is not a message");
+        MessageBusImpl.getInstance().setMessagePriority((Class<? extends Message>)type, priority);
+      }
+      catch (ClassNotFoundException e){
+        LOGGER.warning("unknown message type in priorities: "+entry.getKey());
+      }
+      catch (IllegalArgumentException e){
+        LOGGER.warning(e.getMessage()+" - the priority of "+entry.getKey()+" is not changed");
+      }
+    }
+  }
+
+  // Finds the overflow policy of @jmailbox, "fail" if it has none or an unknown one. Exits if it is "block" and the services are run by event loops (@eventLoop)
+  private static OverflowPolicy parseOverflowPolicy(JsonObject jmailbox, boolean eventLoop) {
+    OverflowPolicy policy = OverflowPolicy.FAIL;
+
+    try{
+      if (jmailbox.has("policy"))
+        policy = OverflowPolicy.forName(jmailbox.get("policy").getAsString());
+    }
+    catch (IllegalArgumentException e){
+      LOGGER.warning(e.getMessage()+" - using fail");
+    }
+    if (policy == OverflowPolicy.BLOCK && eventLoop){
+      LOGGER.severe("the block overflow policy can not be used with --runtime=event-loop: a sender blocked on a full mailbox would stall its event-loop thread, and the service it waits for may be run by that thread. Use fail or drop-oldest-broadcast. \nSYSTEM IS SHUTTING DOWN!");
+      System.exit(1);
+    }
+    return policy;
+  }
+
   private static List<MicroService> parseSellers(int sellers, CountDownLatch latchForInit, CountDownLatch latchForEnding) {
     List<MicroService> listOfSellers = new ArrayList<MicroService>();
 
@@ -163,32 +400,36 @@ public class ShoeStoreRunner {
 
   private static void startStoreSimulation(int factories, List<WebsiteClientService> customers,
                                            CountDownLatch latchForInit, CountDownLatch latchForEnding, MicroService timer, MicroService manager,
-                                           List<MicroService> listOfSellers)
+                                           List<MicroService> listOfSellers, EventLoopScheduler scheduler, ThreadFactory threads)
   {
 
-    Thread timerT = new Thread(timer);
-    Thread managerT= new Thread(manager);
+    Thread timerT = threads.newThread(timer); // the TimeService waits for the others to initialize, so it always has its own thread
 
     timerT.start();
 
     for (int i = 0; i < customers.size(); i++){
-      Thread customerT= new Thread(customers.get(i));
-      customerT.start();
+      start(customers.get(i), scheduler, threads);
     }
 
     for (int i = 0; i < listOfSellers.size(); i++){
-      Thread sellerT= new Thread(listOfSellers.get(i));
-      sellerT.start();
+      start(listOfSellers.get(i), scheduler, threads);
     }
 
-    managerT.start();
+    start(manager, scheduler, threads);
 
     for (int i = 0; i < factories; i++){
-      Thread factoryT = new Thread(new ShoeFactoryService("Factory "+ (i+1),latchForInit, latchForEnding));
-      factoryT.start();
+      start(new ShoeFactoryService("Factory "+ (i+1),latchForInit, latchForEnding), scheduler, threads);
     }
   }
 
+  // Runs @service by @scheduler if there is one, otherwise on a thread of its own
+  private static void start(MicroService service, EventLoopScheduler scheduler, ThreadFactory threads) {
+    if (scheduler == null)
+      threads.newThread(service).start();
+    else
+      scheduler.start(service);
+  }
+
   private static void parseCustomers(List<WebsiteClientService> customers, JsonArray jcustomers, CountDownLatch latchForInit, CountDownLatch latchForEnding) {
     for (JsonElement customer : jcustomers){
       JsonArray purchaseschedule;
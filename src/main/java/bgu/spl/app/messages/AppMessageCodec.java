@@ -0,0 +1,201 @@
+package bgu.spl.app.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import bgu.spl.app.passiveObjects.Receipt;
+import bgu.spl.app.passiveObjects.Sale;
+import bgu.spl.mics.remote.MessageCodec;
+
+/**
+* Encodes the messages of the store, and the results of its requests ({@link Receipt}s, {@link Sale}s and booleans), for the
+* micro-services which run in different processes (see {@link bgu.spl.mics.remote.RemoteBridge}).
+* <p>
+* A value is its tag, as a single byte, followed by its fields in the order of its constructor: ints as 4 bytes,
+* booleans as a byte, and strings as a 2 bytes length (-1 for null) followed by their UTF-8 bytes. A {@link RestockRequest} carries the {@link PurchaseOrderRequest} which caused it as a nested value,
+* and a {@link Sale} carries the number of its receipts followed by the receipts, as nested values.
+*/
+public class AppMessageCodec implements MessageCodec {
+
+  private static final byte NULL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte RECEIPT = 3;
+  private static final byte SALE = 4;
+  private static final byte TICK = 10;
+  private static final byte NEW_DISCOUNT = 11;
+  private static final byte TIME_SERVICE_CLOCK = 12;
+  private static final byte PURCHASE_ORDER = 20;
+  private static final byte RESTOCK = 21;
+  private static final byte MANUFACTURING_ORDER = 22;
+
+  @Override
+  public short tagOf(Class<?> type){
+    if (type==Boolean.class)
+      return TRUE;
+    if (type==Receipt.class)
+      return RECEIPT;
+    if (type==Sale.class)
+      return SALE;
+    if (type==TickBroadcast.class)
+      return TICK;
+    if (type==NewDiscountBroadcast.class)
+      return NEW_DISCOUNT;
+    if (type==TimeServiceClock.class)
+      return TIME_SERVICE_CLOCK;
+    if (type==PurchaseOrderRequest.class)
+      return PURCHASE_ORDER;
+    if (type==RestockRequest.class)
+      return RESTOCK;
+    if (type==ManufacturingOrderRequest.class)
+      return MANUFACTURING_ORDER;
+    return -1;
+  }
+
+  @Override
+  public void encode(Object value, ByteBuffer out){
+    if (value==null)
+      out.put(NULL);
+    else if (value instanceof Boolean)
+      out.put((Boolean)value? TRUE: FALSE);
+    else if (value instanceof Receipt){
+      Receipt receipt=(Receipt)value;
+
+      out.put(RECEIPT);
+      putString(out, receipt.getSeller());
+      putString(out, receipt.getCustomer());
+      putString(out, receipt.getShoeType());
+      putBoolean(out, receipt.getDiscount());
+      out.putInt(receipt.getIssuedTick()).putInt(receipt.getRequestTick()).putInt(receipt.getAmountSold());
+    }
+    else if (value instanceof Sale){
+      List<Receipt> receipts=((Sale)value).getReceipts();
+
+      out.put(SALE);
+      out.putInt(receipts.size());
+      for (Receipt receipt: receipts)
+        encode(receipt, out);
+    }
+    else if (value instanceof TickBroadcast){
+      TickBroadcast tick=(TickBroadcast)value;
+
+      out.put(TICK);
+      putString(out, tick.getSenderId());
+      out.putInt(tick.getCurrentTick()).putInt(tick.getDuration());
+    }
+    else if (value instanceof NewDiscountBroadcast){
+      NewDiscountBroadcast discount=(NewDiscountBroadcast)value;
+
+      out.put(NEW_DISCOUNT);
+      putString(out, discount.getSenderId());
+      putString(out, discount.getshoeType());
+      out.putInt(discount.getAomunt());
+    }
+    else if (value instanceof TimeServiceClock)
+      out.put(TIME_SERVICE_CLOCK);
+    else if (value instanceof PurchaseOrderRequest){
+      PurchaseOrderRequest order=(PurchaseOrderRequest)value;
+
+      out.put(PURCHASE_ORDER);
+      putString(out, order.getSenderName());
+      putString(out, order.getShoeRequested());
+      putBoolean(out, order.getDiscount());
+      out.putInt(order.getRequestTick()).putInt(order.getAmountWanted());
+    }
+    else if (value instanceof RestockRequest){
+      RestockRequest restock=(RestockRequest)value;
+
+      out.put(RESTOCK);
+      out.putInt(restock.getId());
+      putString(out, restock.getShoeNeeded());
+      out.putInt(restock.getAmountNeeded());
+      encode(restock.getPurchaseOrderRequest(), out);
+    }
+    else if (value instanceof ManufacturingOrderRequest){
+      ManufacturingOrderRequest order=(ManufacturingOrderRequest)value;
+
+      out.put(MANUFACTURING_ORDER);
+      putString(out, order.getSenderName());
+      putString(out, order.getShoeType());
+      out.putInt(order.getAmountNeeded()).putInt(order.getRequestedTick());
+    }
+    else
+      throw new IllegalArgumentException("no encoding of "+value.getClass().getName());
+  }
+
+  @Override
+  public Object decode(ByteBuffer in){
+    byte tag=in.get();
+
+    switch (tag){
+    case NULL:
+      return null;
+    case TRUE:
+      return Boolean.TRUE;
+    case FALSE:
+      return Boolean.FALSE;
+    case RECEIPT:
+      return new Receipt(getString(in), getString(in), getString(in), getBoolean(in), in.getInt(), in.getInt(), in.getInt());
+    case SALE:
+      return decodeSale(in);
+    case TICK:
+      return new TickBroadcast(getString(in), in.getInt(), in.getInt());
+    case NEW_DISCOUNT:
+      return new NewDiscountBroadcast(getString(in), getString(in), in.getInt());
+    case TIME_SERVICE_CLOCK:
+      return new TimeServiceClock();
+    case PURCHASE_ORDER:
+      return new PurchaseOrderRequest(getString(in), getString(in), getBoolean(in), in.getInt(), in.getInt());
+    case RESTOCK:
+      return new RestockRequest(in.getInt(), getString(in), in.getInt(), (PurchaseOrderRequest)decode(in));
+    case MANUFACTURING_ORDER:
+      return new ManufacturingOrderRequest(getString(in), getString(in), in.getInt(), in.getInt());
+    default:
+      throw new IllegalArgumentException("unknown tag "+tag);
+    }
+  }
+
+  private static void putBoolean(ByteBuffer out, boolean value){
+    out.put(value? TRUE: FALSE);
+  }
+
+  private static boolean getBoolean(ByteBuffer in){
+    return in.get()==TRUE;
+  }
+
+  private Sale decodeSale(ByteBuffer in){
+    int count=in.getInt();
+    List<Receipt> receipts=new ArrayList<Receipt>(count);
+
+    for (int i=0; i<count; ++i)
+      receipts.add((Receipt)decode(in));
+    return new Sale(receipts);
+  }
+
+  private static void putString(ByteBuffer out, String value){
+    byte[] bytes;
+
+    if (value==null){
+      out.putShort((short)-1);
+      return;
+    }
+    bytes=value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length>Short.MAX_VALUE)
+      throw new IllegalArgumentException("a string is at most "+Short.MAX_VALUE+" bytes");
+    out.putShort((short)bytes.length).put(bytes);
+  }
+
+  private static String getString(ByteBuffer in){
+    short length=in.getShort();
+    byte[] bytes;
+
+    if (length<0)
+      return null;
+    bytes=new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
@@ -1,7 +1,7 @@
 package bgu.spl.app.messages;
 
 import bgu.spl.app.passiveObjects.Receipt;
-import bgu.spl.mics.Request;
+import bgu.spl.mics.AbstractRequest;
 
 /**
 * A request that is sent when the the store manager decides that a
@@ -10,7 +10,7 @@ If the manufacture was not completed successfully null will be returned as the
 request result.
 */
 
-public class ManufacturingOrderRequest implements Request<Receipt>{
+public class ManufacturingOrderRequest extends AbstractRequest<Receipt>{
 	
   /**
   * String- name of the sender
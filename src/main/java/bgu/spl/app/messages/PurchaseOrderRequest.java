@@ -1,14 +1,14 @@
 package bgu.spl.app.messages;
 
-import bgu.spl.app.passiveObjects.Receipt;
-import bgu.spl.mics.Request;
+import bgu.spl.app.passiveObjects.Sale;
+import bgu.spl.mics.AbstractRequest;
 
 /**
 * a request that is sent when the a store client wish to buy a shoe.
-Its response type expected to be a Receipt.  
+Its response type expected to be a Sale - the receipts of the units sold at discount and at regular price.
 In the case the purchase was not completed successfully null will be returned as the request result.
 */
-public class PurchaseOrderRequest implements Request<Receipt>{
+public class PurchaseOrderRequest extends AbstractRequest<Sale>{
 	
   /**
   * String- name of the sender
@@ -1,12 +1,12 @@
 package bgu.spl.app.messages;
 
-import bgu.spl.mics.Request;
+import bgu.spl.mics.AbstractRequest;
 
 /**
  * A request that is sent by the selling service to the store manager so that he
 will know that he needs to order new shoes from a factory.
  */
-public class RestockRequest implements Request<Boolean>{
+public class RestockRequest extends AbstractRequest<Boolean>{
 	
   /**
   * int- the id of the sender of this message
@@ -0,0 +1,116 @@
+package bgu.spl.app.passiveObjects;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a {@link Store#checkout(java.util.Map, boolean, Store.FillPolicy) checkout}: the units of each shoe type
+ * of the order which were taken, at discount and at regular price.
+ */
+
+public class Checkout {
+
+  /**
+  * The units taken of a single shoe type of the order
+  */
+  public static class Line {
+
+    /**
+    * String - the shoe type
+    */
+    private final String fShoeType;
+    /**
+    * int - the number of units ordered
+    */
+    private final int fAmountWanted;
+    /**
+    * int - the number of units taken at a discounted price
+    */
+    private final int fDiscounted;
+    /**
+    * int - the number of units taken at regular price
+    */
+    private final int fRegular;
+
+
+    Line(String shoeType, int amountWanted, int discounted, int regular){
+      this.fShoeType=shoeType;
+      this.fAmountWanted=amountWanted;
+      this.fDiscounted=discounted;
+      this.fRegular=regular;
+    }
+
+
+    public String getShoeType(){
+      return this.fShoeType;
+    }
+
+    public int getAmountWanted(){
+      return this.fAmountWanted;
+    }
+
+    public int getDiscounted(){
+      return this.fDiscounted;
+    }
+
+    public int getRegular(){
+      return this.fRegular;
+    }
+
+    public int getTaken(){
+      return this.fDiscounted+this.fRegular;
+    }
+
+    /**
+    * @return true if all the units ordered were taken
+    */
+    public boolean isFilled(){
+      return getTaken()==this.fAmountWanted;
+    }
+  }
+
+  /**
+  * List - the lines of the order, in the order of the shoe types given
+  */
+  private final List<Line> fLines;
+
+
+  Checkout(List<Line> lines){
+    this.fLines=Collections.unmodifiableList(lines);
+  }
+
+
+  public List<Line> getLines(){
+    return this.fLines;
+  }
+
+  /**
+  * @return the line of a single shoe type order
+  */
+  public Line getLine(){
+    return this.fLines.get(0);
+  }
+
+  /**
+  * @return true if all the units ordered of every shoe type were taken
+  */
+  public boolean isFilled(){
+    for (Line line: this.fLines){
+      if (!line.isFilled())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+  * @return the number of units taken of all the shoe types
+  */
+  public int getTaken(){
+    int taken=0;
+
+    for (Line line: this.fLines)
+      taken+=line.getTaken();
+    return taken;
+  }
+
+}
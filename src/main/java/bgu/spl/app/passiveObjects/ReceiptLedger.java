@@ -0,0 +1,379 @@
+package bgu.spl.app.passiveObjects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* The receipts filed to the store, kept by columns of primitive arrays rather than as {@link Receipt} objects: the
+* names of the sellers, customers and shoe types are replaced by ints through a dictionary of each, and a receipt is
+* packed in a single long, kept with an int of the order it was filed in - 12 bytes in all. The issued tick is packed
+* as the difference from the receipt filed before it by the same thread, and the request tick as the difference from
+* the issued tick. A receipt whose fields do not fit in a long (a name among too many, a large amount, a long wait) is
+* kept by a column per field instead.
+* <p>
+* Every thread appends to a ledger of its own, made of chunks of {@link #CHUNK} receipts, so filing takes no lock (only
+* a name which was never filed before is added to its dictionary under a lock, and the order of the receipt is taken
+* from a counter). The receipts are read back by a streaming iterator, which creates a Receipt object for each in turn.
+* <p>
+* The iterator merges the ledgers of the threads by the order their receipts were filed in, so the receipts come in
+* the order they were filed to the store (a receipt being filed as the iterator reads may be read after the receipts
+* filed after it, or not at all).
+*/
+
+final class ReceiptLedger {
+
+  /**
+  * The number of receipts in a chunk
+  */
+  private static final int CHUNK = 1024;
+  /**
+  * The number of receipts in a chunk of receipts which do not fit in a long, which are few
+  */
+  private static final int WIDE_CHUNK = 64;
+
+  /**
+  * The bits of the fields of a packed receipt, from the lowest: the discount flag, the amount sold, the wait (the
+  * issued tick less the request tick), the issued tick less that of the previous receipt of the chunk (signed), and
+  * the ints of the shoe type, the customer and the seller (each one more than its int, 0 standing for null)
+  */
+  private static final int AMOUNT_BITS = 7;
+  private static final int WAIT_BITS = 10;
+  private static final int TICK_BITS = 12;
+  private static final int SHOE_TYPE_BITS = 10;
+  private static final int CUSTOMER_BITS = 16;
+  private static final int SELLER_BITS = 8;
+  private static final int AMOUNT_SHIFT = 1;
+  private static final int WAIT_SHIFT = AMOUNT_SHIFT+AMOUNT_BITS;
+  private static final int TICK_SHIFT = WAIT_SHIFT+WAIT_BITS;
+  private static final int SHOE_TYPE_SHIFT = TICK_SHIFT+TICK_BITS;
+  private static final int CUSTOMER_SHIFT = SHOE_TYPE_SHIFT+SHOE_TYPE_BITS;
+  private static final int SELLER_SHIFT = CUSTOMER_SHIFT+CUSTOMER_BITS;
+
+  /**
+  * Dictionary - the names of the sellers, the customers and the shoe types
+  */
+  private final Dictionary fSellers=new Dictionary();
+  private final Dictionary fCustomers=new Dictionary();
+  private final Dictionary fShoeTypes=new Dictionary();
+  /**
+  * AtomicLong - the number of receipts filed so far, which gives each receipt the order it was filed in
+  */
+  private final AtomicLong fFiled=new AtomicLong();
+  /**
+  * ConcurrentLinkedQueue - the first chunks of the ledgers of the threads which filed receipts (two ledgers per
+  * thread, of packed receipts and of the others)
+  */
+  private final ConcurrentLinkedQueue<Chunk> fLedgers=new ConcurrentLinkedQueue<Chunk>();
+  /**
+  * ThreadLocal - the last chunks of the ledgers of each thread
+  */
+  private final ThreadLocal<Tails> fTails=ThreadLocal.withInitial(Tails::new);
+
+
+  /**
+  * Files a receipt, in the ledger of the calling thread.
+  * @param receipt the receipt to file
+  */
+  void file(Receipt receipt){
+    Tails tails=this.fTails.get();
+    int order=(int)this.fFiled.getAndIncrement();
+    int seller=this.fSellers.idOf(receipt.getSeller())+1;
+    int customer=this.fCustomers.idOf(receipt.getCustomer())+1;
+    int shoeType=this.fShoeTypes.idOf(receipt.getShoeType())+1;
+    int issuedTick=receipt.getIssuedTick();
+    int wait=issuedTick-receipt.getRequestTick();
+    int amount=receipt.getAmountSold();
+    PackedChunk packed=tails.fPacked;
+    WideChunk wide=tails.fWide;
+    int row;
+
+    if (seller<1<<SELLER_BITS && customer<1<<CUSTOMER_BITS && shoeType<1<<SHOE_TYPE_BITS && fits(amount, AMOUNT_BITS) &&
+        fits(wait, WAIT_BITS)){
+      if (packed==null || packed.fSize==CHUNK || !fitsSigned(issuedTick-tails.fLastTick, TICK_BITS)){
+        packed=append(packed, new PackedChunk(issuedTick));
+        tails.fPacked=packed;
+        tails.fLastTick=issuedTick;
+      }
+      row=packed.fSize;
+      packed.fRows[row]=pack(seller, customer, shoeType, receipt.getDiscount(), amount, wait, issuedTick-tails.fLastTick);
+      packed.fOrders[row]=order;
+      tails.fLastTick=issuedTick;
+      packed.fSize=row+1; // publishes the receipt to the readers
+      return;
+    }
+    if (wide==null || wide.fSize==WIDE_CHUNK){
+      wide=append(wide, new WideChunk());
+      tails.fWide=wide;
+    }
+    row=wide.fSize;
+    wide.fSellers[row]=seller;
+    wide.fCustomers[row]=customer;
+    wide.fShoeTypes[row]=shoeType;
+    wide.fDiscounts[row]=receipt.getDiscount();
+    wide.fIssuedTicks[row]=issuedTick;
+    wide.fRequestTicks[row]=receipt.getRequestTick();
+    wide.fAmountsSold[row]=amount;
+    wide.fOrders[row]=order;
+    wide.fSize=row+1;
+  }
+
+  /**
+  * @return an iterator over the receipts filed so far, in the order they were filed
+  */
+  Iterator<Receipt> iterator(){
+    return new Merge();
+  }
+
+  // Links @next after @tail, the last chunk of a ledger of the calling thread, or starts a ledger with @next if @tail is null
+  private <C extends Chunk> C append(C tail, C next){
+    if (tail==null)
+      this.fLedgers.add(next);
+    else
+      tail.fNext=next;
+    return next;
+  }
+
+  // @return true if @value is not negative and is less than 2^@bits
+  private static boolean fits(int value, int bits){
+    return value>=0 && value<1<<bits;
+  }
+
+  // @return true if @value is a signed number of @bits bits
+  private static boolean fitsSigned(int value, int bits){
+    return value>=-(1<<(bits-1)) && value<1<<(bits-1);
+  }
+
+  // Packs the fields of a receipt (see the fields *_BITS)
+  private static long pack(int seller, int customer, int shoeType, boolean discount, int amount, int wait, int tickDelta){
+    return (long)seller<<SELLER_SHIFT | (long)customer<<CUSTOMER_SHIFT | (long)shoeType<<SHOE_TYPE_SHIFT |
+           (long)(tickDelta&((1<<TICK_BITS)-1))<<TICK_SHIFT | (long)wait<<WAIT_SHIFT | amount<<AMOUNT_SHIFT | (discount? 1: 0);
+  }
+
+  // @return the field of @bits bits at @shift of the packed receipt @row
+  private static int field(long row, int shift, int bits){
+    return (int)(row>>>shift)&((1<<bits)-1);
+  }
+
+  /**
+  * Names by ints, in the order they were first filed
+  */
+  private static final class Dictionary {
+
+    /**
+    * ConcurrentHashMap - the names filed so far, each mapped with its int (its index in fNames)
+    */
+    private final ConcurrentHashMap<String, Integer> fIds=new ConcurrentHashMap<String, Integer>();
+    /**
+    * String[] - the names filed so far, by their ints. Replaced as it grows (under the lock of fIds).
+    */
+    private volatile String[] fNames=new String[64];
+    /**
+    * int - the number of names filed so far (guarded by the lock of fIds)
+    */
+    private int fCount;
+
+    // Finds the int of @name, adding it to the dictionary if it was never filed before
+    // @return the int, or -1 if @name is null
+    int idOf(String name){
+      Integer id;
+      String[] names;
+
+      if (name==null)
+        return -1;
+      id=this.fIds.get(name);
+      if (id!=null)
+        return id;
+      synchronized(this.fIds){
+        id=this.fIds.get(name);
+        if (id!=null)
+          return id;
+        names=this.fNames;
+        if (this.fCount==names.length)
+          names=Arrays.copyOf(names, 2*names.length);
+        names[this.fCount]=name;
+        this.fNames=names;
+        this.fIds.put(name, this.fCount);
+        return this.fCount++;
+      }
+    }
+
+    // @return the name of @id plus one (as the ledger keeps it), null for 0
+    String nameOf(int id){
+      return id==0? null: this.fNames[id-1];
+    }
+  }
+
+  /**
+  * The last chunks of the ledgers of a thread (used only by the thread)
+  */
+  private static final class Tails {
+
+    private PackedChunk fPacked;
+    private WideChunk fWide;
+    /**
+    * int - the issued tick of the last packed receipt
+    */
+    private int fLastTick;
+  }
+
+  /**
+  * A chunk of a ledger of a thread
+  */
+  private abstract static class Chunk {
+
+    /**
+    * int[] - the order each receipt was filed in (the low bits of it, compared by their difference)
+    */
+    final int[] fOrders;
+    /**
+    * int - the number of receipts in the chunk, written after each receipt
+    */
+    volatile int fSize;
+    /**
+    * Chunk - the next chunk of the same ledger, once no more receipts are added to this one
+    */
+    volatile Chunk fNext;
+
+    Chunk(int capacity){
+      this.fOrders=new int[capacity];
+    }
+  }
+
+  /**
+  * A chunk of packed receipts, each in a long
+  */
+  private static final class PackedChunk extends Chunk {
+
+    private final long[] fRows=new long[CHUNK];
+    /**
+    * int - the issued tick of the first receipt, from which those of the others are found
+    */
+    private final int fFirstTick;
+
+    PackedChunk(int firstTick){
+      super(CHUNK);
+      this.fFirstTick=firstTick;
+    }
+  }
+
+  /**
+  * A chunk of receipts which do not fit in a long: a column per field of the receipts
+  */
+  private static final class WideChunk extends Chunk {
+
+    private final int[] fSellers=new int[WIDE_CHUNK];
+    private final int[] fCustomers=new int[WIDE_CHUNK];
+    private final int[] fShoeTypes=new int[WIDE_CHUNK];
+    private final boolean[] fDiscounts=new boolean[WIDE_CHUNK];
+    private final int[] fIssuedTicks=new int[WIDE_CHUNK];
+    private final int[] fRequestTicks=new int[WIDE_CHUNK];
+    private final int[] fAmountsSold=new int[WIDE_CHUNK];
+
+    WideChunk(){
+      super(WIDE_CHUNK);
+    }
+  }
+
+  /**
+  * Reads a ledger of a thread
+  */
+  private final class Cursor {
+
+    private Chunk fChunk;
+    private int fRow;
+    /**
+    * int - the issued tick of the previous packed receipt of the chunk
+    */
+    private int fTick;
+
+    Cursor(Chunk first){
+      enter(first);
+    }
+
+    // @return true if the cursor is at a receipt, moving to the next chunk if this one was read up to its end
+    boolean hasReceipt(){
+      Chunk next=this.fChunk.fNext; // read first - the size of a chunk is final once it has a next one
+
+      if (next!=null && this.fRow==this.fChunk.fSize)
+        enter(next);
+      return this.fRow<this.fChunk.fSize;
+    }
+
+    int order(){
+      return this.fChunk.fOrders[this.fRow];
+    }
+
+    // Creates the receipt the cursor is at, and moves to the next
+    Receipt receipt(){
+      int row=this.fRow++;
+      PackedChunk packed;
+      WideChunk wide;
+      long fields;
+      int issuedTick;
+
+      if (this.fChunk instanceof WideChunk){
+        wide=(WideChunk)this.fChunk;
+        return new Receipt(ReceiptLedger.this.fSellers.nameOf(wide.fSellers[row]), ReceiptLedger.this.fCustomers.nameOf(wide.fCustomers[row]),
+                           ReceiptLedger.this.fShoeTypes.nameOf(wide.fShoeTypes[row]),
+                           wide.fDiscounts[row], wide.fIssuedTicks[row], wide.fRequestTicks[row], wide.fAmountsSold[row]);
+      }
+      packed=(PackedChunk)this.fChunk;
+      fields=packed.fRows[row];
+      issuedTick=this.fTick+(field(fields, TICK_SHIFT, TICK_BITS)<<(32-TICK_BITS)>>(32-TICK_BITS)); // sign-extended
+      this.fTick=issuedTick;
+      return new Receipt(ReceiptLedger.this.fSellers.nameOf(field(fields, SELLER_SHIFT, SELLER_BITS)),
+                         ReceiptLedger.this.fCustomers.nameOf(field(fields, CUSTOMER_SHIFT, CUSTOMER_BITS)),
+                         ReceiptLedger.this.fShoeTypes.nameOf(field(fields, SHOE_TYPE_SHIFT, SHOE_TYPE_BITS)), (fields&1)!=0, issuedTick,
+                         issuedTick-field(fields, WAIT_SHIFT, WAIT_BITS), field(fields, AMOUNT_SHIFT, AMOUNT_BITS));
+    }
+
+    private void enter(Chunk chunk){
+      this.fChunk=chunk;
+      this.fRow=0;
+      if (chunk instanceof PackedChunk)
+        this.fTick=((PackedChunk)chunk).fFirstTick;
+    }
+  }
+
+  /**
+  * Merges the ledgers of the threads by the order their receipts were filed in
+  */
+  private final class Merge implements Iterator<Receipt> {
+
+    private final List<Cursor> fCursors=new ArrayList<Cursor>();
+
+    Merge(){
+      for (Chunk first: ReceiptLedger.this.fLedgers)
+        this.fCursors.add(new Cursor(first));
+    }
+
+    @Override
+    public boolean hasNext(){
+      for (Cursor cursor: this.fCursors){
+        if (cursor.hasReceipt())
+          return true;
+      }
+      return false;
+    }
+
+    @Override
+    public Receipt next(){
+      Cursor next=null;
+
+      for (Cursor cursor: this.fCursors){
+        if (cursor.hasReceipt() && (next==null || cursor.order()-next.order()<0))
+          next=cursor;
+      }
+      if (next==null)
+        throw new NoSuchElementException();
+      return next.receipt();
+    }
+  }
+
+}
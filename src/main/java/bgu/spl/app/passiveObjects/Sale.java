@@ -0,0 +1,39 @@
+package bgu.spl.app.passiveObjects;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+* The result of a purchase order: the receipts filed for it. The units sold at discount and the units sold at regular
+* price have a receipt each, so a sale of both has two receipts.
+*/
+
+public class Sale {
+
+  /**
+  * List - the receipts of the sale, the discount one first
+  */
+  private final List<Receipt> fReceipts;
+
+
+  public Sale(List<Receipt> receipts){
+    this.fReceipts=Collections.unmodifiableList(receipts);
+  }
+
+
+  public List<Receipt> getReceipts(){
+    return this.fReceipts;
+  }
+
+  /**
+  * @return the number of units sold, at any price
+  */
+  public int getAmountSold(){
+    int sold=0;
+
+    for (Receipt receipt: this.fReceipts)
+      sold+=receipt.getAmountSold();
+    return sold;
+  }
+
+}
@@ -1,29 +1,41 @@
 package bgu.spl.app.passiveObjects;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.spl.app.passiveObjects.Store.BuyResult;
+
 /**
  * An object which represents information about a single type of shoe in the store.
+ * <p>
+ * The number of units in the storage and the number of them on discount are packed in a single atomic word (the
+ * former in its high 32 bits), so the store updates both at once by compare-and-swap loops, without locks.
+ * <p>
+ * A basket checkout, which takes several shoe types at once, holds them by setting a bit of their words (see
+ * {@link #hold()}); the other updates of a held shoe type wait until the checkout releases it, so no one sees the
+ * basket half taken.
  */
 
 public class ShoeStorageInfo {
-	
+
   /**
   * String - the type of the shoe
   */
   private final String fShoeType;
   /**
-  * int - the number of fShoeType units in the storage
+  * long - the number of fShoeType units in the storage (high 32 bits), and the number of them that are on discount
+  * price (low 32 bits)
   */
-  private int fAmountOnStorage;
+  private final AtomicLong fAmounts;
   /**
-  * int - the number of fShoeType units in the storage that are on discount price
+  * Set in fAmounts while a basket checkout holds this shoe type (the highest bit of the number of units, which is never
+  * negative)
   */
-  private int fDiscountedAmount;
+  private static final long HELD=1L<<63;
 
 
   public ShoeStorageInfo(String shoeType, int amountOnStorage, int discountedAmount){
     this.fShoeType=shoeType;
-    this.fAmountOnStorage=amountOnStorage;
-    this.fDiscountedAmount=discountedAmount;
+    this.fAmounts=new AtomicLong(pack(amountOnStorage, discountedAmount));
   }
 
 
@@ -32,19 +44,169 @@ public class ShoeStorageInfo {
   }
 
   public int getAmountOnStorage (){
-    return this.fAmountOnStorage;
+    return amountOf(this.fAmounts.get());
   }
 
   public int getDiscountedAmount (){
-    return this.fDiscountedAmount;
+    return discountedOf(this.fAmounts.get());
   }
 
   public void setAmountOnStorage (int newValue){
-    this.fAmountOnStorage=newValue;
+    long amounts;
+
+    do {
+      amounts=unheld();
+    } while (!this.fAmounts.compareAndSet(amounts, pack(newValue, discountedOf(amounts))));
   }
 
   public void setDiscountedAmount(int newValue){
-    this.fDiscountedAmount=newValue;
+    long amounts;
+
+    do {
+      amounts=unheld();
+    } while (!this.fAmounts.compareAndSet(amounts, pack(amountOf(amounts), newValue)));
+  }
+
+  /**
+  * Takes a single unit: a discounted one if there is one, otherwise a unit at regular price unless {@code onlyDiscount}.
+  * @param onlyDiscount indicates if the shoe is wanted only at discount
+  * @return the result, as by {@link Store#take(String, boolean)}
+  */
+  BuyResult take(boolean onlyDiscount){
+    long amounts;
+    int amount;
+    int discounted;
+    BuyResult result;
+
+    do {
+      amounts=unheld();
+      amount=amountOf(amounts);
+      discounted=discountedOf(amounts);
+      if (amount==0)
+        return onlyDiscount? BuyResult.NOT_ON_DISCOUNT: BuyResult.NOT_IN_STOCK;
+      if (discounted>0)
+        result=BuyResult.DISCOUNTED_PRICE;
+      else if (onlyDiscount)
+        return BuyResult.NOT_ON_DISCOUNT;
+      else
+        result=BuyResult.REGULAR_PRICE;
+    } while (!this.fAmounts.compareAndSet(amounts, pack(amount-1, result==BuyResult.DISCOUNTED_PRICE? discounted-1: discounted)));
+
+    return result;
+  }
+
+  /**
+  * Takes {@code amount} units at once: the discounted ones first, and then units at regular price unless
+  * {@code onlyDiscount}.
+  * @param amount the number of units wanted
+  * @param onlyDiscount indicates if the units are wanted only at discount
+  * @param partial true to take as many of the units as there are, false to take them all or none
+  * @return the units taken
+  */
+  Checkout.Line take(int amount, boolean onlyDiscount, boolean partial){
+    long amounts;
+    int stock;
+    int discounted;
+    int takenDiscounted;
+    int takenRegular;
+
+    do {
+      amounts=unheld();
+      stock=amountOf(amounts);
+      discounted=discountedOf(amounts);
+      takenDiscounted=Math.min(amount, discounted);
+      takenRegular=onlyDiscount? 0: Math.min(amount-takenDiscounted, stock-takenDiscounted);
+      if (takenDiscounted+takenRegular==0 || (!partial && takenDiscounted+takenRegular<amount))
+        return new Checkout.Line(this.fShoeType, amount, 0, 0);
+    } while (!this.fAmounts.compareAndSet(amounts, pack(stock-takenDiscounted-takenRegular, discounted-takenDiscounted)));
+
+    return new Checkout.Line(this.fShoeType, amount, takenDiscounted, takenRegular);
+  }
+
+  /**
+  * Holds this shoe type for a basket checkout, waiting while another checkout holds it: until {@link #release(Checkout.Line)}
+  * is called, every other update waits. Checkouts which hold several shoe types must hold them in the same order.
+  */
+  void hold(){
+    long amounts;
+
+    do {
+      amounts=unheld();
+    } while (!this.fAmounts.compareAndSet(amounts, amounts|HELD));
+  }
+
+  /**
+  * Finds the units {@link #take(int, boolean, boolean)} would take of this shoe type, which the caller holds, without
+  * taking them.
+  * @param amount the number of units wanted
+  * @param onlyDiscount indicates if the units are wanted only at discount
+  * @return the units there are, if all {@code amount} of them are, otherwise none
+  */
+  Checkout.Line peek(int amount, boolean onlyDiscount){
+    long amounts=this.fAmounts.get();
+    int takenDiscounted=Math.min(amount, discountedOf(amounts));
+    int takenRegular=onlyDiscount? 0: Math.min(amount-takenDiscounted, amountOf(amounts)-takenDiscounted);
+
+    if (takenDiscounted+takenRegular<amount)
+      return new Checkout.Line(this.fShoeType, amount, 0, 0);
+    return new Checkout.Line(this.fShoeType, amount, takenDiscounted, takenRegular);
+  }
+
+  /**
+  * Takes the units of this shoe type the caller holds, and releases it.
+  * @param line the units to take (as found by {@link #peek(int, boolean)}), or null to take nothing
+  */
+  void release(Checkout.Line line){
+    long amounts=this.fAmounts.get()&~HELD;
+
+    if (line!=null)
+      amounts=pack(amountOf(amounts)-line.getTaken(), discountedOf(amounts)-line.getDiscounted());
+    this.fAmounts.set(amounts);
+  }
+
+  /**
+  * Adds units at regular price.
+  * @param amount the number of units to add
+  */
+  void add(int amount){
+    long amounts;
+
+    do {
+      amounts=unheld();
+    } while (!this.fAmounts.compareAndSet(amounts, pack(amountOf(amounts)+amount, discountedOf(amounts))));
+  }
+
+  /**
+  * Puts units of the storage on discount, up to all of them.
+  * @param amount the number of units to put on discount
+  */
+  void addDiscount(int amount){
+    long amounts;
+
+    do {
+      amounts=unheld();
+    } while (!this.fAmounts.compareAndSet(amounts, pack(amountOf(amounts), (int)Math.min(amountOf(amounts), (long)discountedOf(amounts)+amount))));
   }
-	
-} 
+
+  // @return the amounts, once no basket checkout holds them
+  private long unheld(){
+    long amounts;
+
+    while (((amounts=this.fAmounts.get())&HELD)!=0)
+      Thread.yield();
+    return amounts;
+  }
+
+  private static long pack(int amountOnStorage, int discountedAmount){
+    return ((long)amountOnStorage<<32)|(discountedAmount&0xffffffffL);
+  }
+
+  private static int amountOf(long amounts){
+    return (int)((amounts&~HELD)>>>32);
+  }
+
+  private static int discountedOf(long amounts){
+    return (int)amounts;
+  }
+
+}
@@ -1,7 +1,13 @@
 package bgu.spl.app.passiveObjects;
  
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
@@ -20,17 +26,18 @@ public class Store {
   */
   private final static Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
   /**
-  * A ConcurrentLinkedQueue of {@link ShoeStorageInfo}. Represents the list of shoes in the store
+  * A ConcurrentHashMap of shoe types, each mapped with its {@link ShoeStorageInfo}. Represents the shoes in the store
   */
-  private final ConcurrentLinkedQueue<ShoeStorageInfo> fShoesList;
+  private final ConcurrentHashMap<String, ShoeStorageInfo> fShoes;
   /**
-  * A ConcurrentLinkedQueue of {@link Receipt}. Represents the list of receipts in the store
+  * A ConcurrentLinkedQueue of the {@link ShoeStorageInfo}s of {@link #fShoes}, in the order they were added to the store
+  * (the order they are printed in)
   */
-  private final ConcurrentLinkedQueue<Receipt> fReceiptsList;
+  private final ConcurrentLinkedQueue<ShoeStorageInfo> fShoesList;
   /**
-  * A lock which is used to synchronize the methods add, addDiscount and take.
+  * A {@link ReceiptLedger}. Represents the list of receipts in the store
   */
-  private final Object fLockAddAndTake; 
+  private final ReceiptLedger fReceiptsList;
 
   /**
   * An enum that represents result of {@link Store#take(String, boolean) take} method
@@ -40,15 +47,24 @@ public class Store {
     NOT_IN_STOCK, NOT_ON_DISCOUNT, REGULAR_PRICE, DISCOUNTED_PRICE
   }
 
+  /**
+  * An enum that represents what {@link Store#checkout(Map, boolean, FillPolicy) checkout} does when some of the units
+  * ordered are not in stock: take nothing (ALL_OR_NOTHING), or take what is in stock (PARTIAL)
+  */
+
+  public enum FillPolicy {
+    ALL_OR_NOTHING, PARTIAL
+  }
+
 
   private static class StoreHolder {
     private static Store instance = new Store();
   }
 
   private Store(){
+    this.fShoes= new ConcurrentHashMap<String, ShoeStorageInfo>();
     this.fShoesList= new ConcurrentLinkedQueue<ShoeStorageInfo>();
-    this.fReceiptsList= new ConcurrentLinkedQueue<Receipt>();
-    this.fLockAddAndTake=new Object();
+    this.fReceiptsList= new ReceiptLedger();
   }
 
   public static Store getInstance() {
@@ -62,9 +78,10 @@ public class Store {
   */
 
   public void load(ShoeStorageInfo [] storage){
+    this.fShoes.clear();
     this.fShoesList.clear();
     for (int i=0; i<storage.length; ++i)
-      this.fShoesList.add(storage[i]);
+      this.addShoe(storage[i]);
   }
 
   /**
@@ -76,48 +93,73 @@ public class Store {
   */
 
   public BuyResult take(String shoeType, boolean onlyDiscount){
-    synchronized(this.fLockAddAndTake){
-      ShoeStorageInfo wantedShoe=this.findShoe(shoeType);
-
-      if (wantedShoe==null)
-        return BuyResult.NOT_IN_STOCK;
-      else if (wantedShoe.getAmountOnStorage()==0 && !onlyDiscount)
-        return BuyResult.NOT_IN_STOCK;
-      else if (wantedShoe.getAmountOnStorage()==0 && onlyDiscount)
-        return BuyResult.NOT_ON_DISCOUNT;
-      else if (wantedShoe.getDiscountedAmount()>0){
-        wantedShoe.setAmountOnStorage((wantedShoe.getAmountOnStorage()-1));
-        wantedShoe.setDiscountedAmount(wantedShoe.getDiscountedAmount()-1);
-        return BuyResult.DISCOUNTED_PRICE;
-      }   
-      else if (wantedShoe.getDiscountedAmount()==0 && onlyDiscount)
-        return BuyResult.NOT_ON_DISCOUNT;
-      else if (wantedShoe.getDiscountedAmount()==0 && !onlyDiscount){
-        wantedShoe.setAmountOnStorage(wantedShoe.getAmountOnStorage()-1);
-        if (wantedShoe.getDiscountedAmount()>wantedShoe.getAmountOnStorage()){
-          wantedShoe.setDiscountedAmount(wantedShoe.getAmountOnStorage());
-        }
-        return BuyResult.REGULAR_PRICE;
-      }
+    ShoeStorageInfo wantedShoe=this.findShoe(shoeType);
 
+    if (wantedShoe==null)
       return BuyResult.NOT_IN_STOCK;
-    }
+    return wantedShoe.take(onlyDiscount); // atomic, without locking
   }
 
 
+  /**
+  * Attempts to take {@code amount} units of a single shoe type from the store at once (see {@link #checkout(Map, boolean, FillPolicy)}).
+  * @param shoeType the wanted shoe type
+  * @param amount the number of units wanted
+  * @param onlyDiscount indicates if the units are wanted only at discount
+  * @param policy whether to take the units in stock if there are not {@code amount} of them
+  * @return the units taken
+  */
+  public Checkout checkout(String shoeType, int amount, boolean onlyDiscount, FillPolicy policy){
+    return checkout(Collections.singletonMap(shoeType, amount), onlyDiscount, policy);
+  }
+
+  /**
+  * Attempts to take a basket of shoes from the store at once. The units of each shoe type are taken at discount first
+  * (as by {@link #take(String, boolean)}), and then at regular price unless {@code onlyDiscount}.
+  * <p>
+  * With {@link FillPolicy#ALL_OR_NOTHING}, if some units of the basket are not in stock, nothing is taken. The shoe
+  * types of the basket are held together while they are checked and taken (see {@link ShoeStorageInfo}), in the order
+  * of their names so that baskets never wait for each other in a cycle: other buyers wait for them rather than find
+  * them short, and never see the basket half taken.
+  * @param basket the wanted shoe types, each mapped with the number of units wanted (positive)
+  * @param onlyDiscount indicates if the units are wanted only at discount
+  * @param policy whether to take the units in stock if there are not enough of them
+  * @return the units taken of each shoe type, in the order of {@code basket}
+  */
+  public Checkout checkout(Map<String, Integer> basket, boolean onlyDiscount, FillPolicy policy){
+    List<Checkout.Line> lines=new ArrayList<Checkout.Line>(basket.size());
+    List<ShoeStorageInfo> shoes=new ArrayList<ShoeStorageInfo>(basket.size());
+
+    for (Map.Entry<String, Integer> item: basket.entrySet()){
+      if (item.getValue()<=0)
+        throw new IllegalArgumentException("the amount wanted of "+item.getKey()+" must be positive, got "+item.getValue());
+      shoes.add(this.findShoe(item.getKey()));
+    }
+    if (policy==FillPolicy.ALL_OR_NOTHING)
+      return checkoutAll(basket, shoes, onlyDiscount);
+
+    for (Map.Entry<String, Integer> item: basket.entrySet()){
+      ShoeStorageInfo wantedShoe=shoes.get(lines.size());
+
+      if (wantedShoe==null)
+        lines.add(new Checkout.Line(item.getKey(), item.getValue(), 0, 0));
+      else
+        lines.add(wantedShoe.take(item.getValue(), onlyDiscount, true));
+    }
+    return new Checkout(lines);
+  }
+
   /**
   * adds some shoe type units to the store (no discount)
   * @param shoeType the shoe to add to the store
   * @param amount the amount of {@code shoeType} to add to the store
   */ 
   public void add(String shoeType, int amount){ 
-    synchronized(this.fLockAddAndTake){
-      ShoeStorageInfo foundShoe=this.findShoe(shoeType);
-      if (foundShoe==null)
-        this.fShoesList.add(new ShoeStorageInfo(shoeType,amount,0));
-      else
-        foundShoe.setAmountOnStorage(foundShoe.getAmountOnStorage()+amount);
-    }
+    ShoeStorageInfo foundShoe=this.findShoe(shoeType);
+
+    if (foundShoe==null)
+      foundShoe=this.addShoe(new ShoeStorageInfo(shoeType,0,0));
+    foundShoe.add(amount);
   }
 
   /**
@@ -126,17 +168,12 @@ public class Store {
   * @param amount the amount of {@code shoeType} to add to the store
   */ 
   public void addDiscount(String shoeType , int amount){
-    synchronized(this.fLockAddAndTake){
-      ShoeStorageInfo foundShoe=this.findShoe(shoeType);
-      if (foundShoe!=null){
-        if (foundShoe.getAmountOnStorage()<amount+foundShoe.getDiscountedAmount())
-          foundShoe.setDiscountedAmount(foundShoe.getAmountOnStorage());
-        else
-          foundShoe.setDiscountedAmount(foundShoe.getDiscountedAmount()+amount);
-      }
-      else
-        this.fShoesList.add(new ShoeStorageInfo(shoeType,0,0));
-    }
+    ShoeStorageInfo foundShoe=this.findShoe(shoeType);
+
+    if (foundShoe!=null)
+      foundShoe.addDiscount(amount);
+    else
+      this.addShoe(new ShoeStorageInfo(shoeType,0,0));
   }
 
   /**
@@ -144,7 +181,47 @@ public class Store {
   * @param receipt the receipt to file
   */ 
   public void file(Receipt receipt){
-    this.fReceiptsList.add(receipt);
+    this.fReceiptsList.file(receipt);
+  }
+
+  /**
+  * @return an iterator over the receipts filed to the store so far, in the order they were filed (see
+  * {@link ReceiptLedger}). The receipts are created as they are iterated - the store does not keep Receipt objects.
+  */
+  public Iterator<Receipt> receipts(){
+    return this.fReceiptsList.iterator();
+  }
+
+  /**
+  * Auxiliary method.
+  * Takes all the units of {@code basket}, whose shoe types are {@code shoes} (null for a shoe type the store does not
+  * have), or none of them (see {@link #checkout(Map, boolean, FillPolicy)})
+  */
+  private Checkout checkoutAll(Map<String, Integer> basket, List<ShoeStorageInfo> shoes, boolean onlyDiscount){
+    List<Checkout.Line> lines=new ArrayList<Checkout.Line>(basket.size());
+    List<ShoeStorageInfo> held=new ArrayList<ShoeStorageInfo>(shoes);
+    boolean filled=!held.contains(null);
+
+    if (filled){
+      held.sort(Comparator.comparing(ShoeStorageInfo::getShoeType));
+      for (ShoeStorageInfo shoe: held)
+        shoe.hold();
+      for (Map.Entry<String, Integer> item: basket.entrySet()){
+        Checkout.Line line=shoes.get(lines.size()).peek(item.getValue(), onlyDiscount);
+
+        filled&=line.isFilled();
+        lines.add(line);
+      }
+      for (int i=0; i<shoes.size(); ++i)
+        shoes.get(i).release(filled? lines.get(i): null);
+    }
+    if (filled)
+      return new Checkout(lines);
+
+    lines.clear();
+    for (Map.Entry<String, Integer> item: basket.entrySet())
+      lines.add(new Checkout.Line(item.getKey(), item.getValue(), 0, 0));
+    return new Checkout(lines);
   }
 
   /**
@@ -152,16 +229,21 @@ public class Store {
   * If shoe found => return it. Otherwise, return null
   */     
   private ShoeStorageInfo findShoe(String shoeType){
-    Iterator<ShoeStorageInfo> i= this.fShoesList.iterator();
-    ShoeStorageInfo foundShoe=null;
+    return this.fShoes.get(shoeType);
+  }
 
-    while (i.hasNext() && foundShoe==null){
-      ShoeStorageInfo temp=i.next();
-      if (temp.getShoeType().compareTo(shoeType)==0)
-        foundShoe=temp;
-    }
+  /**
+  * Auxiliary method.
+  * Adds {@code shoe} to the store, unless its shoe type is there already (possibly added by another thread meanwhile),
+  * and returns the ShoeStorageInfo of its shoe type
+  */
+  private ShoeStorageInfo addShoe(ShoeStorageInfo shoe){
+    ShoeStorageInfo existing=this.fShoes.putIfAbsent(shoe.getShoeType(), shoe);
 
-    return foundShoe;
+    if (existing!=null)
+      return existing;
+    this.fShoesList.add(shoe);
+    return shoe;
   }
 
   /**
@@ -2,7 +2,9 @@ package bgu.spl.app.services;
  
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
@@ -17,8 +19,10 @@ import bgu.spl.app.messages.RestockOrder;
 import bgu.spl.app.messages.RestockRequest;
 import bgu.spl.app.messages.TickBroadcast;
 import bgu.spl.app.passiveObjects.DiscountSchedule;
+import bgu.spl.app.passiveObjects.Receipt;
 import bgu.spl.app.passiveObjects.Store;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RequestFuture;
 
 /**
 * 
@@ -177,7 +181,7 @@ public class ManagementService extends MicroService{
     ConcurrentLinkedQueue<RestockRequest> restockRequestsList;
     RestockOrder restockOrder;
     ManufacturingOrderRequest manufacturingOrderRequest;
-    boolean success;
+    RequestFuture<Receipt> order;
 
     this.fIdForLastRestockOrder++;
     restockRequestsList= new ConcurrentLinkedQueue<RestockRequest>();
@@ -187,7 +191,8 @@ public class ManagementService extends MicroService{
     manufacturingOrderRequest= new ManufacturingOrderRequest("manager",requestedShoe,(this.fCurrentTick%5)+1, this.fCurrentTick);
     LOGGER.info("tick "+ this.fCurrentTick+ ": manager will send a ManufacturingOrderRequest for: " + ((this.fCurrentTick%5)+1) + " items of " + restockRequest.getShoeNeeded());
     this.fSentOrders.put(requestedShoe, this.fSentOrders.getOrDefault(requestedShoe, 0)+manufacturingOrderRequest.getAmountNeeded()); // update the sent order list
-    success=this.sendRequest(manufacturingOrderRequest, receipt -> {
+    order=this.sendRequest(manufacturingOrderRequest);
+    order.thenAccept(receipt -> {
       if (receipt!=null){ // if ManufacturingOrderRequest succeed
         this.fStore.add(requestedShoe, receipt.getAmountSold()-this.fRequestedSellers.getOrDefault(restockOrder, 0)); // add the amount needed to store, minus all the sellers that relates to this order                    
         this.fRequestedSellers.remove(restockOrder);
@@ -203,11 +208,13 @@ public class ManagementService extends MicroService{
       else{
         this.restockFails(requestedShoe, restockOrder, manufacturingOrderRequest);
       }	                 
-    });
-    if (!success){
-      LOGGER.info("tick "+ this.fCurrentTick+ ": there is no one to handle "+this.getName()+" request of type: "+ manufacturingOrderRequest.getClass().getSimpleName());
+    }).onFailure(() -> {
+      if (order.getFailure()==RequestFuture.Failure.UNDELIVERED)
+        LOGGER.info("tick "+ this.fCurrentTick+ ": there is no one to handle "+this.getName()+" request of type: "+ manufacturingOrderRequest.getClass().getSimpleName());
+      else
+        LOGGER.info("tick "+ this.fCurrentTick+ ": "+this.getName()+" request of type: "+ manufacturingOrderRequest.getClass().getSimpleName()+" for "+requestedShoe+" failed: "+order.getFailure());
       this.restockFails(requestedShoe, restockOrder, manufacturingOrderRequest);
-    }
+    });
   }
 
   // Updates fRequestedSellers for relevant restockRequest with one more seller
@@ -233,12 +240,16 @@ public class ManagementService extends MicroService{
 
   // Updates relevant sellers with the result of some ManufacturingOrderRequest
   private void updateSellers(ConcurrentLinkedQueue<RestockRequest> q, boolean result){
+    Map<RestockRequest, Boolean> results= new LinkedHashMap<RestockRequest, Boolean>();
+
     if (q==null || q.size()==0)
       LOGGER.warning("if manager sent a manufacturing order, someone must has requested a restock");
     while (!q.isEmpty()){
       RestockRequest req=q.poll();
-      this.complete(req, result);
+      results.put(req, result);
     }
+    if (!this.completeAll(results).isEmpty()) // the sellers are notified at once
+      LOGGER.warning("tick "+ this.fCurrentTick+ ": some restock requests were completed already, and were not completed again");
   }
      
 }
\ No newline at end of file
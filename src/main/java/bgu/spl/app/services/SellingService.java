@@ -2,6 +2,9 @@ package bgu.spl.app.services;
  
  
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
@@ -10,14 +13,19 @@ import java.util.logging.SimpleFormatter;
 import bgu.spl.app.messages.PurchaseOrderRequest;
 import bgu.spl.app.messages.RestockRequest;
 import bgu.spl.app.messages.TickBroadcast;
+import bgu.spl.app.passiveObjects.Checkout;
 import bgu.spl.app.passiveObjects.Receipt;
+import bgu.spl.app.passiveObjects.Sale;
 import bgu.spl.app.passiveObjects.Store;
 import bgu.spl.mics.MicroService;
 
 /**
 * 
 * A service which handles {@link PurchaseOrderRequest purchase order requests}. 
-* If the amount asked in the PurchaseOrderRequest isn't in the stock, the seller will send a {@link RestockRequest}
+* The amount asked in the PurchaseOrderRequest is taken from the store at once, or not at all. If it isn't in the stock,
+* the seller will send a {@link RestockRequest}.
+* The units taken at discount and at regular price are filed in a receipt each, and the request is completed with a
+* {@link Sale} of both.
 *
 */
 
@@ -100,25 +108,22 @@ public class SellingService extends MicroService{
     this.subscribeRequest(PurchaseOrderRequest.class, req -> {
       String wantedShoe;
       boolean discount;
-      String takeResult;
+      Checkout.Line taken;
 
       LOGGER.info("tick "+ this.fCurrentTick+ ": "+this.getName()+ " will try to take care of "+ req.getSenderName()+ " request of "+ req.getShoeRequested());
       wantedShoe=req.getShoeRequested();
       discount=req.getDiscount(); // check if the customer wanted to buy the shoe only at discount
-      takeResult=this.fStore.take(wantedShoe, discount).name();
+      taken=this.fStore.checkout(wantedShoe, req.getAmountWanted(), discount, Store.FillPolicy.ALL_OR_NOTHING).getLine();
 
-      if (takeResult.compareTo("REGULAR_PRICE")==0){
-        handleRegularPriceRequest(req);
+      if (taken.isFilled()){
+        handleTakenRequest(req, taken);
       }
-      if (takeResult.compareTo("DISCOUNTED_PRICE")==0){
-        handleDiscountPriceRequest(req);
+      else if (discount){ // not enough shoes on discount
+        complete(req,null);
       }
-      if (takeResult.compareTo("NOT_IN_STOCK")==0){
+      else{
         handleNotInStockRequest(req, wantedShoe);
       }
-      if (takeResult.compareTo("NOT_ON_DISCOUNT")==0){
-        complete(req,null);
-      }
     }); 
   }
 
@@ -128,8 +133,8 @@ public class SellingService extends MicroService{
 
     LOGGER.info("tick "+ this.fCurrentTick+ ": "+"No shoes from kind: "+wantedShoe+" left in stock for "+ req.getSenderName()+ ". calling for restock. you will receive a receipt only if the restock request succeed");
     restockRequest= new RestockRequest(this.fId, wantedShoe, req.getAmountWanted(), req);
-    success=this.sendRequest(restockRequest, v -> { // v is a boolean which indicates the restockRequest answer
-      if (!v) // if the manager returned "false" to the restock request
+    success=this.sendRequest(restockRequest, v -> { // v is a boolean which indicates the restockRequest answer, or null if it timed out
+      if (v==null || !v) // if the manager returned "false" to the restock request, or did not answer in time
         complete(req,null); // return the result "null" to the customer
       else{ // if the restock succeed
         handleRegularPriceRequest(req);
@@ -141,19 +146,29 @@ public class SellingService extends MicroService{
     }
   }
 
-  private void handleDiscountPriceRequest(PurchaseOrderRequest req) {
-    Receipt receipt= new Receipt(this.getName(), req.getSenderName(), req.getShoeRequested(), true, this.fCurrentTick, req.getRequestTick(),req.getAmountWanted());
+  private void handleTakenRequest(PurchaseOrderRequest req, Checkout.Line taken) {
+    List<Receipt> receipts=new ArrayList<Receipt>(2);
+    Receipt receipt;
 
-    LOGGER.info("tick "+ this.fCurrentTick+ ": Client "+req.getSenderName()+ " will buy one "+ req.getShoeRequested()+ " with discount");
-    this.fStore.file(receipt);
-    complete(req,receipt);
+    if (taken.getDiscounted()>0){
+      receipt= new Receipt(this.getName(), req.getSenderName(), req.getShoeRequested(), true, this.fCurrentTick, req.getRequestTick(),taken.getDiscounted());
+      LOGGER.info("tick "+ this.fCurrentTick+ ": Client "+req.getSenderName()+ " will buy "+ taken.getDiscounted()+ " "+ req.getShoeRequested()+ " with discount");
+      this.fStore.file(receipt);
+      receipts.add(receipt);
+    }
+    if (taken.getRegular()>0){
+      receipt= new Receipt(this.getName(), req.getSenderName(), req.getShoeRequested(), false, this.fCurrentTick, req.getRequestTick(),taken.getRegular());
+      this.fStore.file(receipt);
+      receipts.add(receipt);
+    }
+    complete(req,new Sale(receipts));
   }
 
   private void handleRegularPriceRequest(PurchaseOrderRequest req) {
     Receipt receipt= new Receipt(this.getName(), req.getSenderName(), req.getShoeRequested(), false, this.fCurrentTick, req.getRequestTick(),req.getAmountWanted());
 
     this.fStore.file(receipt);
-    complete(req,receipt);
+    complete(req,new Sale(Collections.singletonList(receipt)));
   }
      
      
@@ -109,6 +109,7 @@ public class TimeService extends MicroService{
         }
         else{
           TickBroadcast tickBroadcast=new TickBroadcast(getName(), fCurrentTime, fDuration);
+          advanceClock(fCurrentTime); // requests waiting for too many ticks time out
           sendBroadcast(tickBroadcast);
         }
       }
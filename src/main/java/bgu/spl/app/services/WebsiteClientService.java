@@ -1,8 +1,12 @@
 package bgu.spl.app.services;
  
 import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.FileHandler;
@@ -14,7 +18,10 @@ import bgu.spl.app.messages.NewDiscountBroadcast;
 import bgu.spl.app.messages.PurchaseOrderRequest;
 import bgu.spl.app.messages.TickBroadcast;
 import bgu.spl.app.passiveObjects.PurchaseSchedule;
+import bgu.spl.app.passiveObjects.Sale;
+import bgu.spl.mics.Callback;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
 
 /**
  * 
@@ -107,22 +114,31 @@ public class WebsiteClientService extends MicroService{
   private void buyPurchaseScheduleItems(){
     ConcurrentLinkedQueue<PurchaseSchedule> itemsToPurchaseAtCurrentTick= findPurchasesAtCurrentTick(); // find all the items to purchase in this current tick
     Iterator<PurchaseSchedule> i= itemsToPurchaseAtCurrentTick.iterator();
+    Map<PurchaseOrderRequest, Callback<Sale>> purchaseOrderRequests= new LinkedHashMap<PurchaseOrderRequest, Callback<Sale>>();
+    Set<Request<?>> failed=Collections.newSetFromMap(new IdentityHashMap<Request<?>, Boolean>());
 
     while (i.hasNext()){
       PurchaseSchedule temp=i.next();
       PurchaseOrderRequest purchaseOrderRequest= new PurchaseOrderRequest(this.getName(), temp.getShoeType(), false, this.fCurrentTick, 1);
       String wantedShoe= purchaseOrderRequest.getShoeRequested();
-      boolean success;
 
       LOGGER.info("tick "+ this.fCurrentTick+ ": "+"Client "+this.getName()+" will try to buy this item from his purchase list: " +temp.getShoeType());
-      success=this.sendRequest(purchaseOrderRequest, Receipt -> {
-        if (Receipt!=null){ // if the item was successfully purchased
+      purchaseOrderRequests.put(purchaseOrderRequest, sale -> {
+        if (sale!=null){ // if the item was successfully purchased
           handlePurchasedItem(temp, wantedShoe);
         }
         else
           LOGGER.info("tick "+ this.fCurrentTick+ ": purchase of: "+ wantedShoe+ " by "+this.getName()+" was not accepted");
       });
-      if (success)
+    }
+    if (purchaseOrderRequests.isEmpty())
+      return;
+
+    failed.addAll(this.sendRequests(purchaseOrderRequests)); // all the purchases of this tick are sent at once
+    for (PurchaseOrderRequest purchaseOrderRequest: purchaseOrderRequests.keySet()){
+      String wantedShoe= purchaseOrderRequest.getShoeRequested();
+
+      if (!failed.contains(purchaseOrderRequest))
         LOGGER.info("tick "+ this.fCurrentTick+ ": Client "+this.getName()+" sent a request for: " +wantedShoe+" and wait for its completion");
       else
         LOGGER.info("tick "+ this.fCurrentTick+ ": Client "+this.getName()+" sent a request for: " +wantedShoe+"  but there was no one to handle it");
@@ -159,8 +175,8 @@ public class WebsiteClientService extends MicroService{
         this.fRequestedFromWishList.add(discountedShoe);
         LOGGER.info("tick "+ this.fCurrentTick+ ": "+"Client "+this.getName()+" will try to buy this item from his wish list: " +discountedShoe);
 
-        boolean success=this.sendRequest(purchaseOrderRequest, Receipt -> { // Receipt is what the client expects to get for his purchaseOrderRequest
-          if (Receipt!=null){ // if the item was successfully purchased
+        boolean success=this.sendRequest(purchaseOrderRequest, sale -> { // the Sale is what the client expects to get for his purchaseOrderRequest
+          if (sale!=null){ // if the item was successfully purchased
             handlePurchasedAtDiscountItem(discountedShoe);
           }
           else{
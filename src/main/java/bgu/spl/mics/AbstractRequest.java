@@ -0,0 +1,33 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A base class for {@link Request}s which gives every request a unique id when it is created.
+* The {@link MessageBus} uses the id to find the micro-service which is waiting for the request
+* to be completed.
+*/
+public abstract class AbstractRequest<R> implements Request<R> {
+
+  /**
+  * The id that will be given to the next request created
+  */
+  private static final AtomicLong NEXT_ID=new AtomicLong();
+
+  /**
+  * long- the id of this request, unique in this JVM
+  */
+  private final long fRequestId;
+
+
+  protected AbstractRequest(){
+    this.fRequestId=NEXT_ID.incrementAndGet();
+  }
+
+
+  @Override
+  public final long getRequestId(){
+    return this.fRequestId;
+  }
+
+}
@@ -0,0 +1,141 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Runs micro-services as actors over a fixed pool of threads, instead of a thread per micro-service
+* (as {@code new Thread(microService).start()} does).
+* <p>
+* A micro-service started by the scheduler does not wait for messages: the message-bus tells the scheduler when
+* its message-queue stops being empty, and only then it is scheduled on the pool to handle the waiting messages
+* (up to the same number of messages {@link MicroService#run()} handles at each wakeup, so busy micro-services
+* take turns). The callbacks of a micro-service are still called one at a time, in the order of its message-queue,
+* and {@link MicroService#initialize()} is called before any of them.
+* <p>
+* Callbacks of micro-services run by the scheduler must not block - a blocked callback holds one of the pool's
+* threads. Micro-services which block (e.g., wait for a latch) should be run on a thread of their own.
+*/
+public class EventLoopScheduler {
+
+  /**
+  * The threads running the micro-services
+  */
+  private final ExecutorService fPool;
+  /**
+  * The message-bus the micro-services are registered to
+  */
+  private final MessageBusImpl fMessageBus;
+
+  /**
+  * @param threads the number of threads in the pool (e.g., the number of available cores)
+  */
+  public EventLoopScheduler(int threads){
+    AtomicInteger created=new AtomicInteger();
+
+    this.fPool=Executors.newFixedThreadPool(threads, r -> {
+      Thread t=new Thread(r, "event-loop-"+created.incrementAndGet());
+
+      t.setDaemon(true); // a micro-service which never terminates doesn't keep the program alive, as with its own thread
+      return t;
+    });
+    this.fMessageBus=MessageBusImpl.getInstance();
+  }
+
+  /**
+  * registers the micro-service {@code m} and schedules its initialization. From then on, {@code m} is scheduled
+  * whenever it has messages, until it terminates and is unregistered.
+  * <p>
+  * @param m the micro-service to start
+  */
+  public void start(MicroService m){
+    ServiceLoop loop=new ServiceLoop(m);
+
+    this.fMessageBus.register(m, loop::schedule); // messages sent before initialize() returns wait for it
+    execute(loop::initialize);
+  }
+
+  /**
+  * stops the threads of the pool once they finish the messages they handle. Micro-services which are still running
+  * are not scheduled any more.
+  */
+  public void shutdown(){
+    this.fPool.shutdown();
+  }
+
+  private void execute(Runnable task){
+    try{
+      this.fPool.execute(task);
+    }
+    catch (RejectedExecutionException e){
+      // the scheduler was shut down - no one handles the messages anymore
+    }
+  }
+
+  /**
+  * The event loop of a single micro-service.
+  */
+  private class ServiceLoop implements Runnable {
+
+    private final MicroService fService;
+    /**
+    * true while the micro-service is waiting to run or running - so it never runs on two threads at once.
+    * Starts as true, until {@link #initialize()} is done.
+    */
+    private final AtomicBoolean fScheduled;
+
+    ServiceLoop(MicroService service){
+      this.fService=service;
+      this.fScheduled=new AtomicBoolean(true);
+    }
+
+    // Called by the thread sending a message to an empty message-queue
+    void schedule(){
+      if (this.fScheduled.compareAndSet(false, true))
+        execute(this);
+    }
+
+    void initialize(){
+      try{
+        this.fService.initialize();
+      }
+      catch (RuntimeException e){
+        failed(e);
+      }
+      done();
+    }
+
+    @Override
+    public void run(){
+      try{
+        this.fService.handleAll(fMessageBus.pollMessages(this.fService, MicroService.MAX_MESSAGES_PER_WAKEUP));
+      }
+      catch (RuntimeException e){
+        failed(e);
+      }
+      done();
+    }
+
+    // A callback threw - the micro-service can't continue
+    private void failed(RuntimeException e){
+      e.printStackTrace();
+      this.fService.terminate();
+    }
+
+    private void done(){
+      if (this.fService.isTerminated()){
+        fMessageBus.unregister(this.fService); // fScheduled stays true, so it will never run again
+        return;
+      }
+      this.fScheduled.set(false);
+      if (fMessageBus.getWaitingMessages(this.fService)>0) // messages which arrived while running, or were left for the next turn
+        schedule();
+    }
+  }
+
+}
@@ -1,5 +1,10 @@
 package bgu.spl.mics;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
 * The message-bus is a shared object used for communication between
 * micro-services.
@@ -39,6 +44,22 @@ public interface MessageBus {
   */
   <T> void complete(Request<T> r, T result);
 
+  /**
+  * Notifying the MessageBus that all the requests in {@code results} are
+  * completed, each with the result it is mapped to.
+  * This is the same as calling {@link #complete(Request, Object)} for each
+  * request, except that the {@link RequestCompleted} messages that go to the
+  * same micro-service are added to its queue at once, and that requests
+  * which were not sent (or were completed already) are returned rather than
+  * failing the others.
+  * <p>
+  * @param <T>     the type of the results expected by the completed requests
+  * @param results the completed requests, each mapped to its result
+  * @return the requests of {@code results} that were not waiting to be
+  *         completed, and were ignored (an empty set if all were completed).
+  */
+  <T> Set<Request<?>> completeAll(Map<? extends Request<T>, ? extends T> results);
+
   /**
   * add the {@link Broadcast} {@code b} to the message queues of all the
   * micro-services subscribed to {@code b.getClass()}.
@@ -54,11 +75,64 @@ public interface MessageBus {
   * <p>
   * @param r         the request to add to the queue.
   * @param requester the {@link MicroService} sending {@code r}.
-  * @return true if there was at least one micro-service subscribed to
-  *         {@code r.getClass()} and false otherwise.
+  * @return true if {@code r} was added to the queue of a micro-service
+  *         subscribed to {@code r.getClass()} and false otherwise (e.g.,
+  *         no one was subscribed).
   */
   boolean sendRequest(Request<?> r, MicroService requester);
 
+  /**
+  * same as {@link #sendRequest(Request, MicroService)}, except that if
+  * {@code r} is not completed within {@code timeout}, the message-bus
+  * completes it instead of its handler: a {@link RequestCompleted} message
+  * whose {@link RequestCompleted#isTimedOut()} is true is added to the queue
+  * of {@code requester}, {@code r} is removed from the queue of its handler
+  * if it was not taken yet, and a later completion of {@code r} is ignored.
+  * <p>
+  * @param r         the request to add to the queue.
+  * @param requester the {@link MicroService} sending {@code r}.
+  * @param timeout   the time to wait for {@code r} to be completed, or null
+  *                  to wait until it is completed.
+  * @return true if {@code r} was added to the queue of a micro-service
+  *         subscribed to {@code r.getClass()} and false otherwise.
+  */
+  boolean sendRequest(Request<?> r, MicroService requester, RequestTimeout timeout);
+
+  /**
+  * cancels the request {@code r}: it is removed from the queue of its handler
+  * if it was not taken yet, and its completion is ignored. No
+  * {@link RequestCompleted} message is sent for a cancelled request.
+  * <p>
+  * @param r the request to cancel.
+  * @return true if {@code r} was waiting to be completed, false if it was
+  *         completed (or timed out, or cancelled) already.
+  */
+  boolean cancel(Request<?> r);
+
+  /**
+  * advances the logical clock of the message-bus, by which timeouts in ticks
+  * are measured (see {@link RequestTimeout#ticks(long)}), and times out the
+  * requests whose timeout has passed.
+  * <p>
+  * @param tick the current tick (ticks which are not larger than the
+  *             current tick are ignored).
+  */
+  void advanceClock(long tick);
+
+  /**
+  * add each of the {@link Request}s in {@code requests} to the message queue
+  * of one of the micro-services subscribed to its class, exactly as
+  * {@link #sendRequest(Request, MicroService)} does, except that the
+  * requests that go to the same micro-service are added to its queue at once.
+  * <p>
+  * @param requests  the requests to add to the queues, in order.
+  * @param requester the {@link MicroService} sending {@code requests}.
+  * @return the requests that were not added to any queue, e.g. because no
+  *         micro-service was subscribed to them (an empty list if all the
+  *         requests were added to a queue).
+  */
+  List<Request<?>> sendRequests(Collection<? extends Request<?>> requests, MicroService requester);
+
   /**
   * allocates a message-queue for the {@link MicroService} {@code m}.
   * <p>
@@ -93,4 +167,32 @@ public interface MessageBus {
   */
   Message awaitMessage(MicroService m) throws InterruptedException;
 
+  /**
+  * same as {@link #awaitMessage(bgu.spl.mics.MicroService)}, except that all
+  * the messages available in {@code m}'s queue (up to {@code max}) are taken
+  * at once.
+  * <p>
+  * @param m   the micro-service requesting to take messages from its message
+  *            queue
+  * @param max the maximal number of messages to take
+  * @return the next (at least one) messages in the {@code m}'s queue, in
+  *         order (blocking)
+  * @throws InterruptedException if interrupted while waiting for a message
+  *                              to became available.
+  */
+  List<Message> awaitMessages(MicroService m, int max) throws InterruptedException;
+
+  /**
+  * same as {@link #awaitMessages(bgu.spl.mics.MicroService, int)}, except
+  * that it does not wait for messages to become available.
+  * <p>
+  * @param m   the micro-service requesting to take messages from its message
+  *            queue
+  * @param max the maximal number of messages to take
+  * @return the next messages in the {@code m}'s queue, in order (an empty
+  *         list if there are none)
+  * @throws IllegalStateException if {@code m} is not registered
+  */
+  List<Message> pollMessages(MicroService m, int max);
+
 }
@@ -1,8 +1,13 @@
    package bgu.spl.mics;
  
+import bgu.spl.mics.impl.BusMetrics;
 import bgu.spl.mics.impl.MessageBusImpl;
 
  
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
  
 /**
@@ -24,6 +29,11 @@ import java.util.concurrent.ConcurrentHashMap;
 */
 public abstract class MicroService implements Runnable {
  
+  /**
+  * The maximal number of messages the event loop takes from the message-bus at each wakeup
+  */
+  static final int MAX_MESSAGES_PER_WAKEUP = 64;
+
   private boolean terminated = false;
   private final String name;
   /**
@@ -31,15 +41,22 @@ public abstract class MicroService implements Runnable {
   */
   private final MessageBus fMessageBus=MessageBusImpl.getInstance(); 
   /**
-  * A ConcurrentHashMap of message types (broadcast and request), each mapped to the {@link CallBack} which describes the handling of such a message
+  * The measurements of the message-bus, which time the callbacks while they are enabled
+  */
+  private final BusMetrics fMetrics=MessageBusImpl.getInstance().getMetrics();
+  /**
+  * The dispatch table of the micro-service: each message class it can receive (the subscribed request and broadcast types,
+  * and {@link RequestCompleted}) mapped to the {@link Callback} which handles such a message. A message is resolved by its
+  * exact class with a single lookup. The table is never modified after it is published - subscribing replaces it.
   */
   @SuppressWarnings("rawtypes")
-  private final ConcurrentHashMap<Class<?>,Callback> fCallBacksForHandler=new ConcurrentHashMap<Class<?>,Callback>(); 
+  private volatile Map<Class<?>,Callback> fDispatchTable;
   /**
-  * A ConcurrentHashMap of message types (that extend Request Message), each mapped to the {@link CallBack} which describes the handling of a completed message
+  * A ConcurrentHashMap of the ids of the requests sent by this micro-service and not completed yet, each mapped to the {@link CallBack} which describes the handling of its completion.
+  * An entry is removed once its callback is called, or the request is cancelled.
   */
   @SuppressWarnings("rawtypes")
-  private final ConcurrentHashMap<Request<?>,Callback> fCallBacksForSent=new ConcurrentHashMap<Request<?>,Callback>();
+  private final ConcurrentHashMap<Long,Callback> fCallBacksForSent=new ConcurrentHashMap<Long,Callback>();
 
 
 
@@ -47,8 +64,13 @@ public abstract class MicroService implements Runnable {
   * @param name the micro-service name (used mainly for debugging purposes -
   *             does not have to be unique)
   */
+  @SuppressWarnings("rawtypes")
   public MicroService(String name) {
+    Map<Class<?>,Callback> table=new IdentityHashMap<Class<?>,Callback>();
+
     this.name = name;
+    table.put(RequestCompleted.class, (Callback<RequestCompleted<?>>)this::onCompleted);
+    this.fDispatchTable=table;
   }
 
   /**
@@ -72,8 +94,8 @@ public abstract class MicroService implements Runnable {
   *                 queue.
   */
   protected final <R extends Request<?>> void subscribeRequest(Class<R> type, Callback<R> callback) {
+    addToDispatchTable(type, callback);
     fMessageBus.subscribeRequest(type, this);
-    this.fCallBacksForHandler.put(type, callback);   
   }
 
   /**
@@ -98,8 +120,17 @@ public abstract class MicroService implements Runnable {
   *                 queue.
   */
   protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
+    addToDispatchTable(type, callback);
     fMessageBus.subscribeBroadcast(type, this);
-    this.fCallBacksForHandler.put(type, callback);   
+  }
+
+  // Replaces the dispatch table with a copy in which messages of @type are handled by @callback
+  @SuppressWarnings("rawtypes")
+  private void addToDispatchTable(Class<?> type, Callback<?> callback){
+    Map<Class<?>,Callback> table=new IdentityHashMap<Class<?>,Callback>(this.fDispatchTable);
+
+    table.put(type, callback);
+    this.fDispatchTable=table;
   }
 
   /**
@@ -118,13 +149,132 @@ public abstract class MicroService implements Runnable {
   *         {@code r.getClass()} and false otherwise.
   */
   protected final <T> boolean sendRequest(Request<T> r, Callback<T> onComplete) {
-    boolean ans=this.fMessageBus.sendRequest(r, this);
+    return sendRequest(r, onComplete, null);
+  }
 
-    this.fCallBacksForSent.put(r, onComplete);
+  /**
+  * same as {@link #sendRequest(Request, Callback)}, except that if {@code r}
+  * is not completed within {@code timeout}, {@code onComplete} is called
+  * with a null result (and a later completion of {@code r} is ignored).
+  * <p>
+  * @param <T>        the type of the expected result of the request {@code r}
+  * @param r          the request to send
+  * @param onComplete the callback to call when {@code r} is completed or
+  *                   timed out.
+  * @param timeout    the time to wait for {@code r}, or null to use the
+  *                   timeout of its type (see
+  *                   {@link MessageBusImpl#setRequestTimeout(Class, RequestTimeout)}).
+  * @return true if there was at least one micro-service subscribed to
+  *         {@code r.getClass()} and false otherwise.
+  */
+  protected final <T> boolean sendRequest(Request<T> r, Callback<T> onComplete, RequestTimeout timeout) {
+    boolean ans;
+
+    this.fCallBacksForSent.put(r.getRequestId(), onComplete);
+    ans=timeout==null? this.fMessageBus.sendRequest(r, this): this.fMessageBus.sendRequest(r, this, timeout);
+    if (!ans) // r will never be completed
+      this.fCallBacksForSent.remove(r.getRequestId());
 
     return ans;
   }
 
+  /**
+  * send the request {@code r} using the message-bus, exactly as
+  * {@link #sendRequest(Request, Callback)} does, and return a future of its
+  * result. The future is completed <b> in this micro-service event loop </b>
+  * once the request is complete, so further requests may be chained to it
+  * (see {@link RequestFuture#thenCompose(java.util.function.Function)}) and
+  * requests sent in parallel may be joined (see
+  * {@link RequestFuture#allOf(List)}) without keeping their state in this
+  * micro-service.
+  * <p>
+  * @param <T> the type of the expected result of the request {@code r}
+  * @param r   the request to send
+  * @return the future of the result of {@code r}, which fails right away if
+  *         no micro-service was subscribed to {@code r.getClass()}.
+  */
+  protected final <T> RequestFuture<T> sendRequest(Request<T> r) {
+    return sendRequest(r, (RequestTimeout)null);
+  }
+
+  /**
+  * same as {@link #sendRequest(Request)}, except that the future fails with
+  * {@link RequestFuture.Failure#TIMED_OUT} if {@code r} is not completed
+  * within {@code timeout}.
+  * <p>
+  * @param <T>     the type of the expected result of the request {@code r}
+  * @param r       the request to send
+  * @param timeout the time to wait for {@code r}, or null to use the timeout
+  *                of its type.
+  * @return the future of the result of {@code r}.
+  */
+  protected final <T> RequestFuture<T> sendRequest(Request<T> r, RequestTimeout timeout) {
+    RequestFuture<T> future=new RequestFuture<T>();
+
+    if (!sendRequest(r, new FutureCallback<T>(future), timeout))
+      future.fail(RequestFuture.Failure.UNDELIVERED);
+
+    return future;
+  }
+
+  /**
+  * cancel the request {@code r}, which this micro-service sent and is
+  * waiting for: its callback will not be called (its future fails with
+  * {@link RequestFuture.Failure#CANCELLED}), and it is removed from the queue
+  * of its handler if the handler did not take it yet.
+  * <p>
+  * @param r the request to cancel
+  * @return true if {@code r} was cancelled, false if its result was received
+  *         (or it timed out, or was cancelled) already.
+  */
+  @SuppressWarnings("rawtypes")
+  protected final boolean cancel(Request<?> r) {
+    Callback callback=this.fCallBacksForSent.remove(r.getRequestId());
+
+    if (callback==null)
+      return false;
+    this.fMessageBus.cancel(r);
+    if (callback instanceof FutureCallback)
+      ((FutureCallback<?>)callback).fFuture.fail(RequestFuture.Failure.CANCELLED);
+
+    return true;
+  }
+
+  /**
+  * advance the logical clock of the message-bus, by which the timeouts in
+  * ticks are measured (see {@link MessageBus#advanceClock(long)}). Called by
+  * the micro-service which keeps the time.
+  * <p>
+  * @param tick the current tick
+  */
+  protected final void advanceClock(long tick) {
+    this.fMessageBus.advanceClock(tick);
+  }
+
+  /**
+  * send all the requests in {@code requests} using the message-bus, and storing
+  * the callback each of them is mapped to, exactly as
+  * {@link #sendRequest(Request, Callback)} does for a single request. Requests
+  * that go to the same micro-service are added to its queue at once.
+  * <p>
+  * @param <T>      the type of the expected result of the requests
+  * @param requests the requests to send (in the map's iteration order), each
+  *                 mapped to the callback to call when it is completed.
+  * @return the requests that no micro-service was subscribed to (an empty list
+  *         if all were sent).
+  */
+  protected final <T> List<Request<?>> sendRequests(Map<? extends Request<T>, Callback<T>> requests) {
+    List<Request<?>> undelivered;
+
+    for (Map.Entry<? extends Request<T>, Callback<T>> request: requests.entrySet())
+      this.fCallBacksForSent.put(request.getKey().getRequestId(), request.getValue());
+    undelivered=this.fMessageBus.sendRequests(requests.keySet(), this);
+    for (Request<?> r: undelivered) // those will never be completed
+      this.fCallBacksForSent.remove(r.getRequestId());
+
+    return undelivered;
+  }
+
   /**
   * send the broadcast message {@code b} using the message-bus.
   * <p>
@@ -149,6 +299,20 @@ public abstract class MicroService implements Runnable {
     this.fMessageBus.complete(r, result);
   }
 
+  /**
+  * complete all the received requests in {@code results}, each with the result
+  * it is mapped to, using the message-bus.
+  * <p>
+  * @param <T>     the type of the expected result of the received requests
+  * @param results the requests to complete, each mapped to the result to
+  *                provide to the micro-service requesting it.
+  * @return the requests of {@code results} that were not waiting to be completed
+  *         (see {@link MessageBus#completeAll(Map)}).
+  */
+  protected final <T> Set<Request<?>> completeAll(Map<? extends Request<T>, ? extends T> results) {
+    return this.fMessageBus.completeAll(results);
+  }
+
   /**
   * this method is called once when the event loop starts.
   */
@@ -171,27 +335,18 @@ public abstract class MicroService implements Runnable {
   }
 
   /**
-  * the entry point of the micro-service. TODO: you must complete this code
-  * otherwise you will end up in an infinite loop.
+  * the entry point of the micro-service. Each time the micro-service wakes up,
+  * it handles all the messages waiting in its queue (up to
+  * MAX_MESSAGES_PER_WAKEUP) - messages left after {@link #terminate()} was
+  * called are discarded.
   */
   @Override
-  @SuppressWarnings("unchecked")
   public final void run() {
     this.fMessageBus.register(this);
     initialize();
     while (!terminated) {
       try{
-        Message mes=this.fMessageBus.awaitMessage(this);
-        Class<?> key=mes.getClass();
-        
-        if (Request.class.isAssignableFrom(key) || Broadcast.class.isAssignableFrom(key)){
-          this.fCallBacksForHandler.get(key).call(mes);    
-        }
-        if (mes.getClass().getName().compareTo(RequestCompleted.class.getName())==0 ){ 
-          Request<?> jMes=((RequestCompleted<?>)mes).getCompletedRequest(); 
-          
-          this.fCallBacksForSent.get(jMes).call(((RequestCompleted<?>)mes).getResult());
-        }   
+        handleAll(this.fMessageBus.awaitMessages(this, MAX_MESSAGES_PER_WAKEUP));
       }
       catch (InterruptedException e){
         e.printStackTrace();
@@ -199,5 +354,77 @@ public abstract class MicroService implements Runnable {
     }
     this.fMessageBus.unregister(this); // unregister before termination      
   }  
+
+  /**
+  * handles the given messages in order, until {@link #terminate()} is called.
+  * Used by {@link #run()} and by an {@link EventLoopScheduler} running this micro-service.
+  * <p>
+  * @param messages the messages taken from this micro-service message queue
+  */
+  final void handleAll(List<Message> messages){
+    for (int i=0; i<messages.size() && !terminated; ++i){
+      handle(messages.get(i));
+    }
+  }
+
+  /**
+  * @return true if {@link #terminate()} was called
+  */
+  final boolean isTerminated(){
+    return this.terminated;
+  }
+
+  // Calls the callback related to the message @mes
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void handle(Message mes){
+    Callback callback=this.fDispatchTable.get(mes.getClass());
+    long start;
+
+    if (callback==null) // no callback handles this type
+      return;
+    if (!this.fMetrics.isEnabled()){
+      callback.call(mes);
+      return;
+    }
+    start=System.nanoTime();
+    try{
+      callback.call(mes);
+    }
+    finally{
+      this.fMetrics.recordHandled(this, mes.getClass(), System.nanoTime()-start);
+    }
+  }
+
+  // Calls the callback stored for the completed request, and forgets it
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void onCompleted(RequestCompleted<?> completed){
+    Callback callback=this.fCallBacksForSent.remove(completed.getCompletedRequest().getRequestId());
+
+    if (callback==null) // the request was cancelled
+      return;
+    if (completed.getRequestSentAt()!=0 && !completed.isTimedOut() && this.fMetrics.isEnabled())
+      this.fMetrics.recordRoundTrip(completed.getCompletedRequest().getClass(), System.nanoTime()-completed.getRequestSentAt());
+    if (completed.isTimedOut() && callback instanceof FutureCallback)
+      ((FutureCallback<?>)callback).fFuture.fail(RequestFuture.Failure.TIMED_OUT);
+    else
+      callback.call(completed.getResult());
+  }
+
+  /**
+  * The callback of a request sent by {@link MicroService#sendRequest(Request, RequestTimeout)}, which completes its future.
+  */
+  private static class FutureCallback<T> implements Callback<T> {
+
+    private final RequestFuture<T> fFuture;
+
+    FutureCallback(RequestFuture<T> future){
+      this.fFuture=future;
+    }
+
+    @Override
+    public void call(T result){
+      this.fFuture.complete(result);
+    }
+  }
      
 }    
\ No newline at end of file
@@ -1,12 +1,21 @@
 package bgu.spl.mics;
 
 /**
- * A "Marker" interface extending {@link Message}. A micro-service that sends a
+ * A {@link Message} interface. A micro-service that sends a
  * Request Message expects to receive a result of type {@code <R>} when a
  * micro-service that received the request completed handling it.
  * When sending a request, it will be received only by single subscriber - in a
  * Round-Robin fashion.
+ * <p>
+ * Requests are usually created by extending {@link AbstractRequest}, which supplies
+ * the request id.
  */
 public interface Request<R> extends Message {
 
+  /**
+  * @return an id which is unique among the requests created in this JVM. The
+  *         {@link MessageBus} uses it to correlate the request with its completion.
+  */
+  long getRequestId();
+
 }
@@ -4,10 +4,37 @@ public class RequestCompleted<T> implements Message {
 
   private Request<T> completed;
   private T result;
+  private long requestSentAt;
+  private boolean timedOut;
 
   public RequestCompleted(Request<T> completed, T result) {
+    this(completed, result, 0);
+  }
+
+  /**
+  * @param completed     the completed request
+  * @param result        the result of the request
+  * @param requestSentAt the time ({@link System#nanoTime()}) the request was
+  *                      sent, or 0 if it was not measured
+  */
+  public RequestCompleted(Request<T> completed, T result, long requestSentAt) {
+    this(completed, result, requestSentAt, false);
+  }
+
+  /**
+  * @param completed     the completed request
+  * @param result        the result of the request (null if it timed out)
+  * @param requestSentAt the time ({@link System#nanoTime()}) the request was
+  *                      sent, or 0 if it was not measured
+  * @param timedOut      true if the request was not completed in time, and
+  *                      this message was sent by the message-bus instead of
+  *                      its handler (see {@link RequestTimeout})
+  */
+  public RequestCompleted(Request<T> completed, T result, long requestSentAt, boolean timedOut) {
     this.completed = completed;
     this.result = result;
+    this.requestSentAt = requestSentAt;
+    this.timedOut = timedOut;
   }
 
   public Request<T> getCompletedRequest() {
@@ -18,4 +45,19 @@ public class RequestCompleted<T> implements Message {
     return result;
   }
 
+  /**
+  * @return the time ({@link System#nanoTime()}) the completed request was
+  *         sent, or 0 if it was not measured
+  */
+  public long getRequestSentAt() {
+    return requestSentAt;
+  }
+
+  /**
+  * @return true if the request timed out (its result is then null)
+  */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
 }
@@ -0,0 +1,280 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+* The result of a request sent by {@link MicroService#sendRequest(Request)}, which will be available once the request
+* is completed. Continuations are added with {@link #thenAccept(Callback)}, {@link #thenApply(Function)},
+* {@link #thenCompose(Function)} and {@link #thenCombine(RequestFuture, BiFunction)}, and several futures are joined
+* with {@link #allOf(List)}.
+* <p>
+* A future is completed in the event loop of the micro-service which sent the request (when the {@link RequestCompleted}
+* message is handled), so its continuations run in that event loop as well - they may use the state of the micro-service
+* like any other callback. For the same reason a future is not thread-safe: it should only be used by the micro-service
+* which sent its request.
+* <p>
+* A future fails if its request could not be sent (no micro-service was subscribed to its type), timed out, or was
+* cancelled (see {@link Failure}); the continuations of a failed future are not called, the futures derived from it fail
+* as well, and {@link #onFailure(Runnable)} is called instead.
+* <p>
+* @param <T> the type of the result of the request
+*/
+public class RequestFuture<T> {
+
+  /**
+  * Why a future failed
+  */
+  public enum Failure {
+    /**
+    * No micro-service was subscribed to the type of the request (or the mailbox it was handed to did not admit it)
+    */
+    UNDELIVERED,
+    /**
+    * The request was not completed before its {@link RequestTimeout}
+    */
+    TIMED_OUT,
+    /**
+    * The requester cancelled the request
+    */
+    CANCELLED
+  }
+
+  private boolean fDone;
+  /**
+  * Why the future failed, or null if it did not fail
+  */
+  private Failure fFailure;
+  private T fResult;
+  /**
+  * The continuations to run once the future is done or failed, or null if none were added
+  */
+  private List<Runnable> fListeners;
+
+
+  RequestFuture(){
+    this.fDone=false;
+    this.fFailure=null;
+  }
+
+  /**
+  * @param <T> the type of the result
+  * @param result the result of the future
+  * @return a future which is already completed with {@code result} (e.g., to start a chain of requests with)
+  */
+  public static <T> RequestFuture<T> completed(T result){
+    RequestFuture<T> future=new RequestFuture<T>();
+
+    future.complete(result);
+    return future;
+  }
+
+  /**
+  * @return true if the future was completed with a result
+  */
+  public boolean isDone(){
+    return this.fDone;
+  }
+
+  /**
+  * @return true if the request of this future (or of a future it was derived from) failed
+  */
+  public boolean isFailed(){
+    return this.fFailure!=null;
+  }
+
+  /**
+  * @return why the future failed, or null if it did not fail
+  */
+  public Failure getFailure(){
+    return this.fFailure;
+  }
+
+  /**
+  * @return the result of the completed request
+  * @throws IllegalStateException if the future is not done
+  */
+  public T getResult(){
+    if (!this.fDone)
+      throw new IllegalStateException("the request was not completed");
+    return this.fResult;
+  }
+
+  /**
+  * Calls {@code callback} with the result once the future is done (right away if it is done already).
+  * @param callback the callback to call with the result
+  * @return this future
+  */
+  public RequestFuture<T> thenAccept(Callback<? super T> callback){
+    whenSettled(() -> {
+      if (this.fDone)
+        callback.call(this.fResult);
+    });
+    return this;
+  }
+
+  /**
+  * Runs {@code onFailure} once the future fails (right away if it failed already).
+  * @param onFailure what to do if the request failed (see {@link #getFailure()})
+  * @return this future
+  */
+  public RequestFuture<T> onFailure(Runnable onFailure){
+    whenSettled(() -> {
+      if (this.fFailure!=null)
+        onFailure.run();
+    });
+    return this;
+  }
+
+  /**
+  * @param <U> the type of the mapped result
+  * @param fn maps the result of this future
+  * @return a future completed with {@code fn} of the result of this future
+  */
+  public <U> RequestFuture<U> thenApply(Function<? super T, ? extends U> fn){
+    RequestFuture<U> mapped=new RequestFuture<U>();
+
+    whenSettled(() -> {
+      if (this.fDone)
+        mapped.complete(fn.apply(this.fResult));
+      else
+        mapped.fail(this.fFailure);
+    });
+    return mapped;
+  }
+
+  /**
+  * Chains a request to this one: once this future is done, {@code fn} is called with its result, and typically sends the
+  * next request.
+  * @param <U> the type of the result of the next request
+  * @param fn gives the future of the next request for the result of this future
+  * @return a future completed with the result of the future {@code fn} gives
+  */
+  public <U> RequestFuture<U> thenCompose(Function<? super T, RequestFuture<U>> fn){
+    RequestFuture<U> composed=new RequestFuture<U>();
+
+    whenSettled(() -> {
+      RequestFuture<U> next;
+
+      if (!this.fDone){
+        composed.fail(this.fFailure);
+        return;
+      }
+      next=fn.apply(this.fResult);
+      next.whenSettled(() -> composed.settleAs(next));
+    });
+    return composed;
+  }
+
+  /**
+  * Joins this future with another one, whose requests are in flight at the same time.
+  * @param <U> the type of the result of {@code other}
+  * @param <V> the type of the combined result
+  * @param other another future of this micro-service
+  * @param fn combines the results of the two futures
+  * @return a future completed with {@code fn} of the two results, once both are done
+  */
+  public <U, V> RequestFuture<V> thenCombine(RequestFuture<U> other, BiFunction<? super T, ? super U, ? extends V> fn){
+    RequestFuture<V> combined=new RequestFuture<V>();
+
+    whenSettled(() -> other.whenSettled(() -> {
+      if (this.fDone && other.fDone)
+        combined.complete(fn.apply(this.fResult, other.fResult));
+      else
+        combined.fail(this.fDone? other.fFailure: this.fFailure);
+    }));
+    return combined;
+  }
+
+  /**
+  * Joins a number of futures, e.g. of the same request sent to several handlers at once.
+  * @param <T> the type of the results
+  * @param futures futures of the same micro-service
+  * @return a future completed with the results of {@code futures} (in the same order) once all are done, or failed
+  *         once all are done or failed, and any of them failed
+  */
+  public static <T> RequestFuture<List<T>> allOf(List<RequestFuture<T>> futures){
+    RequestFuture<List<T>> all=new RequestFuture<List<T>>();
+    int[] waiting=new int[]{futures.size()};
+    Runnable onSettled=() -> {
+      List<T> results;
+
+      if (--waiting[0]>0)
+        return;
+      results=new ArrayList<T>(futures.size());
+      for (RequestFuture<T> future: futures){
+        if (!future.fDone){
+          all.fail(future.fFailure);
+          return;
+        }
+        results.add(future.fResult);
+      }
+      all.complete(results);
+    };
+
+    if (futures.isEmpty())
+      all.complete(Collections.<T>emptyList());
+    for (RequestFuture<T> future: futures)
+      future.whenSettled(onSettled);
+    return all;
+  }
+
+  /**
+  * Completes the future with the result of its request, and runs its continuations.
+  * @param result the result of the request
+  * @throws IllegalStateException if the future is done or failed already
+  */
+  void complete(T result){
+    if (this.fDone || this.fFailure!=null)
+      throw new IllegalStateException("a future is completed only once");
+    this.fResult=result;
+    this.fDone=true;
+    runListeners();
+  }
+
+  /**
+  * Fails the future, and runs its continuations.
+  * @param failure why the future failed
+  * @throws IllegalStateException if the future is done or failed already
+  */
+  void fail(Failure failure){
+    if (this.fDone || this.fFailure!=null)
+      throw new IllegalStateException("a future is completed only once");
+    this.fFailure=failure;
+    runListeners();
+  }
+
+  // Completes or fails this future as @other was
+  private void settleAs(RequestFuture<? extends T> other){
+    if (other.fDone)
+      complete(other.fResult);
+    else
+      fail(other.fFailure);
+  }
+
+  // Runs @listener once the future is done or failed (right away if it is)
+  private void whenSettled(Runnable listener){
+    if (this.fDone || this.fFailure!=null){
+      listener.run();
+      return;
+    }
+    if (this.fListeners==null)
+      this.fListeners=new ArrayList<Runnable>(2);
+    this.fListeners.add(listener);
+  }
+
+  // Runs the listeners added so far, in order, and forgets them
+  private void runListeners(){
+    List<Runnable> listeners=this.fListeners;
+
+    this.fListeners=null;
+    if (listeners!=null){
+      for (Runnable listener: listeners)
+        listener.run();
+    }
+  }
+
+}
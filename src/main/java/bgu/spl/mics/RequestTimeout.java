@@ -0,0 +1,78 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* The time a requester waits for a {@link Request} to be completed, either in ticks of the logical clock of the
+* message-bus (see {@link MessageBus#advanceClock(long)}) or in wall-clock time.
+* <p>
+* A request which is not completed in time is completed by the message-bus with a {@link RequestCompleted} message
+* whose {@link RequestCompleted#isTimedOut()} is true, and a later completion by its handler is ignored.
+*/
+public final class RequestTimeout {
+
+  /**
+  * The number of ticks, or 0 if the timeout is in wall-clock time
+  */
+  private final long fTicks;
+  /**
+  * The wall-clock timeout in nanoseconds, or 0 if the timeout is in ticks
+  */
+  private final long fNanos;
+
+
+  private RequestTimeout(long ticks, long nanos){
+    this.fTicks=ticks;
+    this.fNanos=nanos;
+  }
+
+  /**
+  * @param ticks the number of ticks of the logical clock of the message-bus after which the request times out
+  * @return a timeout in ticks
+  * @throws IllegalArgumentException if {@code ticks} is not positive
+  */
+  public static RequestTimeout ticks(long ticks){
+    if (ticks<=0)
+      throw new IllegalArgumentException("a timeout must be positive: "+ticks+" ticks");
+    return new RequestTimeout(ticks, 0);
+  }
+
+  /**
+  * @param timeout the time after which the request times out
+  * @param unit the unit of {@code timeout}
+  * @return a timeout in wall-clock time
+  * @throws IllegalArgumentException if {@code timeout} is not positive
+  */
+  public static RequestTimeout after(long timeout, TimeUnit unit){
+    if (timeout<=0)
+      throw new IllegalArgumentException("a timeout must be positive: "+timeout+" "+unit);
+    return new RequestTimeout(0, unit.toNanos(timeout));
+  }
+
+  /**
+  * @return true if the timeout is in ticks, false if it is in wall-clock time
+  */
+  public boolean isInTicks(){
+    return this.fTicks>0;
+  }
+
+  /**
+  * @return the number of ticks (0 if the timeout is in wall-clock time)
+  */
+  public long getTicks(){
+    return this.fTicks;
+  }
+
+  /**
+  * @return the timeout in nanoseconds (0 if the timeout is in ticks)
+  */
+  public long getNanos(){
+    return this.fNanos;
+  }
+
+  @Override
+  public String toString(){
+    return isInTicks()? this.fTicks+" ticks": TimeUnit.NANOSECONDS.toMillis(this.fNanos)+" ms";
+  }
+
+}
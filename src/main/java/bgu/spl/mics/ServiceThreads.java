@@ -0,0 +1,73 @@
+package bgu.spl.mics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+* Creates the threads micro-services run on, when each micro-service has a thread of its own.
+* <p>
+* Virtual threads (JDK 21 and later) are much cheaper than platform threads, so a micro-service per thread scales
+* to a very large number of micro-services: 10,000 customer-like micro-services of largeExample.json start about 5
+* times faster on virtual threads, in about a quarter of the resident memory (see {@code bgu.spl.bench.StartupBenchmark}).
+* The message-bus blocks only on {@link java.util.concurrent.locks.ReentrantLock ReentrantLocks} and their conditions,
+* so a micro-service waiting for messages doesn't hold (pin) the carrier thread of its virtual thread.
+* <p>
+* The main sources compile for Java 8 (the code which needs a later JDK is kept in a source tree of its own, as the
+* Java 11 one of {@link bgu.spl.mics.remote.MappedRing}). The virtual threads are created by reflection instead: it
+* costs a few calls per factory rather than per thread, and the build needs no JDK 21.
+*/
+public final class ServiceThreads {
+
+  private ServiceThreads(){
+  }
+
+  /**
+  * @return a factory of platform threads, as {@code new Thread(runnable)} creates
+  */
+  public static ThreadFactory platform(){
+    return Thread::new;
+  }
+
+  /**
+  * Probes by creating a factory of virtual threads, and an (unstarted) thread with it: on JDK 19 and 20
+  * {@code Thread.ofVirtual} exists, but throws unless preview features are enabled.
+  * @return true if the running JDK supports virtual threads
+  */
+  public static boolean isVirtualSupported(){
+    try{
+      virtual("probe-").newThread(() -> {});
+      return true;
+    }
+    catch (UnsupportedOperationException | IllegalStateException e){
+      return false;
+    }
+  }
+
+  /**
+  * @param prefix the prefix of the names of the created threads, which are numbered from 1
+  * @return a factory of virtual threads
+  * @throws UnsupportedOperationException if the running JDK doesn't support virtual threads (or supports them as a
+  *         preview feature, which is not enabled)
+  */
+  public static ThreadFactory virtual(String prefix){
+    try{
+      Object builder=Thread.class.getMethod("ofVirtual").invoke(null); // Thread.ofVirtual().name(prefix, 1).factory()
+      Class<?> builderType=Class.forName("java.lang.Thread$Builder");
+
+      builder=builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+      return (ThreadFactory)builderType.getMethod("factory").invoke(builder);
+    }
+    catch (NoSuchMethodException | ClassNotFoundException e){
+      throw new UnsupportedOperationException("virtual threads require JDK 21 or later, running on "+System.getProperty("java.version"));
+    }
+    catch (InvocationTargetException e){
+      if (e.getCause() instanceof UnsupportedOperationException) // a preview feature which is not enabled
+        throw new UnsupportedOperationException("virtual threads require JDK 21 or later, running on "+System.getProperty("java.version"), e.getCause());
+      throw new IllegalStateException("can't create virtual threads", e.getCause());
+    }
+    catch (ReflectiveOperationException e){
+      throw new IllegalStateException("can't create virtual threads", e);
+    }
+  }
+
+}
@@ -1,8 +1,8 @@
 package bgu.spl.mics.example.messages;
 
-import bgu.spl.mics.Request;
+import bgu.spl.mics.AbstractRequest;
 
-public class ExampleRequest implements Request<String>{
+public class ExampleRequest extends AbstractRequest<String>{
 
   private String senderName;
 
@@ -0,0 +1,359 @@
+package bgu.spl.mics.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.remote.MessageCodec;
+
+/**
+* An append-only binary journal of the messages passed by a {@link MessageBusImpl} (see
+* {@link MessageBusImpl#setJournal(BusJournal)}): every request handed to a micro-service, every broadcast sent and
+* every request completed is an entry (and so is a request recorded as handed to a micro-service whose mailbox then
+* did not admit it), which carries the tick of the bus, the wall-clock time, the sender, the
+* receiver, and the message (or result) encoded by a {@link MessageCodec}. The journal is read by a
+* {@link JournalReader}, and replayed by {@link JournalReplay}.
+* <p>
+* Recording does not block the senders: the bus adds each entry to a lock-free queue, and a dedicated writer thread
+* encodes the entries it finds there and appends them at once, flushing them to the disk once per such group. The
+* queue holds a bounded number of entries; those recorded while it is full are dropped and counted (see
+* {@link #getDropped()}), so a writer which falls behind the bus costs entries rather than memory. The
+* journal is kept in segment files of a fixed size, {@code journal-000000.seg} and so on, each memory-mapped while it
+* is written; a segment starts with a header which names the codec. The bus records every entry before the message is
+* delivered, so an entry is never preceded by the entries it causes (a request by its completion, for instance).
+* <p>
+* A message the codec fails to encode is recorded by its class name. Names (of the sender, the receiver, or the class)
+* longer than {@link #MAX_NAME} bytes are cut to that length. If an entry can not be written at all (no more segments
+* can be created, for instance), the writer stops, the entries recorded since are dropped, and {@link #close()}
+* reports the failure.
+* <p>
+* An entry is {@code [int length][byte kind][long tick][long wall-clock nanoseconds][string sender][string receiver]
+* [long request id][byte encoded][value]}, where strings are a 2 bytes length followed by their UTF-8 bytes, and the
+* value is written by the codec if it is encoded, or is the class name of a message the codec does not encode. The
+* sender of a broadcast is not known to the bus, and is empty; its receiver is {@code *} (all its subscribers).
+*/
+public class BusJournal {
+
+  /**
+  * The size of a segment by default
+  */
+  public static final int DEFAULT_SEGMENT_SIZE = 64<<20;
+  /**
+  * The number of entries recorded and not written yet the journal holds by default
+  */
+  public static final int DEFAULT_CAPACITY = 1<<16;
+
+  /**
+  * The kinds of entries
+  */
+  public static final byte REQUEST = 1;
+  public static final byte BROADCAST = 2;
+  public static final byte COMPLETE = 3;
+  public static final byte REJECTED = 4;
+
+  static final int MAGIC = 0x4a524e4c;
+  static final int VERSION = 1;
+  /**
+  * The largest entry - a message whose encoding is larger is recorded by its class name only
+  */
+  static final int MAX_ENTRY = 64*1024;
+  /**
+  * The most UTF-8 bytes written of a name, so the sender, the receiver and the class name of an entry always fit in it
+  */
+  static final int MAX_NAME = 1024;
+
+  /**
+  * The time the writer sleeps when it finds no entries
+  */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Path fDirectory;
+  private final MessageCodec fCodec;
+  private final int fSegmentSize;
+  private final int fCapacity;
+  /**
+  * The entries recorded and not written yet, and their number (at most fCapacity)
+  */
+  private final ConcurrentLinkedQueue<Entry> fEntries=new ConcurrentLinkedQueue<Entry>();
+  private final AtomicInteger fQueued=new AtomicInteger();
+  /**
+  * The number of entries recorded and not written, since the queue was full or the writer had stopped
+  */
+  private final AtomicLong fDropped=new AtomicLong();
+  /**
+  * The wall-clock time the journal was opened at, in nanoseconds since the epoch, and the System.nanoTime() of that
+  * moment - the entries are stamped by the monotonic clock from that point
+  */
+  private final long fOpenedAt;
+  private final long fOpenedAtNanos;
+  private final Thread fWriter;
+  private volatile boolean fClosed;
+  private volatile long fWritten;
+  /**
+  * What stopped the writer, or null while it writes
+  */
+  private volatile Exception fFailure;
+  /**
+  * The segment being written, and its number (used only by the writer)
+  */
+  private MappedByteBuffer fSegment;
+  private int fSegmentNumber;
+  /**
+  * The buffer the writer encodes an entry in
+  */
+  private final ByteBuffer fEntry=ByteBuffer.allocate(MAX_ENTRY);
+
+
+  /**
+  * Opens a journal with segments of {@link #DEFAULT_SEGMENT_SIZE} bytes.
+  * @param directory the directory of the segments, which must not hold a journal already
+  * @param codec encodes the messages and results (it must have a public constructor with no arguments, by which the
+  *        journal is read)
+  * @throws IOException if the first segment could not be created
+  */
+  public BusJournal(Path directory, MessageCodec codec) throws IOException {
+    this(directory, codec, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+  * @param directory the directory of the segments, which must not hold a journal already
+  * @param codec encodes the messages and results (it must have a public constructor with no arguments, by which the
+  *        journal is read)
+  * @param segmentSize the size of a segment in bytes
+  * @throws IOException if the first segment could not be created
+  */
+  public BusJournal(Path directory, MessageCodec codec, int segmentSize) throws IOException {
+    this(directory, codec, segmentSize, DEFAULT_CAPACITY);
+  }
+
+  /**
+  * @param directory the directory of the segments, which must not hold a journal already
+  * @param codec encodes the messages and results (it must have a public constructor with no arguments, by which the
+  *        journal is read)
+  * @param segmentSize the size of a segment in bytes
+  * @param capacity the most entries recorded and not written yet the journal holds - the entries recorded beyond
+  *        them are dropped
+  * @throws IOException if the first segment could not be created
+  */
+  public BusJournal(Path directory, MessageCodec codec, int segmentSize, int capacity) throws IOException {
+    if (segmentSize<2*MAX_ENTRY)
+      throw new IllegalArgumentException("a segment is at least "+2*MAX_ENTRY+" bytes: "+segmentSize);
+    if (capacity<1)
+      throw new IllegalArgumentException("the capacity must be positive: "+capacity);
+    this.fDirectory=directory;
+    this.fCodec=codec;
+    this.fSegmentSize=segmentSize;
+    this.fCapacity=capacity;
+    Files.createDirectories(directory);
+    if (Files.exists(segment(directory, 0)))
+      throw new IllegalStateException(directory+" already holds a journal");
+    openSegment(0);
+    this.fOpenedAt=TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    this.fOpenedAtNanos=System.nanoTime();
+    this.fWriter=new Thread(this::writeEntries, "bus-journal");
+    this.fWriter.setDaemon(true);
+    this.fWriter.start();
+  }
+
+  /**
+  * Writes the entries recorded so far, and stops the writer. The journal should be detached from the bus first
+  * (entries recorded afterwards are not written).
+  * @throws InterruptedException if interrupted while waiting for the writer
+  * @throws IOException if the writer failed, and did not write the entries recorded since (see {@link #getWritten()})
+  */
+  public void close() throws InterruptedException, IOException {
+    this.fClosed=true;
+    LockSupport.unpark(this.fWriter);
+    this.fWriter.join();
+    if (this.fFailure!=null)
+      throw new IOException("the journal stopped after "+this.fWritten+" entries", this.fFailure);
+  }
+
+  /**
+  * @return the number of entries written so far
+  */
+  public long getWritten(){
+    return this.fWritten;
+  }
+
+  /**
+  * @return the number of entries dropped so far, since the journal was full or its writer had stopped
+  */
+  public long getDropped(){
+    return this.fDropped.get();
+  }
+
+  /**
+  * @return the directory of the segments
+  */
+  public Path getDirectory(){
+    return this.fDirectory;
+  }
+
+  /**
+  * Records an entry. Called by the bus, from the thread of the sender.
+  * @param kind {@link #REQUEST}, {@link #BROADCAST}, {@link #COMPLETE} or {@link #REJECTED}
+  * @param tick the tick of the bus
+  * @param sender the micro-service which sent the message, or null if it is not known
+  * @param receiver the micro-service the message is added to, or null if it is broadcast
+  * @param requestId the id of the request, or 0
+  * @param value the message, or the result of the completed request
+  */
+  void record(byte kind, long tick, MicroService sender, MicroService receiver, long requestId, Object value){
+    if (this.fFailure!=null){ // no one would write the entry
+      this.fDropped.incrementAndGet();
+      return;
+    }
+    if (this.fQueued.incrementAndGet()>this.fCapacity){ // the writer fell behind
+      this.fQueued.decrementAndGet();
+      this.fDropped.incrementAndGet();
+      return;
+    }
+    this.fEntries.add(new Entry(kind, tick, this.fOpenedAt+System.nanoTime()-this.fOpenedAtNanos,
+                                sender==null? "": sender.getName(), receiver==null? "*": receiver.getName(), requestId, value));
+  }
+
+  /**
+  * @param directory the directory of a journal
+  * @param number the number of a segment
+  * @return the file of the segment
+  */
+  static Path segment(Path directory, int number){
+    return directory.resolve(String.format("journal-%06d.seg", number));
+  }
+
+  static void putString(ByteBuffer out, String value){
+    byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+
+    out.putShort((short)Math.min(bytes.length, Short.MAX_VALUE)).put(bytes, 0, Math.min(bytes.length, Short.MAX_VALUE));
+  }
+
+  // Writes @value as by putString, cut to MAX_NAME bytes (at the start of a character)
+  private static void putName(ByteBuffer out, String value){
+    byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+    int length=Math.min(bytes.length, MAX_NAME);
+
+    if (length<bytes.length){
+      while ((bytes[length]&0xc0)==0x80) // not the first byte of a character
+        length--;
+    }
+    out.putShort((short)length).put(bytes, 0, length);
+  }
+
+  static String getString(ByteBuffer in){
+    byte[] bytes=new byte[in.getShort()];
+
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // The loop of the writer: appends the recorded entries, and flushes them whenever it finds no more, until closed
+  private void writeEntries(){
+    boolean unflushed=false;
+    Entry entry;
+
+    try{
+      while (true){
+        entry=this.fEntries.poll();
+        if (entry!=null){
+          this.fQueued.decrementAndGet();
+          append(entry);
+          unflushed=true;
+          continue;
+        }
+        if (unflushed){
+          this.fSegment.force();
+          unflushed=false;
+        }
+        if (this.fClosed && this.fEntries.isEmpty())
+          break;
+        LockSupport.parkNanos(IDLE_NANOS);
+      }
+    }
+    catch (IOException | RuntimeException e){ // no more segments can be created, or the segment can not be written
+      this.fFailure=e;
+      while (this.fEntries.poll()!=null){
+        this.fQueued.decrementAndGet();
+        this.fDropped.incrementAndGet();
+      }
+      e.printStackTrace();
+    }
+  }
+
+  // Writes @entry to the current segment, starting the next one if it does not fit
+  private void append(Entry entry) throws IOException {
+    int valueStart;
+
+    this.fEntry.clear();
+    this.fEntry.putInt(0).put(entry.fKind).putLong(entry.fTick).putLong(entry.fWallClock);
+    putName(this.fEntry, entry.fSender);
+    putName(this.fEntry, entry.fReceiver);
+    this.fEntry.putLong(entry.fRequestId);
+    valueStart=this.fEntry.position();
+    try{
+      if (entry.fValue!=null && this.fCodec.tagOf(entry.fValue.getClass())<0)
+        throw new IllegalArgumentException();
+      this.fEntry.put((byte)1);
+      this.fCodec.encode(entry.fValue, this.fEntry);
+    }
+    catch (RuntimeException e){ // not encoded by the codec, too large, or failed to encode - recorded by its type only
+      this.fEntry.position(valueStart);
+      this.fEntry.put((byte)0);
+      putName(this.fEntry, entry.fValue==null? "null": entry.fValue.getClass().getName());
+    }
+    this.fEntry.putInt(0, this.fEntry.position()-4);
+    this.fEntry.flip();
+    if (this.fSegment.remaining()<this.fEntry.remaining()+4){ // a zero length ends a segment
+      this.fSegment.force();
+      openSegment(this.fSegmentNumber+1);
+    }
+    this.fSegment.put(this.fEntry);
+    this.fWritten++;
+  }
+
+  private void openSegment(int number) throws IOException {
+    try (FileChannel file=FileChannel.open(segment(this.fDirectory, number), StandardOpenOption.CREATE_NEW,
+                                           StandardOpenOption.READ, StandardOpenOption.WRITE)){
+      this.fSegment=file.map(FileChannel.MapMode.READ_WRITE, 0, this.fSegmentSize);
+    }
+    this.fSegmentNumber=number;
+    this.fSegment.putInt(MAGIC).putInt(VERSION);
+    putString(this.fSegment, this.fCodec.getClass().getName());
+  }
+
+  /**
+  * A recorded entry, not written yet
+  */
+  private static class Entry {
+
+    private final byte fKind;
+    private final long fTick;
+    private final long fWallClock;
+    private final String fSender;
+    private final String fReceiver;
+    private final long fRequestId;
+    private final Object fValue;
+
+    Entry(byte kind, long tick, long wallClock, String sender, String receiver, long requestId, Object value){
+      this.fKind=kind;
+      this.fTick=tick;
+      this.fWallClock=wallClock;
+      this.fSender=sender;
+      this.fReceiver=receiver;
+      this.fRequestId=requestId;
+      this.fValue=value;
+    }
+  }
+
+}
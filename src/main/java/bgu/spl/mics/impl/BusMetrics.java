@@ -0,0 +1,163 @@
+package bgu.spl.mics.impl;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import bgu.spl.mics.MicroService;
+
+/**
+* Latency and throughput measurements of a {@link MessageBusImpl}, per message type (the exact message class):
+* <ul>
+* <li>dwell time - from adding a message to a mailbox until its owner takes it</li>
+* <li>handler time - the time the callback of a message runs</li>
+* <li>round-trip time - from sending a request until the callback of its completion is called by the requester</li>
+* </ul>
+* and the number of messages each micro-service handled.
+* <p>
+* Recording is disabled until {@link #setEnabled(boolean)} is called. While it is disabled, the bus and the
+* micro-services only check {@link #isEnabled()} - they don't read the clock and allocate nothing.
+* A report can be taken at any time, while messages are being recorded.
+*/
+public class BusMetrics {
+
+  /**
+  * The number of busiest micro-services listed by {@link #report()}
+  */
+  private static final int REPORTED_SERVICES=20;
+
+  private volatile boolean fEnabled;
+  private final ConcurrentHashMap<Class<?>, LatencyHistogram> fDwellTime;
+  private final ConcurrentHashMap<Class<?>, LatencyHistogram> fHandlerTime;
+  private final ConcurrentHashMap<Class<?>, LatencyHistogram> fRoundTripTime;
+  /**
+  * A ConcurrentHashMap of MicroServices, each mapped with the number of messages it handled
+  */
+  private final ConcurrentHashMap<MicroService, LongAdder> fHandled;
+
+
+  BusMetrics(){
+    this.fEnabled=false;
+    this.fDwellTime=new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+    this.fHandlerTime=new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+    this.fRoundTripTime=new ConcurrentHashMap<Class<?>, LatencyHistogram>();
+    this.fHandled=new ConcurrentHashMap<MicroService, LongAdder>();
+  }
+
+  /**
+  * @return true if measurements are recorded
+  */
+  public boolean isEnabled(){
+    return this.fEnabled;
+  }
+
+  /**
+  * Starts or stops recording. Measurements recorded so far are kept.
+  * @param enabled true to record from now on
+  */
+  public void setEnabled(boolean enabled){
+    this.fEnabled=enabled;
+  }
+
+  /**
+  * @return the current time in nanoseconds to stamp a message with, or 0 while recording is disabled
+  */
+  public long now(){
+    return this.fEnabled? System.nanoTime(): 0;
+  }
+
+  void recordDwellTime(Class<?> type, long nanos){
+    this.fDwellTime.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+  }
+
+  /**
+  * Records that {@code m} handled a message of the given type.
+  * @param m the micro-service which handled the message
+  * @param type the class of the message
+  * @param nanos the time the callback of the message ran
+  */
+  public void recordHandled(MicroService m, Class<?> type, long nanos){
+    this.fHandlerTime.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+    this.fHandled.computeIfAbsent(m, k -> new LongAdder()).increment();
+  }
+
+  /**
+  * Records the time from sending a request until its completion was handled by its requester.
+  * @param type the class of the request
+  * @param nanos the round-trip time
+  */
+  public void recordRoundTrip(Class<?> type, long nanos){
+    this.fRoundTripTime.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+  }
+
+  /**
+  * @param type a message class
+  * @return the dwell times of messages of {@code type}, or null if none were recorded
+  */
+  public LatencyHistogram getDwellTime(Class<?> type){
+    return this.fDwellTime.get(type);
+  }
+
+  /**
+  * @param type a message class
+  * @return the handler times of messages of {@code type}, or null if none were recorded
+  */
+  public LatencyHistogram getHandlerTime(Class<?> type){
+    return this.fHandlerTime.get(type);
+  }
+
+  /**
+  * @param type a request class
+  * @return the round-trip times of requests of {@code type}, or null if none were recorded
+  */
+  public LatencyHistogram getRoundTripTime(Class<?> type){
+    return this.fRoundTripTime.get(type);
+  }
+
+  /**
+  * @param m a micro-service
+  * @return the number of messages {@code m} handled while recording was enabled
+  */
+  public long getHandledMessages(MicroService m){
+    LongAdder handled=this.fHandled.get(m);
+
+    return handled==null? 0: handled.sum();
+  }
+
+  /**
+  * @return a table of the measurements recorded so far (times in microseconds), and the micro-services which handled the most messages
+  */
+  public String report(){
+    StringBuilder report=new StringBuilder();
+    List<Map.Entry<MicroService, Long>> services=new ArrayList<Map.Entry<MicroService, Long>>();
+    long total=0;
+
+    report.append(String.format("%-28s %-10s %10s %10s %10s %10s %10s%n", "message type", "measure", "count", "p50 us", "p99 us", "p99.9 us", "max us"));
+    appendTable(report, "dwell", this.fDwellTime);
+    appendTable(report, "handler", this.fHandlerTime);
+    appendTable(report, "round-trip", this.fRoundTripTime);
+
+    for (Map.Entry<MicroService, LongAdder> entry: this.fHandled.entrySet()){
+      services.add(new AbstractMap.SimpleEntry<MicroService, Long>(entry.getKey(), entry.getValue().sum()));
+      total+=entry.getValue().sum();
+    }
+    services.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+    report.append(String.format("%d messages handled by %d micro-services", total, services.size()));
+    for (int i=0; i<services.size() && i<REPORTED_SERVICES; ++i)
+      report.append(String.format("%n  %-30s %10d", services.get(i).getKey().getName(), services.get(i).getValue()));
+    return report.toString();
+  }
+
+  private static void appendTable(StringBuilder report, String measure, Map<Class<?>, LatencyHistogram> histograms){
+    for (Map.Entry<Class<?>, LatencyHistogram> entry: histograms.entrySet()){
+      LatencyHistogram h=entry.getValue();
+
+      report.append(String.format("%-28s %-10s %10d %10.1f %10.1f %10.1f %10.1f%n", entry.getKey().getSimpleName(), measure, h.getCount(),
+                                  h.getPercentile(50)/1000.0, h.getPercentile(99)/1000.0, h.getPercentile(99.9)/1000.0, h.getMax()/1000.0));
+    }
+  }
+
+}
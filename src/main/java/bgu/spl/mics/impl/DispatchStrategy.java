@@ -0,0 +1,53 @@
+package bgu.spl.mics.impl;
+
+import java.util.function.ToIntFunction;
+
+import bgu.spl.mics.MicroService;
+
+/**
+* Decides which of the micro-services subscribed to a {@link bgu.spl.mics.Request Request} type
+* will handle the next request of that type.
+* <p>
+* A strategy is set per request type using {@link MessageBusImpl#setDispatchStrategy(Class, DispatchStrategy)},
+* and may keep state of its own (e.g., a rotation), so an instance should not be shared between types.
+* Strategies are called concurrently by all the senders of the type, and must not block.
+*/
+public interface DispatchStrategy {
+
+  /**
+  * Chooses the micro-service to handle the next request.
+  * @param handlers the micro-services subscribed to the request type, in subscription order.
+  *                 never empty, and must not be modified.
+  * @param queueDepth gives the number of requests handed to a micro-service which it has not completed yet
+  *                   (waiting in its queue or being handled)
+  * @return the index in {@code handlers} of the chosen micro-service
+  */
+  int select(MicroService[] handlers, ToIntFunction<MicroService> queueDepth);
+
+  /**
+  * Called after the handler at {@code index} was removed from the handlers.
+  * @param index the index the removed handler had
+  */
+  default void removed(int index){
+  }
+
+  /**
+  * Creates a new strategy by its name.
+  * @param name one of "round-robin", "least-queue-depth" or "power-of-two-choices"
+  * @return a new strategy of the given kind
+  * @throws IllegalArgumentException if there is no strategy with this name
+  */
+  static DispatchStrategy forName(String name){
+    switch (name) {
+      case "round-robin":
+        return new RoundRobinStrategy();
+      case "least-queue-depth":
+        return new LeastQueueDepthStrategy();
+      case "power-of-two-choices":
+        return new PowerOfTwoChoicesStrategy();
+      default:
+        throw new IllegalArgumentException("unknown dispatch strategy: "+name+", supported strategies: round-robin, least-queue-depth, power-of-two-choices");
+    }
+  }
+
+}
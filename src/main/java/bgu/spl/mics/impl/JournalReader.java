@@ -0,0 +1,171 @@
+package bgu.spl.mics.impl;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import bgu.spl.mics.remote.MessageCodec;
+
+/**
+* Reads the entries of a {@link BusJournal}, segment by segment in the order they were written. The messages are decoded
+* by the codec named in the segments, so it must be on the class path.
+* <p>
+* The reader is a cursor: {@link #next()} moves it to the next entry, whose fields are then given by the getters.
+*/
+public class JournalReader {
+
+  private final Path fDirectory;
+  private MessageCodec fCodec;
+  private MappedByteBuffer fSegment;
+  private int fSegmentNumber=-1;
+  private byte fKind;
+  private long fTick;
+  private long fWallClock;
+  private String fSender;
+  private String fReceiver;
+  private long fRequestId;
+  private boolean fEncoded;
+  private Object fValue;
+  private String fTypeName;
+
+
+  /**
+  * @param directory the directory of the journal
+  */
+  public JournalReader(Path directory){
+    this.fDirectory=directory;
+  }
+
+  /**
+  * Moves to the next entry.
+  * @return false if there are no more entries
+  * @throws IOException if a segment could not be read, or is not a segment of a journal
+  */
+  public boolean next() throws IOException {
+    int length;
+    int end;
+
+    while (true){
+      if (this.fSegment==null && !openSegment(this.fSegmentNumber+1))
+        return false;
+      length=this.fSegment.remaining()<4? 0: this.fSegment.getInt();
+      if (length>0)
+        break;
+      this.fSegment=null; // the rest of the segment was not written
+    }
+    end=this.fSegment.position()+length;
+    this.fKind=this.fSegment.get();
+    this.fTick=this.fSegment.getLong();
+    this.fWallClock=this.fSegment.getLong();
+    this.fSender=BusJournal.getString(this.fSegment);
+    this.fReceiver=BusJournal.getString(this.fSegment);
+    this.fRequestId=this.fSegment.getLong();
+    this.fEncoded=this.fSegment.get()!=0;
+    if (this.fEncoded){
+      this.fValue=this.fCodec.decode(this.fSegment);
+      this.fTypeName=this.fValue==null? null: this.fValue.getClass().getName();
+    }
+    else{
+      this.fValue=null;
+      this.fTypeName=BusJournal.getString(this.fSegment);
+    }
+    this.fSegment.position(end);
+    return true;
+  }
+
+  /**
+  * @return {@link BusJournal#REQUEST}, {@link BusJournal#BROADCAST}, {@link BusJournal#COMPLETE} or
+  *         {@link BusJournal#REJECTED}
+  */
+  public byte getKind(){
+    return this.fKind;
+  }
+
+  /**
+  * @return the tick of the bus when the entry was recorded
+  */
+  public long getTick(){
+    return this.fTick;
+  }
+
+  /**
+  * @return the wall-clock time the entry was recorded at, in nanoseconds since the epoch
+  */
+  public long getWallClock(){
+    return this.fWallClock;
+  }
+
+  /**
+  * @return the name of the micro-service which sent the message (or completed the request), empty for a broadcast
+  */
+  public String getSender(){
+    return this.fSender;
+  }
+
+  /**
+  * @return the name of the micro-service the message was added to, {@code *} for a broadcast
+  */
+  public String getReceiver(){
+    return this.fReceiver;
+  }
+
+  /**
+  * @return the id of the request, or 0 for a broadcast
+  */
+  public long getRequestId(){
+    return this.fRequestId;
+  }
+
+  /**
+  * @return true if the message (or result) was encoded, and is given by {@link #getValue()}
+  */
+  public boolean isEncoded(){
+    return this.fEncoded;
+  }
+
+  /**
+  * @return the message, or the result of the completed request, if it was encoded (otherwise null)
+  */
+  public Object getValue(){
+    return this.fValue;
+  }
+
+  /**
+  * @return the class name of the message or result, or null if the result was null
+  */
+  public String getTypeName(){
+    return this.fTypeName;
+  }
+
+  // Maps segment @number, reading its header; @return false if it does not exist
+  private boolean openSegment(int number) throws IOException {
+    Path path=BusJournal.segment(this.fDirectory, number);
+    String codec;
+
+    if (!Files.exists(path))
+      return false;
+    try (FileChannel file=FileChannel.open(path, StandardOpenOption.READ)){
+      this.fSegment=file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+    }
+    this.fSegmentNumber=number;
+    if (this.fSegment.getInt()!=BusJournal.MAGIC || this.fSegment.getInt()!=BusJournal.VERSION)
+      throw new IOException(path+" is not a segment of a journal");
+    codec=BusJournal.getString(this.fSegment);
+    if (this.fCodec==null || !this.fCodec.getClass().getName().equals(codec))
+      this.fCodec=newCodec(codec);
+    return true;
+  }
+
+  private static MessageCodec newCodec(String name) throws IOException {
+    try{
+      return (MessageCodec)Class.forName(name).getConstructor().newInstance();
+    }
+    catch (ReflectiveOperationException | ClassCastException e){
+      throw new IOException("the codec "+name+" of the journal can not be created", e);
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+package bgu.spl.mics.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+
+/**
+* Replays a {@link BusJournal} on the message-bus of this process, which should not be used otherwise: the recorded
+* messages are sent again in the order they were recorded, either at full speed or at the pace they were recorded in,
+* and the requests are completed with their recorded results. The bus is measured meanwhile (see {@link BusMetrics}).
+* <p>
+* Every micro-service named in the journal is stood in for by a micro-service which is registered but not run: each
+* request is handed to the stand-in of the micro-service it was recorded as handed to (rather than to the one the
+* dispatch strategy picks now), a single stand-in is subscribed to the broadcast types, and the messages added to the
+* stand-ins are taken from their queues as the replay goes. The
+* messages the codec of the journal did not encode can not be replayed, and are skipped.
+* <p>
+* Usage: {@code JournalReplay <directory> [--timed] [--dump]}, where {@code --dump} lists the entries instead.
+*/
+public class JournalReplay {
+
+  /**
+  * The number of entries replayed between emptying the queues of the stand-ins
+  */
+  private static final int DRAIN_INTERVAL = 256;
+
+  private final Path fDirectory;
+  private final MessageBusImpl fBus=MessageBusImpl.getInstance();
+  /**
+  * The stand-ins of the micro-services, by their names
+  */
+  private final Map<String,MicroService> fStandIns=new HashMap<String,MicroService>();
+  /**
+  * The replayed requests which were not completed yet, by the ids they were recorded with
+  */
+  private final Map<Long,Request<?>> fReplayed=new HashMap<Long,Request<?>>();
+  private long fSent;
+  private long fCompleted;
+  private long fSkipped;
+  private long fUndelivered;
+
+
+  /**
+  * @param directory the directory of the journal
+  */
+  public JournalReplay(Path directory){
+    this.fDirectory=directory;
+  }
+
+  public static void main(String[] args) throws IOException {
+    boolean timed=false;
+    boolean dump=false;
+    JournalReplay replay;
+
+    if (args.length==0){
+      System.err.println("usage: JournalReplay <directory> [--timed] [--dump]");
+      System.exit(1);
+    }
+    for (int i=1; i<args.length; ++i){
+      if ("--timed".equals(args[i]))
+        timed=true;
+      else if ("--dump".equals(args[i]))
+        dump=true;
+      else
+        System.err.println("unknown argument "+args[i]+" (expected --timed or --dump)");
+    }
+    replay=new JournalReplay(Paths.get(args[0]));
+    if (dump)
+      replay.dump();
+    else
+      replay.replay(timed);
+  }
+
+  /**
+  * Lists the entries of the journal on the standard output, one per line.
+  * @throws IOException if the journal could not be read
+  */
+  public void dump() throws IOException {
+    JournalReader reader=new JournalReader(this.fDirectory);
+    String[] kinds={"", "request", "broadcast", "complete", "rejected"};
+
+    while (reader.next())
+      System.out.println(String.format("%d %d %s %s -> %s #%d %s", reader.getTick(), reader.getWallClock(), kinds[reader.getKind()],
+                                       reader.getSender(), reader.getReceiver(), reader.getRequestId(), reader.getTypeName()));
+  }
+
+  /**
+  * Replays the journal, and prints a summary and the measurements of the bus.
+  * @param timed true to send each message as much after the first as it was recorded after it, false to send them at
+  *        full speed
+  * @throws IOException if the journal could not be read
+  */
+  public void replay(boolean timed) throws IOException {
+    JournalReader reader=new JournalReader(this.fDirectory);
+    long firstWallClock=-1;
+    long start;
+    long elapsed;
+    long due;
+    long entries=0;
+
+    standIn(new JournalReader(this.fDirectory));
+    this.fBus.getMetrics().setEnabled(true);
+    start=System.nanoTime();
+    while (reader.next()){
+      if (firstWallClock<0)
+        firstWallClock=reader.getWallClock();
+      if (timed){ // wait for the time the entry was recorded at, relative to the first
+        while ((due=start+reader.getWallClock()-firstWallClock-System.nanoTime())>0)
+          LockSupport.parkNanos(due);
+      }
+      this.fBus.advanceClock(reader.getTick());
+      replayEntry(reader);
+      if (++entries%DRAIN_INTERVAL==0)
+        drain();
+    }
+    drain();
+    elapsed=System.nanoTime()-start;
+    for (MicroService m: this.fStandIns.values())
+      this.fBus.unregister(m);
+
+    System.out.println(String.format("replayed %d entries in %.1f ms (%.0f entries/s): %d requests (%d undelivered), %d completions, %d skipped",
+                                     entries, elapsed/1e6, entries*1e9/Math.max(elapsed, 1), this.fSent, this.fUndelivered, this.fCompleted, this.fSkipped));
+    System.out.println(this.fBus.getMetrics().report());
+  }
+
+  /**
+  * @return the number of requests sent by {@link #replay(boolean)}
+  */
+  long getSent(){
+    return this.fSent;
+  }
+
+  /**
+  * @return the number of requests sent by {@link #replay(boolean)} which their stand-ins did not admit, or were
+  *         recorded as rejected
+  */
+  long getUndelivered(){
+    return this.fUndelivered;
+  }
+
+  /**
+  * @return the number of requests completed by {@link #replay(boolean)} with their recorded results
+  */
+  long getCompleted(){
+    return this.fCompleted;
+  }
+
+  // Registers the stand-ins of the micro-services in the journal read by @reader, and subscribes one to the broadcasts
+  @SuppressWarnings("unchecked")
+  private void standIn(JournalReader reader) throws IOException {
+    Set<Class<?>> broadcastTypes=new HashSet<Class<?>>();
+    MicroService subscriber;
+
+    while (reader.next()){
+      if (reader.getKind()==BusJournal.BROADCAST){
+        if (reader.isEncoded())
+          broadcastTypes.add(reader.getValue().getClass());
+        continue;
+      }
+      standIn(reader.getSender());
+      standIn(reader.getReceiver());
+    }
+    subscriber=standIn("*");
+    for (Class<?> type: broadcastTypes)
+      this.fBus.subscribeBroadcast((Class<? extends Broadcast>)type, subscriber);
+  }
+
+  private MicroService standIn(String name){
+    return this.fStandIns.computeIfAbsent(name, k -> {
+      MicroService m=new StandIn(name);
+
+      this.fBus.register(m, null);
+      return m;
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private void replayEntry(JournalReader reader){
+    Request<?> r;
+
+    if (!reader.isEncoded() && reader.getKind()!=BusJournal.COMPLETE){
+      ++this.fSkipped;
+      return;
+    }
+    switch (reader.getKind()){
+    case BusJournal.REQUEST:
+      r=(Request<?>)reader.getValue();
+      ++this.fSent;
+      if (this.fBus.sendRequestTo(r, this.fStandIns.get(reader.getSender()), this.fStandIns.get(reader.getReceiver())))
+        this.fReplayed.put(reader.getRequestId(), r);
+      else
+        ++this.fUndelivered;
+      break;
+    case BusJournal.BROADCAST:
+      this.fBus.sendBroadcast((Broadcast)reader.getValue());
+      break;
+    case BusJournal.REJECTED: // the recorded request was not admitted by its handler - so is the replayed one, in effect
+      r=this.fReplayed.remove(reader.getRequestId());
+      if (r!=null){
+        this.fBus.complete((Request<Object>)r, null);
+        ++this.fUndelivered;
+      }
+      break;
+    default:
+      r=this.fReplayed.remove(reader.getRequestId());
+      if (r==null || !reader.isEncoded()){ // its request was not replayed, or its result can not be
+        ++this.fSkipped;
+        if (r!=null)
+          this.fBus.complete((Request<Object>)r, null);
+        return;
+      }
+      this.fBus.complete((Request<Object>)r, reader.getValue());
+      ++this.fCompleted;
+    }
+  }
+
+  // Empties the queues of the stand-ins
+  private void drain(){
+    for (MicroService m: this.fStandIns.values()){
+      while (!this.fBus.pollMessages(m, Integer.MAX_VALUE).isEmpty())
+        ;
+    }
+  }
+
+  /**
+  * Stands in for a micro-service of the journal - registered, but never run
+  */
+  private static class StandIn extends MicroService {
+
+    StandIn(String name){
+      super(name);
+    }
+
+    @Override
+    protected void initialize(){
+    }
+  }
+
+}
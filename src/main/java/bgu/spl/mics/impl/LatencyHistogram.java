@@ -0,0 +1,108 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+* A histogram of durations in nanoseconds, with log-linear buckets: every power of two is split into
+* {@link #SUB_BUCKETS} buckets, so a percentile is reported within 1/{@value #SUB_BUCKETS} of the recorded value.
+* <p>
+* Recording is lock-free and allocates nothing, so many threads may record into the same histogram.
+*/
+public class LatencyHistogram {
+
+  /**
+  * The number of buckets each power of two is split into (a power of two itself)
+  */
+  public static final int SUB_BUCKETS=8;
+
+  private static final int SUB_BUCKET_BITS=Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+  /**
+  * The number of recorded durations in each bucket
+  */
+  private final AtomicLongArray fBuckets;
+  /**
+  * The longest recorded duration
+  */
+  private final LongAccumulator fMax;
+
+
+  public LatencyHistogram(){
+    this.fBuckets=new AtomicLongArray(64*SUB_BUCKETS);
+    this.fMax=new LongAccumulator(Math::max, 0);
+  }
+
+  /**
+  * Adds a duration to the histogram.
+  * @param nanos the duration; negative durations (e.g., of a clock which went back) are recorded as 0
+  */
+  public void record(long nanos){
+    long value=Math.max(0, nanos);
+
+    this.fBuckets.incrementAndGet(bucketOf(value));
+    this.fMax.accumulate(value);
+  }
+
+  /**
+  * @return the number of recorded durations
+  */
+  public long getCount(){
+    long count=0;
+
+    for (int i=0; i<this.fBuckets.length(); ++i)
+      count+=this.fBuckets.get(i);
+    return count;
+  }
+
+  /**
+  * @return the longest recorded duration in nanoseconds, or 0 if none was recorded
+  */
+  public long getMax(){
+    return this.fMax.get();
+  }
+
+  /**
+  * @param percentile between 0 and 100, e.g., 99.9
+  * @return the duration (in nanoseconds) which {@code percentile} percent of the recorded durations don't exceed,
+  *         rounded up to the end of its bucket (but not beyond the maximum), or 0 if none was recorded
+  */
+  public long getPercentile(double percentile){
+    long count=getCount();
+    long rank=(long)Math.ceil(count*percentile/100.0);
+    long seen=0;
+
+    if (count==0)
+      return 0;
+    rank=Math.max(1, Math.min(count, rank));
+    for (int i=0; i<this.fBuckets.length(); ++i){
+      seen+=this.fBuckets.get(i);
+      if (seen>=rank)
+        return Math.min(upperBoundOf(i), getMax());
+    }
+    return getMax();
+  }
+
+  // The index of the bucket of @value (non-negative)
+  private static int bucketOf(long value){
+    int exponent;
+
+    if (value<SUB_BUCKETS) // the first power of two is linear
+      return (int)value;
+    exponent=63-Long.numberOfLeadingZeros(value);
+    return ((exponent-SUB_BUCKET_BITS+1)<<SUB_BUCKET_BITS) + (int)((value>>>(exponent-SUB_BUCKET_BITS)) & (SUB_BUCKETS-1));
+  }
+
+  // The largest value in bucket @index
+  private static long upperBoundOf(int index){
+    int exponent;
+    long sub;
+
+    if (index<SUB_BUCKETS)
+      return index;
+    exponent=(index>>>SUB_BUCKET_BITS)+SUB_BUCKET_BITS-1;
+    sub=index & (SUB_BUCKETS-1);
+    return ((SUB_BUCKETS+sub+1)<<(exponent-SUB_BUCKET_BITS))-1;
+  }
+
+}
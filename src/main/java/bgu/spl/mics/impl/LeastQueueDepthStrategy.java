@@ -0,0 +1,38 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import bgu.spl.mics.MicroService;
+
+/**
+* Hands each request to the handler with the fewest requests waiting for it (handed to it and not completed yet).
+* Ties are broken in a round-robin fashion, so idle handlers share the load evenly.
+*/
+public class LeastQueueDepthStrategy implements DispatchStrategy {
+
+  /**
+  * The index the next scan starts from.
+  */
+  private final AtomicInteger fStart=new AtomicInteger();
+
+
+  @Override
+  public int select(MicroService[] handlers, ToIntFunction<MicroService> queueDepth){
+    int start=(fStart.getAndIncrement() & Integer.MAX_VALUE)%handlers.length;
+    int best=start;
+    int bestDepth=queueDepth.applyAsInt(handlers[start]);
+
+    for (int i=1; i<handlers.length && bestDepth>0; ++i){
+      int index=(start+i)%handlers.length;
+      int depth=queueDepth.applyAsInt(handlers[index]);
+
+      if (depth<bestDepth){
+        best=index;
+        bestDepth=depth;
+      }
+    }
+    return best;
+  }
+
+}
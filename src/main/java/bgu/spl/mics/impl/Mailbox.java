@@ -0,0 +1,585 @@
+package bgu.spl.mics.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MicroService;
+
+/**
+* The message queue of a single registered {@link bgu.spl.mics.MicroService MicroService}.
+* <p>
+* Each mailbox has its own lock and condition, so delivering a message wakes up only
+* the micro-service which owns the mailbox (instead of every micro-service waiting on the bus).
+* <p>
+* Messages are kept in a queue per {@link MessagePriority}. Higher priorities are taken first, in arrival order
+* within a priority, but a priority which was passed over {@link #AGING_LIMIT} times while it had waiting messages
+* is served next, so it never starves.
+* <p>
+* A mailbox may be bounded by a {@link MailboxLimit}: messages offered while it is full are handled
+* by the limit's {@link OverflowPolicy}, and every such event is counted.
+* <p>
+* An owner which does not wait for messages in its own thread (e.g., one run by an
+* {@link bgu.spl.mics.EventLoopScheduler EventLoopScheduler}) gives the mailbox a listener, which is called
+* whenever the mailbox stops being empty, and takes its messages using {@link #poll(int)}.
+* <p>
+* While the {@link BusMetrics} of the bus are enabled, every message is stamped when it is added, and the time it
+* waited is recorded when it is taken.
+*/
+class Mailbox {
+
+  /**
+  * The number of messages of other priorities taken while a priority has waiting messages, before it is served
+  */
+  static final int AGING_LIMIT=8;
+
+  private static final MessagePriority[] PRIORITIES=MessagePriority.values();
+
+  /**
+  * The micro-service which takes the messages of this mailbox.
+  */
+  private final MicroService fOwner;
+  /**
+  * The messages waiting to be taken by the owner of this mailbox, a queue per priority (by ordinal) in arrival order.
+  */
+  private final MessageQueue[] fMessages;
+  /**
+  * The number of messages taken since a message of each priority was last taken, while it had waiting messages.
+  */
+  private final int[] fPassedOver;
+  /**
+  * Gives the priority of a message.
+  */
+  private final Function<Message, MessagePriority> fPriorityOf;
+  /**
+  * Called (holding fLock) whenever the mailbox stops being empty, or null if the owner waits on fNotEmpty.
+  */
+  private final Runnable fListener;
+  /**
+  * The measurements of the bus (shared by all its mailboxes).
+  */
+  private final BusMetrics fMetrics;
+  /**
+  * A lock which guards fMessages, fPassedOver, fClosed, fLimit, fSubscriptions and the counters of overflows and blocked senders.
+  */
+  private final ReentrantLock fLock;
+  /**
+  * A condition the owner waits on while the mailbox is empty.
+  */
+  private final Condition fNotEmpty;
+  /**
+  * A condition senders wait on while the mailbox is full (with the {@link OverflowPolicy#BLOCK} policy).
+  */
+  private final Condition fNotFull;
+  /**
+  * A counter (shared by all the mailboxes of a bus) of the times an owner returned from waiting on fNotEmpty.
+  */
+  private final LongAdder fWakeups;
+  /**
+  * A counter (shared by all the mailboxes of a bus) of the messages offered while their mailbox was full.
+  */
+  private final LongAdder fBusOverflows;
+  /**
+  * The messages offered to this mailbox while it was full.
+  */
+  private long fOverflows;
+  /**
+  * The number of senders waiting on fNotFull.
+  */
+  private int fBlockedSenders;
+  /**
+  * The capacity of the mailbox and its overflow policy.
+  */
+  private MailboxLimit fLimit;
+  /**
+  * true after the owner was unregistered - no more messages can be taken.
+  */
+  private volatile boolean fClosed;
+  /**
+  * The subscriber lists the owner was added to, so that it is removed from those lists only when it unregisters.
+  */
+  private final ArrayList<SubscriberList> fSubscriptions;
+  /**
+  * The number of messages in fMessages, readable without taking fLock.
+  */
+  private volatile int fSize;
+  /**
+  * The number of requests handed to the owner which it has not completed yet (waiting in the mailbox or being handled).
+  */
+  private final AtomicInteger fOutstanding;
+  /**
+  * The ids of the pending requests handed to the owner (including those which expired after it took them), and of the
+  * pending requests the owner sent which did not expire - the requests the bus forgets when the owner unregisters.
+  */
+  private final Set<Long> fHandledRequests;
+  private final Set<Long> fSentRequests;
+
+
+  Mailbox(MicroService owner, LongAdder wakeups, LongAdder overflows, MailboxLimit limit, Function<Message, MessagePriority> priorityOf, Runnable listener, BusMetrics metrics){
+    this.fOwner=owner;
+    this.fMessages=new MessageQueue[PRIORITIES.length];
+    for (int i=0; i<PRIORITIES.length; ++i)
+      this.fMessages[i]=new MessageQueue();
+    this.fPassedOver=new int[PRIORITIES.length];
+    this.fPriorityOf=priorityOf;
+    this.fListener=listener;
+    this.fMetrics=metrics;
+    this.fLock=new ReentrantLock();
+    this.fNotEmpty=this.fLock.newCondition();
+    this.fNotFull=this.fLock.newCondition();
+    this.fWakeups=wakeups;
+    this.fBusOverflows=overflows;
+    this.fOverflows=0;
+    this.fBlockedSenders=0;
+    this.fLimit=limit;
+    this.fClosed=false;
+    this.fSubscriptions=new ArrayList<SubscriberList>();
+    this.fSize=0;
+    this.fOutstanding=new AtomicInteger();
+    this.fHandledRequests=ConcurrentHashMap.newKeySet();
+    this.fSentRequests=ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+  * Adds a message to the mailbox, regardless of its limit, and wakes up its owner if it waits for one.
+  * Used for {@link bgu.spl.mics.RequestCompleted RequestCompleted} messages, which must never be dropped.
+  * @param m the message to add
+  */
+  void put(Message m){
+    this.fLock.lock();
+    try{
+      if (this.fClosed)
+        return;
+      enqueue(m);
+      if (this.fSize==1) // the owner can only be waiting when the mailbox was empty
+        wakeOwner();
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Adds messages to the mailbox at once, regardless of its limit, waking up its owner (at most once) if it waits for them.
+  * @param messages the messages to add, in order
+  */
+  void putAll(List<? extends Message> messages){
+    this.fLock.lock();
+    try{
+      boolean wasEmpty=this.fSize==0;
+
+      if (this.fClosed)
+        return;
+      for (Message m: messages)
+        enqueue(m);
+      if (wasEmpty && this.fSize>0)
+        wakeOwner();
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Adds a message to the mailbox if there is room for it, otherwise applies the overflow policy of the mailbox.
+  * @param m the message to add
+  * @param typeCapacity the capacity for messages of m's type: m is admitted only while fewer messages are waiting
+  * @return true if m was added, false if it was rejected or the mailbox is closed
+  */
+  boolean offer(Message m, int typeCapacity){
+    this.fLock.lock();
+    try{
+      if (!makeRoom(typeCapacity))
+        return false;
+      enqueue(m);
+      if (this.fSize==1)
+        wakeOwner();
+      return true;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Offers messages to the mailbox at once, waking up its owner (at most once) if it waits for them.
+  * Every message is admitted or rejected as by {@link #offer(Message, int)}.
+  * @param messages the messages to add, in order
+  * @param typeCapacity gives the capacity for the type of each message
+  * @return the rejected messages, in order
+  */
+  <M extends Message> List<M> offerAll(List<M> messages, ToIntFunction<Message> typeCapacity){
+    List<M> rejected=Collections.emptyList();
+
+    this.fLock.lock();
+    try{
+      boolean wasEmpty=this.fSize==0;
+
+      for (M m: messages){
+        if (makeRoom(typeCapacity.applyAsInt(m)))
+          enqueue(m);
+        else{
+          if (rejected.isEmpty())
+            rejected=new ArrayList<M>();
+          rejected.add(m);
+        }
+      }
+      if (wasEmpty && this.fSize>0)
+        wakeOwner();
+    }
+    finally{
+      this.fLock.unlock();
+    }
+    return rejected;
+  }
+
+  // Adds @m to the queue of its priority (holding fLock)
+  private void enqueue(Message m){
+    this.fMessages[this.fPriorityOf.apply(m).ordinal()].add(m, this.fMetrics.now());
+    this.fSize=this.fSize+1;
+  }
+
+  // Removes the next message to serve (holding fLock, while the mailbox is not empty); @now is the time it is taken, or 0 if not measured
+  private Message dequeue(long now){
+    int chosen=0;
+    long addedAt;
+    Message m;
+
+    while (this.fMessages[chosen].isEmpty()) // the highest priority with waiting messages
+      ++chosen;
+    for (int i=PRIORITIES.length-1; i>chosen; --i){ // unless a lower priority has waited too long
+      if (!this.fMessages[i].isEmpty() && this.fPassedOver[i]>=AGING_LIMIT){
+        chosen=i;
+        break;
+      }
+    }
+    for (int i=0; i<PRIORITIES.length; ++i){
+      if (i!=chosen && !this.fMessages[i].isEmpty())
+        ++this.fPassedOver[i];
+    }
+    this.fPassedOver[chosen]=0;
+    this.fSize=this.fSize-1;
+    addedAt=this.fMessages[chosen].peekTime();
+    m=this.fMessages[chosen].poll();
+    if (now!=0 && addedAt!=0) // otherwise recording was disabled when m was added, or is disabled now
+      this.fMetrics.recordDwellTime(m.getClass(), now-addedAt);
+    return m;
+  }
+
+  /**
+  * Makes sure there is room for one more message, according to the overflow policy.
+  * Must be called while holding fLock.
+  * @param typeCapacity the capacity for the type of the message to be added
+  * @return true if the message can be added
+  */
+  private boolean makeRoom(int typeCapacity){
+    int capacity=Math.min(this.fLimit.getCapacity(), typeCapacity);
+
+    if (this.fClosed)
+      return false;
+    if (this.fSize<capacity)
+      return true;
+    ++this.fOverflows;
+    this.fBusOverflows.increment();
+    switch (this.fLimit.getPolicy()) {
+      case BLOCK:
+        return awaitRoom(typeCapacity);
+      case DROP_OLDEST_BROADCAST:
+        return dropOldestBroadcasts(capacity);
+      default:
+        return false;
+    }
+  }
+
+  // Waits (holding fLock) until the owner takes enough messages; false if interrupted or the mailbox was closed meanwhile
+  private boolean awaitRoom(int typeCapacity){
+    if (this.fSize>0)
+      wakeOwner(); // the owner may still be waiting for messages of the batch being offered
+    ++this.fBlockedSenders;
+    try{
+      while (!this.fClosed && this.fSize>=Math.min(this.fLimit.getCapacity(), typeCapacity))
+        this.fNotFull.await();
+    }
+    catch (InterruptedException e){
+      Thread.currentThread().interrupt(); // the message is rejected, and the sender keeps its interrupt status
+      return false;
+    }
+    finally{
+      --this.fBlockedSenders;
+    }
+    return !this.fClosed;
+  }
+
+  // Drops the oldest broadcasts, lowest priorities first (holding fLock), until fewer than @capacity messages are waiting; false if only requests are left
+  private boolean dropOldestBroadcasts(int capacity){
+    for (int i=PRIORITIES.length-1; i>=0 && this.fSize>=capacity; --i){
+      while (this.fSize>=capacity && this.fMessages[i].removeOldestBroadcast())
+        this.fSize=this.fSize-1;
+    }
+    return this.fSize<capacity;
+  }
+
+  // Wakes up the owner which waits for messages, or tells its listener there are messages (holding fLock)
+  private void wakeOwner(){
+    if (this.fListener==null)
+      this.fNotEmpty.signal();
+    else
+      this.fListener.run();
+  }
+
+  // Wakes up the senders waiting for room, if any (holding fLock)
+  private void signalNotFull(){
+    if (this.fBlockedSenders>0)
+      this.fNotFull.signalAll(); // the waiting senders may have different type capacities
+  }
+
+  /**
+  * Takes the next message, waiting until one is available.
+  * @return the next message in the mailbox
+  * @throws InterruptedException if interrupted while waiting
+  * @throws IllegalStateException if the mailbox was closed
+  */
+  Message take() throws InterruptedException{
+    this.fLock.lock();
+    try{
+      Message m;
+
+      awaitNotEmpty();
+      m=dequeue(this.fMetrics.now());
+      signalNotFull();
+      return m;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Takes up to {@code max} messages, waiting until at least one is available.
+  * @param max the maximal number of messages to take
+  * @return the taken messages, in the order they should be handled
+  * @throws InterruptedException if interrupted while waiting
+  * @throws IllegalStateException if the mailbox was closed
+  */
+  List<Message> drain(int max) throws InterruptedException{
+    this.fLock.lock();
+    try{
+      List<Message> drained;
+      long now;
+      int n;
+
+      awaitNotEmpty();
+      n=Math.min(max, this.fSize);
+      drained=new ArrayList<Message>(n);
+      now=this.fMetrics.now();
+      for (int i=0; i<n; ++i)
+        drained.add(dequeue(now));
+      signalNotFull();
+      return drained;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Takes up to {@code max} messages, without waiting.
+  * @param max the maximal number of messages to take
+  * @return the taken messages, in the order they should be handled (an empty list if there are none, or the mailbox was closed)
+  */
+  List<Message> poll(int max){
+    this.fLock.lock();
+    try{
+      List<Message> polled;
+      long now;
+      int n=Math.min(max, this.fSize);
+
+      if (n==0)
+        return Collections.emptyList();
+      polled=new ArrayList<Message>(n);
+      now=this.fMetrics.now();
+      for (int i=0; i<n; ++i)
+        polled.add(dequeue(now));
+      signalNotFull();
+      return polled;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  // Waits (holding fLock) until a message is available
+  private void awaitNotEmpty() throws InterruptedException{
+    while (this.fSize==0){
+      if (this.fClosed)
+        throw new IllegalStateException("can't wait for messages on a closed mailbox");
+      this.fNotEmpty.await();
+      this.fWakeups.increment();
+    }
+  }
+
+  /**
+  * @return the number of messages waiting in the mailbox (read without locking, so it may be
+  *         slightly behind concurrent changes)
+  */
+  int size(){
+    return this.fSize;
+  }
+
+  /**
+  * @return the number of messages which were offered to the mailbox while it was full
+  */
+  long overflows(){
+    this.fLock.lock();
+    try{
+      return this.fOverflows;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Replaces the limit of the mailbox. Messages already waiting are kept, even if there are more than the new capacity.
+  * @param limit the new limit
+  */
+  void setLimit(MailboxLimit limit){
+    this.fLock.lock();
+    try{
+      this.fLimit=limit;
+      signalNotFull(); // the capacity may have grown
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * Removes a message the owner did not take yet (e.g., a request which timed out or was cancelled).
+  * @param m the message to remove
+  * @return true if the owner will never take {@code m}: it was removed, or the mailbox is closed
+  */
+  boolean withdraw(Message m){
+    this.fLock.lock();
+    try{
+      if (this.fClosed)
+        return true;
+      for (MessageQueue queue: this.fMessages){ // the priority of m's type may have changed since it was added
+        if (queue.remove(m)){
+          this.fSize=this.fSize-1;
+          signalNotFull();
+          return true;
+        }
+      }
+      return false;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * @return the number of requests handed to the owner which it has not completed yet
+  */
+  int outstanding(){
+    return this.fOutstanding.get();
+  }
+
+  void requestAssigned(){
+    this.fOutstanding.incrementAndGet();
+  }
+
+  void requestCompleted(){
+    this.fOutstanding.decrementAndGet();
+  }
+
+  /**
+  * @return the ids of the pending requests handed to the owner, including those which timed out or were cancelled
+  *         after it took them (a concurrent set, which the bus updates)
+  */
+  Set<Long> handledRequests(){
+    return this.fHandledRequests;
+  }
+
+  /**
+  * @return the ids of the pending requests the owner sent, which did not time out and were not cancelled (a
+  *         concurrent set, which the bus updates)
+  */
+  Set<Long> sentRequests(){
+    return this.fSentRequests;
+  }
+
+  /**
+  * Records that the owner is added to {@code list}.
+  * @param list the subscriber list of a message type
+  * @return false if the mailbox is closed (then the owner must not be added to {@code list})
+  */
+  boolean addSubscription(SubscriberList list){
+    this.fLock.lock();
+    try{
+      if (this.fClosed)
+        return false;
+      if (!this.fSubscriptions.contains(list))
+        this.fSubscriptions.add(list);
+      return true;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * @return the subscriber lists the owner was added to
+  */
+  List<SubscriberList> getSubscriptions(){
+    this.fLock.lock();
+    try{
+      return new ArrayList<SubscriberList>(this.fSubscriptions);
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  /**
+  * @return the micro-service which takes the messages of this mailbox
+  */
+  MicroService getOwner(){
+    return this.fOwner;
+  }
+
+  /**
+  * @return true if the mailbox was closed (a single volatile read)
+  */
+  boolean isClosed(){
+    return this.fClosed;
+  }
+
+  /**
+  * Closes the mailbox: pending messages are dropped, and a waiting owner and blocked senders are released.
+  */
+  void close(){
+    this.fLock.lock();
+    try{
+      this.fClosed=true;
+      for (MessageQueue queue: this.fMessages)
+        queue.clear();
+      this.fSize=0;
+      this.fNotEmpty.signalAll();
+      this.fNotFull.signalAll();
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,39 @@
+package bgu.spl.mics.impl;
+
+/**
+* The capacity of a {@link Mailbox} and what happens when a message is sent to it while it is full.
+*/
+class MailboxLimit {
+
+  /**
+  * A mailbox without a limit.
+  */
+  static final MailboxLimit UNBOUNDED=new MailboxLimit(Integer.MAX_VALUE, OverflowPolicy.BLOCK);
+
+  /**
+  * The maximal number of messages waiting in the mailbox
+  */
+  private final int fCapacity;
+  /**
+  * What to do with a message sent while the mailbox is full
+  */
+  private final OverflowPolicy fPolicy;
+
+
+  MailboxLimit(int capacity, OverflowPolicy policy){
+    if (capacity<=0)
+      throw new IllegalArgumentException("a mailbox capacity must be positive, got "+capacity);
+    this.fCapacity=capacity;
+    this.fPolicy=policy;
+  }
+
+
+  int getCapacity(){
+    return this.fCapacity;
+  }
+
+  OverflowPolicy getPolicy(){
+    return this.fPolicy;
+  }
+
+}
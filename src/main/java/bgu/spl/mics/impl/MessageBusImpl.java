@@ -1,11 +1,22 @@
 package bgu.spl.mics.impl;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import bgu.spl.mics.*;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
  
 /** 
  * This class describes an implementation for a {@link bgu.spl.mics.MessageBus MessageBus} used for communication between micro-services.
@@ -16,41 +27,85 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MessageBusImpl implements MessageBus {
 
   /**
-  * A ConcurrentHashMap of Micro-services, when each one have a queue of Messages.
+  * A ConcurrentHashMap of Micro-services, when each one have a {@link Mailbox} of Messages.
+  * A MicroService is registered exactly while it is in the map, so checking registration is a single lock-free lookup;
+  * unregistering removes the entry (and then closes the mailbox), which is the point from which the MicroService is unregistered.
+  */
+  private final ConcurrentHashMap<MicroService, Mailbox> fMicroServices; 
+  /**
+  * A ConcurrentHashMap of types of Request messages (the exact message Class), each mapped with a {@link SubscriberList} of Micro-services which subscribed to it.
+  * An entry is created only when the first Micro-service subscribes to the type.
+  */
+  private final ConcurrentHashMap<Class<?>, SubscriberList> fSubscribedRequestList; 
+  /**
+  * A ConcurrentHashMap of types of Broadcast messages (the exact message Class), each mapped with a {@link SubscriberList} of Micro-services which subscribed to it.
+  * An entry is created only when the first Micro-service subscribes to the type.
+  */
+  private final ConcurrentHashMap<Class<?>, SubscriberList> fSubscribedBroadcastList; 
+  /**
+  * A ConcurrentHashMap of the ids of the requests that were sent and not completed yet, each mapped with the MicroService which sent it
+  * and the mailbox it was handed to. An entry is removed as soon as its request is completed.
+  */
+  private final ConcurrentHashMap<Long, PendingRequest> fPendingRequests;
+  /**
+  * A counter of the times a MicroService waiting in awaitMessage was woken up.
+  */
+  private final LongAdder fWakeups;
+  /**
+  * Gives the number of requests handed to a MicroService which it has not completed yet, for the dispatch strategies.
+  */
+  private final ToIntFunction<MicroService> fQueueDepth;
+  /**
+  * A counter of the messages sent to a full mailbox.
   */
-  private final ConcurrentHashMap<MicroService, ConcurrentLinkedQueue<Message>> fMicroServices; 
+  private final LongAdder fOverflows;
   /**
-  * A ConcurrentHashMap of types of Request messages, each mapped with a ConcurrentLinkedQueue of Micro-services which subscribed to it.
+  * The limit of the mailbox of every MicroService which has no limit of its own.
   */
-  private final ConcurrentHashMap<Class<? extends Request>, ConcurrentLinkedQueue<MicroService>> fSubscribedRequestList; 
+  private volatile MailboxLimit fDefaultLimit;
   /**
-  * A ConcurrentHashMap of types of Broadcast messages, each mapped with a ConcurrentLinkedQueue of Micro-services which subscribed to it.
+  * A ConcurrentHashMap of MicroServices, each mapped with the limit of its mailbox (if it was given one).
   */
-  private final ConcurrentHashMap<Class<? extends Broadcast>, ConcurrentLinkedQueue<MicroService>> fSubscribedBroadcastList; 
+  private final ConcurrentHashMap<MicroService, MailboxLimit> fMailboxLimits;
   /**
-  * A ConcurrentHashMap of types of Request messages, each mapped with an index which indicates who is the next micro-service to handle a Request, in the Request subscribed list.
+  * A ConcurrentHashMap of message types (the exact message Class), each mapped with the number of messages a mailbox may hold
+  * and still admit a message of that type.
   */
-  private final ConcurrentHashMap<Class<? extends Request>, AtomicInteger> fRoundRobin; 
+  private final ConcurrentHashMap<Class<?>, Integer> fTypeCapacities;
   /**
-  * A ConcurrentHashMap of messages, each mapped with a MicroService which sent it.
+  * Gives the capacity for the type of a message, for the mailboxes.
   */
-  private final ConcurrentHashMap<Message, MicroService> fmessagesRequests;
+  private final ToIntFunction<Message> fTypeCapacity;
   /**
-  * A ConcurrentHasMap of MicroServices, each mapped with an AtomicBoolean with value true - if registered; false - otherwise.
+  * A ConcurrentHashMap of message types (the exact message Class), each mapped with the priority its messages are taken by.
+  * Types which are not in the map have a {@link MessagePriority#NORMAL} priority.
   */
-  private final ConcurrentHashMap<MicroService, AtomicBoolean> fRegisterList;
+  private final ConcurrentHashMap<Class<?>, MessagePriority> fTypePriorities;
   /**
-  * An Object represents a lock in order to synchronize the method SubscribeRequest.
+  * Gives the priority of a message, for the mailboxes.
   */
-  private final Object fLockSubscribeRequest;
+  private final Function<Message, MessagePriority> fPriorityOf;
   /**
-  * same description as of the field fLockSubscribeRequest, just for SubscribeBroadcast method.
+  * The latency and throughput measurements of the messages passed by the bus.
   */
-  private final Object fLockSubscribeBroadcast;
+  private final BusMetrics fMetrics;
   /**
-  * An Object represents a lock in order to synchronize the methods isRegistered, unregister and nextInRoundRobinFashion.
+  * A ConcurrentHashMap of request types (the exact request Class), each mapped with the timeout of the requests of that type
+  * which are sent without a timeout of their own.
   */
-  private final Object fLockUnregister;
+  private final ConcurrentHashMap<Class<?>, RequestTimeout> fTypeTimeouts;
+  /**
+  * The logical clock by which timeouts in ticks are measured (see {@link #advanceClock(long)}).
+  */
+  private final AtomicLong fClock;
+  /**
+  * A ConcurrentSkipListMap of ticks, each mapped with the requests which time out at that tick (some may have been completed since).
+  */
+  private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Request<?>>> fTickDeadlines;
+  /**
+  * The journal which records the messages passed by the bus, or null while none is set (see {@link #setJournal(BusJournal)}).
+  */
+  private volatile BusJournal fJournal;
 
   /**
   * Singleton implementation
@@ -59,16 +114,50 @@ public class MessageBusImpl implements MessageBus {
     private static MessageBusImpl instance = new MessageBusImpl();
   }
 
+  /**
+  * The thread which times out requests in wall-clock time, started when the first such request is sent
+  */
+  private static class TimeoutTimerHolder {
+    private static ScheduledThreadPoolExecutor instance = newTimeoutTimer();
+  }
+
   private MessageBusImpl(){
-    fMicroServices=new ConcurrentHashMap<MicroService, ConcurrentLinkedQueue<Message>>();
-    fSubscribedRequestList= new ConcurrentHashMap<Class<? extends Request>, ConcurrentLinkedQueue<MicroService>>();
-    fSubscribedBroadcastList= new ConcurrentHashMap<Class<? extends Broadcast>, ConcurrentLinkedQueue<MicroService>>();
-    fRoundRobin= new ConcurrentHashMap<Class<? extends Request>, AtomicInteger>();
-    fmessagesRequests= new ConcurrentHashMap<Message, MicroService>();
-    fRegisterList= new ConcurrentHashMap<MicroService, AtomicBoolean>();
-    fLockSubscribeRequest=new Object();
-    fLockSubscribeBroadcast= new Object();
-    fLockUnregister=new Object();
+    fMicroServices=new ConcurrentHashMap<MicroService, Mailbox>();
+    fSubscribedRequestList= new ConcurrentHashMap<Class<?>, SubscriberList>();
+    fSubscribedBroadcastList= new ConcurrentHashMap<Class<?>, SubscriberList>();
+    fPendingRequests= new ConcurrentHashMap<Long, PendingRequest>();
+    fWakeups=new LongAdder();
+    fQueueDepth=m -> {
+      Mailbox q=this.fMicroServices.get(m);
+      return q==null? Integer.MAX_VALUE: q.outstanding(); // a MicroService that is being unregistered is the last choice
+    };
+    fOverflows=new LongAdder();
+    fDefaultLimit=MailboxLimit.UNBOUNDED;
+    fMailboxLimits=new ConcurrentHashMap<MicroService, MailboxLimit>();
+    fTypeCapacities=new ConcurrentHashMap<Class<?>, Integer>();
+    fTypeCapacity=mes -> {
+      Integer capacity=this.fTypeCapacities.get(mes.getClass());
+      return capacity==null? Integer.MAX_VALUE: capacity;
+    };
+    fTypePriorities=new ConcurrentHashMap<Class<?>, MessagePriority>();
+    fTypePriorities.put(RequestCompleted.class, MessagePriority.HIGH); // a completion unblocks its requester
+    fPriorityOf=mes -> this.fTypePriorities.getOrDefault(mes.getClass(), MessagePriority.NORMAL);
+    fMetrics=new BusMetrics();
+    fTypeTimeouts=new ConcurrentHashMap<Class<?>, RequestTimeout>();
+    fClock=new AtomicLong();
+    fTickDeadlines=new ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Request<?>>>();
+  }
+
+  private static ScheduledThreadPoolExecutor newTimeoutTimer(){
+    ScheduledThreadPoolExecutor timer=new ScheduledThreadPoolExecutor(1, task -> {
+      Thread thread=new Thread(task, "request-timeouts");
+
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    timer.setRemoveOnCancelPolicy(true); // most requests are completed before their timeout
+    return timer;
   }
 
   public static MessageBusImpl getInstance() {
@@ -76,197 +165,242 @@ public class MessageBusImpl implements MessageBus {
   }
 
   public void register(MicroService m){
-    if (!this.isRegistered(m)){
-      fMicroServices.put(m,new ConcurrentLinkedQueue<Message>());
-      this.fRegisterList.put(m, new AtomicBoolean(true));
-    }    
+    register(m, null);
   }
 
   /**
-  * Checks if a MicroService is registered to the MessageBusImpl.
+  * Registers a MicroService which does not wait for its messages in {@link #awaitMessage(MicroService)}, but is told
+  * when they arrive and takes them using {@link #pollMessages(MicroService, int)}.
   * 
-  * @param m the MicroService to check if registered to this MessageBusImpl.
-  * @return true if m is registered to MessageBusImpl and false otherwise.
-  */
-  private boolean isRegistered(MicroService m){
-    synchronized(this.fLockUnregister){ 
-      if (this.fRegisterList.get(m)==null)
-        return false;
-      else
-        return this.fRegisterList.get(m).get();
-    }
-  }
-
-  public void unregister(MicroService m){
-    synchronized(this.fLockUnregister){
-      if(this.fRegisterList.get(m)!=null && this.fRegisterList.get(m).get()==true){
-        this.fRegisterList.get(m).getAndSet(false); // define m as unregistered
-        this.fMicroServices.remove(m);
-        deleteReferences(m);
-      }
-    }    
+  * @param m the MicroService to register
+  * @param onMessage called whenever the message queue of {@code m} stops being empty (by the thread which sent the message,
+  *                  so it must be short and must not block), or null to register {@code m} as by {@link #register(MicroService)}
+  */
+  public void register(MicroService m, Runnable onMessage){
+    this.fMicroServices.computeIfAbsent(m, k -> new Mailbox(m, this.fWakeups, this.fOverflows, this.fMailboxLimits.getOrDefault(m, this.fDefaultLimit), this.fPriorityOf, onMessage, this.fMetrics));
   }
 
-
   /**
-  * Deletes all references to a given MicroService
+  * remove the message queue allocated to {@code m}, and remove {@code m} from the subscriber lists it was added to
+  * (the mailbox of {@code m} keeps those lists, so the other message types are not visited). No global lock is taken:
+  * concurrent unregistrations of different MicroServices only meet on the subscriber lists they share.
+  * <p>
+  * The requests handed to {@code m} which it did not complete are completed with null for their requesters, and the
+  * requests {@code m} sent are expired (their handlers' completions are ignored). The mailbox of {@code m} indexes
+  * both, so the other pending requests are not visited.
   * 
-  * @param m the MicroService to delete its references
+  * @param m the micro-service to unregister.
   */
-  private void deleteReferences(MicroService m){
-    for (Class<? extends Request> mes: this.fSubscribedRequestList.keySet()){
-      ConcurrentLinkedQueue<MicroService> subscribedReqList=this.fSubscribedRequestList.get(mes);
-      if (subscribedReqList!=null && subscribedReqList.size()>0 && subscribedReqList.contains(m)) {
-        removeServiceFromSubReq(m, mes, subscribedReqList);
-      }
-    }
+  public void unregister(MicroService m){
+    Mailbox q=this.fMicroServices.remove(m);
+
+    if (q==null) // m is not registered, or another thread unregistered it
+      return;
+    q.close(); // from now on m is not added to more subscriber lists (see subscribe)
+    for (SubscriberList list: q.getSubscriptions())
+      list.remove(m); // the list keeps its round-robin rotation on the remaining MicroServices
+    this.fMailboxLimits.remove(m);
+    forgetRequests(m, q);
+  }
 
-    for (Class<? extends Broadcast> mes: this.fSubscribedBroadcastList.keySet()){
-      ConcurrentLinkedQueue<MicroService> subscribedBroadList=this.fSubscribedBroadcastList.get(mes); 
-      if (subscribedBroadList!=null)
-        subscribedBroadList.remove(m);
+  // Forgets the requests handed to @m (whose mailbox is @q) which it did not complete, completing them with null for
+  // their requesters, and expires the requests @m sent which were not completed yet
+  private void forgetRequests(MicroService m, Mailbox q){
+    PendingRequest pending;
+    Mailbox requester;
+
+    for (Long id: q.handledRequests()){
+      pending=this.fPendingRequests.get(id);
+      if (pending==null || pending.getHandler()!=q || !this.fPendingRequests.remove(id, pending))
+        continue; // completed meanwhile
+      q.handledRequests().remove(id);
+      if (pending.isExpired()) // no one waits for the result
+        continue;
+      pending.cancelTimer();
+      pending.getRequesterMailbox().sentRequests().remove(id);
+      requester=this.fMicroServices.get(pending.getRequester());
+      if (requester!=null)
+        requester.put(nullCompletion(pending.getRequest(), pending.getSentAt()));
+    }
+    for (Long id: q.sentRequests()){
+      pending=this.fPendingRequests.get(id);
+      if (pending!=null)
+        expire(pending.getRequest(), false); // the handler's completion will be ignored
     }
   }
 
-  private void removeServiceFromSubReq(MicroService m, Class<? extends Request> mes, ConcurrentLinkedQueue<MicroService> subscribedList) {
-    if (this.fRoundRobin.get(mes).intValue()>0){ // if  the next to handle isn't the first element at the subscribe list
-      AtomicInteger next=this.fRoundRobin.get(mes); // the index of the next MicroService to handle requests
-      
-      if (m==this.findElementAt(next.intValue(), subscribedList)){ // if m is the next to handle the request
-        if (next.intValue()==subscribedList.size()-1 || subscribedList.size()==1){// if m is the last in the subscribe list or the only one in it
-          next.set(0); // the first element in the subscribe list will now be the next to handle the request
-          subscribedList.remove(m);
-        }
-        else{ // if there is a MicroService after m
-          MicroService nextToHandle= this.findElementAt(next.intValue()+1, subscribedList);
-          subscribedList.remove(m);
-          next.set(this.indexOfElementInList(nextToHandle, subscribedList)); // set the index of "nextToHandle" in the updated list (after removing "m" from it) to be the index of "nextToHandle" in the old list
-        }
-      }
-      else if (this.indexOfElementInList(m, subscribedList)>next.intValue()) // if the next to handle the request has an index which is smaller than "m" index
-        subscribedList.remove(m);
-      else { // if the next to handle the request has an index which is greater than "m" index
-        next.set(next.intValue()-1);
-        subscribedList.remove(m);
-      }
-    }
-    else // if the next to handle the request is the first element at it
-      subscribedList.remove(m);
+  // Adds the request of @pending, which is about to be delivered, to the indexes of its handler and its requester
+  private static void index(PendingRequest pending){
+    Long id=pending.getRequest().getRequestId();
+
+    pending.getHandler().handledRequests().add(id);
+    pending.getRequesterMailbox().sentRequests().add(id);
   }
 
+  // Removes the request of @pending, which is no longer pending, from the indexes it is still in
+  private static void unindex(PendingRequest pending){
+    Long id=pending.getRequest().getRequestId();
+
+    pending.getHandler().handledRequests().remove(id);
+    if (!pending.isExpired()) // otherwise it was removed from the index of its requester as it expired
+      pending.getRequesterMailbox().sentRequests().remove(id);
+  }
+
+  private static <T> RequestCompleted<T> nullCompletion(Request<T> r, long sentAt){
+    return new RequestCompleted<T>(r, null, sentAt);
+  }
+
+  public Message awaitMessage(MicroService m) throws InterruptedException{
+    Mailbox q=this.fMicroServices.get(m);
+
+    if (q==null)
+      throw new IllegalStateException(m.getName()+" can't wait for messages if it is not registered");
+
+    return q.take(); // blocks on m's own mailbox, so only messages sent to m wake it up
+  }
+
+  public List<Message> awaitMessages(MicroService m, int max) throws InterruptedException{
+    Mailbox q=this.fMicroServices.get(m);
+
+    if (q==null)
+      throw new IllegalStateException(m.getName()+" can't wait for messages if it is not registered");
+
+    return q.drain(max);
+  }
+
+  public List<Message> pollMessages(MicroService m, int max){
+    Mailbox q=this.fMicroServices.get(m);
+
+    if (q==null)
+      throw new IllegalStateException(m.getName()+" can't take messages if it is not registered");
+
+    return q.poll(max);
+  }
 
   /**
-  * Finds the j element in a subscribedList.
+  * Adds a message to the queue of a MicroService regardless of the limit of its mailbox, without journaling it. Used
+  * to hand a MicroService messages from a thread of its own (e.g., what a bridge receives from other processes), which
+  * it handles in its event loop; its callback for the type of the message is called as for any other message.
   * 
-  * @param j index in the subscribedList of the wanted MicroService
-  * @param subscribedList list of MicroServices which subscribed to the same Message
-  * @return the j-th element in the subscribedList if exists and null otherwise.
+  * @param m the MicroService to hand the message to
+  * @param message the message
+  * @return false if {@code m} is not registered
   */
-  private MicroService findElementAt(int j, ConcurrentLinkedQueue<MicroService> subscribedList){
-    Iterator<MicroService> k= subscribedList.iterator();
-
-    if (!k.hasNext())
-      return null;
-    for (int i=0; i<j; ++i){
-      if (!k.hasNext()) // when there are less then j elements in the subscribedList
-        return null;
-      k.next();
-    }
-    if (!k.hasNext()) // if the subscribedList has only j-1 elements
-      return null;
+  public boolean post(MicroService m, Message message){
+    Mailbox q=this.fMicroServices.get(m);
 
-    return k.next();
+    if (q==null)
+      return false;
+    q.put(message);
+    return true;
   }
 
   /**
-  * Finds the index of a MicroService in a subscribedList.
-  * 
-  * @param m the MicroService to find its index in the subscribedList.
-  * @param subscribedList the subscribe list to search m index.
-  * @return the index of m in subscribedList. If subscribedList doesn't contain m, return -1.
+  * @param m a MicroService
+  * @return the number of messages waiting in the queue of {@code m}, or 0 if it is not registered
   */
-  private int indexOfElementInList(MicroService m, ConcurrentLinkedQueue<MicroService> subscribedList){
-    int index=-1;
-    Iterator<MicroService> i= subscribedList.iterator();
+  public int getWaitingMessages(MicroService m){
+    Mailbox q=this.fMicroServices.get(m);
 
-    while (i.hasNext()){
-      MicroService next;
-      
-      index++;
-      next=i.next();
-      if (m==next)
-        break;
-    }
+    return q==null? 0: q.size();
+  }
 
-    return index;
+  /**
+  * @return the number of times a MicroService blocked in {@link #awaitMessage(MicroService)} was woken up
+  *         since this MessageBusImpl was created.
+  */
+  public long getWakeups(){
+    return this.fWakeups.sum();
   }
 
-  public Message awaitMessage(MicroService m) throws InterruptedException{
-    ConcurrentLinkedQueue<Message> q;
 
-    if(!isRegistered(m))
-      throw new IllegalStateException(m.getName()+" can't wait for messages if it is not registered");
+  /**
+  * Bounds the mailbox of the given MicroService. May be called before {@code m} registers, or while it is registered.
+  * 
+  * @param m the MicroService whose mailbox to bound
+  * @param capacity the maximal number of messages waiting in the mailbox
+  * @param policy what to do with a message sent to the mailbox while it is full
+  * @throws IllegalArgumentException if {@code capacity} is not positive
+  */
+  public void setMailboxLimit(MicroService m, int capacity, OverflowPolicy policy){
+    MailboxLimit limit=new MailboxLimit(capacity, policy);
+    Mailbox q;
 
+    this.fMailboxLimits.put(m, limit);
     q=this.fMicroServices.get(m);
-    while (q.isEmpty()){
-      synchronized(this){
-        this.wait(); 
-      }
-    }   
-
-    return q.poll();
+    if (q!=null)
+      q.setLimit(limit);
   }
 
+  /**
+  * Bounds the mailboxes of the MicroServices which register from now on, and were not given a limit of their own.
+  * 
+  * @param capacity the maximal number of messages waiting in a mailbox
+  * @param policy what to do with a message sent to a mailbox while it is full
+  * @throws IllegalArgumentException if {@code capacity} is not positive
+  */
+  public void setDefaultMailboxLimit(int capacity, OverflowPolicy policy){
+    this.fDefaultLimit=new MailboxLimit(capacity, policy);
+  }
 
-  // Returns the Request subscribed list for the given message type input. If the input isn't in any list -
-  // it will be added to a new subscribedList for this type.
-  private ConcurrentLinkedQueue<MicroService> subscribeListOfRequestType(Class<? extends Request> type){
-    boolean isFound=false;
-    ConcurrentLinkedQueue<MicroService> subscribedList=null;
-
-    for (Class<? extends Request> mes: this.fSubscribedRequestList.keySet()){ 
-      if (mes.getName().compareTo(type.getName())==0){ // message was found
-        isFound=true;
-        subscribedList=this.fSubscribedRequestList.get(mes);  
-        if (subscribedList==null)
-          subscribedList=new ConcurrentLinkedQueue<MicroService>();
-        break;
-      }
-    }
-
-    if (!isFound){ // didn't find the message
-      subscribedList=new ConcurrentLinkedQueue<MicroService>(); // create new list for this type of message
-      this.fSubscribedRequestList.put(type, subscribedList);
-      this.fRoundRobin.put(type, new AtomicInteger()); // also add it to fRoundRobin list- for later usage.
-    }
-    if (subscribedList==null)
-      throw new RuntimeException("illegal situation at subscribeListOfRequestType method");
+  /**
+  * Bounds the number of messages a mailbox may hold and still admit a message of the given type, on top of
+  * the mailbox's own limit. E.g., giving requests a capacity lower than the mailbox's keeps room for broadcasts.
+  * {@link RequestCompleted} messages are always admitted.
+  * 
+  * @param type the message type
+  * @param capacity the number of waiting messages from which messages of {@code type} are overflowing
+  * @throws IllegalArgumentException if {@code capacity} is not positive
+  */
+  public void setMessageCapacity(Class<? extends Message> type, int capacity){
+    if (capacity<=0)
+      throw new IllegalArgumentException("a message capacity must be positive, got "+capacity);
+    this.fTypeCapacities.put(type, capacity);
+  }
 
-    return subscribedList;
+  /**
+  * Sets the priority by which messages of the given type are taken from the mailboxes: higher priorities are taken first,
+  * and lower priorities age while they wait so they still make progress (see {@link Mailbox}).
+  * Message types are {@link MessagePriority#NORMAL} unless set otherwise, except for {@link RequestCompleted} which is
+  * {@link MessagePriority#HIGH}. Applies to messages sent from now on.
+  * 
+  * @param type the message type
+  * @param priority the priority of messages of {@code type}
+  */
+  public void setMessagePriority(Class<? extends Message> type, MessagePriority priority){
+    this.fTypePriorities.put(type, priority);
   }
 
-  // Same as subscribeListOfRequestType, just for Broadcast subscribed list
-  private ConcurrentLinkedQueue<MicroService> subscribeListOfBroadcastType(Class<? extends Broadcast> type){
-    boolean isFound=false;
-    ConcurrentLinkedQueue<MicroService> subscribedList=null;
+  /**
+  * Sets the timeout of the requests of the given type which are sent without a timeout of their own
+  * (see {@link #sendRequest(Request, MicroService, RequestTimeout)}). Applies to requests sent from now on.
+  * 
+  * @param type the request type
+  * @param timeout the timeout of requests of {@code type}, or null to wait for them until they are completed
+  */
+  public void setRequestTimeout(Class<? extends Request<?>> type, RequestTimeout timeout){
+    if (timeout==null)
+      this.fTypeTimeouts.remove(type);
+    else
+      this.fTypeTimeouts.put(type, timeout);
+  }
 
-    for (Class<? extends Broadcast> mes: this.fSubscribedBroadcastList.keySet()){  
-      if (mes.getName().compareTo(type.getName())==0){ 
-        isFound=true;
-        subscribedList=this.fSubscribedBroadcastList.get(mes);  
-        if (subscribedList==null)
-          subscribedList=new ConcurrentLinkedQueue<MicroService>();     
-      }
-    }
+  /**
+  * @return the number of messages sent to a full mailbox since this MessageBusImpl was created
+  *         (whether they were then blocked, rejected, or made room by dropping a broadcast).
+  */
+  public long getOverflows(){
+    return this.fOverflows.sum();
+  }
 
-    if (!isFound){ 
-      subscribedList=new ConcurrentLinkedQueue<MicroService>(); 
-      this.fSubscribedBroadcastList.put(type, subscribedList);
-    }
-    if (subscribedList==null)
-      throw new RuntimeException("addMessageIfAbsent has returned null- illegal.");
+  /**
+  * @param m a registered MicroService
+  * @return the number of messages sent to the mailbox of {@code m} while it was full, or 0 if {@code m} is not registered
+  */
+  public long getOverflows(MicroService m){
+    Mailbox q=this.fMicroServices.get(m);
 
-    return subscribedList;
+    return q==null? 0: q.overflows();
   }
 
   /**
@@ -276,14 +410,7 @@ public class MessageBusImpl implements MessageBus {
   * @param m    the subscribing MicroService
   */
   public void subscribeRequest(Class<? extends Request<?>> type, MicroService m){ 
-    synchronized(this.fLockSubscribeRequest){
-      if (isRegistered(m)){
-        ConcurrentLinkedQueue<MicroService> subscribedList=this.subscribeListOfRequestType(type); // find the subscribe list for @type
-        subscribedList.add(m);
-      }
-      else
-        throw new IllegalStateException(m.getName()+ " tried to subscribe a message, without registering first");
-    }
+    subscribe(this.fSubscribedRequestList, type, m);
   }    
 
 
@@ -295,14 +422,19 @@ public class MessageBusImpl implements MessageBus {
   */
 
   public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m){
-    synchronized(this.fLockSubscribeBroadcast){
-      if (isRegistered(m)){
-        ConcurrentLinkedQueue<MicroService> subscribedList=this.subscribeListOfBroadcastType(type);
-        subscribedList.add(m);
-      }
-      else
-        throw new IllegalStateException(m.getName()+ " tried to subscribe a message, without registering first");
-    }
+    subscribe(this.fSubscribedBroadcastList, type, m);
+  }
+
+  // Adds @m to the subscriber list of @type in @lists (created for the first subscriber), and records the list in m's mailbox
+  private void subscribe(ConcurrentHashMap<Class<?>, SubscriberList> lists, Class<?> type, MicroService m){
+    Mailbox q=this.fMicroServices.get(m);
+    SubscriberList list=lists.computeIfAbsent(type, k -> new SubscriberList());
+
+    if (q==null || !q.addSubscription(list))
+      throw new IllegalStateException(m.getName()+ " tried to subscribe a message, without registering first");
+    list.add(m);
+    if (q.isClosed()) // m was unregistered meanwhile, possibly without seeing this list
+      list.remove(m);
   }
 
   /**
@@ -313,22 +445,19 @@ public class MessageBusImpl implements MessageBus {
   */
 
   public void sendBroadcast(Broadcast b){
-    Class<? extends Broadcast> bClassRepresentation=b.getClass();
-    ConcurrentLinkedQueue<MicroService> subscribedList=subscribeListOfBroadcastType(bClassRepresentation);
-    Iterator<MicroService> i = subscribedList.iterator();
-
-    while(i.hasNext()){ // iterate over the micro-services that subscribed to "b"
-      ConcurrentLinkedQueue<Message> q;
-      MicroService m= i.next();
+    SubscriberList subscribedList=this.fSubscribedBroadcastList.get(b.getClass());
+    BusJournal journal;
+
+    if (subscribedList==null) // no one has ever subscribed to this type
+      return;
+    journal=this.fJournal;
+    if (journal!=null) // before delivering - the subscribers may act on b right away
+      journal.record(BusJournal.BROADCAST, this.fClock.get(), null, null, 0, b);
+    for (MicroService m: subscribedList.snapshot()){ // iterate over the micro-services that subscribed to "b"
+      Mailbox q=this.fMicroServices.get(m);
       
-      if (!this.isRegistered(m))
-        throw new IllegalStateException("A micro-services that is subscribed to a message must be registered");
-
-      q=this.fMicroServices.get(m);
-      synchronized(this){
-        q.add(b);
-        this.notifyAll(); // notify the MicroServices for the new message that was sent
-      }
+      if (q!=null) // m may have been unregistered after the snapshot was taken
+        q.offer(b, this.fTypeCapacity.applyAsInt(b)); // a full mailbox of m may reject b, without affecting the others
     } 
   }
 
@@ -340,51 +469,263 @@ public class MessageBusImpl implements MessageBus {
   * @param r         the request to add to the queue.
   * @param requester the {@link MicroService} sending {@code r}.
   * @return true if there was at least one micro-service subscribed to
-  *         {@code r.getClass()} and false otherwise.
+  *         {@code r.getClass()} and the mailbox chosen admitted {@code r}, false otherwise.
   */
   public boolean sendRequest(Request<?> r, MicroService requester){
-    Class<? extends Request> rClassRepresentation;
-    ConcurrentLinkedQueue<MicroService> subscribedList;
+    return sendRequest(r, requester, this.fTypeTimeouts.get(r.getClass()));
+  }
+
+  public boolean sendRequest(Request<?> r, MicroService requester, RequestTimeout timeout){
+    Mailbox from=this.fMicroServices.get(requester);
 
-    if (!this.isRegistered(requester))
+    if (from==null)
       throw new IllegalStateException(requester.getName()+ " tried to send a request, but he is not registered");
 
-    this.fmessagesRequests.put(r, requester);
-    rClassRepresentation=r.getClass();
-    subscribedList=subscribeListOfRequestType(rClassRepresentation); // find the micro-services that were subscribed to Request messages
-    if(subscribedList.size()==0){ // if no one subscribed
+    return deliver(r, requester, from, nextHandlerMailbox(r), timeout);
+  }
+
+  /**
+  * Sends a request to a given MicroService, which need not be subscribed to its type, rather than to the one the
+  * dispatch strategy of the type picks. Used to replay a journal (see {@link JournalReplay}), whose requests go to the
+  * MicroServices they were recorded as handed to.
+  * 
+  * @param r the request
+  * @param requester the {@link MicroService} sending {@code r}
+  * @param handler the {@link MicroService} to hand {@code r} to
+  * @return true if {@code handler} is registered and its mailbox admitted {@code r}, false otherwise
+  */
+  boolean sendRequestTo(Request<?> r, MicroService requester, MicroService handler){
+    Mailbox from=this.fMicroServices.get(requester);
+
+    if (from==null)
+      throw new IllegalStateException(requester.getName()+ " tried to send a request, but he is not registered");
+
+    return deliver(r, requester, from, this.fMicroServices.get(handler), null);
+  }
+
+  // Hands @r, sent by @requester (whose mailbox is @from), to the mailbox @q, and times it out by @timeout (if not null)
+  // @return false if @q is null or did not admit @r
+  private boolean deliver(Request<?> r, MicroService requester, Mailbox from, Mailbox q, RequestTimeout timeout){
+    PendingRequest pending;
+    BusJournal journal;
+
+    if (q==null) // r can't be delivered, so it will never be completed
       return false;
-    }   
-    else{ // if someone subscribed, find the next MicroService to handle the message, in a round-robin fashion
-      ConcurrentLinkedQueue<Message> q;
-      MicroService m=nextInRoundRobinFashion(subscribedList, rClassRepresentation);
-      
-      if (!this.isRegistered(m))
-        throw new IllegalStateException("Illegal state- The next to handle a request must be registered");
+    pending=new PendingRequest(r, requester, from, this.fMetrics.now());
+    pending.setHandler(q);
+    q.requestAssigned();
+    this.fPendingRequests.put(r.getRequestId(), pending); // before delivering - the handler may complete r right away
+    index(pending);
+    journal=this.fJournal;
+    if (journal!=null) // so is the journal, which must have r before its completion
+      journal.record(BusJournal.REQUEST, this.fClock.get(), requester, q.getOwner(), r.getRequestId(), r);
+    if (!q.offer(r, this.fTypeCapacity.applyAsInt(r))){ // the mailbox is full (or closed meanwhile)
+      forget(r, journal);
+      return false;
+    }
+    if (timeout!=null)
+      startTimeout(r, timeout);
+    return true;
+  }
 
-      q=this.fMicroServices.get(m);
-      synchronized(this){
-        q.add(r);
-        this.notifyAll(); // notify the MicroServices for the new message that was sent
-      }   
-      return true;
+  public List<Request<?>> sendRequests(Collection<? extends Request<?>> requests, MicroService requester){
+    List<Request<?>> undelivered=new ArrayList<Request<?>>();
+    Map<Mailbox, List<Request<?>>> deliveries=new IdentityHashMap<Mailbox, List<Request<?>>>(); // the requests of each handler, in order
+    BusJournal journal=this.fJournal;
+    Mailbox from=this.fMicroServices.get(requester);
+
+    if (from==null)
+      throw new IllegalStateException(requester.getName()+ " tried to send a request, but he is not registered");
+
+    for (Request<?> r: requests){
+      Mailbox q=nextHandlerMailbox(r);
+      PendingRequest pending;
+
+      if (q==null){
+        undelivered.add(r);
+        continue;
+      }
+      pending=new PendingRequest(r, requester, from, this.fMetrics.now());
+      pending.setHandler(q);
+      q.requestAssigned();
+      this.fPendingRequests.put(r.getRequestId(), pending);
+      index(pending);
+      if (journal!=null)
+        journal.record(BusJournal.REQUEST, this.fClock.get(), requester, q.getOwner(), r.getRequestId(), r);
+      deliveries.computeIfAbsent(q, k -> new ArrayList<Request<?>>()).add(r);
+    }
+    for (Map.Entry<Mailbox, List<Request<?>>> delivery: deliveries.entrySet()){
+      Set<Request<?>> rejected=Collections.newSetFromMap(new IdentityHashMap<Request<?>, Boolean>());
+
+      rejected.addAll(delivery.getKey().offerAll(delivery.getValue(), this.fTypeCapacity)); // one wakeup per handler
+
+      for (Request<?> r: rejected){
+        forget(r, journal);
+        undelivered.add(r);
+      }
+      for (Request<?> r: delivery.getValue()){
+        RequestTimeout timeout=this.fTypeTimeouts.get(r.getClass());
+
+        if (rejected.contains(r))
+          continue;
+        if (timeout!=null)
+          startTimeout(r, timeout);
+      }
     }
+
+    return undelivered;
   }
 
-  // Finds the next MicroService to handle a request message in round-robin fashion. 
-  // After finding that MicroService, updates the index of the following MicroService in the subscribe list (in round robin fashion) that needs to handle a request message 
-  private MicroService nextInRoundRobinFashion(ConcurrentLinkedQueue<MicroService> subscribedList, Class <? extends Request> type){
-    synchronized(this.fLockUnregister){
-      AtomicInteger index= this.fRoundRobin.get(type); // find the index of the next MicroService in the subscribeList to handle the message (round-robin fashion)
-      Iterator<MicroService> j= subscribedList.iterator(); // iterate over the subscribe list to find the MicroService with this index
-      for (int i=0; i<index.intValue(); ++i) // get here the [index-1] element. the [index] element will be returned at the last line of the method
-        j.next();
-      index.updateAndGet(value-> value+1>subscribedList.size()-1? 0: value+1); // update the index in round-robin fashion, for the next Request messages
+  // Forgets a request which was not admitted by the mailbox it was handed to, and records so in @journal (if not null)
+  private void forget(Request<?> r, BusJournal journal){
+    PendingRequest pending=this.fPendingRequests.remove(r.getRequestId());
+
+    if (pending==null)
+      return;
+    unindex(pending);
+    pending.getHandler().requestCompleted();
+    if (journal!=null)
+      journal.record(BusJournal.REJECTED, this.fClock.get(), pending.getRequester(), pending.getHandler().getOwner(), r.getRequestId(), null);
+  }
 
-      return j.next(); 
+  // Times out @r (which was delivered) once @timeout passes
+  private void startTimeout(Request<?> r, RequestTimeout timeout){
+    PendingRequest pending;
+    long deadline;
+
+    if (timeout.isInTicks()){
+      deadline=this.fClock.get()+timeout.getTicks();
+      this.fTickDeadlines.computeIfAbsent(deadline, k -> new ConcurrentLinkedQueue<Request<?>>()).add(r);
+      if (this.fClock.get()>=deadline) // the clock passed the deadline meanwhile, and may have missed r
+        expire(r, true);
+      return;
     }
+    pending=this.fPendingRequests.get(r.getRequestId());
+    if (pending!=null && !pending.isExpired()) // otherwise r was completed already
+      pending.setTimer(TimeoutTimerHolder.instance.schedule(() -> expire(r, true), timeout.getNanos(), TimeUnit.NANOSECONDS));
   }
 
+  public void advanceClock(long tick){
+    Map.Entry<Long, ConcurrentLinkedQueue<Request<?>>> due;
+
+    if (this.fClock.getAndAccumulate(tick, Math::max)>=tick)
+      return;
+    while ((due=this.fTickDeadlines.firstEntry())!=null && due.getKey()<=tick){
+      if (this.fTickDeadlines.remove(due.getKey(), due.getValue())){ // otherwise another thread times out these requests
+        for (Request<?> r: due.getValue())
+          expire(r, true);
+      }
+    }
+  }
+
+  /**
+  * @return the current tick of the logical clock of the bus (see {@link #advanceClock(long)})
+  */
+  public long getClock(){
+    return this.fClock.get();
+  }
+
+  public boolean cancel(Request<?> r){
+    return expire(r, false);
+  }
+
+  /**
+  * Forgets the request {@code r} if it was not completed yet: it is withdrawn from the mailbox of its handler, or if the
+  * handler took it already, its completion is ignored.
+  * 
+  * @param r the request which timed out or was cancelled
+  * @param timedOut true to send its requester a {@link RequestCompleted} message which tells {@code r} timed out
+  * @return true if {@code r} was not completed yet
+  */
+  private boolean expire(Request<?> r, boolean timedOut){
+    PendingRequest pending=this.fPendingRequests.get(r.getRequestId());
+    PendingRequest marker;
+    Mailbox q;
+
+    if (pending==null || pending.isExpired() || !this.fPendingRequests.replace(r.getRequestId(), pending, marker=pending.expired()))
+      return false; // r was completed (or expired) already
+    pending.cancelTimer();
+    pending.getRequesterMailbox().sentRequests().remove(r.getRequestId());
+    pending.getHandler().requestCompleted();
+    if (pending.getHandler().withdraw(r) && this.fPendingRequests.remove(r.getRequestId(), marker)) // the handler will never take r, so it will never complete it
+      unindex(marker);
+    if (timedOut){
+      q=this.fMicroServices.get(pending.getRequester());
+      if (q!=null) // otherwise the requester has terminated since
+        q.put(timedOutCompletion(r, pending.getSentAt()));
+    }
+    return true;
+  }
+
+  private static <T> RequestCompleted<T> timedOutCompletion(Request<T> r, long sentAt){
+    return new RequestCompleted<T>(r, null, sentAt, true);
+  }
+
+  /**
+  * Sets the strategy which chooses the MicroService to handle each request of the given type.
+  * Requests types use a {@link RoundRobinStrategy} until another strategy is set.
+  * 
+  * @param type the request type
+  * @param strategy the strategy to use for {@code type} (should not be used for other types)
+  */
+  public void setDispatchStrategy(Class<? extends Request<?>> type, DispatchStrategy strategy){
+    this.fSubscribedRequestList.computeIfAbsent(type, k -> new SubscriberList()).setStrategy(strategy);
+  }
+
+  /**
+  * @param type a request type
+  * @return the strategy which chooses the MicroService to handle each request of {@code type}, or null if no
+  *         strategy was set and no MicroService subscribed to it yet (then a {@link RoundRobinStrategy} is used)
+  */
+  public DispatchStrategy getDispatchStrategy(Class<? extends Request<?>> type){
+    SubscriberList list=this.fSubscribedRequestList.get(type);
+
+    return list==null? null: list.getStrategy();
+  }
+
+  // Finds the mailbox of the next MicroService to handle @r according to the dispatch strategy of its type, or null if no one is subscribed to r's type
+  private Mailbox nextHandlerMailbox(Request<?> r){
+    SubscriberList subscribedList=this.fSubscribedRequestList.get(r.getClass()); // find the micro-services that were subscribed to Request messages
+
+    if (subscribedList==null) // if no one has ever subscribed
+      return null;
+    for (int attempts=subscribedList.size(); attempts>0; --attempts){
+      MicroService m=subscribedList.next(this.fQueueDepth);
+      Mailbox q;
+
+      if (m==null) // if no one is subscribed
+        return null;
+      q=this.fMicroServices.get(m);
+      if (q!=null) // otherwise m is being unregistered - try the following MicroService
+        return q;
+    }
+    return null;
+  }
+
+  /**
+  * @return the latency and throughput measurements of the bus (disabled until {@link BusMetrics#setEnabled(boolean)} is called)
+  */
+  public BusMetrics getMetrics(){
+    return this.fMetrics;
+  }
+
+  /**
+  * Records the messages passed by the bus from now on in {@code journal}: the requests handed to MicroServices, the broadcasts
+  * sent, and the requests completed (except those which timed out or were cancelled). Recording does not block the senders.
+  * 
+  * @param journal the journal, or null to stop recording
+  */
+  public void setJournal(BusJournal journal){
+    this.fJournal=journal;
+  }
+
+  /**
+  * @return the number of requests that were sent and were not completed yet (including requests which timed out or
+  *         were cancelled after their handler took them, until the handler completes them)
+  */
+  public int getOutstandingRequests(){
+    return this.fPendingRequests.size();
+  }
 
   /**
   * Notifying the MessageBus that the request {@code r} is completed and its
@@ -399,20 +740,55 @@ public class MessageBusImpl implements MessageBus {
   * @param result the result of the completed request
   */
   public  <T> void  complete(Request<T> r, T result){
-    Message completedMessage=new RequestCompleted<T>(r,result);
-    MicroService microServiceRequested=this.fmessagesRequests.get(r); // find the MicroService requested r
-    ConcurrentLinkedQueue<Message> q;
-
-    if (microServiceRequested==null)
-      throw new IllegalStateException("illegal state- someone must has sent a request message if we now try to complete it");
-    if (!this.isRegistered(microServiceRequested))
-      throw new IllegalStateException("a micro-service will not unregister itself if it has pending requests");
-
-    q=this.fMicroServices.get(microServiceRequested); // find the MicroService fMicroServices list, and then add the completed message to its queue
-    synchronized(this){
-      q.add(completedMessage);
-      this.notifyAll(); // notify the MicroServices for the new message that was sent
+    PendingRequest pending=this.fPendingRequests.remove(r.getRequestId()); // find the MicroService requested r, and forget r
+    Mailbox q;
+    BusJournal journal;
+
+    if (pending==null)
+      throw new IllegalStateException("illegal state- a request must be sent, and completed only once");
+    unindex(pending);
+    if (pending.isExpired()) // r timed out or was cancelled - no one waits for the result
+      return;
+
+    pending.cancelTimer();
+    pending.getHandler().requestCompleted();
+    journal=this.fJournal;
+    if (journal!=null)
+      journal.record(BusJournal.COMPLETE, this.fClock.get(), pending.getHandler().getOwner(), pending.getRequester(), r.getRequestId(), result);
+    q=this.fMicroServices.get(pending.getRequester()); // find the MicroService fMicroServices list, and then add the completed message to its queue
+    if (q!=null) // otherwise the MicroService requested r has terminated since, and no one waits for the result
+      q.put(new RequestCompleted<T>(r, result, pending.getSentAt()));
+  }
+
+  public <T> Set<Request<?>> completeAll(Map<? extends Request<T>, ? extends T> results){
+    Map<Mailbox, List<Message>> deliveries=new IdentityHashMap<Mailbox, List<Message>>(); // the completions of each requesting MicroService
+    Set<Request<?>> notPending=Collections.newSetFromMap(new IdentityHashMap<Request<?>, Boolean>());
+    BusJournal journal=this.fJournal;
+
+    for (Map.Entry<? extends Request<T>, ? extends T> result: results.entrySet()){
+      Request<T> r=result.getKey();
+      PendingRequest pending=this.fPendingRequests.remove(r.getRequestId());
+      Mailbox q;
+
+      if (pending==null){ // not sent, or completed already
+        notPending.add(r);
+        continue;
+      }
+      unindex(pending);
+      if (pending.isExpired())
+        continue;
+      pending.cancelTimer();
+      pending.getHandler().requestCompleted();
+      if (journal!=null)
+        journal.record(BusJournal.COMPLETE, this.fClock.get(), pending.getHandler().getOwner(), pending.getRequester(), r.getRequestId(), result.getValue());
+      q=this.fMicroServices.get(pending.getRequester());
+      if (q!=null)
+        deliveries.computeIfAbsent(q, k -> new ArrayList<Message>()).add(new RequestCompleted<T>(r, result.getValue(), pending.getSentAt()));
     }
+    for (Map.Entry<Mailbox, List<Message>> delivery: deliveries.entrySet())
+      delivery.getKey().putAll(delivery.getValue());
+
+    return notPending;
   }
     
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package bgu.spl.mics.impl;
+
+/**
+* The priority classes of messages in a {@link Mailbox}.
+* <p>
+* A mailbox serves higher classes first, in arrival order within a class. Lower classes age while they wait,
+* so they are still served regularly when higher classes never run dry.
+* The priority of a message type is set using {@link MessageBusImpl#setMessagePriority(Class, MessagePriority)}.
+*/
+public enum MessagePriority {
+
+  /**
+  * Messages which unblock or drive other micro-services, e.g. {@link bgu.spl.mics.RequestCompleted RequestCompleted} (the default for it)
+  */
+  HIGH,
+  /**
+  * The default priority of message types
+  */
+  NORMAL,
+  /**
+  * Bulk traffic which may wait
+  */
+  LOW;
+
+  /**
+  * Finds a priority by its name.
+  * @param name one of "high", "normal" or "low"
+  * @return the priority with the given name
+  * @throws IllegalArgumentException if there is no priority with this name
+  */
+  public static MessagePriority forName(String name){
+    switch (name) {
+      case "high":
+        return HIGH;
+      case "normal":
+        return NORMAL;
+      case "low":
+        return LOW;
+      default:
+        throw new IllegalArgumentException("unknown message priority: "+name+", supported priorities: high, normal, low");
+    }
+  }
+
+}
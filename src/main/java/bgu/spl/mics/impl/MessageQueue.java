@@ -0,0 +1,144 @@
+package bgu.spl.mics.impl;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Message;
+
+/**
+* A FIFO queue of messages, each kept with the time it was added (see {@link BusMetrics}).
+* <p>
+* The messages and their times are kept in two parallel circular arrays, which grow as needed,
+* so adding a message allocates nothing on its own. Not thread-safe - guarded by the lock of its {@link Mailbox}.
+*/
+class MessageQueue {
+
+  private static final int INITIAL_CAPACITY=16;
+
+  private Message[] fMessages;
+  private long[] fTimes;
+  /**
+  * The index of the oldest message
+  */
+  private int fHead;
+  private int fSize;
+
+
+  MessageQueue(){
+    this.fMessages=new Message[INITIAL_CAPACITY];
+    this.fTimes=new long[INITIAL_CAPACITY];
+    this.fHead=0;
+    this.fSize=0;
+  }
+
+  boolean isEmpty(){
+    return this.fSize==0;
+  }
+
+  int size(){
+    return this.fSize;
+  }
+
+  /**
+  * @param m the message to add at the end of the queue
+  * @param time the time {@code m} was added (0 if unknown)
+  */
+  void add(Message m, long time){
+    int tail;
+
+    if (this.fSize==this.fMessages.length)
+      grow();
+    tail=(this.fHead+this.fSize) & (this.fMessages.length-1);
+    this.fMessages[tail]=m;
+    this.fTimes[tail]=time;
+    ++this.fSize;
+  }
+
+  /**
+  * @return the time the oldest message was added. The queue must not be empty.
+  */
+  long peekTime(){
+    return this.fTimes[this.fHead];
+  }
+
+  /**
+  * @return the oldest message, which is removed from the queue. The queue must not be empty.
+  */
+  Message poll(){
+    Message m=this.fMessages[this.fHead];
+
+    this.fMessages[this.fHead]=null;
+    this.fHead=(this.fHead+1) & (this.fMessages.length-1);
+    --this.fSize;
+    return m;
+  }
+
+  /**
+  * Removes the oldest {@link Broadcast} in the queue, keeping the order of the other messages.
+  * @return true if a broadcast was removed, false if there are none
+  */
+  boolean removeOldestBroadcast(){
+    int mask=this.fMessages.length-1;
+
+    for (int i=0; i<this.fSize; ++i){
+      if (this.fMessages[(this.fHead+i) & mask] instanceof Broadcast){
+        removeAt(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+  * Removes {@code m} from the queue, keeping the order of the other messages.
+  * @param m the message to remove (compared by identity)
+  * @return true if {@code m} was removed, false if it is not in the queue
+  */
+  boolean remove(Message m){
+    int mask=this.fMessages.length-1;
+
+    for (int i=0; i<this.fSize; ++i){
+      if (this.fMessages[(this.fHead+i) & mask]==m){
+        removeAt(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void clear(){
+    int mask=this.fMessages.length-1;
+
+    for (int i=0; i<this.fSize; ++i)
+      this.fMessages[(this.fHead+i) & mask]=null;
+    this.fHead=0;
+    this.fSize=0;
+  }
+
+  // Removes the message @i places after the head
+  private void removeAt(int i){
+    int mask=this.fMessages.length-1;
+
+    for (int j=i; j>0; --j){ // the older messages move one place forward
+      this.fMessages[(this.fHead+j) & mask]=this.fMessages[(this.fHead+j-1) & mask];
+      this.fTimes[(this.fHead+j) & mask]=this.fTimes[(this.fHead+j-1) & mask];
+    }
+    this.fMessages[this.fHead]=null;
+    this.fHead=(this.fHead+1) & mask;
+    --this.fSize;
+  }
+
+  // Doubles the arrays (their length stays a power of two), moving the messages to their beginning
+  private void grow(){
+    Message[] messages=new Message[this.fMessages.length*2];
+    long[] times=new long[this.fTimes.length*2];
+    int mask=this.fMessages.length-1;
+
+    for (int i=0; i<this.fSize; ++i){
+      messages[i]=this.fMessages[(this.fHead+i) & mask];
+      times[i]=this.fTimes[(this.fHead+i) & mask];
+    }
+    this.fMessages=messages;
+    this.fTimes=times;
+    this.fHead=0;
+  }
+
+}
@@ -0,0 +1,45 @@
+package bgu.spl.mics.impl;
+
+/**
+* What a bounded {@link Mailbox} does with a message sent to it while it is full.
+* <p>
+* {@link bgu.spl.mics.RequestCompleted RequestCompleted} messages are always admitted, whatever the policy -
+* dropping them would leave their requesters waiting forever.
+*/
+public enum OverflowPolicy {
+
+  /**
+  * The sender waits until the owner of the mailbox takes enough messages.
+  * Note that a sender which is itself the only handler of the full mailbox's requests would wait forever.
+  */
+  BLOCK,
+  /**
+  * The message is rejected: {@code sendRequest} returns false, and a broadcast is not delivered to that micro-service.
+  */
+  FAIL,
+  /**
+  * The oldest broadcast waiting in the mailbox is dropped to make room for the message.
+  * If only requests are waiting, the message is rejected as with {@link #FAIL}.
+  */
+  DROP_OLDEST_BROADCAST;
+
+  /**
+  * Finds a policy by its name.
+  * @param name one of "block", "fail" or "drop-oldest-broadcast"
+  * @return the policy with the given name
+  * @throws IllegalArgumentException if there is no policy with this name
+  */
+  public static OverflowPolicy forName(String name){
+    switch (name) {
+      case "block":
+        return BLOCK;
+      case "fail":
+        return FAIL;
+      case "drop-oldest-broadcast":
+        return DROP_OLDEST_BROADCAST;
+      default:
+        throw new IllegalArgumentException("unknown overflow policy: "+name+", supported policies: block, fail, drop-oldest-broadcast");
+    }
+  }
+
+}
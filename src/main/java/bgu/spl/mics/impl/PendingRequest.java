@@ -0,0 +1,104 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.ScheduledFuture;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+
+/**
+* A request that was sent and not completed yet: who is waiting for its result, and whose mailbox it was handed to.
+*/
+class PendingRequest {
+
+  /**
+  * The request
+  */
+  private final Request<?> fRequest;
+  /**
+  * The micro-service which sent the request
+  */
+  private final MicroService fRequester;
+  /**
+  * The mailbox of the micro-service which sent the request, which indexes it while it is pending
+  */
+  private final Mailbox fRequesterMailbox;
+  /**
+  * The mailbox of the micro-service handling the request
+  */
+  private Mailbox fHandler;
+  /**
+  * The time the request was sent (see {@link BusMetrics#now()})
+  */
+  private final long fSentAt;
+  /**
+  * The task which times out the request in wall-clock time, or null if it has no such timeout
+  */
+  private volatile ScheduledFuture<?> fTimer;
+  /**
+  * true if this stands for a request which timed out or was cancelled (see {@link #expired()})
+  */
+  private boolean fExpired;
+
+
+  PendingRequest(Request<?> request, MicroService requester, Mailbox requesterMailbox, long sentAt){
+    this.fRequest=request;
+    this.fRequester=requester;
+    this.fRequesterMailbox=requesterMailbox;
+    this.fSentAt=sentAt;
+  }
+
+
+  Request<?> getRequest(){
+    return this.fRequest;
+  }
+
+  MicroService getRequester(){
+    return this.fRequester;
+  }
+
+  Mailbox getRequesterMailbox(){
+    return this.fRequesterMailbox;
+  }
+
+  long getSentAt(){
+    return this.fSentAt;
+  }
+
+  Mailbox getHandler(){
+    return this.fHandler;
+  }
+
+  void setHandler(Mailbox handler){
+    this.fHandler=handler;
+  }
+
+  /**
+  * @return a marker which stands for the request once it timed out or was cancelled after its handler took it: the
+  *         handler may still complete it, and its completion is then ignored. The marker keeps the handler (and stays
+  *         in its index), so it is removed if the handler unregisters without completing the request.
+  */
+  PendingRequest expired(){
+    PendingRequest marker=new PendingRequest(this.fRequest, null, null, 0);
+
+    marker.fHandler=this.fHandler;
+    marker.fExpired=true;
+    return marker;
+  }
+
+  boolean isExpired(){
+    return this.fExpired;
+  }
+
+  void setTimer(ScheduledFuture<?> timer){
+    this.fTimer=timer;
+  }
+
+  // Stops the timer of the request, which was completed (or expired) before its timeout
+  void cancelTimer(){
+    ScheduledFuture<?> timer=this.fTimer;
+
+    if (timer!=null)
+      timer.cancel(false);
+  }
+
+}
@@ -0,0 +1,44 @@
+package bgu.spl.mics.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import bgu.spl.mics.MicroService;
+
+/**
+* Hands the requests to the handlers one after the other, regardless of their load.
+* This is the default {@link DispatchStrategy} of every request type.
+*/
+public class RoundRobinStrategy implements DispatchStrategy {
+
+  /**
+  * The index of the next handler to receive a request.
+  */
+  private final AtomicInteger fNext=new AtomicInteger();
+
+
+  @Override
+  public int select(MicroService[] handlers, ToIntFunction<MicroService> queueDepth){
+    while (true){
+      int current=this.fNext.get();
+      int index=current<handlers.length? current: 0; // the handlers may have changed since fNext was set
+      int following=index+1<handlers.length? index+1: 0;
+
+      if (this.fNext.compareAndSet(current, following))
+        return index;
+    }
+  }
+
+  // Keeps fNext pointing at the same handler after the handler at @index was removed,
+  // so that no handler is skipped or served twice in a row
+  @Override
+  public void removed(int index){
+    while (true){
+      int current=this.fNext.get();
+
+      if (index>=current || this.fNext.compareAndSet(current, current-1))
+        return;
+    }
+  }
+
+}
@@ -0,0 +1,122 @@
+package bgu.spl.mics.impl;
+
+import java.util.function.ToIntFunction;
+
+import bgu.spl.mics.MicroService;
+
+/**
+* The micro-services subscribed to a single message type.
+* <p>
+* The subscribers are kept in an array which is never modified after it is published: subscribing and
+* unsubscribing replace the whole array (copy-on-write), so senders can read a consistent snapshot
+* of the subscribers without taking any lock.
+* <p>
+* Requests are handed to the subscribers chosen by the list's {@link DispatchStrategy} (round-robin
+* unless another strategy is set), which never blocks.
+*/
+class SubscriberList {
+
+  private static final MicroService[] EMPTY=new MicroService[0];
+
+  /**
+  * The current snapshot of the subscribers, in subscription order.
+  */
+  private volatile MicroService[] fSubscribers;
+  /**
+  * Chooses the subscriber to handle the next request.
+  */
+  private volatile DispatchStrategy fStrategy;
+
+
+  SubscriberList(){
+    this.fSubscribers=EMPTY;
+    this.fStrategy=new RoundRobinStrategy();
+  }
+
+  /**
+  * @return the subscribers at the time of the call. The returned array must not be modified.
+  */
+  MicroService[] snapshot(){
+    return this.fSubscribers;
+  }
+
+  /**
+  * @return the number of subscribers at the time of the call
+  */
+  int size(){
+    return this.fSubscribers.length;
+  }
+
+  /**
+  * Finds the subscriber to handle the next request, according to the dispatch strategy.
+  * @param queueDepth gives the number of messages waiting in the queue of a subscriber
+  * @return the subscriber that should get the next request, or null if there are no subscribers
+  */
+  MicroService next(ToIntFunction<MicroService> queueDepth){
+    MicroService[] handlers=this.fSubscribers;
+
+    if (handlers.length==0)
+      return null;
+    return handlers[this.fStrategy.select(handlers, queueDepth)];
+  }
+
+  /**
+  * Replaces the dispatch strategy of this list.
+  * @param strategy the strategy to use from now on
+  */
+  void setStrategy(DispatchStrategy strategy){
+    this.fStrategy=strategy;
+  }
+
+  /**
+  * @return the dispatch strategy of this list
+  */
+  DispatchStrategy getStrategy(){
+    return this.fStrategy;
+  }
+
+  /**
+  * Adds {@code m} at the end of the subscribers, if it is not already subscribed.
+  * @param m the micro-service to add
+  */
+  synchronized void add(MicroService m){
+    MicroService[] current=this.fSubscribers;
+    MicroService[] updated;
+
+    if (indexOf(current, m)>=0)
+      return;
+    updated=new MicroService[current.length+1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length]=m;
+    this.fSubscribers=updated;
+  }
+
+  /**
+  * Removes {@code m} from the subscribers.
+  * @param m the micro-service to remove
+  * @return the index {@code m} had before it was removed, or -1 if it wasn't subscribed
+  */
+  synchronized int remove(MicroService m){
+    MicroService[] current=this.fSubscribers;
+    MicroService[] updated;
+    int index=indexOf(current, m);
+
+    if (index<0)
+      return -1;
+    updated=new MicroService[current.length-1];
+    System.arraycopy(current, 0, updated, 0, index);
+    System.arraycopy(current, index+1, updated, index, current.length-index-1);
+    this.fSubscribers=updated;
+    this.fStrategy.removed(index); // e.g., keeps a round-robin rotation fair
+    return index;
+  }
+
+  private static int indexOf(MicroService[] subscribers, MicroService m){
+    for (int i=0; i<subscribers.length; ++i){
+      if (subscribers[i]==m)
+        return i;
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,399 @@
+package bgu.spl.mics.remote;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* A micro-service which connects the message-bus of this process to the message-buses of other processes. The
+* micro-services of every process keep using their own message-bus as they would in a single process - the bridge
+* stands in for the micro-services of the other processes:
+* <ul>
+* <li>It subscribes to the {@link #importRequests(Class) imported} request types, handled by the other processes: the
+* requests it takes are sent to another process, and completed with the results it returns.</li>
+* <li>The requests of the {@link #exportRequests(Class) exported} types, which other processes send to this process,
+* are sent on the message-bus by the bridge, which returns their results.</li>
+* <li>The broadcasts of the {@link #shareBroadcasts(Class) shared} types are sent to the other processes, and the
+* broadcasts of the other processes are sent on the message-bus.</li>
+* </ul>
+* The messages and results are encoded by a {@link MessageCodec}, as {@link Frames}; a subclass moves the frames
+* between the processes. A request forwarded to another process is completed with null if no process handles its
+* type, or if the bridge is disconnected before it is completed.
+* <p>
+* The subclass receives the frames on a thread of its own, which only decodes them: the messages and results are
+* queued for the event loop of the bridge, which sends and completes them on the message-bus. That queue is private
+* to the bridge and unbounded - a frame is never dropped, whatever the limit of the bridge's mailbox - and the event
+* loop is woken up to drain it by a single message at a time (see {@link MessageBusImpl#post(MicroService,
+* bgu.spl.mics.Message)}), which is not journaled.
+*/
+public abstract class AbstractBridge extends MicroService {
+
+  private final MessageCodec fCodec;
+  private final List<Class<? extends Request<?>>> fImported=new ArrayList<Class<? extends Request<?>>>();
+  private final List<Class<? extends Request<?>>> fExported=new ArrayList<Class<? extends Request<?>>>();
+  private final List<Class<? extends Broadcast>> fShared=new ArrayList<Class<? extends Broadcast>>();
+  /**
+  * The time after which a broadcast the bridge received is forgotten, if the bridge did not take it back from its
+  * own queue (which rejected it)
+  */
+  private static final long RECEIVED_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /**
+  * The number of received frames the event loop handles before it lets the other micro-services of its thread run
+  */
+  private static final int INBOUND_BATCH = 64;
+  /**
+  * Posted to a bridge to wake up its event loop
+  */
+  private static final Inbound INBOUND = new Inbound();
+  /**
+  * Queued once the bridge is disconnected, after the frames it received
+  */
+  private static final Received DISCONNECTED = new Received(0, (byte)0, (short)0, 0, null);
+
+  /**
+  * The requests taken by the bridge and sent to another process, by their ids, until their results are received
+  * (only used by the event loop)
+  */
+  private final Map<Long,Request<?>> fForwarded=new HashMap<Long,Request<?>>();
+  /**
+  * The broadcasts received from other processes which the bridge sent on the message-bus, and will take from its
+  * own queue - those are not sent back. Each is mapped to the time it was sent at (only used by the event loop).
+  */
+  private final Map<Broadcast,Long> fReceived=new IdentityHashMap<Broadcast,Long>();
+  /**
+  * The time from which the entries of fReceived are checked for a timeout again
+  */
+  private long fNextSweep;
+  /**
+  * The frames received from other processes, decoded, which the event loop did not handle yet
+  */
+  private final Queue<Received> fInbound=new ConcurrentLinkedQueue<Received>();
+  /**
+  * true while an {@link Inbound} message is posted to the bridge and not handled yet
+  */
+  private final AtomicBoolean fInboundPosted=new AtomicBoolean();
+
+
+  /**
+  * @param name the name of the bridge
+  * @param codec the codec of the messages, which all the connected processes use
+  */
+  AbstractBridge(String name, MessageCodec codec){
+    super(name);
+    this.fCodec=codec;
+  }
+
+  /**
+  * Sends the requests of type {@code type} sent in this process to the other processes. Must be called before the
+  * bridge is run.
+  * @param type a request type the micro-services of other processes handle
+  * @return this bridge
+  * @throws IllegalArgumentException if the codec does not encode {@code type}, or it is exported
+  */
+  public AbstractBridge importRequests(Class<? extends Request<?>> type){
+    checkType(type, this.fExported);
+    this.fImported.add(type);
+    return this;
+  }
+
+  /**
+  * Receives the requests of type {@code type} sent in other processes, which the micro-services of this process
+  * handle. Must be called before the bridge is run.
+  * @param type a request type the micro-services of this process handle
+  * @return this bridge
+  * @throws IllegalArgumentException if the codec does not encode {@code type}, or it is imported
+  */
+  public AbstractBridge exportRequests(Class<? extends Request<?>> type){
+    checkType(type, this.fImported);
+    this.fExported.add(type);
+    return this;
+  }
+
+  /**
+  * Sends the broadcasts of type {@code type} sent in this process to the other processes, and receives theirs. Must
+  * be called before the bridge is run.
+  * @param type a broadcast type
+  * @return this bridge
+  * @throws IllegalArgumentException if the codec does not encode {@code type}
+  */
+  public AbstractBridge shareBroadcasts(Class<? extends Broadcast> type){
+    checkType(type, Collections.<Class<?>>emptyList());
+    this.fShared.add(type);
+    return this;
+  }
+
+  /**
+  * Disconnects the bridge from the other processes. The bridge terminates once it is disconnected; the requests it
+  * forwarded and were not completed yet are completed with null.
+  */
+  public abstract void close();
+
+  @Override
+  protected final void initialize(){
+    if (!connect()){ // no other process can be reached - the imported requests stay undelivered
+      terminate();
+      return;
+    }
+    this.subscribeBroadcast(Inbound.class, inbound -> onInbound());
+    for (Class<? extends Request<?>> type: this.fImported)
+      this.subscribeRequest(type, this::forward);
+    for (Class<? extends Request<?>> type: this.fExported)
+      sendSubscription(Frames.SUBSCRIBE_REQUEST, this.fCodec.tagOf(type));
+    for (Class<? extends Broadcast> type: this.fShared){
+      this.subscribeBroadcast(type, this::forward);
+      sendSubscription(Frames.SUBSCRIBE_BROADCAST, this.fCodec.tagOf(type));
+    }
+    startTransport();
+  }
+
+  /**
+  * @return the codec of the messages
+  */
+  final MessageCodec getCodec(){
+    return this.fCodec;
+  }
+
+  /**
+  * Connects to the other processes. Called in the event loop of the bridge, before any frame is sent.
+  * @return false if the bridge could not connect
+  */
+  abstract boolean connect();
+
+  /**
+  * Starts receiving frames, once the bridge is subscribed to the types it handles.
+  */
+  abstract void startTransport();
+
+  /**
+  * Sends a {@link Frames#SUBSCRIBE_REQUEST} or {@link Frames#SUBSCRIBE_BROADCAST} frame.
+  * @param kind the kind of the frame
+  * @param tag the tag of the subscribed type
+  */
+  abstract void sendSubscription(byte kind, short tag);
+
+  /**
+  * Sends a {@link Frames#REQUEST} frame to a process which handles the request.
+  * @param tag the tag of the type of {@code r}
+  * @param r the request
+  * @return false if the request was not sent (e.g., the bridge is closed)
+  * @throws IllegalArgumentException if {@code r} can not be encoded in a single frame
+  */
+  abstract boolean sendRequestFrame(short tag, Request<?> r);
+
+  /**
+  * Sends a {@link Frames#BROADCAST} frame to the other processes.
+  * @param tag the tag of the type of {@code b}
+  * @param b the broadcast
+  */
+  abstract void sendBroadcastFrame(short tag, Broadcast b);
+
+  /**
+  * Sends a {@link Frames#COMPLETE} frame.
+  * @param origin the process which sent the request, as given to {@link #receive(int, ByteBuffer, int, int)}
+  * @param tag the tag of the request type
+  * @param id the id of the request in the frame it was received in
+  * @param handled false if no micro-service of this process handled the request (the frame has no payload)
+  * @param result the result of the request
+  */
+  abstract void sendCompletion(int origin, short tag, long id, boolean handled, Object result);
+
+  /**
+  * Handles a {@link Frames#SUBSCRIBE_REQUEST} or {@link Frames#SUBSCRIBE_BROADCAST} frame received from another
+  * process. By default the frames are not expected.
+  * @param origin the process which sent the frame
+  * @param kind the kind of the frame
+  * @param tag the tag of the subscribed type
+  */
+  void subscribed(int origin, byte kind, short tag){
+    throw new IllegalStateException("unexpected frame kind "+kind);
+  }
+
+  /**
+  * Handles a frame received from another process: decodes its message or result, and queues it for the event loop of
+  * the bridge. Called by the thread of the subclass which receives the frames.
+  * @param origin identifies the process which sent the frame to the subclass
+  * @param in the buffer which holds the frame (its position is changed)
+  * @param start the offset of the frame in {@code in}
+  * @param length the length of the frame
+  * @throws IllegalStateException if the frame is not valid
+  */
+  final void receive(int origin, ByteBuffer in, int start, int length){
+    byte kind=in.get(start+Frames.KIND);
+    short tag=in.getShort(start+Frames.TAG);
+    long id=in.getLong(start+Frames.ID);
+
+    in.position(start+Frames.PAYLOAD);
+    switch (kind){
+    case Frames.REQUEST:
+    case Frames.BROADCAST:
+      queue(new Received(origin, kind, tag, id, this.fCodec.decode(in)));
+      break;
+    case Frames.COMPLETE:
+      queue(new Received(origin, kind, tag, id, length>Frames.PAYLOAD? this.fCodec.decode(in): null));
+      break;
+    default:
+      subscribed(origin, kind, tag);
+    }
+  }
+
+  /**
+  * Called by the subclass once no more frames will be received: the bridge completes the forwarded requests with
+  * null, and terminates, in its event loop.
+  */
+  final void disconnected(){
+    queue(DISCONNECTED);
+  }
+
+  // Queues @received for the event loop, and wakes it up unless it was woken up already
+  private void queue(Received received){
+    this.fInbound.add(received);
+    if (this.fInboundPosted.compareAndSet(false, true))
+      MessageBusImpl.getInstance().post(this, INBOUND);
+  }
+
+  // Handles the received frames queued so far (up to INBOUND_BATCH of them), in the event loop
+  private void onInbound(){
+    Received received;
+
+    this.fInboundPosted.set(false); // frames queued from now on post another Inbound
+    for (int i=0; i<INBOUND_BATCH; ++i){
+      received=this.fInbound.poll();
+      if (received==null)
+        return;
+      if (received==DISCONNECTED){
+        onDisconnected();
+        return;
+      }
+      onReceived(received);
+    }
+    if (!this.fInbound.isEmpty() && this.fInboundPosted.compareAndSet(false, true))
+      MessageBusImpl.getInstance().post(this, INBOUND); // the rest after the messages already waiting
+  }
+
+  // Sends or completes the message or result of a frame received from another process
+  @SuppressWarnings("unchecked")
+  private void onReceived(Received received){
+    Request<?> forwarded;
+    Broadcast b;
+    long now;
+
+    switch (received.fKind){
+    case Frames.REQUEST:
+      if (!this.sendRequest((Request<Object>)received.fValue, result -> sendCompletion(received.fOrigin, received.fTag, received.fId, true, result)))
+        sendCompletion(received.fOrigin, received.fTag, received.fId, false, null); // no micro-service of this process handles it (any more)
+      break;
+    case Frames.BROADCAST:
+      b=(Broadcast)received.fValue;
+      now=System.nanoTime();
+      if (now-this.fNextSweep>=0){
+        forgetReceived(now);
+        this.fNextSweep=now+RECEIVED_TIMEOUT_NANOS;
+      }
+      this.fReceived.put(b, now);
+      this.sendBroadcast(b);
+      break;
+    default: // Frames.COMPLETE
+      forwarded=this.fForwarded.remove(received.fId);
+      if (forwarded!=null) // else it was completed with null as the bridge was closed
+        this.complete((Request<Object>)forwarded, received.fValue);
+    }
+  }
+
+  // Completes the forwarded requests with null, and terminates the bridge
+  private void onDisconnected(){
+    for (Request<?> r: this.fForwarded.values())
+      completeWithNull(r);
+    this.fForwarded.clear();
+    this.fReceived.clear();
+    this.fInbound.clear();
+    terminate();
+  }
+
+  // Forgets the received broadcasts sent on the message-bus more than RECEIVED_TIMEOUT_NANOS before @now
+  private void forgetReceived(long now){
+    Iterator<Long> sentAt=this.fReceived.values().iterator();
+
+    while (sentAt.hasNext()){
+      if (now-sentAt.next()>RECEIVED_TIMEOUT_NANOS)
+        sentAt.remove();
+    }
+  }
+
+  // Sends @r, taken from the queue of the bridge, to another process
+  private void forward(Request<?> r){
+    this.fForwarded.put(r.getRequestId(), r);
+    try{
+      if (sendRequestFrame(this.fCodec.tagOf(r.getClass()), r))
+        return;
+    }
+    catch (IllegalArgumentException e){ // too large to send
+      e.printStackTrace();
+    }
+    if (this.fForwarded.remove(r.getRequestId())!=null)
+      completeWithNull(r);
+  }
+
+  // Sends @b, taken from the queue of the bridge, to the other processes - unless it was received from them
+  private void forward(Broadcast b){
+    if (this.fReceived.remove(b)==null)
+      sendBroadcastFrame(this.fCodec.tagOf(b.getClass()), b);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void completeWithNull(Request<?> r){
+    this.complete((Request<Object>)r, null);
+  }
+
+  private void checkType(Class<?> type, List<? extends Class<?>> exclusive){
+    if (this.fCodec.tagOf(type)<0)
+      throw new IllegalArgumentException("the codec does not encode "+type.getName());
+    if (exclusive.contains(type))
+      throw new IllegalArgumentException(type.getName()+" is either imported or exported");
+  }
+
+  /**
+  * Posted to the bridge (only) by the thread which receives the frames, to wake up the event loop of the bridge to
+  * handle the frames queued for it
+  */
+  private static class Inbound implements Broadcast {
+  }
+
+  /**
+  * The message or result of a {@link Frames#REQUEST}, {@link Frames#BROADCAST} or {@link Frames#COMPLETE} frame,
+  * queued for the event loop of the bridge
+  */
+  private static class Received {
+
+    private final int fOrigin;
+    private final byte fKind;
+    private final short fTag;
+    private final long fId;
+    /**
+    * The decoded message, or the result (null if the request was not handled)
+    */
+    private final Object fValue;
+
+    Received(int origin, byte kind, short tag, long id, Object value){
+      this.fOrigin=origin;
+      this.fKind=kind;
+      this.fTag=tag;
+      this.fId=id;
+      this.fValue=value;
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+package bgu.spl.mics.remote;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+* The wire format shared by the {@link MessageBroker} and the {@link RemoteBridge}s connected to it.
+* <p>
+* Every frame is {@code [int length][byte kind][short tag][long id][payload]}, where the length counts the bytes
+* after itself, the tag is the {@link MessageCodec#tagOf(Class)} of the message type the frame is about, the id
+* correlates a request with its completion, and the payload is a value encoded by the codec:
+* <ul>
+* <li>{@link #SUBSCRIBE_REQUEST}, {@link #SUBSCRIBE_BROADCAST} - the sender handles the type (no id or payload).</li>
+* <li>{@link #REQUEST} - the payload is the request, the id is given by its sender.</li>
+* <li>{@link #BROADCAST} - the payload is the broadcast (no id).</li>
+* <li>{@link #COMPLETE} - the payload is the result of the request with the id, or is empty if no process
+* handled the request.</li>
+* </ul>
+*/
+final class Frames {
+
+  static final byte SUBSCRIBE_REQUEST = 1;
+  static final byte SUBSCRIBE_BROADCAST = 2;
+  static final byte REQUEST = 3;
+  static final byte BROADCAST = 4;
+  static final byte COMPLETE = 5;
+
+  /**
+  * The size of the fields after the length
+  */
+  static final int HEADER = 1+2+8;
+  /**
+  * The largest frame, including its length
+  */
+  static final int MAX_FRAME = 64*1024;
+
+  /**
+  * The offsets of the fields from the start of a frame
+  */
+  static final int KIND = 4;
+  static final int TAG = 5;
+  static final int ID = 7;
+  static final int PAYLOAD = 4+HEADER;
+
+
+  private Frames(){
+  }
+
+  /**
+  * Appends a frame to {@code out}, which must have at least {@link #MAX_FRAME} bytes remaining.
+  * @param out the buffer to write to
+  * @param kind the kind of the frame
+  * @param tag the tag of the message type
+  * @param id the id of the request, or 0
+  * @param codec encodes {@code value}, or null if the frame has no payload
+  * @param value the payload
+  * @throws IllegalArgumentException if {@code value} can not be encoded in a single frame ({@code out} is not changed)
+  */
+  static void write(ByteBuffer out, byte kind, short tag, long id, MessageCodec codec, Object value){
+    int start=out.position();
+    int end;
+
+    try{
+      out.position(start+4);
+      out.put(kind).putShort(tag).putLong(id);
+      if (codec!=null)
+        codec.encode(value, out);
+      end=out.position();
+      if (end-start>MAX_FRAME)
+        throw new BufferOverflowException();
+    }
+    catch (BufferOverflowException e){
+      out.position(start);
+      throw new IllegalArgumentException("a frame is at most "+MAX_FRAME+" bytes: "+value);
+    }
+    catch (RuntimeException e){
+      out.position(start);
+      throw e;
+    }
+    out.putInt(start, end-start-4);
+  }
+
+  /**
+  * @param in a buffer in read mode
+  * @return the length of the frame at the position of {@code in} (including its length), or 0 if it was not read
+  *         whole yet
+  * @throws IllegalStateException if the length is not that of a valid frame
+  */
+  static int available(ByteBuffer in){
+    int length;
+
+    if (in.remaining()<4)
+      return 0;
+    length=in.getInt(in.position())+4;
+    if (length<PAYLOAD || length>MAX_FRAME)
+      throw new IllegalStateException("not a frame: length "+length);
+
+    return in.remaining()<length? 0: length;
+  }
+
+}
@@ -0,0 +1,385 @@
+package bgu.spl.mics.remote;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+* A ring buffer of frames in a memory-mapped file, which any number of processes write to and a single process reads
+* from.
+* <p>
+* The ring is made of blocks of {@link #BLOCK} bytes, and a record takes whole blocks. The file starts with the tail
+* (the position up to which the ring was claimed by writers) and the head (the position up to which the reader
+* consumed it), each in a cache line of its own, followed by a state word for every block and then by the blocks.
+* Positions count the blocks since the ring was created, so a position also tells the lap of the ring it is in.
+* <p>
+* The state word of the block a record starts at holds the lap of the record, its length in blocks and its status:
+* free, claimed, published, or padding. A writer claims a record at the tail by a compare-and-set of its state word
+* from free (in the lap of the tail) to claimed with its length, and only then advances the tail, by another
+* compare-and-set - which any writer finding the record claimed does as well, so a writer which stops right after its
+* claim does not hold the others. It then writes the record, and publishes it by a compare-and-set from claimed to
+* published. The reader takes the records in the order they were claimed once they are published, frees the state
+* words of their blocks for the next lap, and then advances the head. A record is {@code [int sender][frame]}; the
+* end of the ring, when a record does not fit in it, is claimed as a padding record.
+* <p>
+* A writer which dies (with its process) after it claimed a record and before it published it would block the reader
+* for good, so a record which stays claimed at the head for the stuck time ({@link #STUCK_NANOS} by default) is
+* skipped by its length. The reader frees it by a compare-and-set from claimed, so a writer which was merely stalled
+* for that long fails to publish it (see {@link #publish(long, int, ByteBuffer)}) - although what it still copies to
+* the ring may corrupt the records written after it. As the length of a record is part of its claim, nothing is
+* skipped but whole records.
+* <p>
+* The state words, the tail and the head are read and written atomically and in order through the primitives of a
+* subclass: {@code VarHandleRing}, which accesses them by {@code VarHandle} views of the mapping, is compiled on
+* Java 11 and later (from {@code src/main/java11}), and the rings are not supported on older JDKs (see
+* {@link #isSupported()}). Neither writing nor reading calls the operating system: a reader of an empty ring spins
+* (see {@link #next()}), and so does a writer of a full one.
+*/
+abstract class MappedRing {
+
+  /**
+  * The size of the blocks records are made of
+  */
+  static final int BLOCK = 64;
+  /**
+  * The time after which a record which stays claimed at the head is skipped, as its writer is taken for dead
+  */
+  static final long STUCK_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private static final int TAIL = 0;
+  private static final int HEAD = 64;
+  private static final int STATES = 128;
+  /**
+  * The size of the fields of a record before its frame
+  */
+  private static final int RECORD_HEADER = 4;
+  /**
+  * The statuses of a state word, in its 2 lowest bits; the length follows them, and the lap is in the high half
+  */
+  private static final long FREE = 0;
+  private static final long CLAIMED = 1;
+  private static final long PUBLISHED = 2;
+  private static final long PADDING = 3;
+  /**
+  * The times the reader finds the head claimed between checks for a stuck record
+  */
+  private static final int STUCK_CHECK_POLLS = 1024;
+  /**
+  * The constructor of the subclass which implements the primitives, or null if the JDK does not support it
+  */
+  private static final Constructor<?> IMPLEMENTATION = implementation();
+
+  private final MappedByteBuffer fBuffer;
+  /**
+  * The number of blocks of the ring
+  */
+  private final int fBlocks;
+  /**
+  * The offset of the first block in the file
+  */
+  private final int fRing;
+  private final long fStuckNanos;
+  /**
+  * The head, as the reader knows it (only used by the reader)
+  */
+  private long fHead;
+  /**
+  * The length in blocks of the record at the head, once {@link #next()} found it
+  */
+  private int fRecordLength;
+  /**
+  * The times the reader found the head claimed since it last checked for a stuck record
+  */
+  private int fClaimedPolls;
+  /**
+  * The head at which the reader found a claimed record when it last checked (-1 if none), and the time it found it at
+  */
+  private long fStuckHead=-1;
+  private long fStuckSince;
+
+
+  MappedRing(MappedByteBuffer buffer, long stuckNanos){
+    this.fBuffer=buffer;
+    this.fBlocks=(buffer.capacity()-STATES)/(8+BLOCK);
+    this.fRing=STATES+8*this.fBlocks;
+    this.fStuckNanos=stuckNanos;
+  }
+
+  /**
+  * @return true if the running JDK supports the rings (Java 11 and later)
+  */
+  static boolean isSupported(){
+    return IMPLEMENTATION!=null;
+  }
+
+  /**
+  * Creates the ring of a reader, replacing the file at {@code path} (which is created at once, so writers never map a
+  * ring which was not fully created).
+  * @param path the file of the ring
+  * @param capacity the size of the blocks of the ring, a multiple of {@link #BLOCK} of at least 2
+  *        {@link Frames#MAX_FRAME}s
+  * @return the ring
+  * @throws IOException if the file could not be created
+  * @throws UnsupportedOperationException if the running JDK does not support the rings
+  */
+  static MappedRing create(Path path, int capacity) throws IOException {
+    return create(path, capacity, STUCK_NANOS);
+  }
+
+  /**
+  * Creates the ring of a reader (see {@link #create(Path, int)}) which skips the records that stay claimed for
+  * {@code stuckNanos}.
+  */
+  static MappedRing create(Path path, int capacity, long stuckNanos) throws IOException {
+    Path created=path.resolveSibling(path.getFileName()+".new");
+    long size=STATES+(long)capacity/BLOCK*(8+BLOCK);
+
+    if (capacity%BLOCK!=0 || capacity<2*(Frames.MAX_FRAME+RECORD_HEADER) || size>Integer.MAX_VALUE)
+      throw new IllegalArgumentException("not a valid capacity: "+capacity);
+    checkSupported();
+    try (FileChannel file=FileChannel.open(created, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                           StandardOpenOption.READ, StandardOpenOption.WRITE)){
+      file.map(FileChannel.MapMode.READ_WRITE, 0, size); // the new file is zeroed: all the blocks are free in lap 0
+    }
+    Files.move(created, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return map(path, stuckNanos);
+  }
+
+  /**
+  * Maps the ring of a reader, which was created by {@link #create(Path, int)}.
+  * @param path the file of the ring
+  * @return the ring
+  * @throws IOException if the file could not be mapped
+  * @throws UnsupportedOperationException if the running JDK does not support the rings
+  */
+  static MappedRing open(Path path) throws IOException {
+    checkSupported();
+    return map(path, STUCK_NANOS);
+  }
+
+  /**
+  * Writes a record to the ring, spinning while the ring is full.
+  * @param sender identifies the writer to the reader
+  * @param frame the frame, between its position and limit of a buffer (which are not changed)
+  * @param stop tells whether to give up while the ring is full
+  * @return false if the writer gave up, or the reader skipped the record as the writer stalled for the stuck time
+  *         (see the class comment)
+  */
+  boolean write(int sender, ByteBuffer frame, BooleanSupplier stop){
+    long position=claim(frame.remaining(), stop);
+
+    return position>=0 && publish(position, sender, frame);
+  }
+
+  /**
+  * Claims a record at the tail of the ring, spinning while the ring is full (see the class comment).
+  * @param frameLength the length of the frame of the record
+  * @param stop tells whether to give up while the ring is full
+  * @return the position of the record, or -1 if the writer gave up
+  */
+  long claim(int frameLength, BooleanSupplier stop){
+    int length=blocks(RECORD_HEADER+frameLength);
+    long tail;
+    long head;
+    long lap;
+    long state;
+    long status;
+    int block;
+    int claimed;
+
+    while (true){
+      tail=getVolatile(TAIL);
+      head=getVolatile(HEAD);
+      lap=tail/this.fBlocks;
+      block=(int)(tail%this.fBlocks);
+      claimed=Math.min(length, this.fBlocks-block);
+      status=claimed<length? PADDING: CLAIMED;
+      if (tail+claimed-head>this.fBlocks){ // full
+        if (stop.getAsBoolean())
+          return -1;
+        Thread.yield();
+        continue;
+      }
+      state=getVolatile(stateOf(block));
+      if (state==state(lap, 0, FREE)){
+        if (!compareAndSet(stateOf(block), state, state(lap, claimed, status)))
+          continue; // claimed by another writer
+        compareAndSet(TAIL, tail, tail+claimed); // unless another writer advanced it already
+        if (status==CLAIMED)
+          return tail;
+      }
+      else if (lapOf(state)==lap) // claimed by another writer, which may not have advanced the tail yet
+        compareAndSet(TAIL, tail, tail+lengthOf(state));
+    }
+  }
+
+  /**
+  * Writes a record claimed by {@link #claim(int, BooleanSupplier)}, and publishes it.
+  * @param position the position of the record
+  * @param sender identifies the writer to the reader
+  * @param frame the frame, of the length the record was claimed for (its position and limit are not changed)
+  * @return false if the reader skipped the record, as the writer stalled for the stuck time (see the class comment)
+  */
+  boolean publish(long position, int sender, ByteBuffer frame){
+    ByteBuffer record=this.fBuffer.duplicate();
+    int block=(int)(position%this.fBlocks);
+    long claimed=state(position/this.fBlocks, blocks(RECORD_HEADER+frame.remaining()), CLAIMED);
+    int start=frame.position();
+
+    record.putInt(this.fRing+block*BLOCK, sender);
+    record.position(this.fRing+block*BLOCK+RECORD_HEADER);
+    record.put(frame);
+    frame.position(start);
+    return compareAndSet(stateOf(block), claimed, claimed-CLAIMED+PUBLISHED);
+  }
+
+  /**
+  * Finds the record at the head of the ring, skipping it if it stays claimed (see the class comment). Only called by
+  * the reader.
+  * @return the offset of its frame in {@link #buffer()}, or -1 if no record was published at the head yet
+  */
+  int next(){
+    int block;
+    long state;
+
+    while (true){
+      block=(int)(this.fHead%this.fBlocks);
+      state=getAcquire(stateOf(block));
+      if ((state&3)!=PADDING)
+        break;
+      release(lengthOf(state));
+    }
+    if ((state&3)==FREE){ // nothing was claimed at the head
+      this.fClaimedPolls=0;
+      return -1;
+    }
+    if ((state&3)==CLAIMED){
+      if (++this.fClaimedPolls==STUCK_CHECK_POLLS){
+        this.fClaimedPolls=0;
+        skipStuck(block, state);
+      }
+      return -1;
+    }
+    this.fClaimedPolls=0;
+    this.fRecordLength=lengthOf(state);
+    return this.fRing+block*BLOCK+RECORD_HEADER;
+  }
+
+  /**
+  * @return the sender of the record found by {@link #next()}
+  */
+  int sender(){
+    return this.fBuffer.getInt(this.fRing+(int)(this.fHead%this.fBlocks)*BLOCK);
+  }
+
+  /**
+  * Frees the record found by {@link #next()}, once it was handled.
+  */
+  void consume(){
+    release(this.fRecordLength);
+  }
+
+  /**
+  * @return the mapped file, which the frames of the records are read from (by absolute offsets)
+  */
+  final ByteBuffer buffer(){
+    return this.fBuffer;
+  }
+
+  /**
+  * The primitives, on the long at offset {@code index} of {@link #buffer()} (in the native byte order)
+  */
+  abstract long getVolatile(int index);
+
+  abstract long getAcquire(int index);
+
+  abstract void setRelease(int index, long value);
+
+  abstract boolean compareAndSet(int index, long expected, long value);
+
+  // Skips the record at the head, whose state in @block is @state, if it stayed claimed for the stuck time
+  private void skipStuck(int block, long state){
+    long now=System.nanoTime();
+
+    if (this.fStuckHead!=this.fHead){
+      this.fStuckHead=this.fHead;
+      this.fStuckSince=now;
+    }
+    else if (now-this.fStuckSince>=this.fStuckNanos &&
+             compareAndSet(stateOf(block), state, state(lapOf(state)+1, 0, FREE))) // its writer fails to publish it
+      release(lengthOf(state));
+  }
+
+  // Frees the @length blocks at the head of the ring for the next lap, and advances the head past them
+  private void release(int length){
+    int block=(int)(this.fHead%this.fBlocks);
+    long free=state(this.fHead/this.fBlocks+1, 0, FREE);
+
+    for (int i=0; i<length; i++)
+      setRelease(stateOf(block+i), free);
+    this.fHead+=length;
+    setRelease(HEAD, this.fHead);
+  }
+
+  private static int stateOf(int block){
+    return STATES+8*block;
+  }
+
+  private static long state(long lap, int length, long status){
+    return lap<<32 | (long)length<<2 | status;
+  }
+
+  private static long lapOf(long state){
+    return state>>>32;
+  }
+
+  private static int lengthOf(long state){
+    return (int)state>>>2;
+  }
+
+  private static int blocks(int size){
+    return (size+BLOCK-1)/BLOCK;
+  }
+
+  private static MappedRing map(Path path, long stuckNanos) throws IOException {
+    MappedByteBuffer buffer;
+
+    try (FileChannel file=FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+      buffer=file.map(FileChannel.MapMode.READ_WRITE, 0, file.size());
+    }
+    try{
+      return (MappedRing)IMPLEMENTATION.newInstance(buffer, stuckNanos);
+    }
+    catch (InvocationTargetException e){
+      throw new IllegalStateException("can't map a ring", e.getCause());
+    }
+    catch (ReflectiveOperationException e){
+      throw new IllegalStateException("can't map a ring", e);
+    }
+  }
+
+  private static void checkSupported(){
+    if (IMPLEMENTATION==null)
+      throw new UnsupportedOperationException("mapped rings require Java 11 or later, running on "+System.getProperty("java.version"));
+  }
+
+  // @return the constructor of VarHandleRing, or null if it was not compiled or can't be loaded by the running JDK
+  private static Constructor<?> implementation(){
+    try{
+      return Class.forName(MappedRing.class.getPackage().getName()+".VarHandleRing").getDeclaredConstructor(MappedByteBuffer.class, long.class);
+    }
+    catch (ReflectiveOperationException | LinkageError e){
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,351 @@
+package bgu.spl.mics.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+* Routes the messages between the processes connected to it, each through a {@link RemoteBridge}: a request is handed
+* to one of the processes which handle its type in a round-robin fashion, its completion is returned to the process
+* which sent it, and a broadcast is sent to all the processes subscribed to its type except its sender.
+* <p>
+* The broker does not decode the messages - it routes the frames by the tags of their types (see {@link Frames}) - so
+* it runs with any {@link MessageCodec}. All the connections are served by a single thread with a {@link Selector};
+* the frames read from a connection in one round are written to their destinations at once.
+* <p>
+* A broker is run by its own thread, or as a process of its own: {@code java bgu.spl.mics.remote.MessageBroker [port]}
+*/
+public class MessageBroker implements Runnable {
+
+  /**
+  * The port a broker started by {@link #main(String[])} listens on by default
+  */
+  public static final int DEFAULT_PORT = 7000;
+
+  private static final int BUFFER_SIZE = 4*Frames.MAX_FRAME;
+
+  private final Selector fSelector;
+  private final ServerSocketChannel fServer;
+  /**
+  * The processes which handle each request type (by its tag)
+  */
+  private final Map<Short,Route> fRequestRoutes=new HashMap<Short,Route>();
+  /**
+  * The processes subscribed to each broadcast type (by its tag)
+  */
+  private final Map<Short,List<Connection>> fBroadcastRoutes=new HashMap<Short,List<Connection>>();
+  /**
+  * The requests which were handed to a process and not completed yet, by the id the broker gave them
+  */
+  private final Map<Long,InFlight> fInFlight=new HashMap<Long,InFlight>();
+  /**
+  * The connections which have frames to write
+  */
+  private final Set<Connection> fDirty=new LinkedHashSet<Connection>();
+  private long fNextId;
+  private volatile boolean fClosed;
+
+
+  /**
+  * Opens the broker's socket - the broker accepts connections once it is run.
+  * @param address the address to listen on (port 0 picks a free port, see {@link #getPort()})
+  * @throws IOException if the socket could not be opened
+  */
+  public MessageBroker(InetSocketAddress address) throws IOException {
+    this.fSelector=Selector.open();
+    this.fServer=ServerSocketChannel.open();
+    this.fServer.bind(address);
+    this.fServer.configureBlocking(false);
+    this.fServer.register(this.fSelector, SelectionKey.OP_ACCEPT);
+  }
+
+  /**
+  * @return the port the broker listens on
+  */
+  public int getPort(){
+    return this.fServer.socket().getLocalPort();
+  }
+
+  /**
+  * Stops the broker, and closes all its connections.
+  */
+  public void close(){
+    this.fClosed=true;
+    this.fSelector.wakeup();
+  }
+
+  @Override
+  public void run(){
+    try{
+      while (!this.fClosed){
+        this.fSelector.select();
+        for (Iterator<SelectionKey> keys=this.fSelector.selectedKeys().iterator(); keys.hasNext();){
+          SelectionKey key=keys.next();
+
+          keys.remove();
+          if (!key.isValid())
+            continue;
+          if (key.isAcceptable())
+            accept();
+          else{
+            if (key.isReadable())
+              read((Connection)key.attachment());
+            if (key.isValid() && key.isWritable())
+              this.fDirty.add((Connection)key.attachment());
+          }
+        }
+        while (!this.fDirty.isEmpty()) // disconnecting a connection may complete requests of others
+          flush();
+      }
+    }
+    catch (IOException e){
+      e.printStackTrace();
+    }
+    finally{
+      for (SelectionKey key: this.fSelector.keys()){
+        try{
+          key.channel().close();
+        }
+        catch (IOException e){ // closing anyway
+        }
+      }
+      try{
+        this.fSelector.close();
+      }
+      catch (IOException e){ // closing anyway
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel=this.fServer.accept();
+
+    if (channel==null)
+      return;
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    new Connection(channel, channel.register(this.fSelector, SelectionKey.OP_READ));
+  }
+
+  // Reads the frames available on @c, and routes each of them
+  private void read(Connection c){
+    int read;
+    int length;
+
+    try{
+      read=c.fChannel.read(c.fIn);
+      c.fIn.flip();
+      while ((length=Frames.available(c.fIn))>0){
+        route(c, c.fIn, length);
+        c.fIn.position(c.fIn.position()+length);
+      }
+      c.fIn.compact();
+      if (read<0)
+        disconnect(c);
+    }
+    catch (IOException | IllegalStateException e){ // the process is gone, or does not speak the protocol
+      disconnect(c);
+    }
+  }
+
+  // Routes the frame of @length bytes at the position of @in, which was read from @from
+  private void route(Connection from, ByteBuffer in, int length){
+    int start=in.position();
+    byte kind=in.get(start+Frames.KIND);
+    short tag=in.getShort(start+Frames.TAG);
+    long id=in.getLong(start+Frames.ID);
+
+    switch (kind){
+    case Frames.SUBSCRIBE_REQUEST:
+      this.fRequestRoutes.computeIfAbsent(tag, t -> new Route()).fHandlers.add(from);
+      break;
+    case Frames.SUBSCRIBE_BROADCAST:
+      this.fBroadcastRoutes.computeIfAbsent(tag, t -> new ArrayList<Connection>()).add(from);
+      break;
+    case Frames.REQUEST:
+      routeRequest(from, in, length, tag, id);
+      break;
+    case Frames.BROADCAST:
+      for (Connection to: this.fBroadcastRoutes.getOrDefault(tag, Collections.<Connection>emptyList())){
+        if (to!=from)
+          forward(to, in, start, length, id);
+      }
+      break;
+    case Frames.COMPLETE:
+      InFlight request=this.fInFlight.remove(id);
+
+      if (request!=null) // else its requester is gone
+        forward(request.fRequester, in, start, length, request.fRequesterId);
+      break;
+    default:
+      throw new IllegalStateException("unknown frame kind "+kind);
+    }
+  }
+
+  // Hands the request at @in to the next process which handles its type, or tells @from that none does
+  private void routeRequest(Connection from, ByteBuffer in, int length, short tag, long id){
+    Route route=this.fRequestRoutes.get(tag);
+    Connection handler;
+    long brokerId;
+
+    if (route==null || route.fHandlers.isEmpty()){
+      undelivered(from, tag, id);
+      return;
+    }
+    if (route.fNext>=route.fHandlers.size())
+      route.fNext=0;
+    handler=route.fHandlers.get(route.fNext++);
+    brokerId=++this.fNextId;
+    this.fInFlight.put(brokerId, new InFlight(from, id, handler));
+    forward(handler, in, in.position(), length, brokerId);
+  }
+
+  // Copies the frame of @length bytes at @start of @in to the output of @to, with the id @id
+  private void forward(Connection to, ByteBuffer in, int start, int length, long id){
+    ByteBuffer out=to.reserve(length);
+    ByteBuffer frame=in.duplicate();
+    int at=out.position();
+
+    frame.limit(start+length);
+    frame.position(start);
+    out.put(frame);
+    out.putLong(at+Frames.ID, id);
+    this.fDirty.add(to);
+  }
+
+  // Completes the request @id of @to with an empty payload
+  private void undelivered(Connection to, short tag, long id){
+    ByteBuffer out=to.reserve(Frames.PAYLOAD);
+
+    out.putInt(Frames.HEADER).put(Frames.COMPLETE).putShort(tag).putLong(id);
+    this.fDirty.add(to);
+  }
+
+  // Writes as much of the output of the dirty connections as their sockets take
+  private void flush(){
+    Connection[] dirty=this.fDirty.toArray(new Connection[this.fDirty.size()]);
+
+    this.fDirty.clear();
+    for (Connection c: dirty){
+      try{
+        c.fOut.flip();
+        c.fChannel.write(c.fOut);
+        c.fOut.compact();
+        if (c.fKey.isValid())
+          c.fKey.interestOps(c.fOut.position()>0? SelectionKey.OP_READ|SelectionKey.OP_WRITE: SelectionKey.OP_READ);
+      }
+      catch (IOException e){
+        c.fOut.clear();
+        disconnect(c);
+      }
+    }
+  }
+
+  // Forgets @c: its subscriptions are removed, and the requests it was handling are completed as undelivered
+  private void disconnect(Connection c){
+    if (!c.fKey.isValid())
+      return;
+    c.fKey.cancel();
+    try{
+      c.fChannel.close();
+    }
+    catch (IOException e){ // closing anyway
+    }
+    for (Route route: this.fRequestRoutes.values())
+      route.fHandlers.remove(c);
+    for (List<Connection> subscribers: this.fBroadcastRoutes.values())
+      subscribers.remove(c);
+    for (Iterator<InFlight> requests=this.fInFlight.values().iterator(); requests.hasNext();){
+      InFlight request=requests.next();
+
+      if (request.fRequester==c)
+        requests.remove();
+      else if (request.fHandler==c){
+        requests.remove();
+        undelivered(request.fRequester, (short)0, request.fRequesterId);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port=args.length>0? Integer.parseInt(args[0]): DEFAULT_PORT;
+    MessageBroker broker=new MessageBroker(new InetSocketAddress(port));
+
+    System.out.println("message broker listening on port "+broker.getPort());
+    broker.run();
+  }
+
+  /**
+  * A process connected to the broker.
+  */
+  private static class Connection {
+
+    private final SocketChannel fChannel;
+    private final SelectionKey fKey;
+    private final ByteBuffer fIn=ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /**
+    * The frames to write to the process, which grows as long as the process does not read them
+    */
+    private ByteBuffer fOut=ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    Connection(SocketChannel channel, SelectionKey key){
+      this.fChannel=channel;
+      this.fKey=key;
+      key.attach(this);
+    }
+
+    // @return the output buffer, with at least @length bytes remaining
+    ByteBuffer reserve(int length){
+      ByteBuffer larger;
+
+      if (this.fOut.remaining()<length){
+        larger=ByteBuffer.allocateDirect(Math.max(2*this.fOut.capacity(), this.fOut.position()+length));
+        this.fOut.flip();
+        larger.put(this.fOut);
+        this.fOut=larger;
+      }
+      return this.fOut;
+    }
+  }
+
+  /**
+  * The processes which handle a request type.
+  */
+  private static class Route {
+
+    private final List<Connection> fHandlers=new ArrayList<Connection>();
+    private int fNext;
+  }
+
+  /**
+  * A request handed to a process.
+  */
+  private static class InFlight {
+
+    private final Connection fRequester;
+    /**
+    * The id the requester gave the request
+    */
+    private final long fRequesterId;
+    private final Connection fHandler;
+
+    InFlight(Connection requester, long requesterId, Connection handler){
+      this.fRequester=requester;
+      this.fRequesterId=requesterId;
+      this.fHandler=handler;
+    }
+  }
+
+}
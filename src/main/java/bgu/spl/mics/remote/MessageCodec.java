@@ -0,0 +1,38 @@
+package bgu.spl.mics.remote;
+
+import java.nio.ByteBuffer;
+
+/**
+* Encodes the messages which cross process boundaries, and the results of the requests among them, in a compact
+* binary form (see {@link RemoteBridge}).
+* <p>
+* Every type a codec encodes has a tag, unique in that codec, which the {@link MessageBroker} routes the messages by;
+* the processes connected to the same broker must use the same codec. An encoded value carries its tag, so a value
+* is decoded without knowing its type in advance.
+*/
+public interface MessageCodec {
+
+  /**
+  * @param type a message type (or a type of results)
+  * @return the tag of {@code type}, or -1 if this codec does not encode it
+  */
+  short tagOf(Class<?> type);
+
+  /**
+  * Writes {@code value} to {@code out}, starting at its position.
+  * @param value a message or a result of a request, which may be null
+  * @param out the buffer to write to
+  * @throws IllegalArgumentException if this codec does not encode the type of {@code value}
+  * @throws java.nio.BufferOverflowException if {@code value} does not fit in {@code out}
+  */
+  void encode(Object value, ByteBuffer out);
+
+  /**
+  * Reads a value written by {@link #encode(Object, ByteBuffer)} from {@code in}, starting at its position.
+  * @param in the buffer to read from
+  * @return the value, which may be null
+  * @throws IllegalArgumentException if {@code in} does not start with a tag of this codec
+  */
+  Object decode(ByteBuffer in);
+
+}
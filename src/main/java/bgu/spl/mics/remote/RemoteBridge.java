@@ -0,0 +1,219 @@
+package bgu.spl.mics.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Request;
+
+/**
+* A bridge (see {@link AbstractBridge}) connected to the other processes through a {@link MessageBroker}, over a
+* socket: every frame is sent to the broker, which routes it.
+* <p>
+* Besides the event loop, a bridge runs a thread which reads the frames of the broker, and a thread which writes the
+* frames the event loop queues, all those queued at once - so the event loop never waits for the socket. The queue
+* grows while the writer is behind, up to {@link #MAX_QUEUED} bytes: a broker which does not read that much is taken
+* for stuck, and the bridge disconnects from it rather than block its event loop (which may be shared by other
+* micro-services) or drop frames. The bridge terminates once its connection to the broker is closed (see
+* {@link #close()}).
+*/
+public class RemoteBridge extends AbstractBridge {
+
+  private static final int BUFFER_SIZE = 4*Frames.MAX_FRAME;
+  /**
+  * The most bytes of frames queued while the writer is behind
+  */
+  private static final int MAX_QUEUED = 256*Frames.MAX_FRAME;
+
+  private final InetSocketAddress fBroker;
+  /**
+  * Guards the output buffers, and {@link #fClosed}
+  */
+  private final ReentrantLock fLock=new ReentrantLock();
+  /**
+  * Signaled when frames are queued, or the bridge is closed
+  */
+  private final Condition fQueued=this.fLock.newCondition();
+  /**
+  * The frames queued to be written, which grows while the writer is behind
+  */
+  private ByteBuffer fOut=ByteBuffer.allocateDirect(BUFFER_SIZE);
+  /**
+  * The frames the writer is writing (empty while it waits)
+  */
+  private ByteBuffer fWriting=ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private volatile SocketChannel fChannel;
+  private volatile boolean fClosed;
+
+
+  /**
+  * @param name the name of the bridge
+  * @param broker the address of the {@link MessageBroker}
+  * @param codec the codec of the messages, which all the processes connected to the broker use
+  */
+  public RemoteBridge(String name, InetSocketAddress broker, MessageCodec codec){
+    super(name, codec);
+    this.fBroker=broker;
+  }
+
+  /**
+  * Disconnects the bridge from the broker once the frames queued so far are written. The bridge terminates once the
+  * broker closes the connection; the requests it forwarded and were not completed yet are completed with null.
+  */
+  @Override
+  public void close(){
+    this.fLock.lock();
+    try{
+      this.fClosed=true;
+      this.fQueued.signalAll();
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  @Override
+  boolean connect(){
+    try{
+      this.fChannel=SocketChannel.open(this.fBroker);
+      this.fChannel.socket().setTcpNoDelay(true);
+      return true;
+    }
+    catch (IOException e){
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  @Override
+  void startTransport(){
+    Thread reader=new Thread(this::readFrames, getName()+" reader");
+    Thread writer=new Thread(this::writeFrames, getName()+" writer");
+
+    reader.setDaemon(true);
+    writer.setDaemon(true);
+    reader.start();
+    writer.start();
+  }
+
+  @Override
+  void sendSubscription(byte kind, short tag){
+    send(kind, tag, 0, null, null);
+  }
+
+  @Override
+  boolean sendRequestFrame(short tag, Request<?> r){
+    return send(Frames.REQUEST, tag, r.getRequestId(), getCodec(), r);
+  }
+
+  @Override
+  void sendBroadcastFrame(short tag, Broadcast b){
+    send(Frames.BROADCAST, tag, 0, getCodec(), b);
+  }
+
+  @Override
+  void sendCompletion(int origin, short tag, long id, boolean handled, Object result){
+    send(Frames.COMPLETE, tag, id, handled? getCodec(): null, result);
+  }
+
+  // Queues a frame (see Frames#write) for the writer, growing the queue if it is full - without waiting
+  // @return false if the bridge is closed, or was disconnected as the writer fell MAX_QUEUED behind
+  private boolean send(byte kind, short tag, long id, MessageCodec codec, Object value){
+    ByteBuffer larger;
+
+    this.fLock.lock();
+    try{
+      if (this.fClosed)
+        return false;
+      if (this.fOut.remaining()<Frames.MAX_FRAME){
+        if (this.fOut.capacity()>=MAX_QUEUED){ // the broker does not read the frames
+          disconnect();
+          return false;
+        }
+        larger=ByteBuffer.allocateDirect(Math.min(2*this.fOut.capacity(), MAX_QUEUED));
+        this.fOut.flip();
+        larger.put(this.fOut);
+        this.fOut=larger;
+      }
+      Frames.write(this.fOut, kind, tag, id, codec, value);
+      this.fQueued.signal();
+      return true;
+    }
+    finally{
+      this.fLock.unlock();
+    }
+  }
+
+  // The loop of the writer: writes all the queued frames at once, until the bridge is closed
+  private void writeFrames(){
+    ByteBuffer frames;
+
+    try{
+      while (true){
+        this.fLock.lock();
+        try{
+          while (this.fOut.position()==0 && !this.fClosed)
+            this.fQueued.awaitUninterruptibly();
+          if (this.fOut.position()==0) // closed, and all the frames are written
+            break;
+          frames=this.fOut;
+          this.fOut=this.fWriting;
+          this.fWriting=frames;
+        }
+        finally{
+          this.fLock.unlock();
+        }
+        frames.flip();
+        while (frames.hasRemaining())
+          this.fChannel.write(frames);
+        frames.clear();
+      }
+      this.fChannel.shutdownOutput(); // the broker closes the connection, which ends the reader
+    }
+    catch (IOException e){
+      disconnect();
+    }
+  }
+
+  // The loop of the reader: handles the frames of the broker, until the connection is closed
+  private void readFrames(){
+    ByteBuffer in=ByteBuffer.allocateDirect(BUFFER_SIZE);
+    int length;
+    int start;
+
+    try{
+      while (this.fChannel.read(in)>=0){
+        in.flip();
+        while ((length=Frames.available(in))>0){
+          start=in.position();
+          receive(0, in, start, length);
+          in.position(start+length);
+        }
+        in.compact();
+      }
+    }
+    catch (IOException | RuntimeException e){
+      if (!this.fClosed)
+        e.printStackTrace();
+    }
+    finally{
+      disconnect();
+      disconnected();
+    }
+  }
+
+  // Closes the connection, and stops queuing frames
+  private void disconnect(){
+    close();
+    try{
+      this.fChannel.close();
+    }
+    catch (IOException e){ // closing anyway
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+package bgu.spl.mics.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Request;
+
+/**
+* A bridge (see {@link AbstractBridge}) connected to the other processes of the same host through shared memory: every
+* process reads the frames sent to it from a {@link MappedRing} of its own, which all its peers write to, so a frame
+* is passed without any system call.
+* <p>
+* The processes are identified by slots, and the ring of a process is the file {@code ring-<slot>} in a directory
+* they share (preferably in memory, such as {@code /dev/shm}). Every bridge creates its ring as it starts, and maps the
+* rings of its peers once they exist (see {@link #addPeer(int)}) - the peers must add each other. Requests are handed
+* to the peers which handle their type in a round-robin fashion.
+* <p>
+* The reader of the ring spins while it is empty, and then backs off to yielding and to short sleeps, so an idle
+* bridge does not hold a core. Nothing tells a bridge that a peer is gone: the requests forwarded to a peer which
+* exited are never completed, unless they time out (see {@link bgu.spl.mics.RequestTimeout}). The ring of a process
+* which crashed must be removed before it is restarted.
+* <p>
+* Only the hop between the processes avoids the operating system. The rings are per process rather than per
+* micro-service, so every received frame is still handed to the event loop of the bridge (see
+* {@link AbstractBridge}), and then to the mailbox of the micro-service it is for; either hand-off takes the lock of
+* a mailbox, and wakes (unparks) its thread if it waits. A round trip between two processes therefore costs a few
+* tens of microseconds (see {@code bgu.spl.bench.RemoteBenchmark}) - several times less than through a
+* {@link RemoteBridge}, but far from the sub-microsecond latency of the ring itself, which was not shown end to end.
+* <p>
+* The rings need Java 11 or later (see {@link MappedRing}).
+*/
+public class SharedMemoryBridge extends AbstractBridge {
+
+  /**
+  * The size of a ring by default
+  */
+  public static final int DEFAULT_CAPACITY = 1<<20;
+
+  /**
+  * The times the reader polls an empty ring before it yields, and before it sleeps. With a single processor spinning
+  * only keeps the writer from running, so the reader yields at once.
+  */
+  private static final int SPINS = Runtime.getRuntime().availableProcessors()>1? 20000: 0;
+  private static final int YIELDS = 2000;
+  private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Path fDirectory;
+  private final int fSlot;
+  private final int fCapacity;
+  private final List<Integer> fPeerSlots=new ArrayList<Integer>();
+  /**
+  * The ring this process reads
+  */
+  private MappedRing fInbox;
+  /**
+  * The rings of the peers, by their slots. Filled before the reader starts, and not modified afterwards.
+  */
+  private final Map<Integer,MappedRing> fPeers=new HashMap<Integer,MappedRing>();
+  /**
+  * The slots of the peers which handle each request type (by its tag), replaced as a whole (copy-on-write)
+  */
+  private final Map<Short,int[]> fRequestRoutes=new ConcurrentHashMap<Short,int[]>();
+  /**
+  * The slots of the peers subscribed to each broadcast type (by its tag), replaced as a whole (copy-on-write)
+  */
+  private final Map<Short,int[]> fBroadcastRoutes=new ConcurrentHashMap<Short,int[]>();
+  /**
+  * The peer the next request is handed to, as an index to its route (only used by the event loop)
+  */
+  private int fNext;
+  /**
+  * The buffer each thread encodes its frames in, before they are copied to a ring
+  */
+  private final ThreadLocal<ByteBuffer> fFrame=ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Frames.MAX_FRAME));
+  private volatile boolean fClosed;
+  private final BooleanSupplier fClosedCheck=() -> this.fClosed;
+
+
+  /**
+  * @param name the name of the bridge
+  * @param directory the directory of the rings
+  * @param slot the slot of this process, unique among the processes which share {@code directory}
+  * @param codec the codec of the messages, which all the peers use
+  * @throws UnsupportedOperationException if the running JDK does not support the rings
+  */
+  public SharedMemoryBridge(String name, Path directory, int slot, MessageCodec codec){
+    this(name, directory, slot, codec, DEFAULT_CAPACITY);
+  }
+
+  /**
+  * @param name the name of the bridge
+  * @param directory the directory of the rings
+  * @param slot the slot of this process, unique among the processes which share {@code directory}
+  * @param codec the codec of the messages, which all the peers use
+  * @param capacity the size of the ring of this process, a multiple of {@link MappedRing#BLOCK} of at least 2
+  *        {@link Frames#MAX_FRAME}s
+  * @throws UnsupportedOperationException if the running JDK does not support the rings
+  */
+  public SharedMemoryBridge(String name, Path directory, int slot, MessageCodec codec, int capacity){
+    super(name, codec);
+    if (!MappedRing.isSupported())
+      throw new UnsupportedOperationException("shared-memory bridges require Java 11 or later, running on "+System.getProperty("java.version"));
+    this.fDirectory=directory;
+    this.fSlot=slot;
+    this.fCapacity=capacity;
+  }
+
+  /**
+  * Connects to the process of slot {@code slot}, whose ring the bridge waits for as it starts. Must be called before
+  * the bridge is run.
+  * @param slot the slot of a peer
+  * @return this bridge
+  */
+  public SharedMemoryBridge addPeer(int slot){
+    if (slot==this.fSlot)
+      throw new IllegalArgumentException("a process is not a peer of itself: "+slot);
+    this.fPeerSlots.add(slot);
+    return this;
+  }
+
+  /**
+  * Stops reading the ring of this process, and removes it. The bridge terminates at once; the requests it forwarded
+  * and were not completed yet are completed with null.
+  */
+  @Override
+  public void close(){
+    this.fClosed=true;
+  }
+
+  @Override
+  boolean connect(){
+    try{
+      Files.createDirectories(this.fDirectory);
+      this.fInbox=MappedRing.create(ring(this.fSlot), this.fCapacity);
+      for (int peer: this.fPeerSlots){
+        while (!Files.exists(ring(peer))){ // not started yet
+          if (this.fClosed)
+            return false;
+          TimeUnit.MILLISECONDS.sleep(10);
+        }
+        this.fPeers.put(peer, MappedRing.open(ring(peer)));
+      }
+      return true;
+    }
+    catch (IOException e){
+      e.printStackTrace();
+      return false;
+    }
+    catch (InterruptedException e){
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override
+  void startTransport(){
+    Thread reader=new Thread(this::readFrames, getName()+" reader");
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  @Override
+  void sendSubscription(byte kind, short tag){
+    for (int peer: this.fPeerSlots)
+      send(peer, kind, tag, 0, null, null);
+  }
+
+  @Override
+  boolean sendRequestFrame(short tag, Request<?> r){
+    int[] handlers=this.fRequestRoutes.get(tag);
+
+    if (handlers==null)
+      return false;
+    if (this.fNext>=handlers.length)
+      this.fNext=0;
+    return send(handlers[this.fNext++], Frames.REQUEST, tag, r.getRequestId(), getCodec(), r);
+  }
+
+  @Override
+  void sendBroadcastFrame(short tag, Broadcast b){
+    int[] subscribers=this.fBroadcastRoutes.get(tag);
+
+    if (subscribers!=null){
+      for (int peer: subscribers)
+        send(peer, Frames.BROADCAST, tag, 0, getCodec(), b);
+    }
+  }
+
+  @Override
+  void sendCompletion(int origin, short tag, long id, boolean handled, Object result){
+    send(origin, Frames.COMPLETE, tag, id, handled? getCodec(): null, result);
+  }
+
+  @Override
+  void subscribed(int origin, byte kind, short tag){
+    Map<Short,int[]> routes;
+    int[] peers;
+
+    if (kind==Frames.SUBSCRIBE_REQUEST)
+      routes=this.fRequestRoutes;
+    else if (kind==Frames.SUBSCRIBE_BROADCAST)
+      routes=this.fBroadcastRoutes;
+    else{
+      super.subscribed(origin, kind, tag);
+      return;
+    }
+    peers=routes.getOrDefault(tag, new int[0]);
+    peers=Arrays.copyOf(peers, peers.length+1);
+    peers[peers.length-1]=origin;
+    routes.put(tag, peers);
+  }
+
+  // Writes a frame (see Frames#write) to the ring of @peer, spinning while it is full
+  // @return false if @peer is not a peer of this process, or the bridge was closed
+  private boolean send(int peer, byte kind, short tag, long id, MessageCodec codec, Object value){
+    MappedRing ring=this.fPeers.get(peer);
+    ByteBuffer frame=this.fFrame.get();
+
+    if (ring==null)
+      return false;
+    frame.clear();
+    Frames.write(frame, kind, tag, id, codec, value);
+    frame.flip();
+    return ring.write(this.fSlot, frame, this.fClosedCheck);
+  }
+
+  // The loop of the reader: handles the frames of the ring, until the bridge is closed
+  private void readFrames(){
+    ByteBuffer in=this.fInbox.buffer();
+    int idle=0;
+    int start;
+
+    try{
+      while (!this.fClosed){
+        start=this.fInbox.next();
+        if (start<0){
+          if (++idle>SPINS+YIELDS)
+            LockSupport.parkNanos(SLEEP_NANOS);
+          else if (idle>SPINS)
+            Thread.yield();
+          continue;
+        }
+        idle=0;
+        in.position(start);
+        receive(this.fInbox.sender(), in, start, Frames.available(in));
+        this.fInbox.consume();
+      }
+    }
+    catch (RuntimeException e){
+      e.printStackTrace();
+    }
+    finally{
+      this.fClosed=true;
+      try{
+        Files.deleteIfExists(ring(this.fSlot));
+      }
+      catch (IOException e){ // removed anyway when the directory is
+      }
+      disconnected();
+    }
+  }
+
+  private Path ring(int slot){
+    return this.fDirectory.resolve("ring-"+slot);
+  }
+
+}
@@ -0,0 +1,44 @@
+package bgu.spl.mics.remote;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+/**
+* The primitives of a {@link MappedRing}, through a {@link VarHandle} view of the mapped file in the native byte order.
+* Compiled on Java 11 and later only, and loaded by {@link MappedRing} by reflection.
+*/
+final class VarHandleRing extends MappedRing {
+
+  private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final MappedByteBuffer fMapped;
+
+
+  VarHandleRing(MappedByteBuffer buffer, long stuckNanos){
+    super(buffer, stuckNanos);
+    this.fMapped=buffer;
+  }
+
+  @Override
+  long getVolatile(int index){
+    return (long)LONG.getVolatile(this.fMapped, index);
+  }
+
+  @Override
+  long getAcquire(int index){
+    return (long)LONG.getAcquire(this.fMapped, index);
+  }
+
+  @Override
+  void setRelease(int index, long value){
+    LONG.setRelease(this.fMapped, index, value);
+  }
+
+  @Override
+  boolean compareAndSet(int index, long expected, long value){
+    return LONG.compareAndSet(this.fMapped, index, expected, value);
+  }
+
+}
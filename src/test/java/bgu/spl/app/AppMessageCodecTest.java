@@ -0,0 +1,112 @@
+package bgu.spl.app;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import bgu.spl.app.messages.AppMessageCodec;
+import bgu.spl.app.messages.ManufacturingOrderRequest;
+import bgu.spl.app.messages.NewDiscountBroadcast;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.app.messages.RestockRequest;
+import bgu.spl.app.messages.TickBroadcast;
+import bgu.spl.app.messages.TimeServiceClock;
+import bgu.spl.app.passiveObjects.Receipt;
+import bgu.spl.app.passiveObjects.Sale;
+
+public class AppMessageCodecTest {
+
+  private final AppMessageCodec codec=new AppMessageCodec();
+
+  // encodes @value, and decodes it back
+  private Object roundTrip(Object value){
+    ByteBuffer buffer=ByteBuffer.allocate(1024);
+    Object decoded;
+
+    this.codec.encode(value, buffer);
+    buffer.flip();
+    decoded=this.codec.decode(buffer);
+    assertFalse(buffer.hasRemaining());
+    return decoded;
+  }
+
+  private static void assertReceipt(Receipt expected, Receipt actual){
+    assertEquals(expected.getSeller(), actual.getSeller());
+    assertEquals(expected.getCustomer(), actual.getCustomer());
+    assertEquals(expected.getShoeType(), actual.getShoeType());
+    assertEquals(expected.getDiscount(), actual.getDiscount());
+    assertEquals(expected.getIssuedTick(), actual.getIssuedTick());
+    assertEquals(expected.getRequestTick(), actual.getRequestTick());
+    assertEquals(expected.getAmountSold(), actual.getAmountSold());
+  }
+
+  private static void assertOrder(PurchaseOrderRequest expected, PurchaseOrderRequest actual){
+    assertEquals(expected.getSenderName(), actual.getSenderName());
+    assertEquals(expected.getShoeRequested(), actual.getShoeRequested());
+    assertEquals(expected.getDiscount(), actual.getDiscount());
+    assertEquals(expected.getRequestTick(), actual.getRequestTick());
+    assertEquals(expected.getAmountWanted(), actual.getAmountWanted());
+  }
+
+  @Test
+  public void testResults() {
+    Receipt receipt=new Receipt("seller", "customer", "red boots", true, 3, 2, 1);
+    Receipt store=new Receipt("store", null, "red boots", false, 4, 4, 6);
+    Sale sale;
+
+    assertNull(roundTrip(null));
+    assertEquals(Boolean.TRUE, roundTrip(true));
+    assertEquals(Boolean.FALSE, roundTrip(false));
+    assertReceipt(receipt, (Receipt)roundTrip(receipt));
+    assertReceipt(store, (Receipt)roundTrip(store));
+    sale=(Sale)roundTrip(new Sale(Arrays.asList(receipt, store)));
+    assertEquals(2, sale.getReceipts().size());
+    assertReceipt(receipt, sale.getReceipts().get(0));
+    assertReceipt(store, sale.getReceipts().get(1));
+  }
+
+  @Test
+  public void testMessages() {
+    TickBroadcast tick=(TickBroadcast)roundTrip(new TickBroadcast("timer", 5, 20));
+    NewDiscountBroadcast discount=(NewDiscountBroadcast)roundTrip(new NewDiscountBroadcast("manager", "sandals été", 3));
+    PurchaseOrderRequest order=new PurchaseOrderRequest("customer", "red boots", true, 7, 2);
+    RestockRequest restock=(RestockRequest)roundTrip(new RestockRequest(9, "red boots", 2, order));
+    ManufacturingOrderRequest manufacturing=(ManufacturingOrderRequest)roundTrip(new ManufacturingOrderRequest("manager", "red boots", 10, 8));
+
+    assertEquals("timer", tick.getSenderId());
+    assertEquals(5, tick.getCurrentTick());
+    assertEquals(20, tick.getDuration());
+    assertEquals("manager", discount.getSenderId());
+    assertEquals("sandals été", discount.getshoeType());
+    assertEquals(3, discount.getAomunt());
+    assertTrue(roundTrip(new TimeServiceClock()) instanceof TimeServiceClock);
+    assertOrder(order, (PurchaseOrderRequest)roundTrip(order));
+    assertEquals(9, restock.getId());
+    assertEquals("red boots", restock.getShoeNeeded());
+    assertEquals(2, restock.getAmountNeeded());
+    assertOrder(order, restock.getPurchaseOrderRequest());
+    assertEquals("manager", manufacturing.getSenderName());
+    assertEquals("red boots", manufacturing.getShoeType());
+    assertEquals(10, manufacturing.getAmountNeeded());
+    assertEquals(8, manufacturing.getRequestedTick());
+  }
+
+  // every type is tagged, and a value the codec does not know is rejected
+  @Test
+  public void testTags() {
+    for (Class<?> type: Arrays.<Class<?>>asList(Receipt.class, Sale.class, TickBroadcast.class, NewDiscountBroadcast.class, TimeServiceClock.class,
+                                                PurchaseOrderRequest.class, RestockRequest.class, ManufacturingOrderRequest.class))
+      assertTrue(type.getName(), this.codec.tagOf(type)>0);
+    assertEquals(-1, this.codec.tagOf(String.class));
+    try{
+      this.codec.encode("text", ByteBuffer.allocate(16));
+      fail("a string was encoded");
+    }
+    catch (IllegalArgumentException e){ // as expected
+    }
+  }
+
+}
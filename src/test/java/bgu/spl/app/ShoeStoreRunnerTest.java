@@ -0,0 +1,46 @@
+package bgu.spl.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import bgu.spl.app.messages.ManufacturingOrderRequest;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.app.messages.RestockRequest;
+import bgu.spl.mics.impl.DispatchStrategy;
+import bgu.spl.mics.impl.LeastQueueDepthStrategy;
+import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.PowerOfTwoChoicesStrategy;
+import bgu.spl.mics.impl.RoundRobinStrategy;
+
+public class ShoeStoreRunnerTest {
+
+  private final MessageBusImpl bus=MessageBusImpl.getInstance();
+
+  @After
+  public void tearDown() throws Exception {
+    this.bus.setDispatchStrategy(PurchaseOrderRequest.class, new RoundRobinStrategy());
+    this.bus.setDispatchStrategy(RestockRequest.class, new RoundRobinStrategy());
+  }
+
+  // each request type named in the "dispatch" object gets a strategy of its own, and unknown types and strategies
+  // leave the types as they were
+  @Test
+  public void testDispatchStrategies() {
+    JsonObject jdispatch=new JsonParser().parse("{\"PurchaseOrderRequest\": \"least-queue-depth\", "+
+                                                "\"RestockRequest\": \"power-of-two-choices\", "+
+                                                "\"ManufacturingOrderRequest\": \"fastest\", "+
+                                                "\"NoSuchRequest\": \"round-robin\"}").getAsJsonObject();
+    DispatchStrategy manufacturing=this.bus.getDispatchStrategy(ManufacturingOrderRequest.class);
+
+    ShoeStoreRunner.parseDispatchStrategies(jdispatch);
+    assertTrue(this.bus.getDispatchStrategy(PurchaseOrderRequest.class) instanceof LeastQueueDepthStrategy);
+    assertTrue(this.bus.getDispatchStrategy(RestockRequest.class) instanceof PowerOfTwoChoicesStrategy);
+    assertSame(manufacturing, this.bus.getDispatchStrategy(ManufacturingOrderRequest.class));
+  }
+
+}
@@ -2,13 +2,32 @@ package bgu.spl.app;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.app.messages.TickBroadcast;
+import bgu.spl.app.passiveObjects.Checkout;
+import bgu.spl.app.passiveObjects.Receipt;
+import bgu.spl.app.passiveObjects.Sale;
 import bgu.spl.app.passiveObjects.ShoeStorageInfo;
 import bgu.spl.app.passiveObjects.Store;
 import bgu.spl.app.passiveObjects.Store.BuyResult;
+import bgu.spl.app.passiveObjects.Store.FillPolicy;
+import bgu.spl.app.services.SellingService;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.impl.MessageBusImpl;
 
 
  
@@ -101,5 +120,233 @@ public class StoreTest {
     store.addDiscount("assics palo", 3);
     assertEquals(5, this.shoes[4].getDiscountedAmount());
   }
+
+  @Test
+  public void testManyShoeTypes() {
+    ShoeStorageInfo[] catalog=new ShoeStorageInfo[20000];
+
+    for (int i=0; i<catalog.length; ++i)
+      catalog[i]=new ShoeStorageInfo("model "+i, 1, 0);
+    store.load(catalog);
+
+    assertEquals(BuyResult.REGULAR_PRICE, store.take("model 19999", false));
+    assertEquals(BuyResult.NOT_IN_STOCK, store.take("model 19999", false));
+    assertEquals(BuyResult.NOT_IN_STOCK, store.take("model 20000", false));
+    store.add("model 20000", 2); // a new shoe type
+    assertEquals(BuyResult.REGULAR_PRICE, store.take("model 20000", false));
+    store.add("model 0", 1);
+    assertEquals(2, catalog[0].getAmountOnStorage());
+  }
+
+  @Test
+  public void testCheckout() {
+    Map<String, Integer> basket=new LinkedHashMap<String, Integer>();
+    Checkout checkout;
+
+    store.load(shoes);
+
+    checkout=store.checkout("brooks glycerin", 3, false, FillPolicy.ALL_OR_NOTHING);
+    assertTrue(checkout.isFilled());
+    assertEquals(1, checkout.getLine().getDiscounted());
+    assertEquals(2, checkout.getLine().getRegular());
+    assertEquals(2, this.shoes[2].getAmountOnStorage());
+    assertEquals(0, this.shoes[2].getDiscountedAmount());
+
+    checkout=store.checkout("assics nimbus", 4, true, FillPolicy.ALL_OR_NOTHING); // only 3 on discount
+    assertFalse(checkout.isFilled());
+    assertEquals(0, checkout.getTaken());
+    assertEquals(4, this.shoes[3].getAmountOnStorage());
+    checkout=store.checkout("assics nimbus", 4, true, FillPolicy.PARTIAL);
+    assertEquals(3, checkout.getLine().getDiscounted());
+    assertEquals(0, checkout.getLine().getRegular());
+    assertEquals(1, this.shoes[3].getAmountOnStorage());
+
+    basket.put("assics palo", 2);
+    basket.put("brooks ghost", 2); // only 1 in stock
+    checkout=store.checkout(basket, false, FillPolicy.ALL_OR_NOTHING);
+    assertFalse(checkout.isFilled());
+    assertEquals(2, checkout.getLines().size());
+    assertEquals(0, checkout.getTaken());
+    assertEquals(5, this.shoes[4].getAmountOnStorage()); // put back
+    assertEquals(3, this.shoes[4].getDiscountedAmount());
+    checkout=store.checkout(basket, false, FillPolicy.PARTIAL);
+    assertFalse(checkout.isFilled());
+    assertEquals(3, checkout.getTaken());
+    assertEquals("brooks ghost", checkout.getLines().get(1).getShoeType());
+    assertEquals(1, checkout.getLines().get(1).getRegular());
+    assertEquals(2, checkout.getLines().get(0).getDiscounted());
+
+    basket.put("no such shoe", 1);
+    assertEquals(0, store.checkout(basket, false, FillPolicy.ALL_OR_NOTHING).getTaken());
+  }
+
+  // a basket which can't be filled takes nothing, so a buyer of one of its shoe types never finds it short meanwhile
+  @Test (timeout=10000)
+  public void testCheckoutAllIsAtomic() throws InterruptedException {
+    Map<String, Integer> basket=new LinkedHashMap<String, Integer>();
+    AtomicBoolean done=new AtomicBoolean();
+    AtomicInteger shortages=new AtomicInteger();
+    Thread buyer=new Thread(() -> {
+      for (int i=0; i<20000; ++i){
+        if (store.take("basket boots", false)==BuyResult.NOT_IN_STOCK)
+          shortages.incrementAndGet();
+        else
+          store.add("basket boots", 1);
+      }
+      done.set(true);
+    });
+
+    store.load(new ShoeStorageInfo[]{new ShoeStorageInfo("basket boots", 1, 0), new ShoeStorageInfo("basket laces", 1, 0)});
+    basket.put("basket boots", 1);
+    basket.put("basket laces", 2); // only 1 in stock
+    buyer.start();
+    while (!done.get())
+      assertEquals(0, store.checkout(basket, false, FillPolicy.ALL_OR_NOTHING).getTaken());
+    buyer.join();
+    assertEquals(0, shortages.get());
+    assertEquals(1, store.checkout("basket boots", 1, false, FillPolicy.ALL_OR_NOTHING).getTaken());
+  }
+
+  // a purchase of units at discount and at regular price is completed with a receipt for each
+  @Test (timeout=5000)
+  public void testMixedPriceSale() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    CountDownLatch initialized=new CountDownLatch(1);
+    CountDownLatch terminated=new CountDownLatch(1);
+    MicroService client=new MicroService("mixed client"){
+      protected void initialize(){
+      }
+    };
+    RequestCompleted<?> completed;
+    Sale sale;
+
+    store.load(new ShoeStorageInfo[]{new ShoeStorageInfo("mixed boots", 3, 1)});
+    new Thread(new SellingService("mixed seller", 0, initialized, terminated)).start();
+    initialized.await();
+    bus.register(client);
+
+    assertTrue(bus.sendRequest(new PurchaseOrderRequest("mixed client", "mixed boots", false, 1, 2), client));
+    completed=(RequestCompleted<?>)bus.awaitMessage(client);
+    sale=(Sale)completed.getResult();
+    assertEquals(2, sale.getAmountSold());
+    assertEquals(2, sale.getReceipts().size());
+    assertTrue(sale.getReceipts().get(0).getDiscount());
+    assertEquals(1, sale.getReceipts().get(0).getAmountSold());
+    assertFalse(sale.getReceipts().get(1).getDiscount());
+    assertEquals(1, sale.getReceipts().get(1).getAmountSold());
+
+    assertTrue(bus.sendRequest(new PurchaseOrderRequest("mixed client", "mixed boots", false, 1, 1), client));
+    sale=(Sale)((RequestCompleted<?>)bus.awaitMessage(client)).getResult();
+    assertEquals(1, sale.getReceipts().size());
+    assertFalse(sale.getReceipts().get(0).getDiscount());
+
+    bus.sendBroadcast(new TickBroadcast("timer", 2, 1)); // past the duration - the seller terminates
+    terminated.await();
+    bus.unregister(client);
+  }
+
+  // receipts filed by several threads are all read back in the order they were filed, whether their fields fit in a
+  // packed row or not
+  @Test (timeout=10000)
+  public void testReceipts() throws InterruptedException {
+    final int threads=4;
+    final int receipts=3000; // several chunks per thread
+    final List<String> filed=new ArrayList<String>();
+    Thread[] filers=new Thread[threads];
+    Iterator<Receipt> i;
+    int count=0;
+
+    for (int t=0; t<threads; ++t){
+      final String seller="ledger seller "+t;
+
+      filers[t]=new Thread(() -> {
+        for (int tick=0; tick<receipts; ++tick){
+          synchronized(filed){ // so the order they are filed in is known
+            store.file(receipt(seller, tick, receipts));
+            filed.add(seller+" "+tick);
+          }
+        }
+      });
+      filers[t].start();
+    }
+    for (Thread filer: filers)
+      filer.join();
+
+    for (i=store.receipts(); i.hasNext(); ){
+      Receipt receipt=i.next();
+      Receipt expected;
+      int tick;
+
+      if (receipt.getSeller()==null || !receipt.getSeller().startsWith("ledger seller ")) // filed by other tests
+        continue;
+      tick=Integer.parseInt(receipt.getCustomer().substring("customer ".length()));
+      assertEquals(filed.get(count), receipt.getSeller()+" "+tick);
+      expected=receipt(receipt.getSeller(), tick, receipts);
+      assertEquals(expected.getShoeType(), receipt.getShoeType());
+      assertEquals(expected.getDiscount(), receipt.getDiscount());
+      assertEquals(expected.getIssuedTick(), receipt.getIssuedTick());
+      assertEquals(expected.getRequestTick(), receipt.getRequestTick());
+      assertEquals(expected.getAmountSold(), receipt.getAmountSold());
+      ++count;
+    }
+    assertEquals(threads*receipts, count);
+  }
+
+  // the @tick-th of the @receipts receipts filed by @seller in testReceipts: the amount, the wait, and the difference of
+  // the issued tick from the previous one vary beyond what a packed row holds, and the issued tick goes back a little
+  // now and then
+  private static Receipt receipt(String seller, int tick, int receipts){
+    int issuedTick=2*tick+(tick>=receipts/2? 5000: 0)-(tick%50==0? 3: 0);
+
+    return new Receipt(seller, "customer "+tick, tick%1000==999? null: "shoe "+tick%7, tick%2==0, issuedTick, issuedTick-tick%1100, tick%150);
+  }
+
+  // sellers buy a single shoe type while the manager restocks it and puts it on discount: every unit is sold exactly
+  // once, and no more units are sold at discount than were put on discount
+  @Test (timeout=20000)
+  public void testTakeUnderContention() throws InterruptedException {
+    final int sellers=8;
+    final int restocks=500;
+    ShoeStorageInfo shoe=new ShoeStorageInfo("contended", 20000, 5000);
+    AtomicInteger regular=new AtomicInteger();
+    AtomicInteger discounted=new AtomicInteger();
+    AtomicBoolean restocked=new AtomicBoolean();
+    Thread[] threads=new Thread[sellers+1];
+
+    store.load(new ShoeStorageInfo[]{shoe});
+    for (int i=0; i<sellers; ++i){
+      final boolean onlyDiscount=i%3==0;
+
+      threads[i]=new Thread(() -> {
+        while (true){
+          BuyResult result=store.take("contended", onlyDiscount);
+
+          if (result==BuyResult.REGULAR_PRICE)
+            regular.incrementAndGet();
+          else if (result==BuyResult.DISCOUNTED_PRICE)
+            discounted.incrementAndGet();
+          else if (restocked.get() && (result==BuyResult.NOT_IN_STOCK || shoe.getAmountOnStorage()==0))
+            return;
+        }
+      });
+    }
+    threads[sellers]=new Thread(() -> {
+      for (int i=0; i<restocks; ++i){
+        store.add("contended", 4);
+        store.addDiscount("contended", 2);
+      }
+      restocked.set(true);
+    });
+    for (Thread thread: threads)
+      thread.start();
+    for (Thread thread: threads)
+      thread.join();
+
+    assertEquals(20000+4*restocks, regular.get()+discounted.get());
+    assertTrue(discounted.get()>=5000);
+    assertTrue(discounted.get()<=5000+2*restocks);
+    assertEquals(0, shoe.getAmountOnStorage());
+    assertEquals(0, shoe.getDiscountedAmount());
+  }
  
 }
\ No newline at end of file
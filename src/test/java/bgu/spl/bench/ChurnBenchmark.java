@@ -0,0 +1,81 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures the time a short-lived micro-service takes to register, subscribe to a request type and a broadcast
+* type, and unregister, while 10 or 10000 other micro-services stay subscribed to the same types (as many clients
+* of a store are).
+* <p>
+* Run with: {@code mvn -Pjmh test-compile exec:exec -Djmh.include=ChurnBenchmark}
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChurnBenchmark {
+
+  @Param({"10", "10000"})
+  public int subscribers;
+
+  private MessageBusImpl fBus;
+  private List<MicroService> fSubscribers;
+
+  @Setup
+  public void setUp(){
+    this.fBus=MessageBusImpl.getInstance();
+    this.fSubscribers=new ArrayList<MicroService>(this.subscribers);
+    for (int i=0; i<this.subscribers; ++i){
+      MicroService m=idle("subscriber "+i);
+
+      this.fBus.register(m);
+      this.fBus.subscribeRequest(EchoHandler.EchoRequest.class, m);
+      this.fBus.subscribeBroadcast(EchoHandler.StopBroadcast.class, m);
+      this.fSubscribers.add(m);
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    for (MicroService m: this.fSubscribers)
+      this.fBus.unregister(m);
+  }
+
+  @Benchmark
+  public void subscribeUnregister(){
+    MicroService m=idle("short-lived");
+
+    this.fBus.register(m);
+    this.fBus.subscribeRequest(EchoHandler.EchoRequest.class, m);
+    this.fBus.subscribeBroadcast(EchoHandler.StopBroadcast.class, m);
+    this.fBus.unregister(m);
+  }
+
+  private static MicroService idle(String name){
+    return new MicroService(name){ // registered only - never run
+      protected void initialize(){
+      }
+    };
+  }
+
+}
@@ -0,0 +1,113 @@
+package bgu.spl.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.OverflowPolicy;
+
+/**
+* Measures the requests per second {@link #PRODUCERS} threads send at once to {@link #HANDLERS}
+* {@link EchoHandler}s, which the requests are handed to in a round-robin fashion.
+* <p>
+* Each producer is a micro-service of its own, which takes the completions of its requests after every
+* batch of {@link #BATCH} requests. The mailboxes of the handlers are bounded with the block policy, so
+* the producers are slowed down to the pace of the handlers rather than filling the heap.
+* <p>
+* Run with: {@code mvn -Pjmh test-compile exec:exec -Djmh.include=ContendedSendBenchmark}
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(ContendedSendBenchmark.PRODUCERS)
+public class ContendedSendBenchmark {
+
+  static final int PRODUCERS = 8;
+  static final int HANDLERS = 4;
+  static final int BATCH = 64;
+  static final int HANDLER_MAILBOX_CAPACITY = 1024;
+
+  /**
+  * The handlers, shared by all the producers.
+  */
+  @State(Scope.Benchmark)
+  public static class Handlers {
+
+    private Thread[] fThreads;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+      CountDownLatch ready=new CountDownLatch(HANDLERS);
+
+      this.fThreads=new Thread[HANDLERS];
+      for (int i=0; i<HANDLERS; ++i){
+        EchoHandler handler=new EchoHandler("handler "+i, ready);
+
+        MessageBusImpl.getInstance().setMailboxLimit(handler, HANDLER_MAILBOX_CAPACITY, OverflowPolicy.BLOCK);
+        this.fThreads[i]=new Thread(handler, "handler "+i);
+        this.fThreads[i].start();
+      }
+      ready.await();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+      MessageBusImpl.getInstance().sendBroadcast(new EchoHandler.StopBroadcast());
+      for (Thread thread: this.fThreads)
+        thread.join();
+    }
+  }
+
+  /**
+  * The micro-service of a producer thread.
+  */
+  @State(Scope.Thread)
+  public static class Producer {
+
+    private MicroService fRequester;
+
+    @Setup
+    public void setUp(){
+      this.fRequester=new MicroService("producer "+Thread.currentThread().getName()){ // registered only - never run
+        protected void initialize(){
+        }
+      };
+      MessageBusImpl.getInstance().register(this.fRequester);
+    }
+
+    @TearDown
+    public void tearDown(){
+      MessageBusImpl.getInstance().unregister(this.fRequester);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void sendRequest(Handlers handlers, Producer producer, Blackhole blackhole){
+    MessageBus bus=MessageBusImpl.getInstance();
+
+    for (int i=0; i<BATCH; ++i)
+      bus.sendRequest(new EchoHandler.EchoRequest(), producer.fRequester);
+    blackhole.consume(bus.pollMessages(producer.fRequester, HANDLER_MAILBOX_CAPACITY));
+  }
+
+}
@@ -0,0 +1,155 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.impl.DispatchStrategy;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures the latency from sending a request until its completion is taken by the requester,
+* for each {@link DispatchStrategy}, when one of the handlers is much slower than the others
+* (like a seller stuck behind a restock).
+* <p>
+* Requests are sent at a fixed rate, at {@code load} of the handlers' total capacity. Every handler
+* spends {@code serviceMicros} on a request, except the first which spends {@code slowFactor} times
+* as long. The capacity is computed from the time the parks really take, which may be much longer
+* than asked for.
+* <p>
+* Run with:
+* {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=bgu.spl.bench.DispatchBenchmark -Dexec.args="4 200 10 0.7 10000"}
+* (handlers, serviceMicros, slowFactor, load, requests).
+*/
+public class DispatchBenchmark {
+
+  private static class SkewedRequest extends AbstractRequest<Void> {
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int handlers = args.length>0 ? Integer.parseInt(args[0]) : 4;
+    long serviceNanos = (args.length>1 ? Long.parseLong(args[1]) : 200)*1000;
+    int slowFactor = args.length>2 ? Integer.parseInt(args[2]) : 10;
+    double load = args.length>3 ? Double.parseDouble(args[3]) : 0.7;
+    int requests = args.length>4 ? Integer.parseInt(args[4]) : 10000;
+
+    long fastNanos = parkedNanos(serviceNanos);
+    long slowNanos = parkedNanos(serviceNanos*slowFactor);
+    double capacityPerNano = (handlers-1)/(double)fastNanos + 1/(double)slowNanos;
+    long interArrivalNanos = (long)(1/(capacityPerNano*load));
+
+    System.out.printf("%d handlers (one %dx slower, parked %d us and %d us a request), %d requests at %.0f%% load, a request every %d us%n",
+                      handlers, slowFactor, fastNanos/1000, slowNanos/1000, requests, load*100, interArrivalNanos/1000);
+    for (String strategy: new String[]{"round-robin", "least-queue-depth", "power-of-two-choices"})
+      run(strategy, handlers, serviceNanos, slowFactor, interArrivalNanos, requests);
+  }
+
+  private static void run(String strategy, int handlers, long serviceNanos, int slowFactor, long interArrivalNanos, int requests) throws InterruptedException {
+    final MessageBusImpl bus = MessageBusImpl.getInstance();
+    final MicroService requester = new IdleService("requester");
+    final ConcurrentHashMap<Long, Long> sentAt = new ConcurrentHashMap<Long, Long>();
+    final long[] latencies = new long[requests];
+    List<Thread> handlerThreads = new ArrayList<Thread>();
+    List<MicroService> handlerServices = new ArrayList<MicroService>();
+    Thread collector;
+    long next;
+
+    bus.register(requester);
+    bus.setDispatchStrategy(SkewedRequest.class, DispatchStrategy.forName(strategy));
+    for (int i=0; i<handlers; ++i){
+      final MicroService handler=new IdleService("handler "+i);
+      final long cost=i==0? serviceNanos*slowFactor: serviceNanos;
+
+      bus.register(handler);
+      bus.subscribeRequest(SkewedRequest.class, handler);
+      handlerServices.add(handler);
+      handlerThreads.add(new Thread(() -> {
+        try{
+          while (true){
+            SkewedRequest req=(SkewedRequest)bus.awaitMessage(handler);
+            LockSupport.parkNanos(cost);
+            bus.complete(req, null);
+          }
+        }
+        catch (InterruptedException e){
+          // the run is over
+        }
+      }));
+    }
+    collector=new Thread(() -> {
+      try{
+        for (int received=0; received<requests; ){
+          for (Message m: bus.awaitMessages(requester, 64)){
+            long id=((RequestCompleted<?>)m).getCompletedRequest().getRequestId();
+            latencies[received++]=System.nanoTime()-sentAt.remove(id);
+          }
+        }
+      }
+      catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+    });
+    for (Thread t: handlerThreads)
+      t.start();
+    collector.start();
+
+    next=System.nanoTime();
+    for (int i=0; i<requests; ++i){
+      SkewedRequest req=new SkewedRequest();
+
+      while (System.nanoTime()<next)
+        Thread.yield();
+      sentAt.put(req.getRequestId(), System.nanoTime());
+      bus.sendRequest(req, requester);
+      next+=interArrivalNanos;
+    }
+    collector.join();
+    for (Thread t: handlerThreads)
+      t.interrupt();
+    for (Thread t: handlerThreads)
+      t.join();
+    for (MicroService handler: handlerServices)
+      bus.unregister(handler);
+    bus.unregister(requester);
+
+    Arrays.sort(latencies);
+    System.out.printf("%-22s p50 %8.1f us   p99 %10.1f us   p99.9 %10.1f us   max %10.1f us%n", strategy,
+                      percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[latencies.length-1]/1000.0);
+  }
+
+  // Measures how long parking for @nanos takes on average - the timer slack and the scheduler may add a lot to
+  // short parks, and the load is relative to what the handlers really do
+  private static long parkedNanos(long nanos){
+    int rounds = (int)Math.max(20, 100_000_000L/nanos);
+    long start = System.nanoTime();
+
+    for (int i=0; i<rounds; ++i)
+      LockSupport.parkNanos(nanos);
+    return (System.nanoTime()-start)/rounds;
+  }
+
+  private static double percentile(long[] sorted, double p){
+    return sorted[Math.min(sorted.length-1, (int)(sorted.length*p))]/1000.0;
+  }
+
+  /**
+  * A micro-service which is never run - the benchmark drives its mailbox directly.
+  */
+  private static class IdleService extends MicroService {
+
+    IdleService(String name){
+      super(name);
+    }
+
+    @Override
+    protected void initialize(){
+    }
+  }
+
+}
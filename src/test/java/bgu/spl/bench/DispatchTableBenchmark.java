@@ -0,0 +1,155 @@
+package bgu.spl.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bgu.spl.app.messages.NewDiscountBroadcast;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.app.messages.TickBroadcast;
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures the messages per second a single micro-service dispatches to its callbacks, for a batch of
+* {@link #BATCH} messages of the types a seller or a client receives.
+* <p>
+* {@code dispatchTable} is the event loop of {@link MicroService}; {@code legacyDispatch} resolves the same
+* messages as the event loop did before the dispatch table (two {@code isAssignableFrom} checks, a class name
+* comparison and a ConcurrentHashMap lookup per message).
+* <p>
+* Run with: {@code mvn -Pjmh test-compile exec:exec -Djmh.include=DispatchTableBenchmark}
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchTableBenchmark {
+
+  static final int BATCH = 64;
+  /**
+  * MicroService.handleAll, the event loop of a micro-service - package-private to bgu.spl.mics
+  */
+  private static final MethodHandle HANDLE_ALL = handleAll();
+
+  private Subscriber fService;
+  private List<Message> fBatch;
+  @SuppressWarnings("rawtypes")
+  private ConcurrentHashMap<Class<?>,Callback> fLegacyCallbacks;
+
+  @Setup
+  public void setUp(final Blackhole blackhole){
+    this.fService=new Subscriber(blackhole);
+    MessageBusImpl.getInstance().register(this.fService);
+    this.fService.initialize();
+    this.fLegacyCallbacks=this.fService.fCallbacks;
+    this.fBatch=new ArrayList<Message>(BATCH);
+    for (int i=0; i<BATCH; ++i){
+      switch (i%3) {
+        case 0:
+          this.fBatch.add(new TickBroadcast("timer", i, BATCH));
+          break;
+        case 1:
+          this.fBatch.add(new NewDiscountBroadcast("manager", "red-boots", 1));
+          break;
+        default:
+          this.fBatch.add(new PurchaseOrderRequest("client", "red-boots", false, i, 1));
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    MessageBusImpl.getInstance().unregister(this.fService);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void dispatchTable() throws Throwable {
+    HANDLE_ALL.invokeExact((MicroService)this.fService, this.fBatch);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  @SuppressWarnings("unchecked")
+  public void legacyDispatch(){
+    for (int i=0; i<this.fBatch.size(); ++i){
+      Message mes=this.fBatch.get(i);
+      Class<?> key=mes.getClass();
+
+      if (Request.class.isAssignableFrom(key) || Broadcast.class.isAssignableFrom(key)){
+        this.fLegacyCallbacks.get(key).call(mes);
+      }
+      if (mes.getClass().getName().compareTo(RequestCompleted.class.getName())==0 ){
+        throw new IllegalStateException("no completions in the batch");
+      }
+    }
+  }
+
+  private static MethodHandle handleAll(){
+    try{
+      Method handleAll=MicroService.class.getDeclaredMethod("handleAll", List.class);
+
+      handleAll.setAccessible(true);
+      return MethodHandles.lookup().unreflect(handleAll);
+    }
+    catch (ReflectiveOperationException e){
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+  * A micro-service subscribed to the types in the batch, whose callbacks only consume the message.
+  */
+  static class Subscriber extends MicroService {
+
+    private final Blackhole fBlackhole;
+    @SuppressWarnings("rawtypes")
+    final ConcurrentHashMap<Class<?>,Callback> fCallbacks=new ConcurrentHashMap<Class<?>,Callback>();
+
+    Subscriber(Blackhole blackhole){
+      super("subscriber");
+      this.fBlackhole=blackhole;
+    }
+
+    @Override
+    protected void initialize(){
+      Callback<TickBroadcast> onTick=tick -> this.fBlackhole.consume(tick);
+      Callback<NewDiscountBroadcast> onDiscount=discount -> this.fBlackhole.consume(discount);
+      Callback<PurchaseOrderRequest> onPurchase=req -> this.fBlackhole.consume(req);
+
+      this.subscribeBroadcast(TickBroadcast.class, onTick);
+      this.subscribeBroadcast(NewDiscountBroadcast.class, onDiscount);
+      this.subscribeRequest(PurchaseOrderRequest.class, onPurchase);
+      this.fCallbacks.put(TickBroadcast.class, onTick);
+      this.fCallbacks.put(NewDiscountBroadcast.class, onDiscount);
+      this.fCallbacks.put(PurchaseOrderRequest.class, onPurchase);
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+package bgu.spl.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+
+/**
+* A micro-service for the message-bus benchmarks, which completes every {@link EchoRequest} it is handed
+* right away, and terminates when a {@link StopBroadcast} is sent.
+*/
+class EchoHandler extends MicroService {
+
+  /**
+  * The request type the benchmarks send (the result is the request itself)
+  */
+  static class EchoRequest extends AbstractRequest<Object> {
+  }
+
+  /**
+  * Terminates every running EchoHandler
+  */
+  static class StopBroadcast implements Broadcast {
+  }
+
+  private final CountDownLatch fReady;
+
+  /**
+  * @param name the micro-service name
+  * @param ready counted down once the handler is subscribed
+  */
+  EchoHandler(String name, CountDownLatch ready){
+    super(name);
+    this.fReady=ready;
+  }
+
+  @Override
+  protected void initialize(){
+    this.subscribeRequest(EchoRequest.class, req -> this.complete(req, req));
+    this.subscribeBroadcast(StopBroadcast.class, stop -> this.terminate());
+    this.fReady.countDown();
+  }
+
+}
@@ -0,0 +1,88 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures the broadcasts per second delivered to 1, 10 and 1000 subscribers: every invocation sends
+* {@link #BATCH} broadcasts, then each subscriber takes them from its mailbox (so the mailboxes don't grow
+* between invocations, and the cost of taking a broadcast is counted with the cost of delivering it).
+* <p>
+* Run with: {@code mvn -Pjmh test-compile exec:exec -Djmh.include=FanOutBenchmark}
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+  static final int BATCH = 16;
+
+  /**
+  * The broadcast type only the subscribers of this benchmark subscribe to
+  */
+  static class FanOutBroadcast implements Broadcast {
+  }
+
+  @Param({"1", "10", "1000"})
+  public int subscribers;
+
+  private MessageBusImpl fBus;
+  private List<MicroService> fSubscribers;
+  private Broadcast fBroadcast;
+
+  @Setup
+  public void setUp(){
+    this.fBus=MessageBusImpl.getInstance();
+    this.fSubscribers=new ArrayList<MicroService>(this.subscribers);
+    this.fBroadcast=new FanOutBroadcast();
+    for (int i=0; i<this.subscribers; ++i){
+      MicroService m=new MicroService("subscriber "+i){ // registered only - the benchmark takes its messages
+        protected void initialize(){
+        }
+      };
+
+      this.fBus.register(m);
+      this.fBus.subscribeBroadcast(FanOutBroadcast.class, m);
+      this.fSubscribers.add(m);
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    for (MicroService m: this.fSubscribers)
+      this.fBus.unregister(m);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void fanOut(Blackhole blackhole){
+    for (int i=0; i<BATCH; ++i)
+      this.fBus.sendBroadcast(this.fBroadcast);
+    for (int i=0; i<this.fSubscribers.size(); ++i)
+      blackhole.consume(this.fBus.pollMessages(this.fSubscribers.get(i), BATCH));
+  }
+
+}
@@ -0,0 +1,186 @@
+package bgu.spl.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.app.messages.AppMessageCodec;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.app.passiveObjects.Receipt;
+import bgu.spl.app.passiveObjects.Sale;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.remote.AbstractBridge;
+import bgu.spl.mics.remote.MessageBroker;
+import bgu.spl.mics.remote.RemoteBridge;
+import bgu.spl.mics.remote.SharedMemoryBridge;
+
+/**
+* Measures the {@link PurchaseOrderRequest}s per second a micro-service sends to a seller in another process, and the
+* round trip of a single request, through a bridge in each process:
+* <ul>
+* <li>socket - a {@link RemoteBridge} connected over loopback to a {@link MessageBroker}, which runs in this
+* process.</li>
+* <li>shm - a {@link SharedMemoryBridge}, whose rings are in {@code /dev/shm} (or in the temporary directory).</li>
+* </ul>
+* The seller runs in a process this benchmark starts (with the same classpath). The requester keeps {@code window}
+* requests in flight; the round trip is measured with a single request in flight. Run with:
+* {@code mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test -Dexec.args="-classpath %classpath bgu.spl.bench.RemoteBenchmark 200000 256 socket"}
+*/
+public class RemoteBenchmark {
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int requests;
+    int window;
+    String transport;
+    MessageBroker broker=null;
+    String where;
+    Process seller;
+    AbstractBridge bridge;
+    Thread bridgeThread;
+    long nanos;
+
+    if (args.length>2 && args[0].equals("seller")){
+      seller(args[1], args[2]);
+      return;
+    }
+    requests = args.length>0 ? Integer.parseInt(args[0]) : 200000;
+    window = args.length>1 ? Integer.parseInt(args[1]) : 256;
+    transport = args.length>2 ? args[2] : "socket";
+
+    if (transport.equals("socket")){
+      broker=new MessageBroker(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      new Thread(broker, "broker").start();
+      where=Integer.toString(broker.getPort());
+    }
+    else
+      where=Files.createTempDirectory(Files.isDirectory(Paths.get("/dev/shm"))? Paths.get("/dev/shm"): Paths.get(System.getProperty("java.io.tmpdir")), "rings").toString();
+    seller=new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                              "-cp", System.getProperty("java.class.path"),
+                              RemoteBenchmark.class.getName(), "seller", transport, where)
+           .inheritIO().start();
+    bridge=bridge(transport, where, "requester bridge", 1);
+    bridge.importRequests(PurchaseOrderRequest.class);
+    bridgeThread=new Thread(bridge, "requester bridge");
+    bridgeThread.start();
+
+    try{
+      run(1, 1000); // warm up, and wait for the seller to subscribe
+      run(window, requests);
+      nanos=run(window, requests);
+      System.out.printf("%s: %,d requests, %d in flight: %,.0f requests/s%n", transport, requests, window, requests*1e9/nanos);
+      run(1, requests/10);
+      nanos=run(1, requests/10);
+      System.out.printf("%s: %,d requests, 1 in flight: %.1f us per round trip%n", transport, requests/10, nanos/1e3/(requests/10));
+    }
+    finally{
+      bridge.close();
+      bridgeThread.join();
+      seller.destroy();
+      seller.waitFor();
+      if (broker!=null)
+        broker.close();
+      else{ // the seller was killed, so its ring was left
+        Files.deleteIfExists(Paths.get(where, "ring-2"));
+        Files.deleteIfExists(Paths.get(where));
+      }
+    }
+  }
+
+  // The bridge of process @slot (1 or 2), to the broker at port @where or to the rings in the directory @where
+  private static AbstractBridge bridge(String transport, String where, String name, int slot){
+    if (transport.equals("socket"))
+      return new RemoteBridge(name, new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(where)), new AppMessageCodec());
+    if (!transport.equals("shm"))
+      throw new IllegalArgumentException("unknown transport "+transport);
+    return new SharedMemoryBridge(name, Paths.get(where), slot, new AppMessageCodec()).addPeer(3-slot);
+  }
+
+  // Runs a requester which sends @requests requests, @window at a time, and returns the nanoseconds it took
+  private static long run(int window, int requests) throws InterruptedException {
+    Requester requester=new Requester(window, requests);
+    Thread thread=new Thread(requester, "requester");
+
+    thread.start();
+    thread.join();
+    return requester.fNanos;
+  }
+
+  // The process of the seller: a bridge which exports the purchase orders, and the seller which completes them
+  private static void seller(String transport, String where){
+    Thread seller=new Thread(new MicroService("seller"){
+      protected void initialize(){
+        this.subscribeRequest(PurchaseOrderRequest.class, req -> this.complete(req, new Sale(Collections.singletonList(new Receipt(getName(),
+                              req.getSenderName(), req.getShoeRequested(), req.getDiscount(), req.getRequestTick(), req.getRequestTick(), req.getAmountWanted())))));
+      }
+    }, "seller");
+
+    seller.setDaemon(true);
+    seller.start();
+    bridge(transport, where, "seller bridge", 2).exportRequests(PurchaseOrderRequest.class).run();
+    System.exit(0);
+  }
+
+  /**
+  * Sends purchase orders, keeping a fixed number of them in flight, and terminates once all were completed.
+  */
+  private static class Requester extends MicroService {
+
+    private final int fWindow;
+    private final int fRequests;
+    private int fSent;
+    private int fCompleted;
+    private long fStart;
+    private long fNanos;
+
+    Requester(int window, int requests){
+      super("requester");
+      this.fWindow=window;
+      this.fRequests=requests;
+    }
+
+    @Override
+    protected void initialize(){
+      this.fStart=System.nanoTime();
+      for (int i=0; i<this.fWindow && i<this.fRequests; ++i)
+        sendNext();
+    }
+
+    private void sendNext(){
+      PurchaseOrderRequest order=new PurchaseOrderRequest(getName(), "red-boots", false, this.fSent, 1);
+
+      // retried until the bridges of both processes are connected and subscribed
+      while (!this.sendRequest(order, this::onReceipt))
+        pause();
+      ++this.fSent;
+    }
+
+    private void onReceipt(Sale sale){
+      if (sale==null){ // the seller did not subscribe yet
+        pause();
+        --this.fSent;
+        sendNext();
+        return;
+      }
+      if (++this.fCompleted==this.fRequests){
+        this.fNanos=System.nanoTime()-this.fStart;
+        terminate();
+      }
+      else if (this.fSent<this.fRequests)
+        sendNext();
+    }
+
+    private static void pause(){
+      try{
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package bgu.spl.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures the latency of a request/complete round-trip: the benchmark thread sends a request, an
+* {@link EchoHandler} running on its own thread completes it, and the benchmark thread takes the completion
+* from its mailbox.
+* <p>
+* Run with: {@code mvn -Pjmh test-compile exec:exec -Djmh.include=RoundTripBenchmark}
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+  private MessageBusImpl fBus;
+  private MicroService fRequester;
+  private Thread fHandlerThread;
+
+  @Setup
+  public void setUp() throws InterruptedException {
+    CountDownLatch ready=new CountDownLatch(1);
+
+    this.fBus=MessageBusImpl.getInstance();
+    this.fRequester=new MicroService("requester"){ // registered only - never run
+      protected void initialize(){
+      }
+    };
+    this.fBus.register(this.fRequester);
+    this.fHandlerThread=new Thread(new EchoHandler("handler", ready), "handler");
+    this.fHandlerThread.start();
+    ready.await();
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    this.fBus.sendBroadcast(new EchoHandler.StopBroadcast());
+    this.fHandlerThread.join();
+    this.fBus.unregister(this.fRequester);
+  }
+
+  @Benchmark
+  public Message roundTrip() throws InterruptedException {
+    this.fBus.sendRequest(new EchoHandler.EchoRequest(), this.fRequester);
+    return this.fBus.awaitMessage(this.fRequester);
+  }
+
+}
@@ -0,0 +1,111 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Request;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures how the paths every message takes scale with the number of threads: each thread is a micro-service of its
+* own, which sends a request (checking that it is registered and looking up the subscribers of the type) and takes
+* its own messages. The threads share no mailbox, so the throughput should grow with the cores, unless the bus
+* serializes them (as the global registration lock did).
+* <p>
+* {@link #main(String[])} runs the benchmark with 1, 2, 4... threads up to the number of cores and prints the
+* throughput of each, saving the results as JSON in {@code target/jmh-scaling-<threads>.json}:
+* {@code mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test -Dexec.args="-classpath %classpath bgu.spl.bench.ScalingBenchmark"}
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+
+  /**
+  * A request type no micro-service subscribes to
+  */
+  static class UnhandledRequest extends AbstractRequest<Object> {
+  }
+
+  /**
+  * The micro-service of a benchmark thread.
+  */
+  @State(Scope.Thread)
+  public static class Service {
+
+    private MicroService fService;
+    private Request<Object> fRequest;
+
+    @Setup
+    public void setUp(){
+      this.fService=new MicroService("service "+Thread.currentThread().getName()){ // registered only - never run
+        protected void initialize(){
+        }
+      };
+      this.fRequest=new UnhandledRequest();
+      MessageBusImpl.getInstance().register(this.fService);
+    }
+
+    @TearDown
+    public void tearDown(){
+      MessageBusImpl.getInstance().unregister(this.fService);
+    }
+  }
+
+  @Benchmark
+  public List<Message> sendAndPoll(Service service){
+    MessageBus bus=MessageBusImpl.getInstance();
+
+    bus.sendRequest(service.fRequest, service.fService);
+    return bus.pollMessages(service.fService, 1);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    int cores=Runtime.getRuntime().availableProcessors();
+    List<Integer> threadCounts=new ArrayList<Integer>();
+    double single=0;
+
+    for (int threads=1; threads<cores; threads*=2)
+      threadCounts.add(threads);
+    threadCounts.add(cores);
+
+    for (int threads: threadCounts){
+      RunResult result=new Runner(new OptionsBuilder()
+                                  .include(ScalingBenchmark.class.getSimpleName())
+                                  .threads(threads)
+                                  .resultFormat(ResultFormatType.JSON)
+                                  .result("target/jmh-scaling-"+threads+".json")
+                                  .build()).runSingle();
+      double score=result.getPrimaryResult().getScore();
+
+      if (threads==1)
+        single=score;
+      System.out.printf("%3d threads: %,15.0f ops/s (%.2fx one thread)%n", threads, score, score/single);
+    }
+  }
+
+}
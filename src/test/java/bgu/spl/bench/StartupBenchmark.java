@@ -0,0 +1,158 @@
+package bgu.spl.bench;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import bgu.spl.app.messages.NewDiscountBroadcast;
+import bgu.spl.app.messages.TickBroadcast;
+import bgu.spl.mics.EventLoopScheduler;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.ServiceThreads;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures the startup time and memory of {@code services} customer-like micro-services on each runtime of
+* the {@link bgu.spl.app.ShoeStoreRunner ShoeStoreRunner}: a platform thread per service, a virtual thread
+* per service (JDK 21 and later), or the {@link EventLoopScheduler}.
+* <p>
+* The customers are modeled on the input file (e.g. largeExample.json): they subscribe to the same broadcasts
+* a client subscribes to, and terminate after the duration of the file's time service, which is ticked as fast
+* as possible. They don't log, since a file per client would be measured instead of the runtime.
+* <p>
+* The memory is reported as the heap retained by the started services and as the growth of the resident memory of the
+* process, which holds the stacks of platform threads (virtual threads keep theirs on the heap).
+* <p>
+* Run a single runtime per JVM, so the memory of one doesn't affect the other:
+* {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=bgu.spl.bench.StartupBenchmark -Dexec.args="largeExample.json 100000 threads"}
+* (input file, services, threads | virtual-threads | event-loop).
+*/
+public class StartupBenchmark {
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    JsonObject services = new JsonParser().parse(new FileReader(args.length>0 ? args[0] : "largeExample.json")).getAsJsonObject().get("services").getAsJsonObject();
+    int count = args.length>1 ? Integer.parseInt(args[1]) : 100000;
+    String runtime = args.length>2 ? args[2] : "threads";
+    int duration = services.get("time").getAsJsonObject().get("duration").getAsInt();
+    final CountDownLatch started = new CountDownLatch(count);
+    final CountDownLatch terminated = new CountDownLatch(count);
+    MessageBusImpl bus = MessageBusImpl.getInstance();
+    MicroService timer = new IdleService("timer");
+    EventLoopScheduler scheduler = null;
+    ThreadFactory threads = ServiceThreads.platform();
+    List<MicroService> customers = new ArrayList<MicroService>(count);
+    long before, beforeResident, start, afterStart, startedHeap, startedResident, end;
+
+    if (runtime.equals("event-loop"))
+      scheduler = new EventLoopScheduler(Runtime.getRuntime().availableProcessors());
+    else if (runtime.equals("virtual-threads")){
+      if (!ServiceThreads.isVirtualSupported()){
+        System.out.println("virtual threads require JDK 21 or later, running on "+System.getProperty("java.version"));
+        return;
+      }
+      threads = ServiceThreads.virtual("customer-");
+    }
+
+    System.gc();
+    before = usedHeap();
+    beforeResident = residentMemory();
+    start = System.nanoTime();
+    for (int i=0; i<count; ++i)
+      customers.add(new CustomerLike("customer "+i, started, terminated));
+    for (MicroService customer: customers){
+      if (scheduler==null)
+        threads.newThread(customer).start();
+      else
+        scheduler.start(customer);
+    }
+    started.await();
+    afterStart = System.nanoTime();
+    System.gc();
+    startedHeap = usedHeap()-before;
+    startedResident = residentMemory()-beforeResident;
+
+    bus.register(timer);
+    for (int tick=1; tick<=duration+1; ++tick)
+      bus.sendBroadcast(new TickBroadcast(timer.getName(), tick, duration));
+    terminated.await();
+    end = System.nanoTime();
+    bus.unregister(timer);
+    if (scheduler!=null)
+      scheduler.shutdown();
+
+    System.out.printf("%-16s %8d services: started in %7d ms, %6.1f MB heap (%5.2f KB/service), %6.1f MB resident, %6d peak threads, %d ticks run in %7d ms%n",
+                      runtime, count, (afterStart-start)/1000000, startedHeap/1048576.0, startedHeap/1024.0/count, startedResident/1048576.0,
+                      ManagementFactory.getThreadMXBean().getPeakThreadCount(), duration+1, (end-afterStart)/1000000);
+  }
+
+  private static long usedHeap(){
+    Runtime rt = Runtime.getRuntime();
+
+    return rt.totalMemory()-rt.freeMemory();
+  }
+
+  // The resident memory of the process - which holds the stacks of the platform threads, unlike the heap (the stacks of
+  // virtual threads are on the heap) - or 0 where /proc/self/status is not available
+  private static long residentMemory(){
+    try {
+      for (String line: Files.readAllLines(Paths.get("/proc/self/status"))){
+        if (line.startsWith("VmRSS:"))
+          return Long.parseLong(line.replaceAll("[^0-9]", ""))*1024;
+      }
+    }
+    catch (IOException e) {
+    }
+    return 0;
+  }
+
+  /**
+  * A client which only waits for ticks (and discounts) until the end of the run.
+  */
+  private static class CustomerLike extends MicroService {
+
+    private final CountDownLatch fStarted;
+    private final CountDownLatch fTerminated;
+
+    CustomerLike(String name, CountDownLatch started, CountDownLatch terminated){
+      super(name);
+      this.fStarted=started;
+      this.fTerminated=terminated;
+    }
+
+    @Override
+    protected void initialize(){
+      this.subscribeBroadcast(TickBroadcast.class, tick -> {
+        if (tick.getCurrentTick()>tick.getDuration()){
+          this.terminate();
+          this.fTerminated.countDown();
+        }
+      });
+      this.subscribeBroadcast(NewDiscountBroadcast.class, discount -> {});
+      this.fStarted.countDown();
+    }
+  }
+
+  /**
+  * A micro-service which is never run - the benchmark sends its broadcasts directly.
+  */
+  private static class IdleService extends MicroService {
+
+    IdleService(String name){
+      super(name);
+    }
+
+    @Override
+    protected void initialize(){
+    }
+  }
+
+}
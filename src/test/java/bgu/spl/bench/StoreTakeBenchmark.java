@@ -0,0 +1,159 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bgu.spl.app.passiveObjects.ShoeStorageInfo;
+import bgu.spl.app.passiveObjects.Store;
+
+/**
+* Measures the shoes per second the threads take from the {@link Store} at once, each buying shoe types picked either
+* uniformly or by a Zipf distribution (a few types are bought by most customers, so their locks are contended). The
+* store is loaded with {@link #SHOES} types, with enough units that they are never out of stock.
+* <p>
+* {@link #main(String[])} runs the benchmark for both distributions with 1, 2, 4... threads up to the number of cores
+* and prints the throughput of each, saving the results as JSON in {@code target/jmh-store-take-<popularity>-<threads>.json}:
+* {@code mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test -Dexec.args="-classpath %classpath bgu.spl.bench.StoreTakeBenchmark"}
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreTakeBenchmark {
+
+  static final int SHOES = 256;
+  /**
+  * The number of shoe types each thread picks in advance, and then buys in turn
+  */
+  static final int PICKS = 4096;
+  /**
+  * The exponent of the Zipf distribution - the k-th most popular type is bought in proportion to 1/k^ZIPF_EXPONENT
+  */
+  static final double ZIPF_EXPONENT = 1.0;
+
+  /**
+  * The store, loaded before every iteration
+  */
+  @State(Scope.Benchmark)
+  public static class Shoes {
+
+    private String[] fTypes;
+
+    @Setup(Level.Iteration)
+    public void setUp(){
+      ShoeStorageInfo[] storage=new ShoeStorageInfo[SHOES];
+
+      this.fTypes=new String[SHOES];
+      for (int i=0; i<SHOES; ++i){
+        this.fTypes[i]="shoe-"+i;
+        storage[i]=new ShoeStorageInfo(this.fTypes[i], Integer.MAX_VALUE, 0);
+      }
+      Store.getInstance().load(storage);
+    }
+  }
+
+  /**
+  * The shoe types a thread buys
+  */
+  @State(Scope.Thread)
+  public static class Customer {
+
+    @Param({"uniform", "zipf"})
+    public String popularity;
+
+    private int[] fPicks;
+    private int fNext;
+
+    @Setup
+    public void setUp(){
+      Random random=new Random(Thread.currentThread().getId());
+      double[] cumulative=new double[SHOES];
+      double total=0;
+
+      for (int k=0; k<SHOES; ++k){
+        total+=1/Math.pow(k+1, ZIPF_EXPONENT);
+        cumulative[k]=total;
+      }
+      this.fPicks=new int[PICKS];
+      for (int i=0; i<PICKS; ++i){
+        if (this.popularity.equals("uniform"))
+          this.fPicks[i]=random.nextInt(SHOES);
+        else
+          this.fPicks[i]=indexOf(cumulative, random.nextDouble()*total);
+      }
+    }
+
+    // Finds the first index of @cumulative whose value is at least @value
+    private static int indexOf(double[] cumulative, double value){
+      int low=0;
+      int high=cumulative.length-1;
+
+      while (low<high){
+        int middle=(low+high)>>>1;
+
+        if (cumulative[middle]<value)
+          low=middle+1;
+        else
+          high=middle;
+      }
+      return low;
+    }
+  }
+
+  @Benchmark
+  public Store.BuyResult take(Shoes shoes, Customer customer){
+    String type=shoes.fTypes[customer.fPicks[customer.fNext++&(PICKS-1)]];
+
+    return Store.getInstance().take(type, false);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    int cores=Runtime.getRuntime().availableProcessors();
+    List<Integer> threadCounts=new ArrayList<Integer>();
+
+    for (int threads=1; threads<cores; threads*=2)
+      threadCounts.add(threads);
+    threadCounts.add(cores);
+
+    for (String popularity: new String[]{"uniform", "zipf"}){
+      double single=0;
+
+      for (int threads: threadCounts){
+        RunResult result=new Runner(new OptionsBuilder()
+                                    .include(StoreTakeBenchmark.class.getSimpleName())
+                                    .param("popularity", popularity)
+                                    .threads(threads)
+                                    .resultFormat(ResultFormatType.JSON)
+                                    .result("target/jmh-store-take-"+popularity+"-"+threads+".json")
+                                    .build()).runSingle();
+        double score=result.getPrimaryResult().getScore();
+
+        if (threads==1)
+          single=score;
+        System.out.printf("%-8s %3d threads: %,15.0f ops/s (%.2fx one thread)%n", popularity, threads, score, score/single);
+      }
+    }
+  }
+
+}
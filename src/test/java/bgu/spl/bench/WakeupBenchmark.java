@@ -0,0 +1,157 @@
+package bgu.spl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+/**
+* Measures how many times an idle micro-service is woken up per delivered message.
+* <p>
+* Two delivery schemes are compared, both with {@code services} consumers each receiving
+* an equal share of {@code messages} requests. Each message is sent only after the former one
+* was taken, so every delivery finds all the consumers idle (as they are between ticks):
+* <ul>
+* <li>legacy - the former scheme of the bus: every consumer waits on one shared monitor and
+* every delivery calls {@code notifyAll()}.</li>
+* <li>mailbox - the {@link MessageBusImpl}, where every consumer waits on its own mailbox.</li>
+* </ul>
+* Run with:
+* {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=bgu.spl.bench.WakeupBenchmark -Dexec.args="200 20000"}
+*/
+public class WakeupBenchmark {
+
+  private static class WakeupRequest extends AbstractRequest<Void> {
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int services = args.length>0 ? Integer.parseInt(args[0]) : 200;
+    int messages = args.length>1 ? Integer.parseInt(args[1]) : 20000;
+
+    messages-=messages%services; // every consumer gets the same share
+    report("legacy global monitor", legacy(services, messages), messages);
+    report("per-service mailbox", mailbox(services, messages), messages);
+  }
+
+  private static void report(String scheme, long wakeups, int messages){
+    System.out.printf("%-22s %10d wakeups for %d messages = %.3f wakeups/message%n", scheme, wakeups, messages, (double)wakeups/messages);
+  }
+
+  // The scheme the bus used before every service had its own mailbox
+  private static long legacy(int services, int messages) throws InterruptedException {
+    final Object monitor = new Object();
+    final long[] wakeups = new long[services];
+    final List<ConcurrentLinkedQueue<Object>> queues = new ArrayList<ConcurrentLinkedQueue<Object>>();
+    List<Thread> consumers = new ArrayList<Thread>();
+    final int share = messages/services;
+    final AtomicInteger taken = new AtomicInteger();
+
+    for (int i=0; i<services; ++i)
+      queues.add(new ConcurrentLinkedQueue<Object>());
+    for (int i=0; i<services; ++i){
+      final int id=i;
+      Thread t = new Thread(() -> {
+        ConcurrentLinkedQueue<Object> q=queues.get(id);
+        try{
+          for (int received=0; received<share; ++received){
+            synchronized(monitor){
+              while (q.isEmpty()){
+                monitor.wait();
+                wakeups[id]++;
+              }
+            }
+            q.poll();
+            taken.incrementAndGet();
+          }
+        }
+        catch (InterruptedException e){
+          Thread.currentThread().interrupt();
+        }
+      });
+      consumers.add(t);
+      t.start();
+    }
+
+    for (int i=0; i<messages; ++i){
+      synchronized(monitor){
+        queues.get(i%services).add(new Object());
+        monitor.notifyAll();
+      }
+      awaitTaken(taken, i+1);
+    }
+    join(consumers);
+
+    long sum=0;
+    for (long w: wakeups)
+      sum+=w;
+    return sum;
+  }
+
+  private static long mailbox(int services, int messages) throws InterruptedException {
+    final MessageBusImpl bus = MessageBusImpl.getInstance();
+    MicroService requester = new IdleService("requester");
+    List<Thread> consumers = new ArrayList<Thread>();
+    final int share = messages/services;
+    final AtomicInteger taken = new AtomicInteger();
+    long before;
+
+    bus.register(requester);
+    for (int i=0; i<services; ++i){
+      final MicroService consumer=new IdleService("consumer "+i);
+      bus.register(consumer);
+      bus.subscribeRequest(WakeupRequest.class, consumer);
+      Thread t = new Thread(() -> {
+        try{
+          for (int received=0; received<share; ++received){
+            bus.awaitMessage(consumer);
+            taken.incrementAndGet();
+          }
+        }
+        catch (InterruptedException e){
+          Thread.currentThread().interrupt();
+        }
+        bus.unregister(consumer);
+      });
+      consumers.add(t);
+      t.start();
+    }
+
+    before=bus.getWakeups();
+    for (int i=0; i<messages; ++i){
+      bus.sendRequest(new WakeupRequest(), requester);
+      awaitTaken(taken, i+1);
+    }
+    join(consumers);
+    bus.unregister(requester);
+    return bus.getWakeups()-before;
+  }
+
+  private static void awaitTaken(AtomicInteger taken, int expected){
+    while (taken.get()<expected)
+      Thread.yield();
+  }
+
+  private static void join(List<Thread> consumers) throws InterruptedException {
+    for (Thread t: consumers)
+      t.join();
+  }
+
+  /**
+  * A micro-service which is never run - the benchmark drives its mailbox directly.
+  */
+  private static class IdleService extends MicroService {
+
+    IdleService(String name){
+      super(name);
+    }
+
+    @Override
+    protected void initialize(){
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+package bgu.spl.mics;
+
+import static org.junit.Assert.*;
+
+import java.util.function.ToIntFunction;
+
+import org.junit.Test;
+
+import bgu.spl.mics.impl.DispatchStrategy;
+import bgu.spl.mics.impl.LeastQueueDepthStrategy;
+import bgu.spl.mics.impl.PowerOfTwoChoicesStrategy;
+import bgu.spl.mics.impl.RoundRobinStrategy;
+
+public class DispatchStrategyTest {
+
+  private static MicroService[] handlers(int count){
+    MicroService[] handlers=new MicroService[count];
+
+    for (int i=0; i<count; ++i){
+      handlers[i]=new MicroService("handler "+i){
+        protected void initialize(){
+        }
+      };
+    }
+    return handlers;
+  }
+
+  // the queue depth of the handler at each index of @handlers
+  private static ToIntFunction<MicroService> depths(MicroService[] handlers, int... depths){
+    return m -> {
+      for (int i=0; i<handlers.length; ++i){
+        if (handlers[i]==m)
+          return depths[i];
+      }
+      throw new IllegalArgumentException(m.getName());
+    };
+  }
+
+  @Test
+  public void testForName() {
+    assertTrue(DispatchStrategy.forName("round-robin") instanceof RoundRobinStrategy);
+    assertTrue(DispatchStrategy.forName("least-queue-depth") instanceof LeastQueueDepthStrategy);
+    assertTrue(DispatchStrategy.forName("power-of-two-choices") instanceof PowerOfTwoChoicesStrategy);
+    assertNotSame(DispatchStrategy.forName("round-robin"), DispatchStrategy.forName("round-robin"));
+    try{
+      DispatchStrategy.forName("random");
+      fail("an unknown strategy was created");
+    }
+    catch (IllegalArgumentException e){ // as expected
+    }
+  }
+
+  // round-robin hands the requests out in turn, however loaded the handlers are
+  @Test
+  public void testRoundRobin() {
+    DispatchStrategy strategy=new RoundRobinStrategy();
+    MicroService[] handlers=handlers(3);
+    ToIntFunction<MicroService> depth=depths(handlers, 50, 0, 0);
+
+    for (int i=0; i<9; ++i)
+      assertEquals(i%3, strategy.select(handlers, depth));
+  }
+
+  // least-queue-depth always picks the least loaded handler, and rotates among the handlers which are as idle
+  @Test
+  public void testLeastQueueDepth() {
+    DispatchStrategy strategy=new LeastQueueDepthStrategy();
+    MicroService[] handlers=handlers(4);
+    ToIntFunction<MicroService> uneven=depths(handlers, 3, 7, 1, 2);
+    ToIntFunction<MicroService> idle=depths(handlers, 0, 0, 0, 0);
+    boolean[] chosen=new boolean[handlers.length];
+
+    for (int i=0; i<20; ++i)
+      assertEquals(2, strategy.select(handlers, uneven));
+    for (int i=0; i<handlers.length; ++i)
+      chosen[strategy.select(handlers, idle)]=true;
+    for (boolean c: chosen)
+      assertTrue(c);
+  }
+
+  // power-of-two-choices never picks the most loaded handler, as it compares two different handlers, and picks the
+  // least loaded one whenever it is among them
+  @Test
+  public void testPowerOfTwoChoices() {
+    DispatchStrategy strategy=new PowerOfTwoChoicesStrategy();
+    MicroService[] handlers=handlers(4);
+    ToIntFunction<MicroService> oneBusy=depths(handlers, 0, 0, 9, 0);
+    ToIntFunction<MicroService> oneIdle=depths(handlers, 5, 0, 5, 5);
+    int idleChosen=0;
+
+    for (int i=0; i<1000; ++i)
+      assertNotEquals(2, strategy.select(handlers, oneBusy));
+    for (int i=0; i<1000; ++i){
+      if (strategy.select(handlers, oneIdle)==1)
+        idleChosen++;
+    }
+    assertTrue("the idle handler was chosen "+idleChosen+" times", idleChosen>350); // when picked: half the time
+    assertEquals(0, strategy.select(handlers(1), m -> 0));
+    for (int i=0; i<20; ++i)
+      assertEquals(1, strategy.select(handlers(2), m -> m.getName().equals("handler 0")? 4: 1));
+  }
+
+}
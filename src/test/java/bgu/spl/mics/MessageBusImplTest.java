@@ -1,16 +1,36 @@
 package bgu.spl.mics;
 
 import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import bgu.spl.app.messages.AppMessageCodec;
 import bgu.spl.app.messages.ManufacturingOrderRequest;
 import bgu.spl.app.messages.PurchaseOrderRequest;
 import bgu.spl.app.messages.TickBroadcast;
 import bgu.spl.mics.example.messages.ExampleBroadcast;
 import bgu.spl.mics.example.messages.ExampleRequest;
 import bgu.spl.mics.example.services.ExampleMessageSenderService;
+import bgu.spl.mics.impl.BusJournal;
+import bgu.spl.mics.impl.BusMetrics;
+import bgu.spl.mics.impl.JournalReader;
+import bgu.spl.mics.impl.LatencyHistogram;
 import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.impl.MessagePriority;
+import bgu.spl.mics.impl.OverflowPolicy;
 
 public class MessageBusImplTest {
 
@@ -18,6 +38,23 @@ public class MessageBusImplTest {
   String[] args;
   MicroService m;
 
+  // a request type that only the tests below subscribe to
+  private static class RotationRequest extends AbstractRequest<String> {
+  }
+
+  private static class UnregisterRequest extends AbstractRequest<String> {
+  }
+
+  private static class UnregisterBroadcast implements Broadcast {
+  }
+
+  private static MicroService idle(String name){
+    return new MicroService(name){
+      protected void initialize(){
+      }
+    };
+  }
+
   @Before
   public void setUp() throws Exception {
     this.messageBusImpl = MessageBusImpl.getInstance();
@@ -209,4 +246,741 @@ public class MessageBusImplTest {
     senderT.start();
   }
 
-}
\ No newline at end of file
+  // the round-robin rotation continues from the same MicroService after another handler unregisters
+  @Test (timeout=2000)
+  public void testRoundRobinAfterUnregister() throws InterruptedException {
+    MicroService requester=idle("requester");
+    MicroService h1=idle("h1"), h2=idle("h2"), h3=idle("h3");
+    Request<String> r1=new RotationRequest(), r2=new RotationRequest(), r3=new RotationRequest(), r4=new RotationRequest();
+
+    this.messageBusImpl.register(requester);
+    for (MicroService h: new MicroService[]{h1, h2, h3}){
+      this.messageBusImpl.register(h);
+      this.messageBusImpl.subscribeRequest(RotationRequest.class, h);
+    }
+
+    assertTrue(this.messageBusImpl.sendRequest(r1, requester));
+    assertTrue(this.messageBusImpl.sendRequest(r2, requester));
+    this.messageBusImpl.unregister(h1); // h3 is still the next to handle a request
+    assertTrue(this.messageBusImpl.sendRequest(r3, requester));
+    assertTrue(this.messageBusImpl.sendRequest(r4, requester));
+
+    assertSame(r2, this.messageBusImpl.awaitMessage(h2));
+    assertSame(r3, this.messageBusImpl.awaitMessage(h3));
+    assertSame(r4, this.messageBusImpl.awaitMessage(h2));
+
+    this.messageBusImpl.unregister(h2);
+    this.messageBusImpl.unregister(h3);
+    this.messageBusImpl.unregister(requester);
+  }
+
+  // a completed request is forgotten by the bus, so it can't be completed twice
+  @Test (expected=IllegalStateException.class)
+  public void testCompleteForgetsRequest() throws InterruptedException {
+    MicroService requester=idle("requester");
+    MicroService handler=idle("handler");
+    Request<String> req=new RotationRequest();
+
+    this.messageBusImpl.register(requester);
+    this.messageBusImpl.register(handler);
+    this.messageBusImpl.subscribeRequest(RotationRequest.class, handler);
+    assertTrue(this.messageBusImpl.sendRequest(req, requester));
+    assertSame(req, this.messageBusImpl.awaitMessage(handler));
+    this.messageBusImpl.complete(req, "done");
+    assertEquals("done", ((RequestCompleted<?>)this.messageBusImpl.awaitMessage(requester)).getResult());
+    this.messageBusImpl.unregister(handler);
+    this.messageBusImpl.unregister(requester);
+    this.messageBusImpl.complete(req, "again");
+  }
+
+  // once a MicroService is unregistered it can't send, subscribe or wait for messages, and nothing is handed to it - also
+  // after it registers again, until it subscribes again
+  @Test (timeout=5000)
+  public void testAfterUnregister() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService gone=idle("unregistered");
+    MicroService requester=idle("still registered");
+
+    bus.register(gone);
+    bus.register(requester);
+    bus.subscribeRequest(UnregisterRequest.class, gone);
+    bus.subscribeBroadcast(UnregisterBroadcast.class, gone);
+    bus.unregister(gone);
+
+    assertFalse(bus.sendRequest(new UnregisterRequest(), requester)); // its only handler is gone
+    bus.sendBroadcast(new UnregisterBroadcast());
+    assertEquals(0, bus.getWaitingMessages(gone));
+    try{
+      bus.sendRequest(new UnregisterRequest(), gone);
+      fail("an unregistered MicroService sent a request");
+    }
+    catch (IllegalStateException e){ // as expected
+    }
+    try{
+      bus.subscribeRequest(UnregisterRequest.class, gone);
+      fail("an unregistered MicroService subscribed to a request type");
+    }
+    catch (IllegalStateException e){ // as expected
+    }
+    try{
+      bus.subscribeBroadcast(UnregisterBroadcast.class, gone);
+      fail("an unregistered MicroService subscribed to a broadcast type");
+    }
+    catch (IllegalStateException e){ // as expected
+    }
+    try{
+      bus.awaitMessage(gone);
+      fail("an unregistered MicroService waited for a message");
+    }
+    catch (IllegalStateException e){ // as expected
+    }
+
+    bus.register(gone);
+    assertFalse(bus.sendRequest(new UnregisterRequest(), requester));
+    bus.sendBroadcast(new UnregisterBroadcast());
+    assertEquals(0, bus.getWaitingMessages(gone));
+
+    bus.unregister(gone);
+    bus.unregister(requester);
+  }
+
+  // a request sent while its only handler unregisters is handed to it only if sent before unregister returned
+  @Test (timeout=10000)
+  public void testSendWhileUnregistering() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("unregistering handler");
+    MicroService requester=idle("unregistering requester");
+    AtomicInteger sent=new AtomicInteger();
+    AtomicInteger late=new AtomicInteger();
+    AtomicBoolean unregistered=new AtomicBoolean();
+    Thread sender;
+
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(UnregisterRequest.class, handler);
+    sender=new Thread(() -> {
+      for (int i=0; i<1000; ){
+        boolean after=unregistered.get();
+
+        sent.incrementAndGet();
+        if (bus.sendRequest(new UnregisterRequest(), requester) && after)
+          late.incrementAndGet();
+        if (after)
+          ++i;
+      }
+    });
+    sender.start();
+    while (sent.get()<1000)
+      Thread.yield();
+    bus.unregister(handler);
+    unregistered.set(true);
+    sender.join();
+    assertEquals(0, late.get());
+
+    bus.unregister(requester);
+  }
+
+  // micro-services which unregister concurrently are removed from every list they subscribed to
+  @Test (timeout=5000)
+  public void testConcurrentUnregister() throws InterruptedException {
+    final MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService requester=idle("requester");
+    Thread[] threads=new Thread[4];
+
+    for (int t=0; t<threads.length; ++t){
+      threads[t]=new Thread(() -> {
+        MicroService[] services=new MicroService[250];
+
+        for (int i=0; i<services.length; ++i){
+          services[i]=idle("service "+i);
+          bus.register(services[i]);
+          bus.subscribeRequest(RotationRequest.class, services[i]);
+          bus.subscribeBroadcast(ExampleBroadcast.class, services[i]);
+        }
+        for (MicroService service: services)
+          bus.unregister(service);
+      });
+      threads[t].start();
+    }
+    for (Thread thread: threads)
+      thread.join();
+
+    bus.register(requester);
+    assertFalse(bus.sendRequest(new RotationRequest(), requester));
+    bus.unregister(requester);
+  }
+
+  // requests sent in a batch to the same handler are taken by it at once, in order
+  @Test (timeout=2000)
+  public void testSendRequestsAndAwaitMessages() throws InterruptedException {
+    MicroService requester=idle("requester");
+    MicroService handler=idle("handler");
+    List<Request<String>> requests=Arrays.<Request<String>>asList(new RotationRequest(), new RotationRequest(), new RotationRequest());
+    Map<Request<String>, String> results=new LinkedHashMap<Request<String>, String>();
+
+    this.messageBusImpl.register(requester);
+    this.messageBusImpl.register(handler);
+    assertEquals(3, this.messageBusImpl.sendRequests(requests, requester).size()); // no one is subscribed yet
+    this.messageBusImpl.subscribeRequest(RotationRequest.class, handler);
+    assertTrue(this.messageBusImpl.sendRequests(requests, requester).isEmpty());
+    assertEquals(requests, this.messageBusImpl.awaitMessages(handler, 10));
+
+    for (Request<String> req: requests)
+      results.put(req, "done");
+    assertTrue(this.messageBusImpl.completeAll(results).isEmpty());
+    assertEquals(3, this.messageBusImpl.awaitMessages(requester, 10).size());
+    assertEquals(3, this.messageBusImpl.completeAll(results).size()); // completed already - ignored
+    assertTrue(this.messageBusImpl.pollMessages(requester, 10).isEmpty());
+    this.messageBusImpl.unregister(handler);
+    this.messageBusImpl.unregister(requester);
+  }
+
+  // a full mailbox rejects requests with the fail policy, but always admits completions
+  @Test (timeout=2000)
+  public void testFailPolicy() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService requester=idle("requester");
+    MicroService handler=idle("handler");
+    Request<String> r1=new RotationRequest(), r2=new RotationRequest(), r3=new RotationRequest();
+    long overflows=bus.getOverflows();
+    int outstanding=bus.getOutstandingRequests();
+
+    bus.setMailboxLimit(requester, 1, OverflowPolicy.FAIL);
+    bus.setMailboxLimit(handler, 2, OverflowPolicy.FAIL);
+    bus.register(requester);
+    bus.register(handler);
+    bus.subscribeRequest(RotationRequest.class, handler);
+    assertTrue(bus.sendRequest(r1, requester));
+    assertTrue(bus.sendRequest(r2, requester));
+    assertFalse(bus.sendRequest(r3, requester));
+    assertEquals(1, bus.getOverflows(handler));
+    assertEquals(overflows+1, bus.getOverflows());
+    assertEquals(outstanding+2, bus.getOutstandingRequests());
+
+    bus.complete(r1, "one");
+    bus.complete(r2, "two"); // the requester's mailbox is full, but completions are never dropped
+    assertEquals(2, bus.awaitMessages(requester, 10).size());
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  // a full mailbox drops its oldest broadcast to admit a new message
+  @Test (timeout=2000)
+  public void testDropOldestBroadcastPolicy() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService requester=idle("requester");
+    MicroService handler=idle("handler");
+    Broadcast b1=new ExampleBroadcast("b1"), b2=new ExampleBroadcast("b2");
+    Request<String> r1=new RotationRequest(), r2=new RotationRequest();
+
+    bus.register(requester);
+    bus.register(handler);
+    bus.setMailboxLimit(handler, 2, OverflowPolicy.DROP_OLDEST_BROADCAST);
+    bus.subscribeBroadcast(ExampleBroadcast.class, handler);
+    bus.subscribeRequest(RotationRequest.class, handler);
+    bus.sendBroadcast(b1);
+    bus.sendBroadcast(b2);
+    assertTrue(bus.sendRequest(r1, requester)); // b1 is dropped
+    assertTrue(bus.sendRequest(r2, requester)); // b2 is dropped
+    assertFalse(bus.sendRequest(new RotationRequest(), requester)); // only requests are waiting
+    assertEquals(Arrays.asList(r1, r2), bus.awaitMessages(handler, 10));
+    assertEquals(3, bus.getOverflows(handler));
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  // a sender waits for room in a full mailbox with the block policy
+  @Test (timeout=2000)
+  public void testBlockPolicy() throws InterruptedException {
+    final MessageBusImpl bus=MessageBusImpl.getInstance();
+    final MicroService requester=idle("requester");
+    MicroService handler=idle("handler");
+    Request<String> r1=new RotationRequest();
+    final Request<String> r2=new RotationRequest();
+    Thread sender=new Thread(() -> bus.sendRequest(r2, requester));
+
+    bus.register(requester);
+    bus.register(handler);
+    bus.setMailboxLimit(handler, 1, OverflowPolicy.BLOCK);
+    bus.subscribeRequest(RotationRequest.class, handler);
+    assertTrue(bus.sendRequest(r1, requester));
+    sender.start();
+    while (bus.getOverflows(handler)==0) // wait until the sender blocks
+      Thread.yield();
+    assertTrue(sender.isAlive());
+    assertSame(r1, bus.awaitMessage(handler));
+    sender.join();
+    assertSame(r2, bus.awaitMessage(handler));
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  // higher priorities are taken first, and a waiting lower priority is still served after a bounded number of messages
+  @Test (timeout=2000)
+  public void testMessagePriorities() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("handler");
+    Broadcast low=new ExampleBroadcast("low");
+    List<Message> taken;
+
+    bus.register(handler);
+    bus.setMessagePriority(ExampleBroadcast.class, MessagePriority.LOW);
+    bus.subscribeBroadcast(ExampleBroadcast.class, handler);
+    bus.subscribeBroadcast(TickBroadcast.class, handler);
+    bus.sendBroadcast(low);
+    for (int i=0; i<20; ++i)
+      bus.sendBroadcast(new TickBroadcast("timer", i, 100));
+    taken=bus.awaitMessages(handler, 100);
+    bus.setMessagePriority(ExampleBroadcast.class, MessagePriority.NORMAL);
+    bus.unregister(handler);
+
+    assertEquals(21, taken.size());
+    assertTrue(taken.get(0) instanceof TickBroadcast);
+    assertTrue(taken.indexOf(low)>0 && taken.indexOf(low)<=8); // aged before all the ticks were taken
+    assertEquals(0, ((TickBroadcast)taken.get(0)).getCurrentTick());
+  }
+
+  // micro-services run by the scheduler share its threads, but each still handles one message at a time
+  @Test (timeout=5000)
+  public void testEventLoopScheduler() throws InterruptedException {
+    EventLoopScheduler scheduler=new EventLoopScheduler(4);
+    final AtomicInteger inCallback=new AtomicInteger();
+    final AtomicInteger overlaps=new AtomicInteger();
+    final CountDownLatch completed=new CountDownLatch(200);
+    final CountDownLatch handlerReady=new CountDownLatch(1);
+    MicroService handler=new MicroService("handler"){
+      protected void initialize(){
+        this.subscribeRequest(RotationRequest.class, req -> {
+          if (inCallback.incrementAndGet()>1)
+            overlaps.incrementAndGet();
+          Thread.yield();
+          inCallback.decrementAndGet();
+          this.complete(req, "done");
+        });
+        handlerReady.countDown();
+      }
+    };
+    MicroService[] requesters=new MicroService[2];
+
+    scheduler.start(handler);
+    assertTrue(handlerReady.await(2, TimeUnit.SECONDS));
+    for (int r=0; r<requesters.length; ++r){
+      requesters[r]=new MicroService("requester "+r){
+        protected void initialize(){
+          for (int i=0; i<100; ++i)
+            this.sendRequest(new RotationRequest(), result -> completed.countDown());
+        }
+      };
+      scheduler.start(requesters[r]);
+    }
+    assertTrue(completed.await(4, TimeUnit.SECONDS));
+    assertEquals(0, overlaps.get());
+    scheduler.shutdown();
+    this.messageBusImpl.unregister(handler);
+    for (MicroService requester: requesters)
+      this.messageBusImpl.unregister(requester);
+  }
+
+  // every request is timed in the handler's mailbox, in its callback and back at the requester
+  @Test
+  public void testMetrics() {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    BusMetrics metrics=bus.getMetrics();
+    final AtomicInteger results=new AtomicInteger();
+    MicroService handler=new MicroService("handler"){
+      protected void initialize(){
+        this.subscribeRequest(RotationRequest.class, req -> this.complete(req, "done"));
+      }
+    };
+    MicroService requester=idle("requester");
+    long roundTrips=count(metrics.getRoundTripTime(RotationRequest.class));
+    long handled=count(metrics.getHandlerTime(RotationRequest.class));
+    long dwelt=count(metrics.getDwellTime(RotationRequest.class));
+
+    bus.register(handler);
+    bus.register(requester);
+    handler.initialize();
+    metrics.setEnabled(true);
+    for (int i=0; i<10; ++i)
+      requester.sendRequest(new RotationRequest(), result -> results.incrementAndGet());
+    handler.handleAll(bus.pollMessages(handler, 100));
+    requester.handleAll(bus.pollMessages(requester, 100));
+    metrics.setEnabled(false);
+    bus.unregister(handler);
+    bus.unregister(requester);
+
+    assertEquals(10, results.get());
+    assertEquals(roundTrips+10, count(metrics.getRoundTripTime(RotationRequest.class)));
+    assertEquals(handled+10, count(metrics.getHandlerTime(RotationRequest.class)));
+    assertEquals(dwelt+10, count(metrics.getDwellTime(RotationRequest.class)));
+    assertEquals(10, metrics.getHandledMessages(handler));
+    assertEquals(10, metrics.getHandledMessages(requester)); // the completions
+    assertTrue(metrics.getRoundTripTime(RotationRequest.class).getPercentile(50)<=metrics.getRoundTripTime(RotationRequest.class).getMax());
+    assertTrue(metrics.report().contains("RotationRequest"));
+  }
+
+  // continuations run when the requester handles the completions, and chain or join requests
+  @Test
+  public void testRequestFutures() {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    final AtomicInteger handled=new AtomicInteger();
+    MicroService handler=new MicroService("handler"){
+      protected void initialize(){
+        this.subscribeRequest(RotationRequest.class, req -> this.complete(req, "r"+handled.incrementAndGet()));
+      }
+    };
+    final MicroService requester=idle("requester");
+    RequestFuture<String> chained;
+    RequestFuture<String> combined;
+    RequestFuture<List<String>> all;
+    RequestFuture<Object> undelivered;
+
+    bus.register(handler);
+    bus.register(requester);
+    handler.initialize();
+    chained=requester.sendRequest(new RotationRequest()).thenCompose(first -> requester.sendRequest(new RotationRequest()).thenApply(second -> first+second));
+    combined=requester.sendRequest(new RotationRequest()).thenCombine(requester.sendRequest(new RotationRequest()), (a, b) -> a+b);
+    all=RequestFuture.allOf(Arrays.asList(requester.sendRequest(new RotationRequest()), requester.sendRequest(new RotationRequest())));
+    undelivered=requester.sendRequest(new AbstractRequest<Object>(){});
+    assertFalse(chained.isDone() || combined.isDone() || all.isDone());
+    for (int i=0; i<2; ++i){ // the second request of the chain is sent when the first is completed
+      handler.handleAll(bus.pollMessages(handler, 100));
+      requester.handleAll(bus.pollMessages(requester, 100));
+    }
+    bus.unregister(handler);
+    bus.unregister(requester);
+
+    assertEquals(6, handled.get());
+    assertEquals("r1r6", chained.getResult());
+    assertEquals("r2r3", combined.getResult());
+    assertEquals(Arrays.asList("r4", "r5"), all.getResult());
+    assertTrue(undelivered.isFailed());
+    assertTrue(undelivered.thenApply(result -> result).isFailed());
+  }
+
+  // a request which is not completed in time is completed by the bus, and withdrawn from its handler if it was not taken
+  @Test (timeout=2000)
+  public void testRequestTimeouts() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("handler");
+    MicroService requester=idle("requester");
+    Request<String> inTicks=new RotationRequest(), inTime=new RotationRequest();
+    RequestCompleted<?> completed;
+    RequestFuture<String> future;
+    long clock=bus.getClock();
+
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(RotationRequest.class, handler);
+
+    assertTrue(bus.sendRequest(inTicks, requester, RequestTimeout.ticks(2)));
+    bus.advanceClock(clock+1);
+    assertTrue(bus.pollMessages(requester, 10).isEmpty());
+    bus.advanceClock(clock+2);
+    completed=(RequestCompleted<?>)bus.awaitMessage(requester);
+    assertSame(inTicks, completed.getCompletedRequest());
+    assertTrue(completed.isTimedOut());
+    assertNull(completed.getResult());
+    assertTrue(bus.pollMessages(handler, 10).isEmpty()); // withdrawn before the handler took it
+
+    assertTrue(bus.sendRequest(inTime, requester, RequestTimeout.after(20, TimeUnit.MILLISECONDS)));
+    assertSame(inTime, bus.awaitMessage(handler));
+    assertTrue(((RequestCompleted<?>)bus.awaitMessage(requester)).isTimedOut());
+    bus.complete(inTime, "late"); // ignored
+    assertTrue(bus.pollMessages(requester, 10).isEmpty());
+
+    future=requester.sendRequest(new RotationRequest(), RequestTimeout.ticks(1));
+    bus.advanceClock(clock+3);
+    requester.handleAll(bus.pollMessages(requester, 10));
+    assertEquals(RequestFuture.Failure.TIMED_OUT, future.getFailure());
+    assertTrue(bus.pollMessages(handler, 10).isEmpty());
+
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  // a cancelled request is withdrawn from its handler, and its requester is not called back
+  @Test
+  public void testCancelRequest() {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("handler");
+    MicroService requester=idle("requester");
+    Request<String> r=new RotationRequest();
+    RequestFuture<String> future;
+
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(RotationRequest.class, handler);
+
+    assertTrue(bus.sendRequest(r, requester));
+    assertTrue(bus.cancel(r));
+    assertFalse(bus.cancel(r));
+    assertTrue(bus.pollMessages(handler, 10).isEmpty());
+
+    r=new RotationRequest();
+    future=requester.sendRequest(r);
+    assertTrue(requester.cancel(r));
+    assertEquals(RequestFuture.Failure.CANCELLED, future.getFailure());
+    assertFalse(requester.cancel(r));
+    assertTrue(bus.pollMessages(handler, 10).isEmpty());
+
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  // the requests a micro-service handles or sent are forgotten when it unregisters, even those which expired already,
+  // and only those still pending are completed with null
+  @Test (timeout=2000)
+  public void testUnregisterForgetsRequests() throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("handler");
+    MicroService requester=idle("requester");
+    Request<String> timedOut=new RotationRequest(), taken=new RotationRequest(), orphan=new RotationRequest();
+    Request<String> done=new RotationRequest(), cancelled=new RotationRequest();
+    RequestCompleted<?> completed;
+    int outstanding=bus.getOutstandingRequests();
+    long clock=bus.getClock();
+
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(RotationRequest.class, handler);
+
+    assertTrue(bus.sendRequest(timedOut, requester, RequestTimeout.ticks(1)));
+    assertSame(timedOut, bus.awaitMessage(handler));
+    bus.advanceClock(clock+1);
+    assertTrue(((RequestCompleted<?>)bus.awaitMessage(requester)).isTimedOut());
+    assertTrue(bus.sendRequest(done, requester));
+    assertTrue(bus.sendRequest(cancelled, requester));
+    assertTrue(bus.sendRequest(taken, requester));
+    assertEquals(Arrays.asList(done, cancelled, taken), bus.awaitMessages(handler, 10));
+    bus.complete(done, "done");
+    assertSame(done, ((RequestCompleted<?>)bus.awaitMessage(requester)).getCompletedRequest());
+    assertTrue(bus.cancel(cancelled));
+    assertEquals(outstanding+3, bus.getOutstandingRequests()); // the handler may still complete all but done
+    bus.unregister(handler);
+    assertEquals(outstanding, bus.getOutstandingRequests());
+    completed=(RequestCompleted<?>)bus.awaitMessage(requester);
+    assertSame(taken, completed.getCompletedRequest());
+    assertNull(completed.getResult());
+    assertFalse(completed.isTimedOut());
+    assertTrue(bus.pollMessages(requester, 10).isEmpty()); // not for the completed and cancelled requests
+
+    handler=idle("handler");
+    bus.register(handler);
+    bus.subscribeRequest(RotationRequest.class, handler);
+    assertTrue(bus.sendRequest(orphan, requester));
+    assertSame(orphan, bus.awaitMessage(handler));
+    bus.unregister(requester);
+    bus.complete(orphan, "late"); // ignored
+    assertEquals(outstanding, bus.getOutstandingRequests());
+
+    bus.unregister(handler);
+  }
+
+  // the journal records the requests, broadcasts and completions with their senders and receivers, and reads them back
+  @Test (timeout=5000)
+  public void testJournal() throws Exception {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("journal handler");
+    MicroService requester=idle("journal requester");
+    Path directory=Files.createTempDirectory("journal");
+    BusJournal journal=new BusJournal(directory, new AppMessageCodec(), 256*1024);
+    JournalReader reader=new JournalReader(directory);
+    PurchaseOrderRequest order=new PurchaseOrderRequest("client", "red-boots", true, 3, 2);
+    RotationRequest rotation=new RotationRequest();
+
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(PurchaseOrderRequest.class, handler);
+    bus.subscribeRequest(RotationRequest.class, handler);
+    bus.subscribeBroadcast(TickBroadcast.class, handler);
+    bus.setJournal(journal);
+    assertTrue(bus.sendRequest(order, requester));
+    assertTrue(bus.sendRequest(rotation, requester));
+    bus.sendBroadcast(new TickBroadcast("timer", 7, 10));
+    bus.complete(order, null);
+    bus.complete(rotation, "rotated");
+    bus.setJournal(null);
+    journal.close();
+    assertEquals(5, journal.getWritten());
+
+    assertTrue(reader.next());
+    assertEquals(BusJournal.REQUEST, reader.getKind());
+    assertEquals("journal requester", reader.getSender());
+    assertEquals("journal handler", reader.getReceiver());
+    assertEquals(order.getRequestId(), reader.getRequestId());
+    assertEquals("red-boots", ((PurchaseOrderRequest)reader.getValue()).getShoeRequested());
+    assertEquals(2, ((PurchaseOrderRequest)reader.getValue()).getAmountWanted());
+    assertTrue(reader.next());
+    assertFalse(reader.isEncoded()); // the codec does not encode RotationRequest
+    assertEquals(RotationRequest.class.getName(), reader.getTypeName());
+    assertTrue(reader.next());
+    assertEquals(BusJournal.BROADCAST, reader.getKind());
+    assertEquals("*", reader.getReceiver());
+    assertEquals(7, ((TickBroadcast)reader.getValue()).getCurrentTick());
+    assertTrue(reader.next());
+    assertEquals(BusJournal.COMPLETE, reader.getKind());
+    assertEquals("journal handler", reader.getSender());
+    assertEquals("journal requester", reader.getReceiver());
+    assertTrue(reader.isEncoded());
+    assertNull(reader.getValue());
+    assertTrue(reader.next());
+    assertEquals(rotation.getRequestId(), reader.getRequestId());
+    assertFalse(reader.isEncoded());
+    assertFalse(reader.next());
+
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  // the entries recorded while the queue of the journal is full are dropped and counted, and the rest are written
+  @Test (timeout=5000)
+  public void testJournalDrops() throws Exception {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService subscriber=idle("journal subscriber");
+    Path directory=Files.createTempDirectory("journal");
+    BlockingCodec codec=new BlockingCodec();
+    int capacity=4;
+    BusJournal journal=new BusJournal(directory, codec, 256*1024, capacity);
+
+    bus.register(subscriber);
+    bus.subscribeBroadcast(TickBroadcast.class, subscriber);
+    bus.setJournal(journal);
+    bus.sendBroadcast(new TickBroadcast("timer", 0, 10));
+    codec.encoding.await(); // the writer took the first entry, and waits
+    for (int i=1; i<=capacity+5; ++i)
+      bus.sendBroadcast(new TickBroadcast("timer", i, 10));
+    assertEquals(5, journal.getDropped());
+    codec.release.countDown();
+    bus.setJournal(null);
+    journal.close();
+    assertEquals(1+capacity, journal.getWritten());
+    assertEquals(5, journal.getDropped());
+
+    bus.unregister(subscriber);
+  }
+
+  // names too long for an entry are cut (at the start of a character) rather than stopping the journal
+  @Test (timeout=5000)
+  public void testJournalLongNames() throws Exception {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    StringBuilder ascii=new StringBuilder();
+    StringBuilder accented=new StringBuilder("x");
+    Path directory=Files.createTempDirectory("journal");
+    BusJournal journal=new BusJournal(directory, new AppMessageCodec(), 256*1024);
+    JournalReader reader=new JournalReader(directory);
+    MicroService handler;
+    MicroService requester;
+    PurchaseOrderRequest order=new PurchaseOrderRequest("client", "red-boots", false, 1, 1);
+
+    for (int i=0; i<40000; ++i)
+      ascii.append('x');
+    for (int i=0; i<20000; ++i)
+      accented.append('\u00e9'); // 2 bytes in UTF-8, the 1024th byte being the first half of one
+    handler=idle(ascii.toString());
+    requester=idle(accented.toString());
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(PurchaseOrderRequest.class, handler);
+    bus.setJournal(journal);
+    assertTrue(bus.sendRequest(order, requester));
+    bus.complete(order, null);
+    bus.setJournal(null);
+    journal.close();
+    assertEquals(2, journal.getWritten());
+
+    assertTrue(reader.next());
+    assertEquals(accented.substring(0, 512), reader.getSender());
+    assertEquals(ascii.substring(0, 1024), reader.getReceiver());
+    assertEquals("red-boots", ((PurchaseOrderRequest)reader.getValue()).getShoeRequested());
+    assertTrue(reader.next());
+    assertEquals(BusJournal.COMPLETE, reader.getKind());
+    assertFalse(reader.next());
+
+    bus.unregister(handler);
+    bus.unregister(requester);
+  }
+
+  /**
+  * Encodes as AppMessageCodec, but holds the writer of the journal in its first encoding until released
+  */
+  public static class BlockingCodec extends AppMessageCodec {
+
+    final CountDownLatch encoding=new CountDownLatch(1);
+    final CountDownLatch release=new CountDownLatch(1);
+
+    @Override
+    public void encode(Object value, ByteBuffer out){
+      encoding.countDown();
+      try{
+        release.await();
+      }
+      catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+      super.encode(value, out);
+    }
+  }
+
+  // a request is recorded before its handler can complete it, and a request its handler's mailbox rejects is recorded so
+  @Test (timeout=5000)
+  public void testJournalOrder() throws Exception {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService handler=idle("journal handler");
+    MicroService requester=idle("journal requester");
+    MicroService full=idle("journal full handler");
+    Path directory=Files.createTempDirectory("journal");
+    BusJournal journal=new BusJournal(directory, new AppMessageCodec(), 256*1024);
+    JournalReader reader=new JournalReader(directory);
+    Map<Long,Byte> last=new LinkedHashMap<Long,Byte>();
+    int requests=200;
+    Thread completer;
+
+    bus.register(handler);
+    bus.register(requester);
+    bus.subscribeRequest(PurchaseOrderRequest.class, handler);
+    completer=new Thread(() -> { // completes every request as soon as it is handed one
+      try{
+        for (int i=0; i<requests; ++i)
+          bus.complete((PurchaseOrderRequest)bus.awaitMessage(handler), null);
+      }
+      catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+    });
+    completer.start();
+    bus.setJournal(journal);
+    for (int i=0; i<requests; ++i)
+      assertTrue(bus.sendRequest(new PurchaseOrderRequest("client", "red-boots", false, i, 1), requester));
+    completer.join();
+    bus.unregister(handler);
+
+    bus.setMailboxLimit(full, 1, OverflowPolicy.FAIL);
+    bus.register(full);
+    bus.subscribeRequest(PurchaseOrderRequest.class, full);
+    assertTrue(bus.sendRequest(new PurchaseOrderRequest("client", "red-boots", false, 0, 1), requester));
+    assertFalse(bus.sendRequest(new PurchaseOrderRequest("client", "red-boots", false, 0, 1), requester));
+    bus.setJournal(null);
+    journal.close();
+    assertEquals(2*requests+3, journal.getWritten());
+
+    while (reader.next()){
+      Byte previous=last.put(reader.getRequestId(), reader.getKind());
+
+      if (reader.getKind()==BusJournal.REQUEST)
+        assertNull(previous);
+      else
+        assertEquals(Byte.valueOf(BusJournal.REQUEST), previous);
+    }
+    assertEquals(requests+2, last.size());
+    assertEquals(Byte.valueOf(BusJournal.REJECTED), last.values().toArray()[requests+1]);
+
+    bus.unregister(full);
+    bus.unregister(requester);
+  }
+
+  private static long count(LatencyHistogram histogram){
+    return histogram==null? 0: histogram.getCount();
+  }
+
+}
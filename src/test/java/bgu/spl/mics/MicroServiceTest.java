@@ -0,0 +1,99 @@
+package bgu.spl.mics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import bgu.spl.mics.example.messages.ExampleBroadcast;
+import bgu.spl.mics.example.messages.ExampleRequest;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+public class MicroServiceTest {
+
+  private static class Base implements Broadcast {
+  }
+
+  private static class Derived extends Base {
+  }
+
+  private static class Unsubscribed implements Broadcast {
+  }
+
+  /**
+  * Notes the messages each of its callbacks was called with. Its messages are handed to it by the tests, rather than
+  * taken from the bus by its run().
+  */
+  private static class Recorder extends MicroService {
+
+    final List<String> handled=new ArrayList<String>();
+
+    Recorder(String name){
+      super(name);
+    }
+
+    @Override
+    protected void initialize(){
+      subscribeBroadcast(Base.class, b -> this.handled.add("base"));
+      subscribeBroadcast(Derived.class, b -> this.handled.add("derived"));
+      subscribeBroadcast(ExampleBroadcast.class, b -> this.handled.add("example "+b.getSenderId()));
+    }
+  }
+
+  private final MessageBusImpl bus=MessageBusImpl.getInstance();
+  private final Recorder recorder=new Recorder("recorder");
+
+  @After
+  public void tearDown() {
+    this.bus.unregister(this.recorder);
+  }
+
+  // each message is handled by the callback of its exact class: a subclass of a subscribed type goes to the callback of
+  // its own type, not to that of its superclass
+  @Test
+  public void testExactClassDispatch() {
+    this.bus.register(this.recorder);
+    this.recorder.initialize();
+    this.recorder.handleAll(Arrays.<Message>asList(new Derived(), new Base(), new ExampleBroadcast("a"), new Derived()));
+    assertEquals(Arrays.asList("derived", "base", "example a", "derived"), this.recorder.handled);
+  }
+
+  // a message no callback was subscribed for is skipped, and the messages after it are still handled
+  @Test
+  public void testNoCallback() {
+    this.bus.register(this.recorder);
+    this.recorder.initialize();
+    this.recorder.handleAll(Arrays.<Message>asList(new Unsubscribed(), new ExampleBroadcast("a"), new ExampleRequest("x"),
+                                                   new ExampleBroadcast("b")));
+    assertEquals(Arrays.asList("example a", "example b"), this.recorder.handled);
+    assertFalse(this.recorder.isTerminated());
+  }
+
+  // the completion of a request is handed to the callback it was sent with, once; a completion of a request which was
+  // not sent by the micro-service (or whose callback was called already) is skipped
+  @Test
+  public void testCompletion() {
+    MicroService handler=new MicroService("completion handler"){
+      protected void initialize(){
+      }
+    };
+    ExampleRequest request=new ExampleRequest("recorder");
+    List<String> results=new ArrayList<String>();
+
+    this.bus.register(this.recorder);
+    this.bus.register(handler);
+    this.bus.subscribeRequest(ExampleRequest.class, handler);
+    assertTrue(this.recorder.sendRequest(request, result -> results.add(result)));
+    this.bus.complete(request, "done");
+    this.recorder.handleAll(this.bus.pollMessages(this.recorder, Integer.MAX_VALUE));
+    this.recorder.handleAll(Arrays.<Message>asList(new RequestCompleted<String>(request, "again"),
+                                                   new RequestCompleted<String>(new ExampleRequest("other"), "other")));
+    assertEquals(Arrays.asList("done"), results);
+    this.bus.unregister(handler);
+  }
+
+}
@@ -0,0 +1,104 @@
+package bgu.spl.mics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+import bgu.spl.mics.example.messages.ExampleBroadcast;
+import bgu.spl.mics.impl.MessageBusImpl;
+
+public class ServiceThreadsTest {
+
+  // @return true if @thread is a virtual thread (there are none before JDK 21)
+  private static boolean isVirtual(Thread thread){
+    try{
+      return (Boolean)Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+    catch (NoSuchMethodException e){
+      return false;
+    }
+    catch (ReflectiveOperationException e){
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+  * Waits for an ExampleBroadcast, and terminates once it handled it - noting the thread it handled it on
+  */
+  private static class Waiter extends MicroService {
+
+    private final CountDownLatch subscribed;
+    private volatile Thread handledOn;
+
+    Waiter(String name, CountDownLatch subscribed){
+      super(name);
+      this.subscribed=subscribed;
+    }
+
+    @Override
+    protected void initialize(){
+      subscribeBroadcast(ExampleBroadcast.class, b -> {
+        this.handledOn=Thread.currentThread();
+        terminate();
+      });
+      this.subscribed.countDown();
+    }
+  }
+
+  // starts a Waiter per thread of @factory, wakes them all with a broadcast, and waits for them to terminate
+  // @return the waiters, with the threads they ran on
+  private static List<Waiter> runWaiters(ThreadFactory factory, int count) throws InterruptedException {
+    CountDownLatch subscribed=new CountDownLatch(count);
+    List<Waiter> waiters=new ArrayList<Waiter>();
+    List<Thread> threads=new ArrayList<Thread>();
+
+    for (int i=0; i<count; ++i){
+      waiters.add(new Waiter("waiter "+i, subscribed));
+      threads.add(factory.newThread(waiters.get(i)));
+    }
+    for (Thread thread: threads)
+      thread.start();
+    subscribed.await();
+    MessageBusImpl.getInstance().sendBroadcast(new ExampleBroadcast("test"));
+    for (int i=0; i<count; ++i){
+      threads.get(i).join();
+      assertSame(threads.get(i), waiters.get(i).handledOn);
+    }
+    return waiters;
+  }
+
+  // a micro-service on a platform thread waits for its messages on that thread
+  @Test (timeout=10000)
+  public void testPlatform() throws InterruptedException {
+    for (Waiter waiter: runWaiters(ServiceThreads.platform(), 10))
+      assertFalse(isVirtual(waiter.handledOn));
+  }
+
+  // micro-services on virtual threads wait for their messages, and handle them, on their own numbered threads; a JDK
+  // which does not support virtual threads says so
+  @Test (timeout=20000)
+  public void testVirtual() throws InterruptedException {
+    List<Waiter> waiters;
+
+    if (!ServiceThreads.isVirtualSupported()){
+      try{
+        ServiceThreads.virtual("waiter-");
+        fail("virtual threads were created on "+System.getProperty("java.version"));
+      }
+      catch (UnsupportedOperationException e){ // as expected
+      }
+      return;
+    }
+    waiters=runWaiters(ServiceThreads.virtual("waiter-"), 2000); // far more than the carrier threads
+    for (Waiter waiter: waiters){
+      assertTrue(isVirtual(waiter.handledOn));
+      assertTrue(waiter.handledOn.getName().startsWith("waiter-"));
+    }
+  }
+
+}
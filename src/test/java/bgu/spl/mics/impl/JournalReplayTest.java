@@ -0,0 +1,71 @@
+package bgu.spl.mics.impl;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import bgu.spl.app.messages.AppMessageCodec;
+import bgu.spl.app.messages.PurchaseOrderRequest;
+import bgu.spl.mics.MicroService;
+
+public class JournalReplayTest {
+
+  private static MicroService idle(String name){
+    return new MicroService(name){
+      protected void initialize(){
+      }
+    };
+  }
+
+  // every replayed request is handed to the stand-in of the handler it was recorded as handed to, even though the
+  // dispatch strategy of its type would now pick another micro-service
+  @Test (timeout=10000)
+  public void testReplayToRecordedHandler() throws Exception {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService first=idle("replay first handler");
+    MicroService second=idle("replay second handler");
+    MicroService requester=idle("replay requester");
+    MicroService other=idle("replay other handler");
+    Path directory=Files.createTempDirectory("journal");
+    BusJournal journal=new BusJournal(directory, new AppMessageCodec(), 256*1024);
+    JournalReplay replay=new JournalReplay(directory);
+    int requests=10;
+    PurchaseOrderRequest order;
+
+    bus.register(first);
+    bus.register(second);
+    bus.register(requester);
+    bus.subscribeRequest(PurchaseOrderRequest.class, first);
+    bus.subscribeRequest(PurchaseOrderRequest.class, second);
+    bus.setJournal(journal);
+    for (int i=0; i<requests; ++i){
+      order=new PurchaseOrderRequest("client", "red-boots", false, i, 1);
+      assertTrue(bus.sendRequest(order, requester));
+      bus.complete(order, null);
+    }
+    bus.setJournal(null);
+    journal.close();
+    bus.unregister(first);
+    bus.unregister(second);
+    bus.unregister(requester);
+
+    bus.register(other); // the only subscriber of the type while replaying
+    bus.subscribeRequest(PurchaseOrderRequest.class, other);
+    try{
+      replay.replay(false);
+    }
+    finally{
+      bus.getMetrics().setEnabled(false);
+    }
+    assertEquals(requests, replay.getSent());
+    assertEquals(0, replay.getUndelivered());
+    assertEquals(requests, replay.getCompleted());
+    assertEquals(0, bus.getWaitingMessages(other));
+
+    bus.unregister(other);
+  }
+
+}
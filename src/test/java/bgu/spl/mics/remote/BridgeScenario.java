@@ -0,0 +1,124 @@
+package bgu.spl.mics.remote;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.RequestCompleted;
+import bgu.spl.mics.RequestTimeout;
+import bgu.spl.mics.impl.MessageBusImpl;
+import bgu.spl.mics.remote.TwinCodec.LeftNote;
+import bgu.spl.mics.remote.TwinCodec.LeftPing;
+import bgu.spl.mics.remote.TwinCodec.RightNote;
+import bgu.spl.mics.remote.TwinCodec.RightPing;
+
+/**
+* The exchange the tests of the bridges check, between a left bridge (which imports {@link LeftPing}s) and a right
+* bridge (which exports {@link RightPing}s), both sharing their notes (see {@link TwinCodec}):
+* <ol>
+* <li>a request sent on the left is handled on the right, and completed on the left with its result;</li>
+* <li>a broadcast sent on the left is received on the right (and not sent back);</li>
+* <li>a request handed to the right bridge, which its handler never completes, is completed with null on the left
+* once the right bridge is closed - or, if the transport does not tell the left bridge, times out.</li>
+* </ol>
+*/
+final class BridgeScenario {
+
+  /**
+  * Terminates the micro-services of the scenario
+  */
+  private static class Stop implements Broadcast {
+  }
+
+  private BridgeScenario(){
+  }
+
+  /**
+  * Runs the exchange, starting the bridges and closing them.
+  * @param left a bridge which imports {@link LeftPing} and shares {@link LeftNote}, not started
+  * @param right a bridge which exports {@link RightPing} and shares {@link RightNote}, not started
+  * @param closeCompletes true if the left bridge completes the requests it handed to the right bridge once that is
+  *        closed
+  * @throws InterruptedException if interrupted
+  */
+  static void run(AbstractBridge left, AbstractBridge right, boolean closeCompletes) throws InterruptedException {
+    MessageBusImpl bus=MessageBusImpl.getInstance();
+    MicroService requester=new MicroService("scenario requester"){
+      protected void initialize(){
+      }
+    };
+    CountDownLatch ready=new CountDownLatch(2);
+    CountDownLatch hanging=new CountDownLatch(1);
+    BlockingQueue<String> notes=new LinkedBlockingQueue<String>();
+    Thread handler=new Thread(new MicroService("scenario handler"){
+      protected void initialize(){
+        this.subscribeRequest(RightPing.class, ping -> {
+          if (ping.getText().equals("hang"))
+            hanging.countDown(); // never completed
+          else
+            this.complete(ping, "pong "+ping.getText());
+        });
+        this.subscribeBroadcast(Stop.class, stop -> terminate());
+        ready.countDown();
+      }
+    });
+    Thread listener=new Thread(new MicroService("scenario listener"){
+      protected void initialize(){
+        this.subscribeBroadcast(RightNote.class, note -> notes.add(note.getText()));
+        this.subscribeBroadcast(Stop.class, stop -> terminate());
+        ready.countDown();
+      }
+    });
+    Thread leftThread=new Thread(left, "left bridge");
+    Thread rightThread=new Thread(right, "right bridge");
+    RequestCompleted<?> completed;
+
+    bus.register(requester);
+    handler.start();
+    listener.start();
+    ready.await();
+    leftThread.start();
+    rightThread.start();
+    try{
+      // the left bridge completes the request with null until the right bridge subscribed
+      do {
+        while (!bus.sendRequest(new LeftPing("hello"), requester)) // the left bridge did not subscribe yet
+          TimeUnit.MILLISECONDS.sleep(10);
+        completed=(RequestCompleted<?>)bus.awaitMessage(requester);
+        if (completed.getResult()==null)
+          TimeUnit.MILLISECONDS.sleep(10);
+      } while (completed.getResult()==null);
+      assertEquals("pong hello", completed.getResult());
+      assertTrue(completed.getCompletedRequest() instanceof LeftPing);
+
+      bus.sendBroadcast(new LeftNote("note")); // the right bridge subscribed to it before it handled the request
+      assertEquals("note", notes.poll(5, TimeUnit.SECONDS));
+
+      assertTrue(bus.sendRequest(new LeftPing("hang"), requester, closeCompletes? null: RequestTimeout.after(200, TimeUnit.MILLISECONDS)));
+      assertTrue(hanging.await(5, TimeUnit.SECONDS));
+      right.close();
+      rightThread.join();
+      completed=(RequestCompleted<?>)bus.awaitMessage(requester);
+      assertTrue(completed.getCompletedRequest() instanceof LeftPing);
+      assertNull(completed.getResult());
+      assertEquals(!closeCompletes, completed.isTimedOut());
+      assertTrue(notes.isEmpty()); // the note was received once
+    }
+    finally{
+      right.close();
+      left.close();
+      leftThread.join();
+      rightThread.join();
+      bus.sendBroadcast(new Stop());
+      handler.join();
+      listener.join();
+      bus.unregister(requester);
+    }
+  }
+
+}
@@ -0,0 +1,180 @@
+package bgu.spl.mics.remote;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedRingTest {
+
+  private static final int CAPACITY = 3*Frames.MAX_FRAME;
+
+  private Path directory;
+  private Path path;
+
+  // a frame of @size bytes whose id is @id, followed by bytes of @id
+  private static ByteBuffer frame(long id, int size){
+    ByteBuffer frame=ByteBuffer.allocate(size);
+
+    frame.putInt(size-4).put(Frames.BROADCAST).putShort((short)0).putLong(id);
+    while (frame.hasRemaining())
+      frame.put((byte)id);
+    frame.flip();
+    return frame;
+  }
+
+  // reads the record at the head of @ring (which must be published), checks that it is the frame(@id, @size) of
+  // @sender, and consumes it
+  private static void read(MappedRing ring, int sender, long id, int size){
+    ByteBuffer in=ring.buffer();
+    int start=ring.next();
+
+    assertTrue("no record at the head", start>=0);
+    assertEquals(sender, ring.sender());
+    in.position(start);
+    assertEquals(size, Frames.available(in));
+    assertEquals(id, in.getLong(start+Frames.ID));
+    for (int i=Frames.PAYLOAD; i<size; i++)
+      assertEquals((byte)id, in.get(start+i));
+    ring.consume();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue(MappedRing.isSupported());
+    this.directory=Files.createTempDirectory("rings");
+    this.path=this.directory.resolve("ring-1");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.directory!=null){
+      for (Path file: Files.list(this.directory).collect(Collectors.toList()))
+        Files.delete(file);
+      Files.delete(this.directory);
+    }
+  }
+
+  // records of all sizes are read back in order over several laps, the ends of the ring they don't fit being padded
+  @Test
+  public void testWrapAround() throws IOException {
+    MappedRing reader=MappedRing.create(this.path, CAPACITY);
+    MappedRing writer=MappedRing.open(this.path);
+    int size;
+
+    for (int id=1; id<=2000; id++){
+      size=id%10==0? Frames.MAX_FRAME-id: Frames.PAYLOAD+id%300;
+      assertTrue(writer.write(7, frame(id, size), () -> true));
+      read(reader, 7, id, size);
+    }
+    assertEquals(-1, reader.next());
+  }
+
+  // a writer of a full ring gives up if told to, and writes once the reader consumed a record
+  @Test
+  public void testFull() throws IOException {
+    MappedRing reader=MappedRing.create(this.path, CAPACITY);
+    MappedRing writer=MappedRing.open(this.path);
+    int size=Frames.MAX_FRAME/4-MappedRing.BLOCK;
+    int written=0;
+
+    while (writer.write(1, frame(written, size), () -> true))
+      written++;
+    assertEquals(CAPACITY/(size+MappedRing.BLOCK), written);
+    read(reader, 1, 0, size);
+    assertTrue(writer.write(1, frame(written, size), () -> true));
+    assertFalse(writer.write(1, frame(written+1, size), () -> true));
+    for (int id=1; id<=written; id++)
+      read(reader, 1, id, size);
+    assertEquals(-1, reader.next());
+  }
+
+  // the records of concurrent writers, each mapping the ring of its own, are all read in the order each wrote them
+  @Test (timeout=20000)
+  public void testWriters() throws Exception {
+    int writers=4;
+    int records=20000;
+    MappedRing reader=MappedRing.create(this.path, CAPACITY);
+    List<Thread> threads=new ArrayList<Thread>();
+    long[] last=new long[writers];
+    ByteBuffer in=reader.buffer();
+    int start;
+
+    for (int w=0; w<writers; w++){
+      final int sender=w;
+      final MappedRing writer=MappedRing.open(this.path);
+
+      threads.add(new Thread(() -> {
+        for (int id=1; id<=records; id++)
+          assertTrue(writer.write(sender, frame(id, Frames.PAYLOAD+(id*31+sender)%500), () -> false));
+      }));
+    }
+    for (Thread thread: threads)
+      thread.start();
+    for (int read=0; read<writers*records; read++){
+      while ((start=reader.next())<0)
+        Thread.yield();
+      in.position(start);
+      assertEquals(last[reader.sender()]+1, in.getLong(start+Frames.ID));
+      last[reader.sender()]++;
+      reader.consume();
+    }
+    for (Thread thread: threads)
+      thread.join();
+    for (int w=0; w<writers; w++)
+      assertEquals(records, last[w]);
+    assertEquals(-1, reader.next());
+  }
+
+  // a record which stays claimed is skipped after the stuck time, and its writer then fails to publish it; the records
+  // claimed after it are read
+  @Test (timeout=20000)
+  public void testStuck() throws Exception {
+    long stuckNanos=TimeUnit.MILLISECONDS.toNanos(100);
+    MappedRing reader=MappedRing.create(this.path, CAPACITY, stuckNanos);
+    MappedRing writer=MappedRing.open(this.path);
+    ByteBuffer stuck=frame(1, 100);
+    long position=writer.claim(stuck.remaining(), () -> true);
+    long start=System.nanoTime();
+
+    assertTrue(position>=0);
+    assertTrue(writer.write(2, frame(2, 200), () -> true));
+    while (reader.next()<0)
+      Thread.yield();
+    assertTrue(System.nanoTime()-start>=stuckNanos);
+    assertFalse(writer.publish(position, 1, stuck));
+    read(reader, 2, 2, 200);
+    assertEquals(-1, reader.next());
+  }
+
+  // a record claimed and then published is read, however long it stayed claimed, and an empty ring is never skipped
+  @Test
+  public void testSlowWriter() throws Exception {
+    MappedRing reader=MappedRing.create(this.path, CAPACITY, TimeUnit.SECONDS.toNanos(60));
+    MappedRing writer=MappedRing.open(this.path);
+    ByteBuffer slow=frame(1, 100);
+    long position;
+
+    for (int i=0; i<10000; i++)
+      assertEquals(-1, reader.next());
+    position=writer.claim(slow.remaining(), () -> true);
+    assertTrue(writer.write(2, frame(2, 200), () -> true));
+    for (int i=0; i<10000; i++)
+      assertEquals(-1, reader.next());
+    assertTrue(writer.publish(position, 1, slow));
+    read(reader, 1, 1, 100);
+    read(reader, 2, 2, 200);
+  }
+
+}
@@ -0,0 +1,68 @@
+package bgu.spl.mics.remote;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RemoteBridgeTest {
+
+  // a frame is read back whole, and a value too large for a frame leaves the buffer as it was
+  @Test
+  public void testFrames() {
+    TwinCodec codec=TwinCodec.left();
+    ByteBuffer out=ByteBuffer.allocate(3*Frames.MAX_FRAME);
+    ByteBuffer in;
+    char[] large=new char[Frames.MAX_FRAME];
+    int length;
+
+    Frames.write(out, Frames.REQUEST, codec.tagOf(TwinCodec.LeftPing.class), 42, codec, new TwinCodec.LeftPing("hello"));
+    Frames.write(out, Frames.COMPLETE, codec.tagOf(TwinCodec.LeftPing.class), 42, null, null);
+    Arrays.fill(large, 'x');
+    try{
+      Frames.write(out, Frames.COMPLETE, codec.tagOf(String.class), 43, codec, new String(large));
+      fail("a frame larger than MAX_FRAME was written");
+    }
+    catch (IllegalArgumentException e){ // as expected
+    }
+
+    in=(ByteBuffer)out.flip();
+    in.limit(in.limit()-1);
+    length=Frames.available(in);
+    assertTrue(length>Frames.PAYLOAD);
+    assertEquals(Frames.REQUEST, in.get(Frames.KIND));
+    assertEquals(42, in.getLong(Frames.ID));
+    in.position(Frames.PAYLOAD);
+    assertEquals("hello", ((TwinCodec.LeftPing)codec.decode(in)).getText());
+    assertEquals(length, in.position());
+    assertEquals(0, Frames.available(in)); // the second frame lacks its last byte
+    in.limit(in.limit()+1);
+    assertEquals(Frames.PAYLOAD, Frames.available(in));
+    assertEquals(Frames.COMPLETE, in.get(length+Frames.KIND));
+  }
+
+  // two bridges exchange a request, its completion and a broadcast through a broker, and a request handed to a bridge
+  // which disconnects is completed with null
+  @Test (timeout=20000)
+  public void testBrokerLoopback() throws Exception {
+    MessageBroker broker=new MessageBroker(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    Thread brokerThread=new Thread(broker, "broker");
+    InetSocketAddress address=new InetSocketAddress(InetAddress.getLoopbackAddress(), broker.getPort());
+
+    brokerThread.start();
+    try{
+      BridgeScenario.run(new RemoteBridge("left", address, TwinCodec.left()).importRequests(TwinCodec.LeftPing.class).shareBroadcasts(TwinCodec.LeftNote.class),
+                         new RemoteBridge("right", address, TwinCodec.right()).exportRequests(TwinCodec.RightPing.class).shareBroadcasts(TwinCodec.RightNote.class),
+                         true);
+    }
+    finally{
+      broker.close();
+      brokerThread.join();
+    }
+  }
+
+}
@@ -0,0 +1,32 @@
+package bgu.spl.mics.remote;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class SharedMemoryBridgeTest {
+
+  // two bridges in a temporary directory exchange a request, its completion and a broadcast, and a request handed to a
+  // bridge which is closed times out, as nothing tells its peer
+  @Test (timeout=20000)
+  public void testLoopback() throws Exception {
+    Path directory;
+
+    assumeTrue(MappedRing.isSupported());
+    directory=Files.createTempDirectory("rings");
+    try{
+      BridgeScenario.run(new SharedMemoryBridge("left", directory, 1, TwinCodec.left()).addPeer(2).importRequests(TwinCodec.LeftPing.class).shareBroadcasts(TwinCodec.LeftNote.class),
+                         new SharedMemoryBridge("right", directory, 2, TwinCodec.right()).addPeer(1).exportRequests(TwinCodec.RightPing.class).shareBroadcasts(TwinCodec.RightNote.class),
+                         false);
+    }
+    finally{
+      Files.deleteIfExists(directory.resolve("ring-1"));
+      Files.deleteIfExists(directory.resolve("ring-2"));
+      Files.delete(directory);
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+package bgu.spl.mics.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import bgu.spl.mics.AbstractRequest;
+import bgu.spl.mics.Broadcast;
+
+/**
+* A codec for the tests of the bridges, which run the bridges of both "processes" in a single process, so on a single
+* message-bus. The two ends encode the same tags as different types ({@link #left()} and {@link #right()}): a request
+* the left bridge imports is sent on the bus as another type by the right bridge, so only the micro-service behind the
+* right bridge handles it - and likewise for the broadcasts.
+*/
+class TwinCodec implements MessageCodec {
+
+  /**
+  * A request whose result is a string
+  */
+  static class Ping extends AbstractRequest<String> {
+
+    private final String fText;
+
+    Ping(String text){
+      this.fText=text;
+    }
+
+    String getText(){
+      return this.fText;
+    }
+  }
+
+  static class LeftPing extends Ping {
+
+    LeftPing(String text){
+      super(text);
+    }
+  }
+
+  static class RightPing extends Ping {
+
+    RightPing(String text){
+      super(text);
+    }
+  }
+
+  /**
+  * A broadcast of a string
+  */
+  static class Note implements Broadcast {
+
+    private final String fText;
+
+    Note(String text){
+      this.fText=text;
+    }
+
+    String getText(){
+      return this.fText;
+    }
+  }
+
+  static class LeftNote extends Note {
+
+    LeftNote(String text){
+      super(text);
+    }
+  }
+
+  static class RightNote extends Note {
+
+    RightNote(String text){
+      super(text);
+    }
+  }
+
+  private static final byte NULL = 0;
+  private static final byte TEXT = 1;
+  private static final byte PING = 2;
+  private static final byte NOTE = 3;
+
+  private final Class<? extends Ping> fPing;
+  private final Function<String,Ping> fNewPing;
+  private final Class<? extends Note> fNote;
+  private final Function<String,Note> fNewNote;
+
+
+  private TwinCodec(Class<? extends Ping> ping, Function<String,Ping> newPing, Class<? extends Note> note, Function<String,Note> newNote){
+    this.fPing=ping;
+    this.fNewPing=newPing;
+    this.fNote=note;
+    this.fNewNote=newNote;
+  }
+
+  /**
+  * @return the codec of {@link LeftPing} and {@link LeftNote}
+  */
+  static TwinCodec left(){
+    return new TwinCodec(LeftPing.class, LeftPing::new, LeftNote.class, LeftNote::new);
+  }
+
+  /**
+  * @return the codec of {@link RightPing} and {@link RightNote}
+  */
+  static TwinCodec right(){
+    return new TwinCodec(RightPing.class, RightPing::new, RightNote.class, RightNote::new);
+  }
+
+  @Override
+  public short tagOf(Class<?> type){
+    if (type==String.class)
+      return TEXT;
+    if (type==this.fPing)
+      return PING;
+    if (type==this.fNote)
+      return NOTE;
+    return -1;
+  }
+
+  @Override
+  public void encode(Object value, ByteBuffer out){
+    if (value==null)
+      out.put(NULL);
+    else if (value instanceof String)
+      putString(out.put(TEXT), (String)value);
+    else if (value.getClass()==this.fPing)
+      putString(out.put(PING), ((Ping)value).getText());
+    else if (value.getClass()==this.fNote)
+      putString(out.put(NOTE), ((Note)value).getText());
+    else
+      throw new IllegalArgumentException("no encoding of "+value.getClass().getName());
+  }
+
+  @Override
+  public Object decode(ByteBuffer in){
+    byte tag=in.get();
+
+    switch (tag){
+    case NULL:
+      return null;
+    case TEXT:
+      return getString(in);
+    case PING:
+      return this.fNewPing.apply(getString(in));
+    case NOTE:
+      return this.fNewNote.apply(getString(in));
+    default:
+      throw new IllegalArgumentException("unknown tag "+tag);
+    }
+  }
+
+  private static void putString(ByteBuffer out, String value){
+    byte[] bytes=value.getBytes(StandardCharsets.UTF_8);
+
+    out.putInt(bytes.length).put(bytes);
+  }
+
+  private static String getString(ByteBuffer in){
+    byte[] bytes=new byte[in.getInt()];
+
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}